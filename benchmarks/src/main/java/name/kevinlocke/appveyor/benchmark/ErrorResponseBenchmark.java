@@ -0,0 +1,79 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.squareup.okhttp.MediaType;
+
+import name.kevinlocke.appveyor.ApiClient;
+import name.kevinlocke.appveyor.ApiException;
+import name.kevinlocke.appveyor.EnhancedApiClient;
+import name.kevinlocke.appveyor.model.Build;
+
+/**
+ * Benchmarks for handling unsuccessful responses in
+ * {@link EnhancedApiClient#handleResponse(com.squareup.okhttp.Response, java.lang.reflect.Type)},
+ * which parses the {@code Error} model from the body.
+ *
+ * Run with {@code -prof gc} to measure the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ErrorResponseBenchmark {
+	/**
+	 * Kind of error body: {@code json} for an {@code Error} model as returned
+	 * by the API, {@code html} for an error page from an intermediary.
+	 */
+	@Param({ "json", "html" })
+	public String bodyKind;
+
+	private ApiClient apiClient;
+	private MediaType contentType;
+	private byte[] body;
+
+	@Setup
+	public void setup() {
+		apiClient = new EnhancedApiClient();
+		String bodyString;
+		if ("json".equals(bodyKind)) {
+			contentType = Responses.JSON_TYPE;
+			bodyString = Payloads.error("The operation has timed out.");
+		} else if ("html".equals(bodyKind)) {
+			contentType = Responses.HTML_TYPE;
+			bodyString = Payloads.htmlError(64 * 1024);
+		} else {
+			throw new IllegalArgumentException(
+					"Unrecognized bodyKind " + bodyKind);
+		}
+		body = bodyString.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public ApiException handleErrorResponse() {
+		try {
+			apiClient.handleResponse(
+					Responses.create(500, "Internal Server Error",
+							contentType, body),
+					Build.class);
+		} catch (ApiException e) {
+			return e;
+		}
+		throw new AssertionError("handleResponse did not throw");
+	}
+}
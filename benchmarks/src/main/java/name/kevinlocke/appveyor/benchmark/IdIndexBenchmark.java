@@ -0,0 +1,189 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import name.kevinlocke.appveyor.IntIndex;
+import name.kevinlocke.appveyor.StringIndex;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+
+/**
+ * Benchmarks for {@link IntIndex} and {@link StringIndex} compared to
+ * {@link HashMap} with boxed keys.
+ *
+ * Run with {@code -prof gc}.  The normalized allocation
+ * ({@code gc.alloc.rate.norm}) of the {@code build*} benchmarks is the heap
+ * used by an index of {@code size} entries, plus tables discarded while it
+ * grew.  The {@code get*} and {@code forEach*} benchmarks should not
+ * allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IdIndexBenchmark {
+	/** Number of lookups per {@code get*} invocation. */
+	private static final int LOOKUP_COUNT = 1024;
+
+	@Param({ "1000", "100000" })
+	public int size;
+
+	private Build[] builds;
+	private BuildJob[] jobs;
+	private int[] buildIds;
+	private Integer[] boxedBuildIds;
+	private String[] jobIds;
+
+	private IntIndex<Build> buildIndex;
+	private HashMap<Integer, Build> buildMap;
+	private StringIndex<BuildJob> jobIndex;
+	private HashMap<String, BuildJob> jobMap;
+
+	private long buildIdSum;
+	private final IntIndex.EntryConsumer<Build> buildIdSummer =
+			(buildId, build) -> buildIdSum += buildId;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(size);
+		builds = new Build[size];
+		jobs = new BuildJob[size];
+		// Note: Build IDs increase with gaps, as in project history
+		int buildId = 1_000_000;
+		for (int i = 0; i < size; ++i) {
+			buildId += 1 + random.nextInt(16);
+			builds[i] = new Build().buildId(buildId);
+			jobs[i] = new BuildJob()
+					.jobId(Long.toString(random.nextLong() >>> 1, 36));
+		}
+
+		buildIds = new int[LOOKUP_COUNT];
+		boxedBuildIds = new Integer[LOOKUP_COUNT];
+		jobIds = new String[LOOKUP_COUNT];
+		for (int i = 0; i < LOOKUP_COUNT; ++i) {
+			int index = random.nextInt(size);
+			buildIds[i] = builds[index].getBuildId();
+			boxedBuildIds[i] = Integer.valueOf(buildIds[i]);
+			// Note: Copy, so lookups compare characters as for parsed IDs
+			jobIds[i] = new String(jobs[index].getJobId());
+		}
+
+		buildIndex = buildIntIndex();
+		buildMap = buildHashMap();
+		jobIndex = buildStringIndex();
+		jobMap = buildStringHashMap();
+	}
+
+	@Benchmark
+	public IntIndex<Build> buildIntIndex() {
+		IntIndex<Build> index = new IntIndex<>();
+		for (Build build : builds) {
+			index.put(build.getBuildId(), build);
+		}
+		return index;
+	}
+
+	@Benchmark
+	public HashMap<Integer, Build> buildHashMap() {
+		HashMap<Integer, Build> map = new HashMap<>();
+		for (Build build : builds) {
+			map.put(build.getBuildId(), build);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public StringIndex<BuildJob> buildStringIndex() {
+		StringIndex<BuildJob> index = new StringIndex<>();
+		for (BuildJob job : jobs) {
+			index.put(job.getJobId(), job);
+		}
+		return index;
+	}
+
+	@Benchmark
+	public HashMap<String, BuildJob> buildStringHashMap() {
+		HashMap<String, BuildJob> map = new HashMap<>();
+		for (BuildJob job : jobs) {
+			map.put(job.getJobId(), job);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public int getIntIndex() {
+		int found = 0;
+		for (int buildId : buildIds) {
+			if (buildIndex.get(buildId) != null) {
+				++found;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int getHashMap() {
+		int found = 0;
+		for (Integer buildId : boxedBuildIds) {
+			if (buildMap.get(buildId) != null) {
+				++found;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int getStringIndex() {
+		int found = 0;
+		for (String jobId : jobIds) {
+			if (jobIndex.get(jobId) != null) {
+				++found;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int getStringHashMap() {
+		int found = 0;
+		for (String jobId : jobIds) {
+			if (jobMap.get(jobId) != null) {
+				++found;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public long forEachIntIndex() {
+		buildIdSum = 0;
+		buildIndex.forEach(buildIdSummer);
+		return buildIdSum;
+	}
+
+	@Benchmark
+	public long forEachHashMap() {
+		long sum = 0;
+		for (Map.Entry<Integer, Build> entry : buildMap.entrySet()) {
+			sum += entry.getKey();
+		}
+		return sum;
+	}
+}
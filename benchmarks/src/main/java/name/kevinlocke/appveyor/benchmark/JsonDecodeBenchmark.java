@@ -0,0 +1,186 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import name.kevinlocke.appveyor.ApiClient;
+import name.kevinlocke.appveyor.ApiException;
+import name.kevinlocke.appveyor.EnhancedApiClient;
+import name.kevinlocke.appveyor.JSON;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.ProjectDeploymentsResults;
+import name.kevinlocke.appveyor.model.ProjectHistory;
+import name.kevinlocke.appveyor.model.ProjectWithConfiguration;
+
+/**
+ * Benchmarks for decoding successful JSON responses.
+ *
+ * Each payload is decoded both from a {@code String} by
+ * {@link JSON#deserialize(String, java.lang.reflect.Type)} and from a
+ * {@link com.squareup.okhttp.Response} by
+ * {@link ApiClient#handleResponse(com.squareup.okhttp.Response, java.lang.reflect.Type)},
+ * which includes reading and decoding the body as done for API calls.
+ * Response handling is measured for both the generated {@link ApiClient},
+ * which reads the body into a {@code String} before decoding, and
+ * {@link EnhancedApiClient}, which decodes the body as it is read.
+ *
+ * Run with {@code -prof gc} to measure the allocation rate.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JsonDecodeBenchmark {
+	@State(Scope.Benchmark)
+	public static class ClientState {
+		/** Class of ApiClient to use for handling responses. */
+		@Param({ "EnhancedApiClient", "ApiClient" })
+		public String clientClass;
+
+		public ApiClient apiClient;
+		public JSON json;
+
+		@Setup
+		public void setup() {
+			if ("EnhancedApiClient".equals(clientClass)) {
+				apiClient = new EnhancedApiClient();
+			} else if ("ApiClient".equals(clientClass)) {
+				apiClient = new ApiClient();
+			} else {
+				throw new IllegalArgumentException(
+						"Unrecognized clientClass " + clientClass);
+			}
+			json = apiClient.getJSON();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class BuildState {
+		@Param({ "1", "16", "256" })
+		public int jobCount;
+
+		public String body;
+		public byte[] bodyBytes;
+
+		@Setup
+		public void setup() {
+			body = Payloads.build(jobCount);
+			bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ProjectWithConfigurationState {
+		@Param({ "4", "64" })
+		public int variableCount;
+
+		public String body;
+		public byte[] bodyBytes;
+
+		@Setup
+		public void setup() {
+			body = Payloads.projectWithConfiguration(variableCount);
+			bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ProjectHistoryState {
+		@Param({ "10", "100", "1000" })
+		public int buildCount;
+
+		public String body;
+		public byte[] bodyBytes;
+
+		@Setup
+		public void setup() {
+			body = Payloads.projectHistory(buildCount);
+			bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ProjectDeploymentsResultsState {
+		@Param({ "10", "100" })
+		public int deploymentCount;
+
+		public String body;
+		public byte[] bodyBytes;
+
+		@Setup
+		public void setup() {
+			body = Payloads.projectDeploymentsResults(deploymentCount);
+			bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	@Benchmark
+	public Build deserializeBuild(ClientState client, BuildState payload) {
+		return client.json.deserialize(payload.body, Build.class);
+	}
+
+	@Benchmark
+	public Build handleBuildResponse(ClientState client, BuildState payload)
+			throws ApiException {
+		return client.apiClient.handleResponse(
+				Responses.ok(payload.bodyBytes), Build.class);
+	}
+
+	@Benchmark
+	public ProjectWithConfiguration deserializeProjectWithConfiguration(
+			ClientState client, ProjectWithConfigurationState payload) {
+		return client.json.deserialize(payload.body,
+				ProjectWithConfiguration.class);
+	}
+
+	@Benchmark
+	public ProjectWithConfiguration handleProjectWithConfigurationResponse(
+			ClientState client, ProjectWithConfigurationState payload)
+			throws ApiException {
+		return client.apiClient.handleResponse(
+				Responses.ok(payload.bodyBytes),
+				ProjectWithConfiguration.class);
+	}
+
+	@Benchmark
+	public ProjectHistory deserializeProjectHistory(ClientState client,
+			ProjectHistoryState payload) {
+		return client.json.deserialize(payload.body, ProjectHistory.class);
+	}
+
+	@Benchmark
+	public ProjectHistory handleProjectHistoryResponse(ClientState client,
+			ProjectHistoryState payload) throws ApiException {
+		return client.apiClient.handleResponse(
+				Responses.ok(payload.bodyBytes), ProjectHistory.class);
+	}
+
+	@Benchmark
+	public ProjectDeploymentsResults deserializeProjectDeploymentsResults(
+			ClientState client, ProjectDeploymentsResultsState payload) {
+		return client.json.deserialize(payload.body,
+				ProjectDeploymentsResults.class);
+	}
+
+	@Benchmark
+	public ProjectDeploymentsResults handleProjectDeploymentsResultsResponse(
+			ClientState client, ProjectDeploymentsResultsState payload)
+			throws ApiException {
+		return client.apiClient.handleResponse(
+				Responses.ok(payload.bodyBytes),
+				ProjectDeploymentsResults.class);
+	}
+}
@@ -0,0 +1,128 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import name.kevinlocke.appveyor.EnhancedApiClient;
+import name.kevinlocke.appveyor.LazyListTypeAdapterFactory;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+
+/**
+ * Benchmarks for decoding a {@code Build} with
+ * {@link LazyListTypeAdapterFactory}, for callers which only use the
+ * {@code status} of the build.
+ *
+ * The {@code decoder} is {@code eager} for the default {@link Gson},
+ * {@code lazy} for {@link LazyListTypeAdapterFactory}, which copies the
+ * tokens of the jobs array as bytes, or {@code tree} for a factory which
+ * retains the jobs array by parsing it into a {@link JsonElement} tree and
+ * encoding the tree as bytes.
+ *
+ * Run with {@code -prof gc}.  The normalized allocation
+ * ({@code gc.alloc.rate.norm}) of {@code lazy} is less than {@code tree},
+ * which allocates the tree and a {@code String} of the array, and less than
+ * {@code eager}, which allocates the jobs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class LazyDecodingBenchmark {
+	/**
+	 * Factory which retains {@code List<BuildJob>} as bytes of a tree.
+	 */
+	private static final class TreeListTypeAdapterFactory
+			implements TypeAdapterFactory {
+		private static final TypeToken<List<BuildJob>> JOBS_TYPE =
+				new TypeToken<List<BuildJob>>() {};
+
+		/** Bytes of the last list read, so they are not optimized away. */
+		byte[] json;
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+			if (!JOBS_TYPE.equals(type)) {
+				return null;
+			}
+			TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+			return (TypeAdapter<T>) new TypeAdapter<List<BuildJob>>() {
+				@Override
+				public void write(JsonWriter out, List<BuildJob> value)
+						throws IOException {
+					((TypeAdapter<List<BuildJob>>) delegate).write(out, value);
+				}
+
+				@Override
+				public List<BuildJob> read(JsonReader in) throws IOException {
+					JsonElement tree = TypeAdapters.JSON_ELEMENT.read(in);
+					json = tree.toString().getBytes(StandardCharsets.UTF_8);
+					return null;
+				}
+			};
+		}
+	}
+
+	@Param({ "16", "256" })
+	public int jobCount;
+
+	@Param({ "eager", "lazy", "tree" })
+	public String decoder;
+
+	private String body;
+	private Gson gson;
+
+	@Setup
+	public void setup() {
+		body = Payloads.build(jobCount);
+		Gson defaultGson = new EnhancedApiClient().getJSON().getGson();
+		if ("eager".equals(decoder)) {
+			gson = defaultGson;
+		} else if ("lazy".equals(decoder)) {
+			gson = defaultGson.newBuilder()
+					.registerTypeAdapterFactory(
+							new LazyListTypeAdapterFactory())
+					.create();
+		} else if ("tree".equals(decoder)) {
+			gson = defaultGson.newBuilder()
+					.registerTypeAdapterFactory(
+							new TreeListTypeAdapterFactory())
+					.create();
+		} else {
+			throw new IllegalArgumentException(
+					"Unrecognized decoder " + decoder);
+		}
+	}
+
+	@Benchmark
+	public Object decodeBuildStatus() {
+		Build build = gson.fromJson(body, Build.class);
+		return build.getStatus();
+	}
+}
@@ -0,0 +1,292 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Synthetic AppVeyor API response bodies for benchmarking.
+ *
+ * The bodies mimic the shape of responses returned by the AppVeyor API
+ * (including the 7-digit fractional seconds used in date-time values) so that
+ * they exercise the same type adapters as real responses. The number of
+ * nested items is configurable to model large projects and build matrices.
+ */
+public final class Payloads {
+	private static final String ACCOUNT_NAME = "benchmark-account";
+	private static final String DATE_TIME = "2018-11-01T12:34:56.1234567+00:00";
+	private static final String[] STATUSES = {
+			"success", "failed", "cancelled", "success", "running", "queued"
+	};
+
+	private static void writeJob(JsonWriter writer, int buildId, int jobNum)
+			throws IOException {
+		writer.beginObject()
+				.name("jobId").value(Integer.toString(buildId, 36) + "x"
+						+ Integer.toString(jobNum, 36) + "abcdefghij")
+				.name("name").value("Environment: TOOLCHAIN=msvc" + jobNum
+						+ ", PLATFORM=x64, CONFIGURATION=Release")
+				.name("osType").value("Windows")
+				.name("allowFailure").value(jobNum % 5 == 4)
+				.name("messagesCount").value(jobNum % 7)
+				.name("compilationMessagesCount").value(jobNum % 3)
+				.name("compilationErrorsCount").value(0)
+				.name("compilationWarningsCount").value(jobNum % 3)
+				.name("testsCount").value(1200 + jobNum)
+				.name("passedTestsCount").value(1198 + jobNum)
+				.name("failedTestsCount").value(2)
+				.name("artifactsCount").value(3)
+				.name("status").value(STATUSES[jobNum % STATUSES.length])
+				.name("started").value(DATE_TIME)
+				.name("finished").value(DATE_TIME)
+				.name("created").value(DATE_TIME)
+				.name("updated").value(DATE_TIME)
+				.endObject();
+	}
+
+	private static void writeBuild(JsonWriter writer, int buildId,
+			int jobCount) throws IOException {
+		writer.beginObject()
+				.name("buildId").value(buildId)
+				.name("jobs").beginArray();
+		for (int i = 0; i < jobCount; ++i) {
+			writeJob(writer, buildId, i);
+		}
+		writer.endArray()
+				.name("buildNumber").value(buildId % 10000)
+				.name("version").value("1.0." + buildId % 10000)
+				.name("message").value("Merge pull request #" + buildId
+						+ " from contributor/feature-branch")
+				.name("messageExtended").value("Fix handling of empty"
+						+ " responses when the server returns 204.\n\n"
+						+ "Adds a regression test.")
+				.name("branch").value("master")
+				.name("isTag").value(false)
+				.name("commitId").value("0123456789abcdef0123456789abcdef"
+						+ Integer.toHexString(buildId))
+				.name("authorName").value("Jane Developer")
+				.name("authorUsername").value("jdeveloper")
+				.name("committerName").value("GitHub")
+				.name("committerUsername").value("web-flow")
+				.name("committed").value(DATE_TIME)
+				.name("messages").beginArray().endArray()
+				.name("status").value(STATUSES[buildId % STATUSES.length])
+				.name("started").value(DATE_TIME)
+				.name("finished").value(DATE_TIME)
+				.name("created").value(DATE_TIME)
+				.name("updated").value(DATE_TIME)
+				.endObject();
+	}
+
+	private static void writeProjectProperties(JsonWriter writer)
+			throws IOException {
+		writer.name("projectId").value(123456)
+				.name("accountId").value(54321)
+				.name("accountName").value(ACCOUNT_NAME)
+				.name("builds").beginArray().endArray()
+				.name("name").value("benchmark-project")
+				.name("slug").value("benchmark-project")
+				.name("repositoryType").value("gitHub")
+				.name("repositoryScm").value("git")
+				.name("repositoryName").value(ACCOUNT_NAME
+						+ "/benchmark-project")
+				.name("repositoryBranch").value("master")
+				.name("isPrivate").value(false)
+				.name("skipBranchesWithoutAppveyorYml").value(false)
+				.name("enableSecureVariablesInPullRequests").value(false)
+				.name("enableSecureVariablesInPullRequestsFromSameRepo")
+				.value(false)
+				.name("enableDeploymentInPullRequests").value(false)
+				.name("rollingBuilds").value(false)
+				.name("alwaysBuildClosedPullRequests").value(false)
+				.name("tags").value("")
+				.name("created").value(DATE_TIME)
+				.name("updated").value(DATE_TIME);
+	}
+
+	private static void writeProject(JsonWriter writer) throws IOException {
+		writer.beginObject();
+		writeProjectProperties(writer);
+		writer.endObject();
+	}
+
+	private static void writeScripts(JsonWriter writer, String name,
+			int count) throws IOException {
+		writer.name(name).beginArray();
+		for (int i = 0; i < count; ++i) {
+			writer.beginObject()
+					.name("language").value("ps")
+					.name("script").value("Write-Output \"Step " + i
+							+ "\"\r\n& .\\build.ps1 -Target Step" + i)
+					.endObject();
+		}
+		writer.endArray();
+	}
+
+	private static void writeEnvironment(JsonWriter writer, int environmentId)
+			throws IOException {
+		writer.beginObject()
+				.name("deploymentEnvironmentId").value(environmentId)
+				.name("name").value("Environment " + environmentId)
+				.name("provider").value("Webhook")
+				.name("created").value(DATE_TIME)
+				.name("updated").value(DATE_TIME)
+				.endObject();
+	}
+
+	/**
+	 * Gets the body of a {@code Build} response.
+	 *
+	 * @param jobCount Number of jobs in the build matrix.
+	 * @return JSON representation of a {@code Build}.
+	 */
+	public static String build(int jobCount) {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(stringWriter)) {
+			writeBuild(writer, 20181101, jobCount);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return stringWriter.toString();
+	}
+
+	/**
+	 * Gets the body of a {@code ProjectWithConfiguration} response.
+	 *
+	 * @param variableCount Number of environment variables configured.
+	 * @return JSON representation of a {@code ProjectWithConfiguration}.
+	 */
+	public static String projectWithConfiguration(int variableCount) {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(stringWriter)) {
+			writer.beginObject();
+			writeProjectProperties(writer);
+			writer.name("statusBadgeId").value("abcdefghijklmnop")
+					.name("webhookId").value("qrstuvwxyz012345")
+					.name("configuration").beginObject()
+					.name("initScripts").beginArray().endArray()
+					.name("cloneScripts").beginArray().endArray()
+					.name("onBuildSuccessScripts").beginArray().endArray()
+					.name("onBuildErrorScripts").beginArray().endArray()
+					.name("onBuildFinishScripts").beginArray().endArray()
+					.name("buildMode").value("Script")
+					.name("testMode").value("Script");
+			writeScripts(writer, "installScripts", 4);
+			writeScripts(writer, "buildScripts", 2);
+			writeScripts(writer, "testScripts", 2);
+			writer.name("environmentVariables").beginArray();
+			for (int i = 0; i < variableCount; ++i) {
+				writer.beginObject()
+						.name("name").value("VARIABLE_" + i)
+						.name("value").beginObject()
+						.name("isEncrypted").value(i % 4 == 0)
+						.name("value").value("value-" + i)
+						.endObject()
+						.endObject();
+			}
+			writer.endArray()
+					.endObject()
+					.endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return stringWriter.toString();
+	}
+
+	/**
+	 * Gets the body of a {@code ProjectHistory} response.
+	 *
+	 * @param buildCount Number of builds in the history.
+	 * @return JSON representation of a {@code ProjectHistory}.
+	 */
+	public static String projectHistory(int buildCount) {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(stringWriter)) {
+			writer.beginObject().name("project");
+			writeProject(writer);
+			writer.name("builds").beginArray();
+			for (int i = 0; i < buildCount; ++i) {
+				// This operation does not include the jobs property
+				writeBuild(writer, 20181101 - i, 0);
+			}
+			writer.endArray().endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return stringWriter.toString();
+	}
+
+	/**
+	 * Gets the body of a {@code ProjectDeploymentsResults} response.
+	 *
+	 * @param deploymentCount Number of deployments in the response.
+	 * @return JSON representation of a {@code ProjectDeploymentsResults}.
+	 */
+	public static String projectDeploymentsResults(int deploymentCount) {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(stringWriter)) {
+			writer.beginObject().name("project");
+			writeProject(writer);
+			writer.name("deployments").beginArray();
+			for (int i = 0; i < deploymentCount; ++i) {
+				writer.beginObject()
+						.name("deploymentId").value(7000000 + i)
+						.name("build");
+				writeBuild(writer, 20181101 - i, 0);
+				writer.name("environment");
+				writeEnvironment(writer, 1000 + i % 4);
+				writer.name("status").value(STATUSES[i % STATUSES.length])
+						.name("started").value(DATE_TIME)
+						.name("finished").value(DATE_TIME)
+						.name("created").value(DATE_TIME)
+						.endObject();
+			}
+			writer.endArray().endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return stringWriter.toString();
+	}
+
+	/**
+	 * Gets the body of an {@code Error} response.
+	 *
+	 * @param message Error message.
+	 * @return JSON representation of an {@code Error}.
+	 */
+	public static String error(String message) {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonWriter writer = new JsonWriter(stringWriter)) {
+			writer.beginObject().name("message").value(message).endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return stringWriter.toString();
+	}
+
+	/**
+	 * Gets a non-JSON error body, such as the HTML error page returned by a
+	 * proxy or load balancer.
+	 *
+	 * @param size Approximate size of the body, in characters.
+	 * @return HTML error page.
+	 */
+	public static String htmlError(int size) {
+		StringBuilder html = new StringBuilder(size + 128)
+				.append("<!DOCTYPE html>\n<html><head>")
+				.append("<title>500 Internal Server Error</title></head>\n")
+				.append("<body><h1>Internal Server Error</h1>\n<pre>\n");
+		int line = 0;
+		while (html.length() < size) {
+			html.append("   at AppVeyor.Web.Frame").append(line++)
+					.append(".Execute(RequestContext context)\n");
+		}
+		return html.append("</pre></body></html>\n").toString();
+	}
+
+	// Prevent instantiation
+	private Payloads() {
+	}
+}
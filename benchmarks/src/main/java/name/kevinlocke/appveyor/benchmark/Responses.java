@@ -0,0 +1,61 @@
+package name.kevinlocke.appveyor.benchmark;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+/**
+ * Factory for OkHttp {@link Response} instances with in-memory bodies, as
+ * passed to {@link name.kevinlocke.appveyor.ApiClient#handleResponse}.
+ */
+public final class Responses {
+	public static final MediaType JSON_TYPE =
+			MediaType.parse("application/json; charset=utf-8");
+	public static final MediaType HTML_TYPE =
+			MediaType.parse("text/html; charset=utf-8");
+
+	private static final Request REQUEST = new Request.Builder()
+			.url("https://ci.appveyor.com/api/projects/benchmark-account/benchmark-project")
+			.build();
+
+	/**
+	 * Creates a response with a given status and body.
+	 *
+	 * @param code HTTP status code.
+	 * @param message HTTP status message.
+	 * @param contentType Type of {@code body}.
+	 * @param body Response body content.
+	 * @return Response which has not been read.
+	 */
+	public static Response create(int code, String message,
+			MediaType contentType, byte[] body) {
+		return new Response.Builder()
+				.request(REQUEST)
+				.protocol(Protocol.HTTP_1_1)
+				.code(code)
+				.message(message)
+				.header("Cache-Control", "no-cache")
+				.header("Content-Type", contentType.toString())
+				.header("Date", "Thu, 01 Nov 2018 12:34:56 GMT")
+				.header("Server", "Microsoft-IIS/8.5")
+				.header("X-AspNet-Version", "4.0.30319")
+				.body(ResponseBody.create(contentType, body))
+				.build();
+	}
+
+	/**
+	 * Creates a successful JSON response.
+	 *
+	 * @param body UTF-8 JSON response body.
+	 * @return Response which has not been read.
+	 */
+	public static Response ok(byte[] body) {
+		return create(200, "OK", JSON_TYPE, body);
+	}
+
+	// Prevent instantiation
+	private Responses() {
+	}
+}
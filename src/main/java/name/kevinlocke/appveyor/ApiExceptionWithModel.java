@@ -1,20 +1,44 @@
 package name.kevinlocke.appveyor;
 
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 
+import com.squareup.okhttp.Headers;
+
 /**
  * An {@link name.kevinlocke.appveyor.ApiException} with a response body
  * model.
  */
-public class ApiExceptionWithModel extends ApiException {
+public class ApiExceptionWithModel extends ResponseApiException {
 	private static final long serialVersionUID = 1L;
 
 	private final name.kevinlocke.appveyor.model.Error responseModel;
 
 	public ApiExceptionWithModel(String message, int code, Map<String, List<String>> responseHeaders,
 			String responseBody, name.kevinlocke.appveyor.model.Error responseModel) {
-		super(message, code, responseHeaders, responseBody);
+		super(message, null, code, responseHeaders, responseBody);
+		this.responseModel = responseModel;
+	}
+
+	/**
+	 * Constructs an exception with response headers which are converted to a
+	 * {@code Map} on demand.
+	 */
+	public ApiExceptionWithModel(String message, int code, Headers headers,
+			String responseBody, name.kevinlocke.appveyor.model.Error responseModel) {
+		super(message, null, code, headers, responseBody, false);
+		this.responseModel = responseModel;
+	}
+
+	/**
+	 * Constructs an exception with a response body which is decoded to a
+	 * {@code String} on demand.
+	 */
+	public ApiExceptionWithModel(String message, int code, Headers headers,
+			byte[] responseBytes, Charset charset,
+			name.kevinlocke.appveyor.model.Error responseModel) {
+		super(message, null, code, headers, responseBytes, charset, false);
 		this.responseModel = responseModel;
 	}
 
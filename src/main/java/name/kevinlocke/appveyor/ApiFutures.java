@@ -0,0 +1,216 @@
+package name.kevinlocke.appveyor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.squareup.okhttp.Call;
+
+/**
+ * Adapts the callback-based {@code *Async} methods of the generated API
+ * classes to return {@link CompletableFuture}.
+ *
+ * For example:
+ * <pre>{@code
+ * ApiFutures futures = new ApiFutures(executor);
+ * CompletableFuture<List<Project>> projects =
+ *     futures.call(callback -> projectApi.getProjectsAsync(callback));
+ * CompletableFuture<ApiResponse<List<Role>>> roles =
+ *     futures.callWithHttpInfo(roleApi::getRolesAsync);
+ * }</pre>
+ *
+ * Note that the result type of a lambda is inferred from the assignment.
+ * When the result is used directly, specify the type (e.g.
+ * {@code futures.<List<Project>>call(...).thenApply(...)}).
+ *
+ * No thread waits for the response.  Cancelling a returned future cancels
+ * the underlying {@link Call}.  Futures are completed on the configured
+ * {@link Executor}, so that dependent stages do not run on (and delay) the
+ * HTTP client dispatcher threads.
+ */
+public class ApiFutures {
+	/**
+	 * An operation which starts an asynchronous API request, such as
+	 * {@code callback -> buildApi.getBuildLogAsync(jobId, callback)}.
+	 *
+	 * @param <T> Type of the response model.
+	 */
+	@FunctionalInterface
+	public interface AsyncOperation<T> {
+		Call start(ApiCallback<T> callback) throws ApiException;
+	}
+
+	/**
+	 * An operation which makes a blocking API request, such as
+	 * {@code () -> buildApi.getBuildLog(jobId)}.
+	 *
+	 * @param <T> Type of the response model.
+	 */
+	@FunctionalInterface
+	public interface BlockingOperation<T> {
+		T call() throws ApiException;
+	}
+
+	private final Executor executor;
+
+	/**
+	 * Constructs an instance which completes futures on
+	 * {@link ForkJoinPool#commonPool()}.
+	 */
+	public ApiFutures() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructs an instance which completes futures on a given executor.
+	 *
+	 * @param executor Executor on which futures are completed.  A direct
+	 * executor ({@code Runnable::run}) completes futures on the HTTP client
+	 * threads.
+	 */
+	public ApiFutures(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("executor");
+		}
+		this.executor = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Starts an API request.
+	 *
+	 * @param <T> Type of the response model.
+	 * @param operation Operation which starts the request.
+	 * @return Future which completes with the response model, or
+	 * exceptionally with an {@link ApiException}.
+	 */
+	public <T> CompletableFuture<T> call(AsyncOperation<T> operation) {
+		return start(operation, (result, statusCode, headers) -> result);
+	}
+
+	/**
+	 * Starts an API request, like {@code *WithHttpInfo}.
+	 *
+	 * @param <T> Type of the response model.
+	 * @param operation Operation which starts the request.
+	 * @return Future which completes with the response status code, headers
+	 * and model, or exceptionally with an {@link ApiException}.
+	 */
+	public <T> CompletableFuture<ApiResponse<T>> callWithHttpInfo(
+			AsyncOperation<T> operation) {
+		return start(operation, (result, statusCode, headers) ->
+				new ApiResponse<>(statusCode, headers, result));
+	}
+
+	/**
+	 * Runs a blocking API request on the executor.
+	 *
+	 * This is most useful with an executor which runs each task on a new
+	 * virtual thread (see {@link VirtualThreads#newExecutor()}), where
+	 * blocking does not tie up a platform thread.  Cancelling the returned
+	 * future does not interrupt a request which has started.
+	 *
+	 * @param <T> Type of the response model.
+	 * @param operation Operation which makes the request.
+	 * @return Future which completes with the response model, or
+	 * exceptionally with an {@link ApiException}.
+	 */
+	public <T> CompletableFuture<T> supply(BlockingOperation<T> operation) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				if (future.isDone()) {
+					// Cancelled before starting
+					return;
+				}
+				try {
+					future.complete(operation.call());
+				} catch (ApiException | RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	@FunctionalInterface
+	private interface ResultMapper<T, R> {
+		R map(T result, int statusCode,
+				Map<String, List<String>> responseHeaders);
+	}
+
+	private <T, R> CompletableFuture<R> start(AsyncOperation<T> operation,
+			ResultMapper<T, R> mapper) {
+		CompletableFuture<R> future = new CompletableFuture<>();
+		Call call;
+		try {
+			call = operation.start(new ApiCallback<T>() {
+				@Override
+				public void onSuccess(T result, int statusCode,
+						Map<String, List<String>> responseHeaders) {
+					R mapped = mapper.map(result, statusCode, responseHeaders);
+					completeOnExecutor(future, mapped, null);
+				}
+
+				@Override
+				public void onFailure(ApiException e, int statusCode,
+						Map<String, List<String>> responseHeaders) {
+					completeOnExecutor(future, null, e);
+				}
+
+				@Override
+				public void onUploadProgress(long bytesWritten,
+						long contentLength, boolean done) {
+				}
+
+				@Override
+				public void onDownloadProgress(long bytesRead,
+						long contentLength, boolean done) {
+				}
+			});
+		} catch (ApiException | RuntimeException e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		if (call != null) {
+			future.whenComplete((result, exception) -> {
+				if (future.isCancelled()) {
+					call.cancel();
+				}
+			});
+		}
+		return future;
+	}
+
+	private <R> void completeOnExecutor(CompletableFuture<R> future,
+			R result, Throwable exception) {
+		if (future.isDone()) {
+			// Cancelled.  Skip the executor.
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				if (exception != null) {
+					future.completeExceptionally(exception);
+				} else {
+					future.complete(result);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (exception != null) {
+				e.addSuppressed(exception);
+			}
+			future.completeExceptionally(e);
+		}
+	}
+}
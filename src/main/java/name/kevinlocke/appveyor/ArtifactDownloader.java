@@ -0,0 +1,383 @@
+package name.kevinlocke.appveyor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import name.kevinlocke.appveyor.api.BuildApi;
+import name.kevinlocke.appveyor.model.ArtifactModel;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+
+/**
+ * Downloads the artifacts of every job of a build concurrently.
+ *
+ * Artifacts are saved as {@code <directory>/<jobId>/<fileName>}.  Files
+ * which already exist are resumed using HTTP {@code Range} requests (or
+ * skipped if they are complete) and every file is checked against
+ * {@link ArtifactModel#getSize()}.  At most {@link #getMaxConcurrency()}
+ * requests are made concurrently.
+ */
+public class ArtifactDownloader {
+	/**
+	 * Result of downloading one artifact (or listing the artifacts of a job).
+	 */
+	public static final class ArtifactResult {
+		private final String jobId;
+		private final ArtifactModel artifact;
+		private final File file;
+		private final long bytesTransferred;
+		private final boolean resumed;
+		private final Exception exception;
+
+		ArtifactResult(String jobId, ArtifactModel artifact, File file,
+				long bytesTransferred, boolean resumed, Exception exception) {
+			this.jobId = jobId;
+			this.artifact = artifact;
+			this.file = file;
+			this.bytesTransferred = bytesTransferred;
+			this.resumed = resumed;
+			this.exception = exception;
+		}
+
+		public String getJobId() {
+			return jobId;
+		}
+
+		/**
+		 * Gets the artifact.
+		 *
+		 * @return The artifact, or {@code null} if listing the artifacts of
+		 * the job failed.
+		 */
+		public ArtifactModel getArtifact() {
+			return artifact;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Gets the number of bytes received for this artifact, which is less
+		 * than its size if it was resumed or already complete.
+		 */
+		public long getBytesTransferred() {
+			return bytesTransferred;
+		}
+
+		/** Whether the download continued from a partial file. */
+		public boolean isResumed() {
+			return resumed;
+		}
+
+		/**
+		 * Gets the exception which caused the download to fail.
+		 *
+		 * @return The exception, or {@code null} if the download succeeded.
+		 */
+		public Exception getException() {
+			return exception;
+		}
+
+		public boolean isSuccessful() {
+			return exception == null;
+		}
+	}
+
+	/**
+	 * Results of downloading the artifacts of a build.
+	 */
+	public static final class Summary {
+		private final List<ArtifactResult> results;
+		private final long bytesTransferred;
+		private final long elapsedNanos;
+
+		Summary(List<ArtifactResult> results, long elapsedNanos) {
+			long bytes = 0;
+			for (ArtifactResult result : results) {
+				bytes += result.getBytesTransferred();
+			}
+			this.results = Collections.unmodifiableList(results);
+			this.bytesTransferred = bytes;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public List<ArtifactResult> getResults() {
+			return results;
+		}
+
+		/** Gets the results which were not successful. */
+		public List<ArtifactResult> getFailures() {
+			List<ArtifactResult> failures = new ArrayList<>();
+			for (ArtifactResult result : results) {
+				if (!result.isSuccessful()) {
+					failures.add(result);
+				}
+			}
+			return failures;
+		}
+
+		public boolean isSuccessful() {
+			for (ArtifactResult result : results) {
+				if (!result.isSuccessful()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/** Gets the total number of bytes received for all artifacts. */
+		public long getBytesTransferred() {
+			return bytesTransferred;
+		}
+
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/** Gets the aggregate throughput, in bytes per second. */
+		public double getThroughput() {
+			return elapsedNanos > 0 ? bytesTransferred * 1e9 / elapsedNanos
+					: 0;
+		}
+	}
+
+	private final EnhancedApiClient apiClient;
+	private final BuildApi buildApi;
+	private volatile int maxConcurrency = 4;
+	private volatile Executor executor;
+
+	public ArtifactDownloader(EnhancedApiClient apiClient) {
+		this.apiClient = apiClient;
+		this.buildApi = new BuildApi(apiClient);
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent requests.
+	 *
+	 * @param maxConcurrency Maximum number of concurrent requests.
+	 * @return ArtifactDownloader
+	 */
+	public ArtifactDownloader setMaxConcurrency(int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrency must be at least 1");
+		}
+		this.maxConcurrency = maxConcurrency;
+		return this;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Sets the executor on which requests are made.
+	 *
+	 * Requests block the thread on which they run.  By default, a pool of
+	 * {@link #getMaxConcurrency()} threads is created for each build.  An
+	 * executor which runs tasks on virtual threads (see
+	 * {@link VirtualThreads#newExecutor()}) avoids creating a pool.
+	 *
+	 * @param executor Executor on which requests are made, or {@code null}
+	 * to use a new pool for each build.
+	 * @return ArtifactDownloader
+	 */
+	public ArtifactDownloader setExecutor(Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Downloads the artifacts of every job of a build.
+	 *
+	 * Failures to list or download artifacts are reported in the returned
+	 * {@link Summary} rather than thrown, so that other artifacts are
+	 * downloaded.
+	 *
+	 * @param build Build with jobs (e.g. from
+	 * {@link name.kevinlocke.appveyor.api.ProjectApi#getProjectBuildByVersion(String, String, String)}).
+	 * @param directory Directory in which to save artifacts.
+	 * @return Results of downloading the artifacts.
+	 * @throws InterruptedException If interrupted while waiting for
+	 * downloads.  Downloads in progress continue.
+	 */
+	public Summary download(Build build, File directory)
+			throws InterruptedException {
+		long startNanos = System.nanoTime();
+		Semaphore permits = new Semaphore(maxConcurrency);
+		Executor downloadExecutor = executor;
+		ExecutorService pool = null;
+		if (downloadExecutor == null) {
+			pool = Executors.newFixedThreadPool(maxConcurrency);
+			downloadExecutor = pool;
+		}
+
+		try {
+			List<CompletableFuture<List<ArtifactResult>>> jobFutures =
+					new ArrayList<>();
+			List<BuildJob> jobs = build.getJobs();
+			for (BuildJob job : jobs != null ? jobs
+					: Collections.<BuildJob>emptyList()) {
+				String jobId = job.getJobId();
+				Executor jobExecutor = downloadExecutor;
+				jobFutures.add(supplyLimited(permits, jobExecutor,
+						() -> listArtifacts(jobId))
+						.thenCompose(artifacts -> downloadArtifacts(permits,
+								jobExecutor, directory, jobId, artifacts))
+						.exceptionally(exception -> Collections.singletonList(
+								new ArtifactResult(jobId, null, null, 0, false,
+										unwrap(exception)))));
+			}
+
+			List<ArtifactResult> results = new ArrayList<>();
+			for (CompletableFuture<List<ArtifactResult>> jobFuture
+					: jobFutures) {
+				try {
+					results.addAll(jobFuture.get());
+				} catch (ExecutionException e) {
+					// Unreachable, since exceptions are mapped to results
+					throw new AssertionError(e);
+				}
+			}
+			return new Summary(results, System.nanoTime() - startNanos);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private List<ArtifactModel> listArtifacts(String jobId) {
+		try {
+			return buildApi.getBuildArtifacts(jobId);
+		} catch (ApiException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	private CompletableFuture<List<ArtifactResult>> downloadArtifacts(
+			Semaphore permits, Executor executor, File directory, String jobId,
+			List<ArtifactModel> artifacts) {
+		List<CompletableFuture<ArtifactResult>> futures = new ArrayList<>();
+		for (ArtifactModel artifact : artifacts) {
+			futures.add(supplyLimited(permits, executor,
+					() -> downloadArtifact(directory, jobId, artifact)));
+		}
+		return CompletableFuture
+				.allOf(futures.toArray(new CompletableFuture<?>[0]))
+				.thenApply(ignored -> {
+					List<ArtifactResult> results =
+							new ArrayList<>(futures.size());
+					for (CompletableFuture<ArtifactResult> future : futures) {
+						results.add(future.join());
+					}
+					return results;
+				});
+	}
+
+	private ArtifactResult downloadArtifact(File directory, String jobId,
+			ArtifactModel artifact) {
+		String fileName = artifact.getFileName();
+		Path jobPath = directory.toPath().resolve(jobId).normalize();
+		Path filePath = jobPath.resolve(fileName).normalize();
+		if (!filePath.startsWith(jobPath) || filePath.equals(jobPath)) {
+			return new ArtifactResult(jobId, artifact, null, 0, false,
+					new IOException("Unsafe artifact file name: " + fileName));
+		}
+
+		File file = filePath.toFile();
+		Number size = artifact.getSize();
+		long expectedSize = size != null ? size.longValue() : -1;
+		long existingSize = file.length();
+		boolean resumed = false;
+		long bytesTransferred = 0;
+		try {
+			if (existingSize > 0 && existingSize == expectedSize) {
+				// Already downloaded
+				return new ArtifactResult(jobId, artifact, file, 0, false,
+						null);
+			}
+
+			File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Unable to create directory " + parent);
+			}
+
+			if (existingSize > 0
+					&& (expectedSize < 0 || existingSize < expectedSize)) {
+				resumed = true;
+				bytesTransferred = apiClient.resumeDownloadTo(file,
+						() -> buildApi.getBuildArtifact(jobId, fileName));
+				if (expectedSize >= 0 && file.length() != expectedSize) {
+					// Partial file may not match the artifact.  Start over.
+					resumed = false;
+					bytesTransferred += downloadAll(file, jobId, fileName);
+				}
+			} else {
+				bytesTransferred = downloadAll(file, jobId, fileName);
+			}
+
+			if (expectedSize >= 0 && file.length() != expectedSize) {
+				throw new IOException("Downloaded size " + file.length()
+						+ " of " + fileName + " does not match expected size "
+						+ expectedSize);
+			}
+			return new ArtifactResult(jobId, artifact, file, bytesTransferred,
+					resumed, null);
+		} catch (ApiException | IOException | RuntimeException e) {
+			return new ArtifactResult(jobId, artifact, file, bytesTransferred,
+					resumed, e);
+		}
+	}
+
+	private long downloadAll(File file, String jobId, String fileName)
+			throws ApiException {
+		apiClient.downloadTo(file,
+				() -> buildApi.getBuildArtifact(jobId, fileName));
+		return file.length();
+	}
+
+	/**
+	 * Runs a task on an executor after acquiring a permit, to limit the
+	 * number of concurrent requests independently of the executor.
+	 */
+	private static <T> CompletableFuture<T> supplyLimited(Semaphore permits,
+			Executor executor, Supplier<T> task) {
+		return CompletableFuture.supplyAsync(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				return task.get();
+			} finally {
+				permits.release();
+			}
+		}, executor);
+	}
+
+	private static Exception unwrap(Throwable exception) {
+		Throwable cause = exception;
+		while (cause instanceof CompletionException
+				&& cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause instanceof Exception ? (Exception) cause
+				: new CompletionException(cause);
+	}
+}
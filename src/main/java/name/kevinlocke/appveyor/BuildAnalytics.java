@@ -0,0 +1,468 @@
+package name.kevinlocke.appveyor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.joda.time.DateTime;
+
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Filter, group, and aggregate queries over the builds in a
+ * {@link BuildStore}, which are computed in parallel.
+ *
+ * Queries read the columns of the store directly, using primitive
+ * accumulators, so they create no objects per build other than growth of
+ * the accumulators.  Builds are split between the threads of a
+ * {@link ForkJoinPool} (by default, {@link ForkJoinPool#commonPool()}) and
+ * each thread aggregates its builds into its own accumulators, which are
+ * combined once at the end, so queries scale with the number of cores.
+ *
+ * For example, the median duration of builds of each branch of a project
+ * created since {@code since}:
+ *
+ * <pre>
+ * Map&lt;String, BuildStatistics&gt; byBranch = new BuildAnalytics(store)
+ *         .query()
+ *         .filter(BuildAnalytics.projectId(projectId))
+ *         .filter(BuildAnalytics.createdSince(since))
+ *         .groupBy(BuildAnalytics.Grouping.BRANCH);
+ * byBranch.forEach((branch, statistics) -&gt; System.out.println(
+ *         branch + ": " + statistics.getDurationPercentile(50)));
+ * </pre>
+ *
+ * Builds must not be added to the store while a query runs.
+ */
+public class BuildAnalytics {
+	private final BuildStore store;
+	private volatile ForkJoinPool pool;
+
+	/**
+	 * Constructs analytics over the builds in a store.
+	 *
+	 * @param store Store of the builds to query.
+	 */
+	public BuildAnalytics(BuildStore store) {
+		this.store = Objects.requireNonNull(store, "store");
+	}
+
+	/**
+	 * Gets the pool on which queries are run.
+	 */
+	public ForkJoinPool getPool() {
+		ForkJoinPool pool = this.pool;
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Sets the pool on which queries are run.
+	 *
+	 * @param pool Pool on which queries are run, or {@code null} for
+	 * {@link ForkJoinPool#commonPool()}.
+	 * @return BuildAnalytics
+	 */
+	public BuildAnalytics setPool(ForkJoinPool pool) {
+		this.pool = pool;
+		return this;
+	}
+
+	/**
+	 * Creates a query of all builds in the store.
+	 */
+	public Query query() {
+		return new Query();
+	}
+
+	/**
+	 * Predicate on a build in a store.
+	 */
+	@FunctionalInterface
+	public interface BuildPredicate {
+		/**
+		 * Tests a build.
+		 *
+		 * @param store Store of the build.
+		 * @param index Index of the build in {@code store}.
+		 * @return {@code true} if the build is selected.
+		 */
+		boolean test(BuildStore store, int index);
+
+		/**
+		 * Combines this predicate with another.
+		 *
+		 * @param other Predicate which must also be satisfied.
+		 * @return Predicate satisfied by builds which satisfy both.
+		 */
+		default BuildPredicate and(BuildPredicate other) {
+			Objects.requireNonNull(other, "other");
+			return (store, index) ->
+					test(store, index) && other.test(store, index);
+		}
+	}
+
+	/**
+	 * Selects builds of a project.
+	 *
+	 * @param projectId ID of the project.
+	 * @return Predicate for builds with {@code projectId}.
+	 */
+	public static BuildPredicate projectId(int projectId) {
+		return (store, index) -> store.getProjectId(index) == projectId;
+	}
+
+	/**
+	 * Selects builds of a branch.
+	 *
+	 * @param branch Name of the branch.
+	 * @return Predicate for builds of {@code branch}.
+	 */
+	public static BuildPredicate branch(String branch) {
+		Objects.requireNonNull(branch, "branch");
+		return (store, index) -> branch.equals(store.getBranch(index));
+	}
+
+	/**
+	 * Selects builds by an author.
+	 *
+	 * @param authorName Name of the author.
+	 * @return Predicate for builds with {@code authorName}.
+	 */
+	public static BuildPredicate authorName(String authorName) {
+		Objects.requireNonNull(authorName, "authorName");
+		return (store, index) ->
+				authorName.equals(store.getAuthorName(index));
+	}
+
+	/**
+	 * Selects builds with a status.
+	 *
+	 * @param status Status of the builds.
+	 * @return Predicate for builds with {@code status}.
+	 */
+	public static BuildPredicate status(Status status) {
+		return (store, index) -> store.getStatus(index) == status;
+	}
+
+	/**
+	 * Selects builds created at or after a time.
+	 *
+	 * @param since Earliest creation time of the builds.
+	 * @return Predicate for builds created at or after {@code since}.
+	 */
+	public static BuildPredicate createdSince(DateTime since) {
+		long sinceMillis = since.getMillis();
+		return (store, index) -> {
+			long created = store.getCreated(index);
+			return created != BuildStore.NO_TIME && created >= sinceMillis;
+		};
+	}
+
+	/**
+	 * Selects builds created before a time.
+	 *
+	 * @param before Time after the latest creation time of the builds.
+	 * @return Predicate for builds created before {@code before}.
+	 */
+	public static BuildPredicate createdBefore(DateTime before) {
+		long beforeMillis = before.getMillis();
+		return (store, index) -> {
+			long created = store.getCreated(index);
+			return created != BuildStore.NO_TIME && created < beforeMillis;
+		};
+	}
+
+	/**
+	 * Grouping of builds by a key.
+	 *
+	 * Groups are identified by an {@code int} so that builds can be
+	 * grouped without creating objects, and the {@code int} is converted to
+	 * a key once per group.
+	 *
+	 * @param <K> Type of the keys of groups.
+	 */
+	public static final class Grouping<K> {
+		/** Groups builds by {@code projectId}. */
+		public static final Grouping<Integer> PROJECT = new Grouping<>(
+				BuildStore::getProjectId,
+				(store, id) -> id == Integer.MIN_VALUE ? null : id);
+
+		/** Groups builds by {@code branch}. */
+		public static final Grouping<String> BRANCH = new Grouping<>(
+				BuildStore::getBranchCode, BuildStore::getString);
+
+		/** Groups builds by {@code authorName}. */
+		public static final Grouping<String> AUTHOR = new Grouping<>(
+				BuildStore::getAuthorNameCode, BuildStore::getString);
+
+		/** Groups builds by {@code status}. */
+		public static final Grouping<Status> STATUS;
+		static {
+			Status[] statuses = Status.values();
+			STATUS = new Grouping<>(
+					(store, index) -> {
+						Status status = store.getStatus(index);
+						return status == null ? -1 : status.ordinal();
+					},
+					(store, ordinal) ->
+							ordinal == -1 ? null : statuses[ordinal]);
+		}
+
+		/**
+		 * Gets the group of a build.
+		 */
+		@FunctionalInterface
+		public interface GroupFunction {
+			/**
+			 * Gets the group of a build.
+			 *
+			 * @param store Store of the build.
+			 * @param index Index of the build in {@code store}.
+			 * @return Identifier of the group of the build.
+			 */
+			int groupOf(BuildStore store, int index);
+		}
+
+		/**
+		 * Gets the key of a group.
+		 *
+		 * @param <K> Type of the keys of groups.
+		 */
+		@FunctionalInterface
+		public interface KeyFunction<K> {
+			/**
+			 * Gets the key of a group.
+			 *
+			 * @param store Store of the builds.
+			 * @param group Identifier of the group.
+			 * @return Key of the group.
+			 */
+			K keyOf(BuildStore store, int group);
+		}
+
+		private final GroupFunction groupFunction;
+		private final KeyFunction<K> keyFunction;
+
+		/**
+		 * Constructs a grouping.
+		 *
+		 * @param groupFunction Gets the group of a build.
+		 * @param keyFunction Gets the key of a group.
+		 */
+		public Grouping(GroupFunction groupFunction,
+				KeyFunction<K> keyFunction) {
+			this.groupFunction =
+					Objects.requireNonNull(groupFunction, "groupFunction");
+			this.keyFunction =
+					Objects.requireNonNull(keyFunction, "keyFunction");
+		}
+
+		/**
+		 * Groups builds by when they were created, in fixed-width windows
+		 * starting at the epoch.  Builds without a creation time are in a
+		 * group with key {@code null}.
+		 *
+		 * @param width Width of the windows.  Must be at least one minute.
+		 * @param unit Unit of {@code width}.
+		 * @return Grouping keyed by the start of each window.
+		 */
+		public static Grouping<DateTime> created(long width, TimeUnit unit) {
+			long widthMillis = unit.toMillis(width);
+			if (widthMillis < TimeUnit.MINUTES.toMillis(1)) {
+				// Note: Ensures that window numbers fit in an int
+				throw new IllegalArgumentException(
+						"width must be at least one minute");
+			}
+			return new Grouping<>(
+					(store, index) -> {
+						long created = store.getCreated(index);
+						return created == BuildStore.NO_TIME
+								? Integer.MIN_VALUE
+								: (int) Math.floorDiv(created, widthMillis);
+					},
+					(store, window) -> window == Integer.MIN_VALUE ? null
+							: new DateTime(window * widthMillis));
+		}
+	}
+
+	/**
+	 * Accumulators for groups of builds, which are not thread-safe.
+	 */
+	private static final class Groups {
+		final IntIndex<BuildStatistics.Accumulator> accumulators =
+				new IntIndex<>();
+		// Note: Builds from the same group are often adjacent
+		private int lastGroup;
+		private BuildStatistics.Accumulator lastAccumulator;
+
+		BuildStatistics.Accumulator get(int group) {
+			if (lastAccumulator != null && group == lastGroup) {
+				return lastAccumulator;
+			}
+			BuildStatistics.Accumulator accumulator = accumulators.get(group);
+			if (accumulator == null) {
+				accumulator = new BuildStatistics.Accumulator();
+				accumulators.put(group, accumulator);
+			}
+			lastGroup = group;
+			lastAccumulator = accumulator;
+			return accumulator;
+		}
+
+		void addAll(Groups other) {
+			other.accumulators.forEach(
+					(group, accumulator) -> get(group).addAll(accumulator));
+		}
+	}
+
+	/**
+	 * Query of the builds in the store.  Queries may be run more than once
+	 * and see builds added to the store in the meantime.
+	 */
+	public final class Query {
+		private BuildPredicate predicate;
+
+		private Query() {
+		}
+
+		/**
+		 * Restricts the query to builds which satisfy a predicate, in
+		 * addition to any previous predicates.
+		 *
+		 * @param predicate Predicate for builds to include.
+		 * @return Query
+		 */
+		public Query filter(BuildPredicate predicate) {
+			Objects.requireNonNull(predicate, "predicate");
+			this.predicate = this.predicate == null ? predicate
+					: this.predicate.and(predicate);
+			return this;
+		}
+
+		private <R> R collect(Supplier<R> supplier,
+				ObjIntConsumer<R> accumulator, BiConsumer<R, R> combiner) {
+			BuildPredicate predicate = this.predicate;
+			IntStream indexes = IntStream.range(0, store.size()).parallel();
+			if (predicate != null) {
+				indexes = indexes.filter(index -> predicate.test(store, index));
+			}
+			IntStream stream = indexes;
+			return getPool()
+					.submit(() -> stream.collect(supplier, accumulator, combiner))
+					.join();
+		}
+
+		/**
+		 * Counts the builds selected by the query.
+		 *
+		 * @return Number of builds selected.
+		 */
+		public long count() {
+			BuildPredicate predicate = this.predicate;
+			if (predicate == null) {
+				return store.size();
+			}
+			return getPool().submit(() -> IntStream.range(0, store.size())
+					.parallel()
+					.filter(index -> predicate.test(store, index))
+					.count())
+					.join();
+		}
+
+		/**
+		 * Computes statistics of all builds selected by the query.
+		 *
+		 * @return Statistics of the selected builds.
+		 */
+		public BuildStatistics aggregate() {
+			return collect(
+					BuildStatistics.Accumulator::new,
+					(accumulator, index) -> accumulator.add(store, index),
+					BuildStatistics.Accumulator::addAll)
+					.toStatistics();
+		}
+
+		private Groups collectGroups(Grouping<?> grouping) {
+			Grouping.GroupFunction groupFunction = grouping.groupFunction;
+			return collect(
+					Groups::new,
+					(groups, index) -> groups
+							.get(groupFunction.groupOf(store, index))
+							.add(store, index),
+					Groups::addAll);
+		}
+
+		/**
+		 * Computes statistics of each group of builds selected by the
+		 * query.
+		 *
+		 * @param grouping Grouping of builds.
+		 * @param <K> Type of the keys of groups.
+		 * @return Statistics of each group with selected builds, by key.
+		 */
+		public <K> Map<K, BuildStatistics> groupBy(Grouping<K> grouping) {
+			Groups groups = collectGroups(grouping);
+			Map<K, BuildStatistics> statistics =
+					new HashMap<>(groups.accumulators.size() * 4 / 3 + 1);
+			groups.accumulators.forEach((group, accumulator) ->
+					statistics.put(grouping.keyFunction.keyOf(store, group),
+							accumulator.toStatistics()));
+			return statistics;
+		}
+
+		/**
+		 * Computes statistics of the builds selected by the query in moving
+		 * windows of creation time.
+		 *
+		 * Builds are divided into fixed-width steps starting at the epoch,
+		 * as for {@link Grouping#created(long, TimeUnit)}.  The window for
+		 * each step with selected builds is made of that step and the
+		 * {@code windowSteps - 1} steps before it.  Steps without selected
+		 * builds do not have a window, so that sparse history with a short
+		 * step does not produce a window for every step between builds.
+		 * Builds without a creation time are excluded.
+		 *
+		 * @param step Width of each step.  Must be at least one minute.
+		 * @param unit Unit of {@code step}.
+		 * @param windowSteps Number of steps in each window.
+		 * @return Statistics of the window ending with each step which has
+		 * selected builds, keyed by the start of the step.
+		 */
+		public NavigableMap<DateTime, BuildStatistics> movingWindows(
+				long step, TimeUnit unit, int windowSteps) {
+			if (windowSteps < 1) {
+				throw new IllegalArgumentException(
+						"windowSteps must be positive");
+			}
+			Grouping<DateTime> grouping = Grouping.created(step, unit);
+			Groups groups = collectGroups(grouping);
+			groups.accumulators.remove(Integer.MIN_VALUE);
+
+			int[] steps = groups.accumulators.keys();
+			Arrays.sort(steps);
+			NavigableMap<DateTime, BuildStatistics> windows = new TreeMap<>();
+			BuildStatistics.MovingWindow window =
+					new BuildStatistics.MovingWindow();
+			int first = 0;
+			for (int s : steps) {
+				while ((long) steps[first] <= (long) s - windowSteps) {
+					window.removeFirst();
+					++first;
+				}
+				window.addLast(groups.accumulators.get(s));
+				windows.put(grouping.keyFunction.keyOf(store, s),
+						window.toStatistics());
+			}
+			return windows;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package name.kevinlocke.appveyor;
+
+/**
+ * An event found in a build log by a {@link BuildLogParser}.
+ */
+public final class BuildLogEvent {
+	/**
+	 * Kind of event.
+	 */
+	public enum Type {
+		/** Start or end of a phase of the build (e.g. "Build started"). */
+		PHASE,
+		/** An error (e.g. from a compiler or a failed command). */
+		ERROR,
+		/** A warning (e.g. from a compiler). */
+		WARNING,
+		/** A summary of test results (e.g. "Total tests: 10. Passed: 10."). */
+		TEST_SUMMARY,
+		/** An event of a kind defined by a custom matcher. */
+		OTHER
+	}
+
+	private final Type type;
+	private final String name;
+	private final long lineNumber;
+	private final long offset;
+	private final String text;
+
+	public BuildLogEvent(Type type, String name, long lineNumber, long offset,
+			String text) {
+		this.type = type;
+		this.name = name;
+		this.lineNumber = lineNumber;
+		this.offset = offset;
+		this.text = text;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the name of the matcher which found the event.
+	 *
+	 * @return Name of the matcher (e.g. "Build started" or "compiler error").
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of the line on which the event was found.
+	 *
+	 * @return Line number, from 0.
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Gets the byte offset of the line on which the event was found.
+	 *
+	 * @return Offset of the first byte of the line in the log.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Gets the text of the line on which the event was found.
+	 *
+	 * @return Text of the line, without its terminator.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + name + " at line " + lineNumber + ": " + text;
+	}
+}
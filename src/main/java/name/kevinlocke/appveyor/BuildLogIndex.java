@@ -0,0 +1,352 @@
+package name.kevinlocke.appveyor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Index of the lines of a build log file (e.g. from
+ * {@link name.kevinlocke.appveyor.api.BuildApi#getBuildLog(String)}) for
+ * random access and search.
+ *
+ * The file is memory-mapped and the offset of each line is recorded in an
+ * {@code int[]} when the index is opened.  Lines are decoded only when
+ * requested by {@link #getLine(int)}.  {@link #find(String)} searches the
+ * mapped bytes for the UTF-8 encoding of a string and
+ * {@link #find(Pattern)} matches a regular expression against a view of
+ * each ASCII line, so searching does not create a {@code String} for each
+ * line.
+ *
+ * Lines are separated by {@code "\n"} or {@code "\r\n"} and numbered from
+ * 0.  Files up to 2 GiB are supported.
+ *
+ * Instances are immutable and thread-safe, so many logs can be searched in
+ * parallel:
+ * <pre>{@code
+ * Map<File, int[]> failures = logFiles.parallelStream()
+ *     .collect(Collectors.toMap(Function.identity(), file -> {
+ *         try {
+ *             return BuildLogIndex.open(file).find(errorPattern);
+ *         } catch (IOException e) {
+ *             throw new UncheckedIOException(e);
+ *         }
+ *     }));
+ * }</pre>
+ *
+ * The mapping is released when the index is garbage collected.  Until then,
+ * some platforms (e.g. Windows) do not allow the file to be deleted.
+ */
+public final class BuildLogIndex {
+	/** Size of file regions scanned for line terminators in parallel. */
+	private static final int INDEX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private final ByteBuffer buffer;
+	private final int size;
+	/** Offset of the first byte of each line. */
+	private final int[] lineStarts;
+
+	/**
+	 * Maps a log file and indexes its lines.
+	 *
+	 * @param file Log file.
+	 * @return Index of {@code file}.
+	 * @throws IOException If the file can not be mapped or is larger than
+	 * 2 GiB.
+	 */
+	public static BuildLogIndex open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Log file " + file + " is larger than "
+						+ Integer.MAX_VALUE + " bytes");
+			}
+			// The mapping remains valid after the channel is closed
+			return new BuildLogIndex(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	/**
+	 * Indexes the lines of a log in a buffer.
+	 *
+	 * @param buffer Bytes of the log, from index 0 to its limit.  Must not
+	 * be modified while the index is in use.
+	 */
+	BuildLogIndex(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.size = buffer.limit();
+		this.lineStarts = indexLines(buffer, size);
+	}
+
+	private static int[] indexLines(ByteBuffer buffer, int size) {
+		if (size == 0) {
+			return new int[0];
+		}
+
+		int chunkCount = (int) ((size + (long) INDEX_CHUNK_SIZE - 1)
+				/ INDEX_CHUNK_SIZE);
+		IntStream chunks = IntStream.range(0, chunkCount);
+		if (chunkCount > 1) {
+			chunks = chunks.parallel();
+		}
+		int[][] chunkStarts = chunks.mapToObj(chunk -> {
+			int start = chunk * INDEX_CHUNK_SIZE;
+			int end = (int) Math.min(size, (long) start + INDEX_CHUNK_SIZE);
+			int[] starts = new int[64];
+			int count = 0;
+			for (int i = start; i < end; ++i) {
+				// Start a line after each terminator, except the last byte
+				if (buffer.get(i) == '\n' && i + 1 < size) {
+					if (count == starts.length) {
+						starts = Arrays.copyOf(starts, count * 2);
+					}
+					starts[count++] = i + 1;
+				}
+			}
+			return Arrays.copyOf(starts, count);
+		}).toArray(int[][]::new);
+
+		int lineCount = 1;
+		for (int[] starts : chunkStarts) {
+			lineCount += starts.length;
+		}
+		int[] lineStarts = new int[lineCount];
+		int lineIndex = 1;
+		for (int[] starts : chunkStarts) {
+			System.arraycopy(starts, 0, lineStarts, lineIndex, starts.length);
+			lineIndex += starts.length;
+		}
+		return lineStarts;
+	}
+
+	/**
+	 * Gets the size of the log.
+	 *
+	 * @return Size of the log, in bytes.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of lines in the log.  A terminator at the end of the
+	 * log does not start another line.
+	 *
+	 * @return Number of lines.
+	 */
+	public int getLineCount() {
+		return lineStarts.length;
+	}
+
+	/**
+	 * Gets the byte offset of the start of a line.
+	 *
+	 * @param line Line number, from 0.
+	 * @return Offset of the first byte of {@code line}.
+	 * @throws IndexOutOfBoundsException If {@code line} is not a line number.
+	 */
+	public int getLineOffset(int line) {
+		return lineStarts[line];
+	}
+
+	/**
+	 * Gets the line which contains a byte offset.
+	 *
+	 * @param offset Byte offset in the log.
+	 * @return Number of the line which contains {@code offset}.
+	 * @throws IndexOutOfBoundsException If {@code offset} is not in the log.
+	 */
+	public int getLineAt(int offset) {
+		if (offset < 0 || offset >= size) {
+			throw new IndexOutOfBoundsException(
+					"Offset " + offset + " not in log of size " + size);
+		}
+		int index = Arrays.binarySearch(lineStarts, offset);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	/**
+	 * Gets the text of a line.
+	 *
+	 * @param line Line number, from 0.
+	 * @return Text of {@code line}, without its terminator.
+	 * @throws IndexOutOfBoundsException If {@code line} is not a line number.
+	 */
+	public String getLine(int line) {
+		int start = lineStarts[line];
+		int end = getLineEnd(line);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** Gets the offset after the last byte of a line, before its terminator. */
+	private int getLineEnd(int line) {
+		int end = line + 1 < lineStarts.length ? lineStarts[line + 1] - 1
+				: buffer.get(size - 1) == '\n' ? size - 1
+				: size;
+		int start = lineStarts[line];
+		if (end > start && buffer.get(end - 1) == '\r') {
+			--end;
+		}
+		return end;
+	}
+
+	/**
+	 * Finds the lines which contain a string.
+	 *
+	 * @param text String to find.
+	 * @return Numbers of the lines which contain {@code text}, in ascending
+	 * order.
+	 */
+	public int[] find(String text) {
+		byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+		int lineCount = lineStarts.length;
+		if (needle.length == 0) {
+			return IntStream.range(0, lineCount).toArray();
+		}
+		if (text.indexOf('\n') >= 0) {
+			return new int[0];
+		}
+
+		// Boyer-Moore-Horspool search of the mapped bytes
+		int last = needle.length - 1;
+		int[] shift = new int[256];
+		Arrays.fill(shift, needle.length);
+		for (int i = 0; i < last; ++i) {
+			shift[needle[i] & 0xFF] = last - i;
+		}
+
+		int[] matches = new int[16];
+		int matchCount = 0;
+		int position = 0;
+		while (position + last < size) {
+			int i = last;
+			while (buffer.get(position + i) == needle[i]) {
+				if (i == 0) {
+					break;
+				}
+				--i;
+			}
+
+			if (i == 0 && buffer.get(position) == needle[0]) {
+				int line = getLineAt(position);
+				if (position + needle.length <= getLineEnd(line)) {
+					if (matchCount == matches.length) {
+						matches = Arrays.copyOf(matches, matchCount * 2);
+					}
+					matches[matchCount++] = line;
+					if (line + 1 == lineCount) {
+						break;
+					}
+					// Skip to the next line
+					position = lineStarts[line + 1];
+					continue;
+				}
+			}
+			position += shift[buffer.get(position + last) & 0xFF];
+		}
+		return Arrays.copyOf(matches, matchCount);
+	}
+
+	/**
+	 * Finds the lines which contain a match for a regular expression.
+	 *
+	 * Lines which contain only ASCII characters are matched without being
+	 * decoded.  Other lines are decoded as UTF-8.
+	 *
+	 * @param pattern Regular expression to find.
+	 * @return Numbers of the lines which contain a match for
+	 * {@code pattern}, in ascending order.
+	 */
+	public int[] find(Pattern pattern) {
+		AsciiSequence asciiLine = new AsciiSequence(buffer);
+		Matcher matcher = pattern.matcher("");
+		int[] matches = new int[16];
+		int matchCount = 0;
+		for (int line = 0; line < lineStarts.length; ++line) {
+			int start = lineStarts[line];
+			int end = getLineEnd(line);
+			CharSequence text = isAscii(start, end)
+					? asciiLine.set(start, end)
+					: getLine(line);
+			if (matcher.reset(text).find()) {
+				if (matchCount == matches.length) {
+					matches = Arrays.copyOf(matches, matchCount * 2);
+				}
+				matches[matchCount++] = line;
+			}
+		}
+		return Arrays.copyOf(matches, matchCount);
+	}
+
+	private boolean isAscii(int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (buffer.get(i) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * View of ASCII bytes in a buffer as characters.
+	 */
+	private static final class AsciiSequence implements CharSequence {
+		private final ByteBuffer buffer;
+		private int start;
+		private int end;
+
+		AsciiSequence(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		AsciiSequence set(int start, int end) {
+			this.start = start;
+			this.end = end;
+			return this;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			return (char) buffer.get(start + index);
+		}
+
+		@Override
+		public CharSequence subSequence(int subStart, int subEnd) {
+			if (subStart < 0 || subEnd > end - start || subStart > subEnd) {
+				throw new IndexOutOfBoundsException(
+						subStart + ", " + subEnd);
+			}
+			return new AsciiSequence(buffer).set(start + subStart,
+					start + subEnd);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[end - start];
+			for (int i = 0; i < chars.length; ++i) {
+				chars[i] = (char) buffer.get(start + i);
+			}
+			return new String(chars);
+		}
+	}
+}
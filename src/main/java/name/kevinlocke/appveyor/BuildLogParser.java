@@ -0,0 +1,405 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import name.kevinlocke.appveyor.BuildLogEvent.Type;
+
+/**
+ * Streaming parser which finds {@link BuildLogEvent}s in a build log.
+ *
+ * Bytes of the log are written to the parser as they are received, in
+ * chunks of any size, and are split into lines in a single pass.  Each line
+ * is offered to the {@link LineMatcher}s in order, as a reusable
+ * {@link LogLine} view of the received bytes, and the first matcher which
+ * returns an event stops the search.  Lines are not decoded unless they
+ * match (or a matcher decodes them), so parsing allocates very little per
+ * line.  For example, to parse a log as it is downloaded:
+ * <pre>{@code
+ * BuildLogParser parser = new BuildLogParser(event -> events.add(event));
+ * try (BufferedSource log = apiClient.openDownload(
+ *         () -> buildApi.getBuildLog(jobId))) {
+ *     parser.parse(log.inputStream());
+ * }
+ * }</pre>
+ *
+ * The default matchers from {@link #getDefaultMatchers()} find common
+ * AppVeyor phase markers, compiler errors and warnings in MSBuild and GCC
+ * formats, non-zero command exit codes, and VSTest, NUnit, and JUnit test
+ * summaries.
+ *
+ * Lines longer than {@link #MAX_LINE_LENGTH} bytes are truncated before
+ * matching.  Instances are not thread-safe.
+ */
+public class BuildLogParser {
+	/** Maximum number of bytes of a line which are matched. */
+	public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Receiver of events found by a parser.
+	 */
+	@FunctionalInterface
+	public interface EventListener {
+		void onEvent(BuildLogEvent event);
+	}
+
+	/**
+	 * Finds an event in a line of a log.
+	 */
+	@FunctionalInterface
+	public interface LineMatcher {
+		/**
+		 * Checks a line for an event.
+		 *
+		 * @param line View of the line, which is only valid during the call.
+		 * @return Event found in {@code line} (usually from
+		 * {@link LogLine#toEvent(Type, String)}), or {@code null}.
+		 */
+		BuildLogEvent match(LogLine line);
+	}
+
+	/**
+	 * View of a line of a log, which is reused for each line.
+	 */
+	public static final class LogLine {
+		private byte[] bytes;
+		private int start;
+		private int length;
+		private long lineNumber;
+		private long offset;
+
+		LogLine set(byte[] bytes, int start, int length, long lineNumber,
+				long offset) {
+			this.bytes = bytes;
+			this.start = start;
+			this.length = length;
+			this.lineNumber = lineNumber;
+			this.offset = offset;
+			return this;
+		}
+
+		/**
+		 * Gets the number of this line.
+		 *
+		 * @return Line number, from 0.
+		 */
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * Gets the byte offset of this line in the log.
+		 *
+		 * @return Offset of the first byte of this line.
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Gets the length of this line, without its terminator.
+		 *
+		 * @return Length of this line, in bytes.
+		 */
+		public int length() {
+			return length;
+		}
+
+		/**
+		 * Gets a byte of this line.
+		 *
+		 * @param index Index of the byte in this line.
+		 * @return Byte at {@code index}.
+		 * @throws IndexOutOfBoundsException If {@code index} is not in this
+		 * line.
+		 */
+		public byte byteAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+			return bytes[start + index];
+		}
+
+		/**
+		 * Determines whether this line starts with the given bytes.
+		 *
+		 * @param prefix Bytes to compare (e.g. UTF-8 encoded text).
+		 * @return {@code true} if this line starts with {@code prefix}.
+		 */
+		public boolean startsWith(byte[] prefix) {
+			return regionMatches(0, prefix);
+		}
+
+		/**
+		 * Finds the first occurrence of the given bytes in this line.
+		 *
+		 * @param needle Bytes to find (e.g. UTF-8 encoded text).
+		 * @return Index of the first occurrence of {@code needle}, or -1.
+		 */
+		public int indexOf(byte[] needle) {
+			if (needle.length == 0) {
+				return 0;
+			}
+
+			byte first = needle[0];
+			int last = length - needle.length;
+			for (int i = 0; i <= last; ++i) {
+				if (bytes[start + i] == first && regionMatches(i, needle)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private boolean regionMatches(int index, byte[] other) {
+			if (index + other.length > length) {
+				return false;
+			}
+			int position = start + index;
+			for (int i = 0; i < other.length; ++i) {
+				if (bytes[position + i] != other[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Creates an event for this line.
+		 *
+		 * @param type Type of the event.
+		 * @param name Name of the matcher which found the event.
+		 * @return Event on this line.
+		 */
+		public BuildLogEvent toEvent(Type type, String name) {
+			return new BuildLogEvent(type, name, lineNumber, offset,
+					toString());
+		}
+
+		/**
+		 * Decodes this line as UTF-8.
+		 *
+		 * @return Text of this line, without its terminator.
+		 */
+		@Override
+		public String toString() {
+			return new String(bytes, start, length, StandardCharsets.UTF_8);
+		}
+	}
+
+	private final EventListener listener;
+	private final List<LineMatcher> matchers;
+	private final LogLine line = new LogLine();
+
+	/** Bytes of a line which started in a previous chunk. */
+	private byte[] partial = new byte[256];
+	private int partialLength;
+	private long lineNumber;
+	/** Offset of the first byte of the current line. */
+	private long lineOffset;
+	/** Offset of the next byte to be written. */
+	private long offset;
+
+	/**
+	 * Creates a parser which uses the default matchers.
+	 *
+	 * @param listener Receiver of events.
+	 */
+	public BuildLogParser(EventListener listener) {
+		this(listener, getDefaultMatchers());
+	}
+
+	/**
+	 * Creates a parser which uses the given matchers.
+	 *
+	 * @param listener Receiver of events.
+	 * @param matchers Matchers to apply to each line, in order.
+	 */
+	public BuildLogParser(EventListener listener, List<LineMatcher> matchers) {
+		this.listener = listener;
+		this.matchers = new ArrayList<>(matchers);
+	}
+
+	/**
+	 * Gets the default matchers.
+	 *
+	 * @return New modifiable list of the default matchers.
+	 */
+	public static List<LineMatcher> getDefaultMatchers() {
+		List<LineMatcher> matchers = new ArrayList<>();
+		for (String phase : new String[] {
+				"Build started",
+				"Running Install scripts",
+				"Restoring build cache",
+				"Discovering tests",
+				"Collecting artifacts",
+				"Uploading artifacts",
+				"Updating build cache",
+				"Build success"
+		}) {
+			matchers.add(startsWith(Type.PHASE, phase, phase));
+		}
+		matchers.add(startsWith(Type.ERROR, "command failed",
+				"Command exited with code "));
+		matchers.add(contains(Type.ERROR, "compiler error", ": error "));
+		matchers.add(contains(Type.ERROR, "compiler error", ": error:"));
+		matchers.add(contains(Type.WARNING, "compiler warning", ": warning "));
+		matchers.add(contains(Type.WARNING, "compiler warning", ": warning:"));
+		matchers.add(startsWith(Type.TEST_SUMMARY, "VSTest", "Total tests:"));
+		matchers.add(startsWith(Type.TEST_SUMMARY, "NUnit", "Test Count:"));
+		matchers.add(contains(Type.TEST_SUMMARY, "JUnit", "Tests run:"));
+		return matchers;
+	}
+
+	/**
+	 * Creates a matcher for lines which start with the given text.
+	 *
+	 * @param type Type of the events.
+	 * @param name Name of the events.
+	 * @param prefix Text at the start of matching lines.
+	 * @return Matcher for lines which start with {@code prefix}.
+	 */
+	public static LineMatcher startsWith(Type type, String name,
+			String prefix) {
+		byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+		return line -> line.startsWith(prefixBytes)
+				? line.toEvent(type, name)
+				: null;
+	}
+
+	/**
+	 * Creates a matcher for lines which contain the given text.
+	 *
+	 * @param type Type of the events.
+	 * @param name Name of the events.
+	 * @param text Text in matching lines.
+	 * @return Matcher for lines which contain {@code text}.
+	 */
+	public static LineMatcher contains(Type type, String name, String text) {
+		byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+		return line -> line.indexOf(textBytes) >= 0
+				? line.toEvent(type, name)
+				: null;
+	}
+
+	/**
+	 * Creates a matcher for lines which contain a match for a regular
+	 * expression.
+	 *
+	 * Unlike the other matchers, this decodes every line it is offered.
+	 * Place it after cheaper matchers, or combine it with a
+	 * {@link #contains(Type, String, String)} check in a custom matcher.
+	 *
+	 * @param type Type of the events.
+	 * @param name Name of the events.
+	 * @param pattern Regular expression to find in matching lines.
+	 * @return Matcher for lines which contain a match for {@code pattern}.
+	 */
+	public static LineMatcher find(Type type, String name, Pattern pattern) {
+		return line -> pattern.matcher(line.toString()).find()
+				? line.toEvent(type, name)
+				: null;
+	}
+
+	/**
+	 * Gets the number of complete lines parsed.
+	 *
+	 * @return Number of lines parsed.
+	 */
+	public long getLineCount() {
+		return lineNumber;
+	}
+
+	/**
+	 * Parses the remainder of a stream, including a final line without a
+	 * terminator.
+	 *
+	 * @param input Stream of log bytes.  Not closed by this method.
+	 * @throws IOException If reading {@code input} fails.
+	 */
+	public void parse(InputStream input) throws IOException {
+		byte[] buffer = new byte[READ_BUFFER_SIZE];
+		int readCount;
+		while ((readCount = input.read(buffer)) != -1) {
+			write(buffer, 0, readCount);
+		}
+		finish();
+	}
+
+	/**
+	 * Parses the next bytes of a log.  Events are delivered for each line
+	 * completed by these bytes.
+	 *
+	 * @param bytes Array which contains the bytes.  Not retained.
+	 * @param off Index of the first byte in {@code bytes}.
+	 * @param len Number of bytes.
+	 */
+	public void write(byte[] bytes, int off, int len) {
+		int end = off + len;
+		int lineStart = off;
+		for (int i = off; i < end; ++i) {
+			if (bytes[i] != '\n') {
+				continue;
+			}
+
+			if (partialLength > 0) {
+				appendPartial(bytes, lineStart, i - lineStart);
+				matchLine(partial, 0, partialLength);
+				partialLength = 0;
+			} else {
+				matchLine(bytes, lineStart, Math.min(i - lineStart,
+						MAX_LINE_LENGTH));
+			}
+			lineStart = i + 1;
+			lineOffset = offset + (i + 1 - off);
+		}
+		appendPartial(bytes, lineStart, end - lineStart);
+		offset += len;
+	}
+
+	/**
+	 * Parses a final line without a terminator, if any.  Parsing may
+	 * continue afterwards, as if a terminator had been written.
+	 */
+	public void finish() {
+		if (offset > lineOffset) {
+			matchLine(partial, 0, partialLength);
+			partialLength = 0;
+			lineOffset = offset;
+		}
+	}
+
+	private void appendPartial(byte[] bytes, int off, int len) {
+		int copyLength = Math.min(len, MAX_LINE_LENGTH - partialLength);
+		if (copyLength <= 0) {
+			return;
+		}
+		if (partialLength + copyLength > partial.length) {
+			partial = Arrays.copyOf(partial, Math.min(MAX_LINE_LENGTH,
+					Math.max(partial.length * 2, partialLength + copyLength)));
+		}
+		System.arraycopy(bytes, off, partial, partialLength, copyLength);
+		partialLength += copyLength;
+	}
+
+	private void matchLine(byte[] bytes, int start, int length) {
+		if (length > 0 && bytes[start + length - 1] == '\r') {
+			--length;
+		}
+		line.set(bytes, start, length, lineNumber++, lineOffset);
+		for (LineMatcher matcher : matchers) {
+			BuildLogEvent event = matcher.match(line);
+			if (event != null) {
+				listener.onEvent(event);
+				break;
+			}
+		}
+	}
+}
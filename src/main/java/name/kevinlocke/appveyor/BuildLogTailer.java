@@ -0,0 +1,198 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+import name.kevinlocke.appveyor.api.BuildApi;
+
+/**
+ * Follows the logs of running build jobs by requesting only the bytes added
+ * since the previous request.
+ *
+ * {@link BuildApi#getBuildLog(String)} downloads the whole log, so polling a
+ * running job repeatedly would transfer the beginning of the log on every
+ * poll.  This class keeps the number of bytes received for each job and
+ * requests the remainder with an HTTP {@code Range} header.  If the server
+ * ignores the header, the bytes already received are skipped as the log is
+ * read rather than being delivered again.
+ *
+ * New content is delivered to a {@link LineListener} one complete line at a
+ * time, without the line terminator.  A trailing line without a terminator
+ * is held until it is completed by a later poll or delivered by
+ * {@link #finish(String, LineListener)}.  For example:
+ * <pre>{@code
+ * BuildLogTailer tailer = new BuildLogTailer(apiClient);
+ * while (!CompletionWatcher.isTerminal(job.getStatus())) {
+ *     tailer.poll(jobId, (id, line) -> System.out.println(line));
+ *     Thread.sleep(5000);
+ *     job = ...;
+ * }
+ * tailer.finish(jobId, (id, line) -> System.out.println(line));
+ * }</pre>
+ *
+ * Instances are thread-safe.  Polls of the same job are serialized.
+ */
+public class BuildLogTailer {
+	/** Number of bytes read from the response body at a time. */
+	private static final long READ_SIZE = 8192;
+
+	/**
+	 * Receiver of log lines.
+	 */
+	@FunctionalInterface
+	public interface LineListener {
+		/**
+		 * Called for each line of a job log, in order.
+		 *
+		 * @param jobId ID of the job which logged the line.
+		 * @param line Line of the log, without the line terminator.
+		 */
+		void onLine(String jobId, String line);
+	}
+
+	/** Log position of a job. */
+	private static final class Tail {
+		final ReentrantLock lock = new ReentrantLock();
+		/** Number of bytes of the log received. */
+		long offset;
+		/** Received bytes which are not yet part of a complete line. */
+		final Buffer pending = new Buffer();
+	}
+
+	private final EnhancedApiClient apiClient;
+	private final BuildApi buildApi;
+	private final ConcurrentMap<String, Tail> tails =
+			new ConcurrentHashMap<>();
+
+	public BuildLogTailer(EnhancedApiClient apiClient) {
+		this.apiClient = apiClient;
+		this.buildApi = new BuildApi(apiClient);
+	}
+
+	/**
+	 * Requests the part of a job log added since the previous poll and
+	 * delivers the new complete lines.
+	 *
+	 * If {@code listener} throws, lines after the one being delivered are
+	 * delivered by the next poll.
+	 *
+	 * @param jobId ID of the job.
+	 * @param listener Receiver of new lines.
+	 * @return Number of bytes of log received by this poll.
+	 * @throws ApiException If the request is unsuccessful or reading the
+	 * response fails.  Bytes received before the failure are not requested
+	 * again.
+	 */
+	public long poll(String jobId, LineListener listener)
+			throws ApiException {
+		Tail tail = tails.computeIfAbsent(jobId, id -> new Tail());
+		tail.lock.lock();
+		try {
+			// Deliver lines left by a listener which threw
+			deliverLines(jobId, tail, listener);
+
+			long startOffset = tail.offset;
+			try (BufferedSource source = apiClient.openDownload(startOffset,
+					() -> buildApi.getBuildLog(jobId))) {
+				long readCount;
+				while ((readCount = source.read(tail.pending, READ_SIZE))
+						!= -1) {
+					tail.offset += readCount;
+					deliverLines(jobId, tail, listener);
+				}
+			} catch (IOException e) {
+				throw new ApiException(e);
+			}
+			return tail.offset - startOffset;
+		} finally {
+			tail.lock.unlock();
+		}
+	}
+
+	/**
+	 * Delivers any remaining lines of a job log, including a final line
+	 * without a terminator, and stops tracking the job.
+	 *
+	 * This does not request the log.  Call {@link #poll(String, LineListener)}
+	 * first to receive any content added after the previous poll.
+	 *
+	 * @param jobId ID of the job.
+	 * @param listener Receiver of the remaining lines.
+	 */
+	public void finish(String jobId, LineListener listener) {
+		Tail tail = tails.get(jobId);
+		if (tail == null) {
+			return;
+		}
+
+		tail.lock.lock();
+		try {
+			deliverLines(jobId, tail, listener);
+			if (tail.pending.size() > 0) {
+				String line = tail.pending.readUtf8();
+				listener.onLine(jobId, stripCarriageReturn(line));
+			}
+			tails.remove(jobId, tail);
+		} finally {
+			tail.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes of a job log received.
+	 *
+	 * @param jobId ID of the job.
+	 * @return Number of bytes received, or 0 if the job is not tracked.
+	 */
+	public long getOffset(String jobId) {
+		Tail tail = tails.get(jobId);
+		if (tail == null) {
+			return 0;
+		}
+
+		tail.lock.lock();
+		try {
+			return tail.offset;
+		} finally {
+			tail.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops tracking a job, discarding any incomplete line.  The next poll
+	 * of the job starts from the beginning of its log.
+	 *
+	 * @param jobId ID of the job.
+	 */
+	public void reset(String jobId) {
+		tails.remove(jobId);
+	}
+
+	private static void deliverLines(String jobId, Tail tail,
+			LineListener listener) {
+		Buffer pending = tail.pending;
+		while (pending.indexOf((byte) '\n') != -1) {
+			String line;
+			try {
+				// Removes the line and its "\n" or "\r\n" terminator
+				line = pending.readUtf8Line();
+			} catch (IOException e) {
+				// Unreachable, since pending contains a line terminator
+				throw new AssertionError(e);
+			}
+			listener.onLine(jobId, line);
+		}
+	}
+
+	private static String stripCarriageReturn(String line) {
+		int length = line.length();
+		return length > 0 && line.charAt(length - 1) == '\r'
+				? line.substring(0, length - 1)
+				: line;
+	}
+}
@@ -0,0 +1,364 @@
+package name.kevinlocke.appveyor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Aggregate statistics of a group of builds, computed by
+ * {@link BuildAnalytics}.
+ *
+ * Times are in milliseconds.  The queue time of a build is from
+ * {@code created} to {@code started} and the duration is from
+ * {@code started} to {@code finished}.  Builds without these times are
+ * counted but excluded from time statistics.
+ *
+ * Flakiness is the fraction of successful or failed builds, ordered by
+ * {@code created}, whose status differs from the previous successful or
+ * failed build in the group.  It is most meaningful for builds of a single
+ * branch of a project.
+ */
+public final class BuildStatistics {
+	private static final Status[] STATUSES = Status.values();
+	private static final long[] EMPTY = new long[0];
+
+	private final long count;
+	private final long[] statusCounts;
+	private final long[] queueTimes;
+	private final long[] durations;
+	private final long outcomeCount;
+	private final long flipCount;
+
+	private BuildStatistics(Accumulator accumulator) {
+		this(accumulator.count, accumulator.statusCounts.clone(),
+				accumulator.queueTimes.toSortedArray(),
+				accumulator.durations.toSortedArray(),
+				accumulator.outcomes.toSortedArray());
+	}
+
+	/** Constructs statistics which own the given (sorted) arrays. */
+	private BuildStatistics(long count, long[] statusCounts,
+			long[] queueTimes, long[] durations, long[] outcomes) {
+		this.count = count;
+		this.statusCounts = statusCounts;
+		this.queueTimes = queueTimes;
+		this.durations = durations;
+
+		long flips = 0;
+		for (int i = 1; i < outcomes.length; ++i) {
+			if (((outcomes[i] ^ outcomes[i - 1]) & 1) != 0) {
+				++flips;
+			}
+		}
+		outcomeCount = outcomes.length;
+		flipCount = flips;
+	}
+
+	/**
+	 * Gets the number of builds.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the number of builds with a status.
+	 *
+	 * @param status Status of builds to count, or {@code null} for builds
+	 * without a status.
+	 * @return Number of builds with {@code status}.
+	 */
+	public long getCount(Status status) {
+		return statusCounts[status == null ? 0 : status.ordinal() + 1];
+	}
+
+	/**
+	 * Gets the fraction of successful or failed builds which were
+	 * successful.
+	 *
+	 * @return Fraction of builds which were successful, or {@code NaN} if
+	 * there were no successful or failed builds.
+	 */
+	public double getSuccessRate() {
+		long success = getCount(Status.SUCCESS);
+		long failed = getCount(Status.FAILED);
+		return (double) success / (success + failed);
+	}
+
+	/**
+	 * Gets a percentile of the queue times of the builds.
+	 *
+	 * @param percentile Percentile, from 0 to 100.
+	 * @return The nearest-rank percentile queue time, or -1 if no builds
+	 * were started.
+	 */
+	public long getQueueTimePercentile(double percentile) {
+		return percentile(queueTimes, percentile);
+	}
+
+	/**
+	 * Gets the mean queue time of the builds.
+	 *
+	 * @return Mean queue time, or {@code NaN} if no builds were started.
+	 */
+	public double getMeanQueueTime() {
+		return mean(queueTimes);
+	}
+
+	/**
+	 * Gets a percentile of the durations of the builds.
+	 *
+	 * @param percentile Percentile, from 0 to 100.
+	 * @return The nearest-rank percentile duration, or -1 if no builds
+	 * finished.
+	 */
+	public long getDurationPercentile(double percentile) {
+		return percentile(durations, percentile);
+	}
+
+	/**
+	 * Gets the mean duration of the builds.
+	 *
+	 * @return Mean duration, or {@code NaN} if no builds finished.
+	 */
+	public double getMeanDuration() {
+		return mean(durations);
+	}
+
+	/**
+	 * Gets the number of successful or failed builds whose status differs
+	 * from the previous successful or failed build.
+	 */
+	public long getFlipCount() {
+		return flipCount;
+	}
+
+	/**
+	 * Gets the flakiness of the builds.
+	 *
+	 * @return Fraction of successful or failed builds after the first whose
+	 * status differs from the previous one, or {@code NaN} if there were
+	 * fewer than two.
+	 */
+	public double getFlakiness() {
+		return outcomeCount < 2 ? Double.NaN
+				: (double) flipCount / (outcomeCount - 1);
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		if (!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException(
+					"percentile must be between 0 and 100");
+		}
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	private static double mean(long[] values) {
+		if (values.length == 0) {
+			return Double.NaN;
+		}
+		double sum = 0;
+		for (long value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("BuildStatistics {count: ").append(count);
+		for (int i = 0; i < statusCounts.length; ++i) {
+			if (statusCounts[i] != 0) {
+				sb.append(", ").append(i == 0 ? "null" : STATUSES[i - 1])
+						.append(": ").append(statusCounts[i]);
+			}
+		}
+		sb.append(", medianQueueTime: ").append(getQueueTimePercentile(50))
+				.append(", medianDuration: ").append(getDurationPercentile(50))
+				.append(", flakiness: ").append(getFlakiness())
+				.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * Growable array of {@code long} values.
+	 */
+	private static final class LongList {
+		private long[] values = new long[8];
+		private int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		void addAll(LongList other) {
+			if (size + other.size > values.length) {
+				values = Arrays.copyOf(values,
+						Math.max(size + other.size, size * 2));
+			}
+			System.arraycopy(other.values, 0, values, size, other.size);
+			size += other.size;
+		}
+
+		long[] toSortedArray() {
+			long[] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			return sorted;
+		}
+
+		void sort() {
+			Arrays.sort(values, 0, size);
+		}
+	}
+
+	/** Merges sorted values into a new sorted array. */
+	private static long[] merge(long[] sorted, LongList added) {
+		if (added.size == 0) {
+			return sorted;
+		}
+		long[] merged = new long[sorted.length + added.size];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < merged.length; ++k) {
+			if (j == added.size
+					|| (i < sorted.length && sorted[i] <= added.values[j])) {
+				merged[k] = sorted[i++];
+			} else {
+				merged[k] = added.values[j++];
+			}
+		}
+		return merged;
+	}
+
+	/** Removes sorted values, which must be present, into a new array. */
+	private static long[] remove(long[] sorted, LongList removed) {
+		if (removed.size == 0) {
+			return sorted;
+		}
+		long[] remaining = new long[sorted.length - removed.size];
+		int j = 0;
+		int k = 0;
+		for (long value : sorted) {
+			if (j < removed.size && removed.values[j] == value) {
+				++j;
+			} else {
+				remaining[k++] = value;
+			}
+		}
+		return remaining;
+	}
+
+	/**
+	 * Mutable accumulator of statistics, which is not thread-safe.
+	 */
+	static final class Accumulator {
+		private long count;
+		private final long[] statusCounts = new long[STATUSES.length + 1];
+		private final LongList queueTimes = new LongList();
+		private final LongList durations = new LongList();
+		/** {@code created << 1 | failed} of successful or failed builds. */
+		private final LongList outcomes = new LongList();
+
+		void add(BuildStore store, int index) {
+			++count;
+			Status status = store.getStatus(index);
+			++statusCounts[status == null ? 0 : status.ordinal() + 1];
+
+			long created = store.getCreated(index);
+			long started = store.getStarted(index);
+			long finished = store.getFinished(index);
+			if (started != BuildStore.NO_TIME) {
+				if (created != BuildStore.NO_TIME) {
+					queueTimes.add(started - created);
+				}
+				if (finished != BuildStore.NO_TIME) {
+					durations.add(finished - started);
+				}
+			}
+			if (created != BuildStore.NO_TIME
+					&& (status == Status.SUCCESS || status == Status.FAILED)) {
+				outcomes.add(created << 1 | (status == Status.FAILED ? 1 : 0));
+			}
+		}
+
+		void addAll(Accumulator other) {
+			count += other.count;
+			for (int i = 0; i < statusCounts.length; ++i) {
+				statusCounts[i] += other.statusCounts[i];
+			}
+			queueTimes.addAll(other.queueTimes);
+			durations.addAll(other.durations);
+			outcomes.addAll(other.outcomes);
+		}
+
+		BuildStatistics toStatistics() {
+			return new BuildStatistics(this);
+		}
+
+		/** Sorts the values, for {@link MovingWindow}. */
+		void sort() {
+			queueTimes.sort();
+			durations.sort();
+			outcomes.sort();
+		}
+	}
+
+	/**
+	 * Statistics of a window of accumulators which are added newest last and
+	 * removed oldest first.  The sorted values of the window are updated by
+	 * merging the sorted values of each accumulator as it is added or
+	 * removed, rather than sorting the values of every accumulator in the
+	 * window for each window.  Not thread-safe.
+	 */
+	static final class MovingWindow {
+		private final ArrayDeque<Accumulator> accumulators = new ArrayDeque<>();
+		private long count;
+		private final long[] statusCounts = new long[STATUSES.length + 1];
+		private long[] queueTimes = EMPTY;
+		private long[] durations = EMPTY;
+		private long[] outcomes = EMPTY;
+
+		/**
+		 * Adds an accumulator, which must not be modified while it is in the
+		 * window.
+		 */
+		void addLast(Accumulator accumulator) {
+			accumulator.sort();
+			accumulators.addLast(accumulator);
+			count += accumulator.count;
+			for (int i = 0; i < statusCounts.length; ++i) {
+				statusCounts[i] += accumulator.statusCounts[i];
+			}
+			queueTimes = merge(queueTimes, accumulator.queueTimes);
+			durations = merge(durations, accumulator.durations);
+			outcomes = merge(outcomes, accumulator.outcomes);
+		}
+
+		/** Removes the accumulator which was added first. */
+		void removeFirst() {
+			Accumulator accumulator = accumulators.removeFirst();
+			count -= accumulator.count;
+			for (int i = 0; i < statusCounts.length; ++i) {
+				statusCounts[i] -= accumulator.statusCounts[i];
+			}
+			queueTimes = remove(queueTimes, accumulator.queueTimes);
+			durations = remove(durations, accumulator.durations);
+			outcomes = remove(outcomes, accumulator.outcomes);
+		}
+
+		BuildStatistics toStatistics() {
+			// Note: Arrays are replaced, not modified, so can be shared
+			return new BuildStatistics(count, statusCounts.clone(),
+					queueTimes, durations, outcomes);
+		}
+	}
+}
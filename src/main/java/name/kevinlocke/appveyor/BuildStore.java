@@ -0,0 +1,1008 @@
+package name.kevinlocke.appveyor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+import name.kevinlocke.appveyor.model.OSType;
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Append-only columnar store of {@link Build}s and their {@link BuildJob}s,
+ * such as the history of many projects, which uses much less memory than
+ * the models.
+ *
+ * Each property is stored in a column: integers, times (as milliseconds
+ * since the epoch), and enumerations in {@link ByteBuffer}s, strings which
+ * repeat between builds (e.g. {@code branch}, {@code authorName},
+ * {@code message}, job {@code name}) as codes in a shared dictionary, and
+ * other strings (e.g. {@code version}, {@code commitId}, {@code jobId}) as
+ * UTF-8 in a shared buffer.  Builds and jobs are identified by their index
+ * in the store, in the order added.  Individual properties can be read
+ * without creating models (e.g. {@link #getStatus(int)}) and models are
+ * reconstructed on demand by {@link #getBuild(int)}.  {@code Build.messages}
+ * is not stored.
+ *
+ * A store can be saved to a file and opened by memory-mapping the file, so
+ * that columns are read from the page cache rather than the heap until
+ * builds are added.  Adding a build to an opened store copies each column
+ * to a new buffer when it is first written.  For builds with two jobs, a
+ * store uses about a third of the heap of the models, and an opened store
+ * less than a tenth, since only the dictionary and ID index are on the heap.
+ *
+ * Adding a build with the ID of a stored build supersedes it for
+ * {@link #indexOf(int)}, but both remain in the store.  Instances are not
+ * thread-safe.  Reads may be made concurrently, but not concurrently with
+ * {@link #add(Build)}.
+ */
+public class BuildStore {
+	/** Value of absent times. */
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final int FILE_MAGIC = 0x41564253;
+	private static final int FILE_VERSION = 1;
+	private static final int MIN_CAPACITY = 64;
+	/** Value of absent integers. */
+	private static final int NO_INT = Integer.MIN_VALUE;
+	/** Code of absent strings. */
+	private static final int NO_STRING = -1;
+
+	private static final Status[] STATUSES = Status.values();
+	private static final OSType[] OS_TYPES = OSType.values();
+
+	private final boolean direct;
+
+	private final StringDictionary dictionary = new StringDictionary();
+	/** UTF-8 bytes of strings which are not in the dictionary. */
+	private final Column heap;
+	private int heapSize;
+
+	private int buildCount;
+	private final Column buildId;
+	private final Column projectId;
+	private final Column buildNumber;
+	private final Column firstJob;
+	private final Column jobCount;
+	private final Column version;
+	private final Column tag;
+	private final Column commitId;
+	private final Column messageExtended;
+	private final Column message;
+	private final Column branch;
+	private final Column authorName;
+	private final Column authorUsername;
+	private final Column committerName;
+	private final Column committerUsername;
+	private final Column committed;
+	private final Column started;
+	private final Column finished;
+	private final Column created;
+	private final Column updated;
+	private final Column isTag;
+	private final Column status;
+
+	private int totalJobCount;
+	private final Column jobId;
+	private final Column jobName;
+	private final Column jobOsType;
+	private final Column jobAllowFailure;
+	private final Column jobStatus;
+	private final Column jobMessagesCount;
+	private final Column jobCompilationMessagesCount;
+	private final Column jobCompilationErrorsCount;
+	private final Column jobCompilationWarningsCount;
+	private final Column jobTestsCount;
+	private final Column jobPassedTestsCount;
+	private final Column jobFailedTestsCount;
+	private final Column jobArtifactsCount;
+	private final Column jobStarted;
+	private final Column jobFinished;
+	private final Column jobCreated;
+	private final Column jobUpdated;
+
+	private final List<Column> buildColumns;
+	private final List<Column> jobColumns;
+
+	/** Index of the last build added with each ID. */
+	private final BuildIdIndex indexByBuildId;
+
+	/**
+	 * Constructs an empty store with columns on the heap.
+	 */
+	public BuildStore() {
+		this(false);
+	}
+
+	/**
+	 * Constructs an empty store.
+	 *
+	 * @param direct Whether to store columns in direct (off-heap) buffers.
+	 */
+	public BuildStore(boolean direct) {
+		this(direct, null);
+	}
+
+	private BuildStore(boolean direct, ByteBuffer file) {
+		this.direct = direct;
+		heap = new Column(1);
+		buildId = new Column(4);
+		projectId = new Column(4);
+		buildNumber = new Column(4);
+		firstJob = new Column(4);
+		jobCount = new Column(4);
+		version = new Column(4);
+		tag = new Column(4);
+		commitId = new Column(4);
+		messageExtended = new Column(4);
+		message = new Column(4);
+		branch = new Column(4);
+		authorName = new Column(4);
+		authorUsername = new Column(4);
+		committerName = new Column(4);
+		committerUsername = new Column(4);
+		committed = new Column(8);
+		started = new Column(8);
+		finished = new Column(8);
+		created = new Column(8);
+		updated = new Column(8);
+		isTag = new Column(1);
+		status = new Column(1);
+		buildColumns = Arrays.asList(buildId, projectId, buildNumber, firstJob,
+				jobCount, version, tag, commitId, messageExtended, message,
+				branch, authorName, authorUsername, committerName,
+				committerUsername, committed, started, finished, created,
+				updated, isTag, status);
+
+		jobId = new Column(4);
+		jobName = new Column(4);
+		jobOsType = new Column(1);
+		jobAllowFailure = new Column(1);
+		jobStatus = new Column(1);
+		jobMessagesCount = new Column(4);
+		jobCompilationMessagesCount = new Column(4);
+		jobCompilationErrorsCount = new Column(4);
+		jobCompilationWarningsCount = new Column(4);
+		jobTestsCount = new Column(4);
+		jobPassedTestsCount = new Column(4);
+		jobFailedTestsCount = new Column(4);
+		jobArtifactsCount = new Column(4);
+		jobStarted = new Column(8);
+		jobFinished = new Column(8);
+		jobCreated = new Column(8);
+		jobUpdated = new Column(8);
+		jobColumns = Arrays.asList(jobId, jobName, jobOsType, jobAllowFailure,
+				jobStatus, jobMessagesCount, jobCompilationMessagesCount,
+				jobCompilationErrorsCount, jobCompilationWarningsCount,
+				jobTestsCount, jobPassedTestsCount, jobFailedTestsCount,
+				jobArtifactsCount, jobStarted, jobFinished, jobCreated,
+				jobUpdated);
+
+		if (file != null) {
+			read(file);
+		}
+
+		indexByBuildId = new BuildIdIndex(buildCount);
+		for (int i = 0; i < buildCount; ++i) {
+			int id = buildId.getInt(i);
+			if (id != NO_INT) {
+				indexByBuildId.put(id, i);
+			}
+		}
+	}
+
+	/**
+	 * Opens a store saved by {@link #save(File)} by memory-mapping it.
+	 *
+	 * The file must not be modified while the store is in use.
+	 *
+	 * @param file File to open.
+	 * @return Store of the builds in {@code file}.
+	 * @throws IOException If {@code file} can not be read or is not a saved
+	 * store.
+	 */
+	public static BuildStore open(File file) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel =
+				FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		}
+		try {
+			return new BuildStore(false, mapped);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| IllegalArgumentException e) {
+			throw new IOException("Truncated or corrupt build store " + file,
+					e);
+		}
+	}
+
+	private void read(ByteBuffer file) {
+		if (file.getInt() != FILE_MAGIC) {
+			throw new IllegalArgumentException("Not a build store");
+		}
+		int fileVersion = file.getInt();
+		if (fileVersion != FILE_VERSION) {
+			throw new IllegalArgumentException(
+					"Unsupported build store version " + fileVersion);
+		}
+		buildCount = file.getInt();
+		totalJobCount = file.getInt();
+		heapSize = file.getInt();
+		int stringCount = file.getInt();
+		for (int i = 0; i < stringCount; ++i) {
+			byte[] bytes = new byte[file.getInt()];
+			file.get(bytes);
+			dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+
+		heap.map(file, heapSize);
+		for (Column column : buildColumns) {
+			column.map(file, buildCount);
+		}
+		for (Column column : jobColumns) {
+			column.map(file, totalJobCount);
+		}
+	}
+
+	/**
+	 * Saves the store to a file, which is replaced atomically.
+	 *
+	 * @param file File to which the store is saved.
+	 * @throws IOException If an error occurs writing {@code file}.
+	 */
+	public void save(File file) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+				BufferedOutputStream bufferedOut =
+						new BufferedOutputStream(fileOut);
+				DataOutputStream dataOut = new DataOutputStream(bufferedOut)) {
+			dataOut.writeInt(FILE_MAGIC);
+			dataOut.writeInt(FILE_VERSION);
+			dataOut.writeInt(buildCount);
+			dataOut.writeInt(totalJobCount);
+			dataOut.writeInt(heapSize);
+			dataOut.writeInt(dictionary.size());
+			for (int i = 0; i < dictionary.size(); ++i) {
+				byte[] bytes =
+						dictionary.get(i).getBytes(StandardCharsets.UTF_8);
+				dataOut.writeInt(bytes.length);
+				dataOut.write(bytes);
+			}
+
+			// Note: DataOutputStream does not buffer, so writes through
+			// bufferedOut are ordered after those above.
+			WritableByteChannel channel = Channels.newChannel(bufferedOut);
+			heap.write(channel, heapSize);
+			for (Column column : buildColumns) {
+				column.write(channel, buildCount);
+			}
+			for (Column column : jobColumns) {
+				column.write(channel, totalJobCount);
+			}
+			bufferedOut.flush();
+			fileOut.getFD().sync();
+		}
+		Files.move(tempFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds a build and its jobs to the store.
+	 *
+	 * @param build Build to add.
+	 * @return Index of the build in the store.
+	 */
+	public int add(Build build) {
+		int index = buildCount;
+		putInt(buildId, index, build.getBuildId());
+		putInt(projectId, index, build.getProjectId());
+		putInt(buildNumber, index, build.getBuildNumber());
+		putHeapString(version, index, build.getVersion());
+		putHeapString(tag, index, build.getTag());
+		putHeapString(commitId, index, build.getCommitId());
+		putHeapString(messageExtended, index, build.getMessageExtended());
+		putDictionaryString(message, index, build.getMessage());
+		putDictionaryString(branch, index, build.getBranch());
+		putDictionaryString(authorName, index, build.getAuthorName());
+		putDictionaryString(authorUsername, index, build.getAuthorUsername());
+		putDictionaryString(committerName, index, build.getCommitterName());
+		putDictionaryString(committerUsername, index,
+				build.getCommitterUsername());
+		putTime(committed, index, build.getCommitted());
+		putTime(started, index, build.getStarted());
+		putTime(finished, index, build.getFinished());
+		putTime(created, index, build.getCreated());
+		putTime(updated, index, build.getUpdated());
+		putBoolean(isTag, index, build.getIsTag());
+		status.putByte(index, (byte) ordinal(build.getStatus()));
+
+		List<BuildJob> jobs = build.getJobs();
+		firstJob.putInt(index, totalJobCount);
+		jobCount.putInt(index, jobs == null ? 0 : jobs.size());
+		if (jobs != null) {
+			for (BuildJob job : jobs) {
+				addJob(job);
+			}
+		}
+
+		++buildCount;
+		if (build.getBuildId() != null) {
+			indexByBuildId.put(build.getBuildId(), index);
+		}
+		return index;
+	}
+
+	private void addJob(BuildJob job) {
+		int index = totalJobCount;
+		putHeapString(jobId, index, job.getJobId());
+		putDictionaryString(jobName, index, job.getName());
+		jobOsType.putByte(index, (byte) ordinal(job.getOsType()));
+		putBoolean(jobAllowFailure, index, job.getAllowFailure());
+		jobStatus.putByte(index, (byte) ordinal(job.getStatus()));
+		putInt(jobMessagesCount, index, job.getMessagesCount());
+		putInt(jobCompilationMessagesCount, index,
+				job.getCompilationMessagesCount());
+		putInt(jobCompilationErrorsCount, index,
+				job.getCompilationErrorsCount());
+		putInt(jobCompilationWarningsCount, index,
+				job.getCompilationWarningsCount());
+		putInt(jobTestsCount, index, job.getTestsCount());
+		putInt(jobPassedTestsCount, index, job.getPassedTestsCount());
+		putInt(jobFailedTestsCount, index, job.getFailedTestsCount());
+		putInt(jobArtifactsCount, index, job.getArtifactsCount());
+		putTime(jobStarted, index, job.getStarted());
+		putTime(jobFinished, index, job.getFinished());
+		putTime(jobCreated, index, job.getCreated());
+		putTime(jobUpdated, index, job.getUpdated());
+		++totalJobCount;
+	}
+
+	private static int ordinal(Enum<?> value) {
+		return value == null ? 0 : value.ordinal() + 1;
+	}
+
+	private static void putInt(Column column, int index, Integer value) {
+		column.putInt(index, value == null ? NO_INT : value);
+	}
+
+	private static void putTime(Column column, int index, DateTime value) {
+		column.putLong(index, value == null ? NO_TIME : value.getMillis());
+	}
+
+	private static void putBoolean(Column column, int index, Boolean value) {
+		column.putByte(index,
+				(byte) (value == null ? 0 : value ? 1 : 2));
+	}
+
+	private void putDictionaryString(Column column, int index, String value) {
+		column.putInt(index,
+				value == null ? NO_STRING : dictionary.codeOf(value));
+	}
+
+	private void putHeapString(Column column, int index, String value) {
+		if (value == null) {
+			column.putInt(index, NO_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int offset = heapSize;
+		if ((long) offset + 4 + bytes.length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Build store string heap is full");
+		}
+		heap.putIntAt(offset, bytes.length);
+		heap.putBytes(offset + 4, bytes);
+		heapSize = offset + 4 + bytes.length;
+		column.putInt(index, offset);
+	}
+
+	private static Integer getInteger(Column column, int index) {
+		int value = column.getInt(index);
+		return value == NO_INT ? null : value;
+	}
+
+	private static DateTime getDateTime(Column column, int index) {
+		long value = column.getLong(index);
+		return value == NO_TIME ? null : new DateTime(value);
+	}
+
+	private static Boolean getBoolean(Column column, int index) {
+		byte value = column.getByte(index);
+		return value == 0 ? null : value == 1;
+	}
+
+	private static <E> E getEnum(E[] values, Column column, int index) {
+		int ordinal = column.getByte(index);
+		return ordinal == 0 ? null : values[ordinal - 1];
+	}
+
+	private String getDictionaryString(Column column, int index) {
+		int code = column.getInt(index);
+		return code == NO_STRING ? null : dictionary.get(code);
+	}
+
+	private String getHeapString(Column column, int index) {
+		int offset = column.getInt(index);
+		if (offset == NO_STRING) {
+			return null;
+		}
+		byte[] bytes = new byte[heap.getIntAt(offset)];
+		heap.getBytes(offset + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void checkIndex(int index, int count) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException(
+					"Index " + index + " not in [0, " + count + ")");
+		}
+	}
+
+	/**
+	 * Gets the number of builds in the store.
+	 */
+	public int size() {
+		return buildCount;
+	}
+
+	/**
+	 * Gets the number of jobs in the store.
+	 */
+	public int getTotalJobCount() {
+		return totalJobCount;
+	}
+
+	/**
+	 * Gets the index of the last build added with an ID.
+	 *
+	 * @param buildId ID of the build.
+	 * @return Index of the build, or -1 if there is no build with
+	 * {@code buildId}.
+	 */
+	public int indexOf(int buildId) {
+		return indexByBuildId.get(buildId);
+	}
+
+	/**
+	 * Reconstructs a build and its jobs.
+	 *
+	 * @param index Index of the build.
+	 * @return New build with the stored properties.
+	 */
+	public Build getBuild(int index) {
+		checkIndex(index, buildCount);
+		Build build = new Build()
+				.buildId(getInteger(buildId, index))
+				.projectId(getInteger(projectId, index))
+				.buildNumber(getInteger(buildNumber, index))
+				.version(getHeapString(version, index))
+				.message(getDictionaryString(message, index))
+				.messageExtended(getHeapString(messageExtended, index))
+				.branch(getDictionaryString(branch, index))
+				.isTag(getBoolean(isTag, index))
+				.tag(getHeapString(tag, index))
+				.commitId(getHeapString(commitId, index))
+				.authorName(getDictionaryString(authorName, index))
+				.authorUsername(getDictionaryString(authorUsername, index))
+				.committerName(getDictionaryString(committerName, index))
+				.committerUsername(
+						getDictionaryString(committerUsername, index))
+				.committed(getDateTime(committed, index))
+				.status(getEnum(STATUSES, status, index))
+				.started(getDateTime(started, index))
+				.finished(getDateTime(finished, index))
+				.created(getDateTime(created, index))
+				.updated(getDateTime(updated, index));
+		int first = firstJob.getInt(index);
+		int count = jobCount.getInt(index);
+		List<BuildJob> jobs = new ArrayList<>(count);
+		for (int job = first; job < first + count; ++job) {
+			jobs.add(getJob(job));
+		}
+		build.setJobs(jobs);
+		return build;
+	}
+
+	/**
+	 * Reconstructs a job.
+	 *
+	 * @param jobIndex Index of the job in the store.
+	 * @return New job with the stored properties.
+	 */
+	public BuildJob getJob(int jobIndex) {
+		checkIndex(jobIndex, totalJobCount);
+		return new BuildJob()
+				.jobId(getHeapString(jobId, jobIndex))
+				.name(getDictionaryString(jobName, jobIndex))
+				.osType(getEnum(OS_TYPES, jobOsType, jobIndex))
+				.allowFailure(getBoolean(jobAllowFailure, jobIndex))
+				.messagesCount(getInteger(jobMessagesCount, jobIndex))
+				.compilationMessagesCount(
+						getInteger(jobCompilationMessagesCount, jobIndex))
+				.compilationErrorsCount(
+						getInteger(jobCompilationErrorsCount, jobIndex))
+				.compilationWarningsCount(
+						getInteger(jobCompilationWarningsCount, jobIndex))
+				.testsCount(getInteger(jobTestsCount, jobIndex))
+				.passedTestsCount(getInteger(jobPassedTestsCount, jobIndex))
+				.failedTestsCount(getInteger(jobFailedTestsCount, jobIndex))
+				.artifactsCount(getInteger(jobArtifactsCount, jobIndex))
+				.status(getEnum(STATUSES, jobStatus, jobIndex))
+				.started(getDateTime(jobStarted, jobIndex))
+				.finished(getDateTime(jobFinished, jobIndex))
+				.created(getDateTime(jobCreated, jobIndex))
+				.updated(getDateTime(jobUpdated, jobIndex));
+	}
+
+	/**
+	 * Gets the ID of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return The {@code buildId}, or {@link Integer#MIN_VALUE} if absent.
+	 */
+	public int getBuildId(int index) {
+		checkIndex(index, buildCount);
+		return buildId.getInt(index);
+	}
+
+	/**
+	 * Gets the project ID of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return The {@code projectId}, or {@link Integer#MIN_VALUE} if absent.
+	 */
+	public int getProjectId(int index) {
+		checkIndex(index, buildCount);
+		return projectId.getInt(index);
+	}
+
+	/**
+	 * Gets the status of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return The {@code status}, or {@code null} if absent.
+	 */
+	public Status getStatus(int index) {
+		checkIndex(index, buildCount);
+		return getEnum(STATUSES, status, index);
+	}
+
+	/**
+	 * Gets the branch of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return The {@code branch}, or {@code null} if absent.  Equal branches
+	 * are the same instance.
+	 */
+	public String getBranch(int index) {
+		checkIndex(index, buildCount);
+		return getDictionaryString(branch, index);
+	}
+
+	/**
+	 * Gets the author name of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return The {@code authorName}, or {@code null} if absent.  Equal names
+	 * are the same instance.
+	 */
+	public String getAuthorName(int index) {
+		checkIndex(index, buildCount);
+		return getDictionaryString(authorName, index);
+	}
+
+	/**
+	 * Gets the dictionary code of the branch of a build, or -1 if absent.
+	 */
+	int getBranchCode(int index) {
+		checkIndex(index, buildCount);
+		return branch.getInt(index);
+	}
+
+	/**
+	 * Gets the dictionary code of the author name of a build, or -1 if
+	 * absent.
+	 */
+	int getAuthorNameCode(int index) {
+		checkIndex(index, buildCount);
+		return authorName.getInt(index);
+	}
+
+	/**
+	 * Gets the string for a dictionary code, or {@code null} for -1.
+	 */
+	String getString(int code) {
+		return code == NO_STRING ? null : dictionary.get(code);
+	}
+
+	/**
+	 * Gets the time a build was created.
+	 *
+	 * @param index Index of the build.
+	 * @return Milliseconds since the epoch, or {@link #NO_TIME} if absent.
+	 */
+	public long getCreated(int index) {
+		checkIndex(index, buildCount);
+		return created.getLong(index);
+	}
+
+	/**
+	 * Gets the time a build started.
+	 *
+	 * @param index Index of the build.
+	 * @return Milliseconds since the epoch, or {@link #NO_TIME} if absent.
+	 */
+	public long getStarted(int index) {
+		checkIndex(index, buildCount);
+		return started.getLong(index);
+	}
+
+	/**
+	 * Gets the time a build finished.
+	 *
+	 * @param index Index of the build.
+	 * @return Milliseconds since the epoch, or {@link #NO_TIME} if absent.
+	 */
+	public long getFinished(int index) {
+		checkIndex(index, buildCount);
+		return finished.getLong(index);
+	}
+
+	/**
+	 * Gets the index of the first job of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return Index of the first job of the build in the store.  The jobs of
+	 * a build have consecutive indexes.
+	 */
+	public int getFirstJob(int index) {
+		checkIndex(index, buildCount);
+		return firstJob.getInt(index);
+	}
+
+	/**
+	 * Gets the number of jobs of a build.
+	 *
+	 * @param index Index of the build.
+	 * @return Number of jobs of the build.
+	 */
+	public int getJobCount(int index) {
+		checkIndex(index, buildCount);
+		return jobCount.getInt(index);
+	}
+
+	/**
+	 * Gets the status of a job.
+	 *
+	 * @param jobIndex Index of the job in the store.
+	 * @return The {@code status}, or {@code null} if absent.
+	 */
+	public Status getJobStatus(int jobIndex) {
+		checkIndex(jobIndex, totalJobCount);
+		return getEnum(STATUSES, jobStatus, jobIndex);
+	}
+
+	/**
+	 * Gets the name of a job.
+	 *
+	 * @param jobIndex Index of the job in the store.
+	 * @return The {@code name}, or {@code null} if absent.  Equal names are
+	 * the same instance.
+	 */
+	public String getJobName(int jobIndex) {
+		checkIndex(jobIndex, totalJobCount);
+		return getDictionaryString(jobName, jobIndex);
+	}
+
+	/**
+	 * Gets the time a job started.
+	 *
+	 * @param jobIndex Index of the job in the store.
+	 * @return Milliseconds since the epoch, or {@link #NO_TIME} if absent.
+	 */
+	public long getJobStarted(int jobIndex) {
+		checkIndex(jobIndex, totalJobCount);
+		return jobStarted.getLong(jobIndex);
+	}
+
+	/**
+	 * Gets the time a job finished.
+	 *
+	 * @param jobIndex Index of the job in the store.
+	 * @return Milliseconds since the epoch, or {@link #NO_TIME} if absent.
+	 */
+	public long getJobFinished(int jobIndex) {
+		checkIndex(jobIndex, totalJobCount);
+		return jobFinished.getLong(jobIndex);
+	}
+
+	/**
+	 * Gets the approximate number of bytes used by the columns and string
+	 * dictionary of the store, excluding unused capacity.
+	 */
+	public long getDataSize() {
+		long size = heapSize + dictionary.getDataSize();
+		for (Column column : buildColumns) {
+			size += (long) column.width * buildCount;
+		}
+		for (Column column : jobColumns) {
+			size += (long) column.width * totalJobCount;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes of the columns of the store, including unused
+	 * capacity.
+	 */
+	long getColumnCapacity() {
+		long capacity = heap.capacity();
+		for (Column column : buildColumns) {
+			capacity += column.capacity();
+		}
+		for (Column column : jobColumns) {
+			capacity += column.capacity();
+		}
+		return capacity;
+	}
+
+	/**
+	 * Growable column of fixed-width values in a {@link ByteBuffer}.
+	 */
+	private final class Column {
+		final int width;
+		private ByteBuffer buffer;
+		/** Whether buffer is mapped from a file and must be copied. */
+		private boolean mapped;
+
+		Column(int width) {
+			this.width = width;
+			buffer = allocate(MIN_CAPACITY * width);
+		}
+
+		private ByteBuffer allocate(int capacity) {
+			return direct ? ByteBuffer.allocateDirect(capacity)
+					: ByteBuffer.allocate(capacity);
+		}
+
+		/** Uses the next count values of a file buffer as the column. */
+		void map(ByteBuffer file, int count) {
+			int size = Math.multiplyExact(count, width);
+			ByteBuffer slice = file.slice();
+			// Note: Cast to Buffer, since ByteBuffer overrides are Java 9+
+			((Buffer) slice).limit(size);
+			((Buffer) file).position(file.position() + size);
+			// Slice again so the capacity is size, not the rest of the file
+			buffer = slice.slice();
+			mapped = true;
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+		/** Ensures there is a writable buffer with room for size bytes. */
+		private void reserve(int size) {
+			if (size <= buffer.capacity() && !mapped) {
+				return;
+			}
+			long newCapacity = Math.max(size, Math.max(
+					(long) buffer.capacity() * 2, MIN_CAPACITY * width));
+			ByteBuffer newBuffer =
+					allocate((int) Math.min(newCapacity, Integer.MAX_VALUE));
+			ByteBuffer oldBuffer = buffer.duplicate();
+			((Buffer) oldBuffer).clear();
+			newBuffer.put(oldBuffer);
+			((Buffer) newBuffer).clear();
+			buffer = newBuffer;
+			mapped = false;
+		}
+
+		int getInt(int index) {
+			return buffer.getInt(index * width);
+		}
+
+		/** Gets an int at a byte offset, for the heap. */
+		int getIntAt(int offset) {
+			return buffer.getInt(offset);
+		}
+
+		long getLong(int index) {
+			return buffer.getLong(index * width);
+		}
+
+		byte getByte(int index) {
+			return buffer.get(index * width);
+		}
+
+		/** Gets bytes at a byte offset, for the heap. */
+		void getBytes(int offset, byte[] bytes) {
+			ByteBuffer source = buffer.duplicate();
+			((Buffer) source).position(offset);
+			source.get(bytes);
+		}
+
+		void putInt(int index, int value) {
+			reserve((index + 1) * width);
+			buffer.putInt(index * width, value);
+		}
+
+		/** Puts an int at a byte offset, for the heap. */
+		void putIntAt(int offset, int value) {
+			reserve(offset + 4);
+			buffer.putInt(offset, value);
+		}
+
+		void putLong(int index, long value) {
+			reserve((index + 1) * width);
+			buffer.putLong(index * width, value);
+		}
+
+		void putByte(int index, byte value) {
+			reserve((index + 1) * width);
+			buffer.put(index * width, value);
+		}
+
+		/** Puts bytes at a byte offset, for the heap. */
+		void putBytes(int offset, byte[] bytes) {
+			reserve(offset + bytes.length);
+			ByteBuffer target = buffer.duplicate();
+			((Buffer) target).position(offset);
+			target.put(bytes);
+		}
+
+		void write(WritableByteChannel channel, int count) throws IOException {
+			ByteBuffer source = buffer.duplicate();
+			((Buffer) source).clear().limit(count * width);
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+	}
+
+	/**
+	 * Hash table from build ID to the index of the build, which holds only
+	 * the index in each slot and compares keys using the buildId column, so
+	 * that it neither boxes indexes nor duplicates the IDs.
+	 */
+	private final class BuildIdIndex {
+		/** Index + 1 of the build in each slot, or 0 if empty. */
+		private int[] slots;
+		private int size;
+
+		BuildIdIndex(int expectedSize) {
+			slots = new int[IntIndex.capacityFor(expectedSize)];
+		}
+
+		private int slotOf(int id) {
+			int mask = slots.length - 1;
+			int slot = IntIndex.hash(id) & mask;
+			int entry;
+			while ((entry = slots[slot]) != 0
+					&& buildId.getInt(entry - 1) != id) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		/** Gets the index of a build, or -1 if there is none. */
+		int get(int id) {
+			return slots[slotOf(id)] - 1;
+		}
+
+		void put(int id, int index) {
+			int slot = slotOf(id);
+			if (slots[slot] == 0) {
+				if (size >= slots.length * 2 / 3) {
+					resize();
+					slot = slotOf(id);
+				}
+				++size;
+			}
+			slots[slot] = index + 1;
+		}
+
+		private void resize() {
+			int[] oldSlots = slots;
+			slots = new int[oldSlots.length * 2];
+			int mask = slots.length - 1;
+			for (int entry : oldSlots) {
+				if (entry != 0) {
+					int slot = IntIndex.hash(buildId.getInt(entry - 1)) & mask;
+					while (slots[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					slots[slot] = entry;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dictionary of strings which repeat between builds, which assigns each
+	 * distinct string a code.
+	 */
+	private static final class StringDictionary {
+		private String[] strings = new String[MIN_CAPACITY];
+		private int size;
+		private long dataSize;
+		/** Code + 1 of the string in each slot, or 0 if empty. */
+		private int[] codeSlots = new int[IntIndex.capacityFor(MIN_CAPACITY)];
+
+		int size() {
+			return size;
+		}
+
+		String get(int code) {
+			return strings[code];
+		}
+
+		void add(String string) {
+			if (size == strings.length) {
+				strings = Arrays.copyOf(strings, size * 2);
+			}
+			strings[size] = string;
+			if (size >= codeSlots.length * 2 / 3) {
+				int[] oldSlots = codeSlots;
+				codeSlots = new int[oldSlots.length * 2];
+				for (int oldSlot : oldSlots) {
+					if (oldSlot != 0) {
+						codeSlots[emptySlotOf(strings[oldSlot - 1])] = oldSlot;
+					}
+				}
+			}
+			codeSlots[emptySlotOf(string)] = ++size;
+			// Note: Approximate size of String with compact Latin-1 bytes
+			dataSize += 40 + string.length();
+		}
+
+		int codeOf(String string) {
+			int mask = codeSlots.length - 1;
+			int slot = IntIndex.hash(string.hashCode()) & mask;
+			int entry;
+			while ((entry = codeSlots[slot]) != 0) {
+				if (strings[entry - 1].equals(string)) {
+					return entry - 1;
+				}
+				slot = (slot + 1) & mask;
+			}
+			int code = size;
+			add(string);
+			return code;
+		}
+
+		/** Gets the empty slot where a string not in codeSlots belongs. */
+		private int emptySlotOf(String string) {
+			int mask = codeSlots.length - 1;
+			int slot = IntIndex.hash(string.hashCode()) & mask;
+			while (codeSlots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		long getDataSize() {
+			return dataSize;
+		}
+	}
+}
@@ -0,0 +1,422 @@
+package name.kevinlocke.appveyor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.Call;
+
+import name.kevinlocke.appveyor.api.DeploymentApi;
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.model.ProjectBuildResults;
+import name.kevinlocke.appveyor.model.ProjectDeployment;
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Waits for any number of builds and deployments to complete using a single
+ * thread.
+ *
+ * Each watch polls the API asynchronously with an interval which starts at
+ * {@link #getInitialInterval()} and grows by {@link #getBackoffMultiplier()}
+ * while the status is unchanged, up to {@link #getMaxInterval()}.  Polls are
+ * scheduled on a hashed timing wheel and limited by a request budget of
+ * {@link #getMaxRequestsPerSecond()} shared by all watches.  When the budget
+ * is exhausted, due polls are delayed until the next tick.
+ *
+ * Watches complete with the first response which has a terminal
+ * {@link Status} (see {@link #isTerminal(Status)}), or exceptionally after
+ * a 404 response or {@link #getMaxConsecutiveFailures()} consecutive failed
+ * requests.  Cancelling a returned future stops the watch.
+ */
+public class CompletionWatcher implements Closeable {
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	private final ProjectApi projectApi;
+	private final DeploymentApi deploymentApi;
+
+	private volatile long initialIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+	private volatile long maxIntervalNanos = TimeUnit.SECONDS.toNanos(30);
+	private volatile double backoffMultiplier = 1.5;
+	private volatile double maxRequestsPerSecond = 10;
+	private volatile int maxConsecutiveFailures = 5;
+
+	/** Watches to be added to the wheel by the wheel thread. */
+	private final Queue<Watch<?>> scheduleQueue = new ConcurrentLinkedQueue<>();
+	/** Watches which have not completed. */
+	private final Set<Watch<?>> activeWatches = ConcurrentHashMap.newKeySet();
+	private final Thread wheelThread;
+	private volatile boolean closed;
+
+	// State below is only accessed by wheelThread
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private final List<Watch<?>>[] wheel = new List[WHEEL_SIZE];
+	private long tick;
+	private double requestBudget;
+
+	public CompletionWatcher(ApiClient apiClient) {
+		this.projectApi = new ProjectApi(apiClient);
+		this.deploymentApi = new DeploymentApi(apiClient);
+		for (int i = 0; i < WHEEL_SIZE; ++i) {
+			wheel[i] = new ArrayList<>();
+		}
+		wheelThread = new Thread(this::runWheel, "appveyor-completion-watcher");
+		wheelThread.setDaemon(true);
+		wheelThread.start();
+	}
+
+	/**
+	 * Determines whether a build or deployment with a given status has
+	 * finished.
+	 *
+	 * @param status Status of a build or deployment.
+	 * @return {@code true} if {@code status} will not change.
+	 */
+	public static boolean isTerminal(Status status) {
+		return status == Status.SUCCESS
+				|| status == Status.FAILED
+				|| status == Status.CANCELLED;
+	}
+
+	public long getInitialInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(initialIntervalNanos);
+	}
+
+	/**
+	 * Sets the interval between the first polls of a watch.
+	 *
+	 * @param interval Interval between polls.
+	 * @param unit Unit of {@code interval}.
+	 * @return CompletionWatcher
+	 */
+	public CompletionWatcher setInitialInterval(long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.initialIntervalNanos = unit.toNanos(interval);
+		return this;
+	}
+
+	public long getMaxInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(maxIntervalNanos);
+	}
+
+	/**
+	 * Sets the maximum interval between polls of a watch.
+	 *
+	 * @param interval Maximum interval between polls.
+	 * @param unit Unit of {@code interval}.
+	 * @return CompletionWatcher
+	 */
+	public CompletionWatcher setMaxInterval(long interval, TimeUnit unit) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval must be positive");
+		}
+		this.maxIntervalNanos = unit.toNanos(interval);
+		return this;
+	}
+
+	public double getBackoffMultiplier() {
+		return backoffMultiplier;
+	}
+
+	/**
+	 * Sets the factor by which the poll interval grows while the status of
+	 * a watch is unchanged.
+	 *
+	 * @param backoffMultiplier Factor, at least 1.
+	 * @return CompletionWatcher
+	 */
+	public CompletionWatcher setBackoffMultiplier(double backoffMultiplier) {
+		if (!(backoffMultiplier >= 1)) {
+			throw new IllegalArgumentException(
+					"backoffMultiplier must be at least 1");
+		}
+		this.backoffMultiplier = backoffMultiplier;
+		return this;
+	}
+
+	public double getMaxRequestsPerSecond() {
+		return maxRequestsPerSecond;
+	}
+
+	/**
+	 * Sets the maximum rate of polling requests for all watches.
+	 *
+	 * @param maxRequestsPerSecond Maximum requests per second.
+	 * @return CompletionWatcher
+	 */
+	public CompletionWatcher setMaxRequestsPerSecond(
+			double maxRequestsPerSecond) {
+		if (!(maxRequestsPerSecond > 0)) {
+			throw new IllegalArgumentException(
+					"maxRequestsPerSecond must be positive");
+		}
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+		return this;
+	}
+
+	public int getMaxConsecutiveFailures() {
+		return maxConsecutiveFailures;
+	}
+
+	/**
+	 * Sets the number of consecutive failed polls after which a watch
+	 * completes exceptionally.
+	 *
+	 * @param maxConsecutiveFailures Number of failures, at least 1.
+	 * @return CompletionWatcher
+	 */
+	public CompletionWatcher setMaxConsecutiveFailures(
+			int maxConsecutiveFailures) {
+		if (maxConsecutiveFailures < 1) {
+			throw new IllegalArgumentException(
+					"maxConsecutiveFailures must be at least 1");
+		}
+		this.maxConsecutiveFailures = maxConsecutiveFailures;
+		return this;
+	}
+
+	/**
+	 * Gets the number of watches which have not completed.
+	 */
+	public int getWatchCount() {
+		return activeWatches.size();
+	}
+
+	/**
+	 * Watches a build until it has a terminal status.
+	 *
+	 * @param accountName Account name of the project.
+	 * @param projectSlug Slug of the project.
+	 * @param buildVersion Version of the build.
+	 * @return Future which completes with the project and finished build.
+	 */
+	public CompletableFuture<ProjectBuildResults> watchBuild(
+			String accountName, String projectSlug, String buildVersion) {
+		return start(new Watch<ProjectBuildResults>() {
+			@Override
+			protected Call call(ApiCallback<ProjectBuildResults> callback)
+					throws ApiException {
+				return projectApi.getProjectBuildByVersionAsync(accountName,
+						projectSlug, buildVersion, callback);
+			}
+
+			@Override
+			protected Status getStatus(ProjectBuildResults result) {
+				return result.getBuild().getStatus();
+			}
+		});
+	}
+
+	/**
+	 * Watches a deployment until it has a terminal status.
+	 *
+	 * @param deploymentId ID of the deployment.
+	 * @return Future which completes with the project and finished
+	 * deployment.
+	 */
+	public CompletableFuture<ProjectDeployment> watchDeployment(
+			Integer deploymentId) {
+		return start(new Watch<ProjectDeployment>() {
+			@Override
+			protected Call call(ApiCallback<ProjectDeployment> callback)
+					throws ApiException {
+				return deploymentApi.getDeploymentAsync(deploymentId, callback);
+			}
+
+			@Override
+			protected Status getStatus(ProjectDeployment result) {
+				return result.getDeployment().getStatus();
+			}
+		});
+	}
+
+	/**
+	 * Stops all watches and the wheel thread.  Futures for watches which have
+	 * not completed are cancelled.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		wheelThread.interrupt();
+		for (Watch<?> watch : activeWatches) {
+			watch.future.cancel(false);
+		}
+	}
+
+	private <T> CompletableFuture<T> start(Watch<T> watch) {
+		if (closed) {
+			throw new IllegalStateException("CompletionWatcher is closed");
+		}
+		watch.intervalNanos = initialIntervalNanos;
+		watch.future.whenComplete((result, exception) -> {
+			activeWatches.remove(watch);
+			Call call = watch.call;
+			if (call != null && watch.future.isCancelled()) {
+				call.cancel();
+			}
+		});
+		activeWatches.add(watch);
+		// Poll immediately, since the build or deployment may have finished
+		watch.delayNanos = 0;
+		scheduleQueue.add(watch);
+		if (closed) {
+			watch.future.cancel(false);
+		}
+		return watch.future;
+	}
+
+	private void runWheel() {
+		long startNanos = System.nanoTime();
+		while (!closed) {
+			long sleepNanos = startNanos + (tick + 1) * TICK_NANOS
+					- System.nanoTime();
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					// Interrupted by close()
+					continue;
+				}
+			}
+			++tick;
+
+			double maxBudget = Math.max(1, maxRequestsPerSecond);
+			requestBudget = Math.min(maxBudget, requestBudget
+					+ maxRequestsPerSecond * TICK_NANOS / 1e9);
+
+			Watch<?> scheduled;
+			while ((scheduled = scheduleQueue.poll()) != null) {
+				addToWheel(scheduled,
+						Math.max(0, scheduled.delayNanos) / TICK_NANOS);
+			}
+
+			List<Watch<?>> bucket = wheel[(int) (tick & WHEEL_MASK)];
+			List<Watch<?>> deferred = null;
+			for (Iterator<Watch<?>> it = bucket.iterator(); it.hasNext();) {
+				Watch<?> watch = it.next();
+				if (watch.deadlineTick > tick) {
+					// Due in a later rotation of the wheel
+					continue;
+				}
+				it.remove();
+				if (watch.future.isDone()) {
+					continue;
+				}
+				if (requestBudget < 1) {
+					if (deferred == null) {
+						deferred = new ArrayList<>();
+					}
+					deferred.add(watch);
+					continue;
+				}
+				requestBudget -= 1;
+				watch.poll();
+			}
+
+			if (deferred != null) {
+				for (Watch<?> watch : deferred) {
+					addToWheel(watch, 1);
+				}
+			}
+		}
+	}
+
+	private void addToWheel(Watch<?> watch, long delayTicks) {
+		watch.deadlineTick = tick + Math.max(1, delayTicks);
+		wheel[(int) (watch.deadlineTick & WHEEL_MASK)].add(watch);
+	}
+
+	private abstract class Watch<T> implements ApiCallback<T> {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		volatile Call call;
+		Status lastStatus;
+		long intervalNanos;
+		long delayNanos;
+		long deadlineTick;
+		int consecutiveFailures;
+
+		protected abstract Call call(ApiCallback<T> callback)
+				throws ApiException;
+
+		protected abstract Status getStatus(T result);
+
+		void poll() {
+			try {
+				call = call(this);
+			} catch (ApiException e) {
+				// Request could not be built.  Retrying will not help.
+				future.completeExceptionally(e);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		void reschedule() {
+			if (future.isDone()) {
+				return;
+			}
+			// Add up to 10% jitter to spread out polls of watches started
+			// together
+			double jitter = 1 + ThreadLocalRandom.current().nextDouble(0.1);
+			delayNanos = (long) (intervalNanos * jitter);
+			intervalNanos = Math.min(maxIntervalNanos,
+					(long) (intervalNanos * backoffMultiplier));
+			scheduleQueue.add(this);
+		}
+
+		@Override
+		public void onSuccess(T result, int statusCode,
+				Map<String, List<String>> responseHeaders) {
+			consecutiveFailures = 0;
+			Status status;
+			try {
+				status = getStatus(result);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				return;
+			}
+			if (isTerminal(status)) {
+				future.complete(result);
+				return;
+			}
+			if (status != lastStatus) {
+				lastStatus = status;
+				intervalNanos = initialIntervalNanos;
+			}
+			reschedule();
+		}
+
+		@Override
+		public void onFailure(ApiException e, int statusCode,
+				Map<String, List<String>> responseHeaders) {
+			if (statusCode == 404
+					|| ++consecutiveFailures >= maxConsecutiveFailures) {
+				future.completeExceptionally(e);
+				return;
+			}
+			reschedule();
+		}
+
+		@Override
+		public void onUploadProgress(long bytesWritten, long contentLength,
+				boolean done) {
+		}
+
+		@Override
+		public void onDownloadProgress(long bytesRead, long contentLength,
+				boolean done) {
+		}
+	}
+}
@@ -1,11 +1,46 @@
 package name.kevinlocke.appveyor;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.google.gson.JsonParseException;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+import name.kevinlocke.appveyor.api.BuildApi;
 
 /**
  * AppVeyor API Client with enhancements not present in the generated
@@ -15,39 +50,1218 @@ import com.squareup.okhttp.Response;
  * body of HTTP errors and throwing it inside an
  * {@link name.kevinlocke.appveyor.ApiExceptionWithModel}.
  * https://github.com/swagger-api/swagger-codegen/issues/2602
+ *
+ * Bodies of HTTP errors are read up to {@link #getMaxErrorBodySize()} bytes
+ * and exceptions defer building the header map and decoding the body until
+ * requested, to reduce the cost of errors which are handled by status code.
+ *
+ * Support caching responses using a {@link HttpResponseCache}.
+ *
+ * Support reporting download progress from the generated {@code *Async}
+ * methods without accumulating interceptors in the HTTP client.
+ *
+ * Support limiting the rate of requests using a {@link RateLimiter}.
+ *
+ * Support retrying and hedging GET requests using a {@link RetryPolicy} for
+ * each operation.
+ *
+ * Support coalescing identical concurrent GET requests into a single request
+ * with a shared result, using {@link #setCoalescing(boolean)}.
+ *
+ * Support streaming file downloads to a {@link BufferedSource}, a
+ * {@link WritableByteChannel}, or a given {@link File}, rather than a
+ * temporary file, using {@link #openDownload(DownloadOperation)},
+ * {@code downloadTo}, and
+ * {@link #resumeDownloadTo(File, DownloadOperation)}, optionally starting
+ * at an offset using {@link #openDownload(long, DownloadOperation)}.
+ *
+ * Support deserializing JSON response bodies as they are read, rather than
+ * reading the body into a {@code String} first, when the JSON
+ * serializer/deserializer is an {@link EnhancedJSON}.
+ *
+ * Support decoding the elements of a JSON array in a response body one at a
+ * time, as they are read, for responses which are only iterated once, using
+ * {@code forEachElement} and {@code streamElements}.
  */
 public class EnhancedApiClient extends ApiClient {
+	/** Default value of {@link #getMaxErrorBodySize()}. */
+	public static final long DEFAULT_MAX_ERROR_BODY_SIZE = 64 * 1024;
+
+	/** Package of the generated API classes, with a trailing dot. */
+	private static final String API_PACKAGE = BuildApi.class.getName()
+			.substring(0, BuildApi.class.getName().lastIndexOf('.') + 1);
+
+	private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+	private static final Class<name.kevinlocke.appveyor.model.Error>
+			ERROR_CLASS = name.kevinlocke.appveyor.model.Error.class;
+
+	/**
+	 * Progress interceptor added by a generated {@code *Async} method on
+	 * this thread for the call it is building.
+	 */
+	private final ThreadLocal<Interceptor> pendingProgressInterceptor =
+			new ThreadLocal<>();
+
+	private volatile long maxErrorBodySize = DEFAULT_MAX_ERROR_BODY_SIZE;
+
+	private HttpResponseCache responseCache;
+
+	private RateLimiter rateLimiter;
+
+	private final RetryInterceptor retryInterceptor = new RetryInterceptor(this);
+
+	private volatile boolean coalescing;
+
+	private final RequestCoalescer coalescer = new RequestCoalescer();
+
+	/** Last call built on the current thread which may be coalesced. */
+	private final ThreadLocal<CoalescableCall> coalescableCall =
+			new ThreadLocal<>();
+
+	/** Receiver of the next file download on the current thread, if any. */
+	private final ThreadLocal<DownloadReceiver> downloadReceiver =
+			new ThreadLocal<>();
+
+	/** Receiver of the next JSON response on the current thread, if any. */
+	private final ThreadLocal<ElementReceiver<?>> elementReceiver =
+			new ThreadLocal<>();
+
+	/** Range header for the next request on the current thread, if any. */
+	private final ThreadLocal<String> downloadRange = new ThreadLocal<>();
+
+	/**
+	 * A blocking API operation which downloads a file, such as
+	 * {@code () -> buildApi.getBuildArtifact(jobId, artifactFileName)}.
+	 */
+	@FunctionalInterface
+	public interface DownloadOperation {
+		File download() throws ApiException;
+	}
+
+	@FunctionalInterface
+	private interface DownloadReceiver {
+		void receive(Response response) throws IOException;
+	}
+
+	/**
+	 * A blocking API operation which returns a JSON array, or an object with
+	 * an array property, such as {@code () -> userApi.getUsers()}.
+	 */
+	@FunctionalInterface
+	public interface ListOperation {
+		Object list() throws ApiException;
+	}
+
+	/**
+	 * Opens the elements of an array in the next JSON response received on
+	 * the current thread.
+	 */
+	private static final class ElementReceiver<T> {
+		final String property;
+		final TypeAdapter<T> elementAdapter;
+		JsonArrayIterator<T> elements;
+
+		ElementReceiver(String property, TypeAdapter<T> elementAdapter) {
+			this.property = property;
+			this.elementAdapter = elementAdapter;
+		}
+
+		void receive(Response response) throws IOException {
+			elements = JsonArrayIterator.open(response.body().charStream(),
+					property, elementAdapter);
+		}
+	}
+
+	private static final class CoalescableCall {
+		final Call call;
+		final String key;
+
+		CoalescableCall(Call call, String key) {
+			this.call = call;
+			this.key = key;
+		}
+	}
+
+	public EnhancedApiClient() {
+		setHttpClient(new ProgressOkHttpClient());
+		setJSON(new EnhancedJSON(this));
+	}
+
+	/**
+	 * Gets the maximum number of bytes read from the body of an HTTP error.
+	 *
+	 * @return Maximum number of bytes of error body to read.
+	 */
+	public long getMaxErrorBodySize() {
+		return maxErrorBodySize;
+	}
+
+	/**
+	 * Sets the maximum number of bytes read from the body of an HTTP error.
+	 *
+	 * Error bodies which are larger are available from
+	 * {@link ApiException#getResponseBody()} truncated to this size (and as
+	 * indicated by {@link ResponseApiException#isResponseBodyTruncated()}) and
+	 * are not parsed.
+	 *
+	 * @param maxErrorBodySize Maximum number of bytes of error body to read.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setMaxErrorBodySize(long maxErrorBodySize) {
+		if (maxErrorBodySize < 0) {
+			throw new IllegalArgumentException(
+					"maxErrorBodySize must be non-negative");
+		}
+		this.maxErrorBodySize = maxErrorBodySize;
+		return this;
+	}
+
+	/**
+	 * Gets the cache of API responses.
+	 *
+	 * @return Response cache, or {@code null} if responses are not cached.
+	 */
+	public HttpResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	/**
+	 * Sets the cache of API responses.
+	 *
+	 * The cache is added as the first interceptor of the HTTP client, so that
+	 * cached responses skip any other interceptors.
+	 *
+	 * @param responseCache Response cache, or {@code null} to not cache.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setResponseCache(HttpResponseCache responseCache) {
+		if (this.responseCache != responseCache) {
+			List<Interceptor> interceptors = getHttpClient().interceptors();
+			if (this.responseCache != null) {
+				interceptors.remove(this.responseCache);
+			}
+			if (responseCache != null) {
+				interceptors.add(0, responseCache);
+			}
+			this.responseCache = responseCache;
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the limiter of the API request rate.
+	 *
+	 * @return Rate limiter, or {@code null} if requests are not limited.
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Sets the limiter of the API request rate.
+	 *
+	 * The limiter is added as the last interceptor of the HTTP client, so
+	 * that responses from the {@link #getResponseCache()} are not limited.
+	 *
+	 * @param rateLimiter Rate limiter, or {@code null} to not limit.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setRateLimiter(RateLimiter rateLimiter) {
+		if (this.rateLimiter != rateLimiter) {
+			List<Interceptor> interceptors = getHttpClient().interceptors();
+			if (this.rateLimiter != null) {
+				interceptors.remove(this.rateLimiter);
+			}
+			if (rateLimiter != null) {
+				interceptors.add(rateLimiter);
+			}
+			this.rateLimiter = rateLimiter;
+		}
+		return this;
+	}
+
+	/**
+	 * Gets the retry policy for GET and HEAD requests to operations without
+	 * a policy set by {@link #setRetryPolicy(String, RetryPolicy)}.
+	 *
+	 * @return Retry policy, or {@code null} if requests are not retried.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryInterceptor.getDefaultPolicy();
+	}
+
+	/**
+	 * Sets the retry policy for GET and HEAD requests to operations without
+	 * a policy set by {@link #setRetryPolicy(String, RetryPolicy)}.
+	 *
+	 * @param retryPolicy Retry policy, or {@code null} to not retry.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setRetryPolicy(RetryPolicy retryPolicy) {
+		retryInterceptor.setDefaultPolicy(retryPolicy);
+		updateRetryInterceptor();
+		return this;
+	}
+
+	/**
+	 * Sets the retry policy for GET and HEAD requests to an operation.
+	 *
+	 * {@code pathTemplate} is a path from the API definition, as for
+	 * {@link HttpResponseCache#setFreshness(String, long,
+	 * java.util.concurrent.TimeUnit)}.
+	 *
+	 * @param pathTemplate API path with {@code {name}} for path parameters.
+	 * @param retryPolicy Retry policy, or {@code null} to use the policy from
+	 * {@link #getRetryPolicy()}.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setRetryPolicy(String pathTemplate,
+			RetryPolicy retryPolicy) {
+		retryInterceptor.setPolicy(pathTemplate, retryPolicy);
+		updateRetryInterceptor();
+		return this;
+	}
+
+	/**
+	 * Adds the retry interceptor to the HTTP client after the response cache
+	 * (so cached responses are not retried) and before the rate limiter (so
+	 * each attempt is limited), or removes it if there are no policies.
+	 */
+	private void updateRetryInterceptor() {
+		List<Interceptor> interceptors = getHttpClient().interceptors();
+		interceptors.remove(retryInterceptor);
+		if (!retryInterceptor.isEmpty()) {
+			int cacheIndex = responseCache != null
+					? interceptors.indexOf(responseCache) : -1;
+			interceptors.add(cacheIndex + 1, retryInterceptor);
+		}
+	}
+
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
+	/**
+	 * Sets whether identical concurrent GET requests are coalesced.
+	 *
+	 * When enabled, a blocking or {@code *Async} API call made while a call
+	 * with the same URL and headers (including the API token) is in flight
+	 * does not make a request.  Instead, it returns the same deserialized
+	 * result, or throws the same exception, as the call in flight.  Since
+	 * results are shared between callers, they must not be modified.
+	 * File downloads and calls made through {@code openDownload},
+	 * {@code downloadTo}, {@code forEachElement}, or {@code streamElements}
+	 * are not coalesced.
+	 *
+	 * @param coalescing Whether to coalesce identical concurrent requests.
+	 * @return EnhancedApiClient
+	 */
+	public EnhancedApiClient setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+		return this;
+	}
+
+	/**
+	 * Gets the number of calls which shared the result of an identical call,
+	 * rather than making a request.
+	 *
+	 * @return Number of coalesced calls.
+	 */
+	public long getCoalescedCount() {
+		return coalescer.getCoalescedCount();
+	}
+
+	/**
+	 * Gets the coalescing key of a call built on the current thread.
+	 *
+	 * @return Key of {@code call}, or {@code null} if it is not coalesced.
+	 */
+	private String takeCoalescingKey(Call call, Type returnType) {
+		CoalescableCall coalescable = coalescableCall.get();
+		if (coalescable == null) {
+			return null;
+		}
+		coalescableCall.remove();
+		if (coalescable.call != call || returnType == null
+				|| returnType.equals(File.class)) {
+			return null;
+		}
+		return coalescable.key;
+	}
+
+	@Override
+	public <T> ApiResponse<T> execute(Call call, Type returnType)
+			throws ApiException {
+		String key = takeCoalescingKey(call, returnType);
+		if (key == null) {
+			return super.execute(call, returnType);
+		}
+		return coalescer.execute(key, () -> super.execute(call, returnType));
+	}
+
+	@Override
+	public <T> void executeAsync(Call call, Type returnType,
+			ApiCallback<T> callback) {
+		String key = takeCoalescingKey(call, returnType);
+		if (key != null) {
+			callback = coalescer.executeAsync(key, callback);
+			if (callback == null) {
+				// Joined an identical call in flight
+				return;
+			}
+		}
+		super.executeAsync(call, returnType, callback);
+	}
+
+	/**
+	 * Determines whether a response body can be deserialized to a given type
+	 * as it is read.
+	 *
+	 * Types with special handling in
+	 * {@link ApiClient#deserialize(Response, Type)} or
+	 * {@link JSON#deserialize(String, Type)} are excluded.
+	 */
+	protected static boolean isStreamable(Type returnType) {
+		return !returnType.equals(String.class)
+				&& !returnType.equals(File.class)
+				&& !returnType.equals(Date.class)
+				&& !"byte[]".equals(returnType.toString());
+	}
+
+	@Override
+	public <T> T deserialize(Response response, Type returnType)
+			throws ApiException {
+		ElementReceiver<?> receiver = elementReceiver.get();
+		if (receiver != null && response != null && returnType != null
+				&& response.body() != null && isStreamable(returnType)) {
+			String contentType = response.header("Content-Type");
+			if (contentType == null || isJsonMime(contentType)) {
+				// Only the first response of the operation is redirected
+				elementReceiver.remove();
+				try {
+					receiver.receive(response);
+				} catch (IOException e) {
+					throw new ApiException(e);
+				}
+				return null;
+			}
+		}
+
+		JSON json = getJSON();
+		if (response == null
+				|| returnType == null
+				|| response.body() == null
+				|| !(json instanceof EnhancedJSON)
+				|| !isStreamable(returnType)) {
+			return super.deserialize(response, returnType);
+		}
+
+		String contentType = response.header("Content-Type");
+		if (contentType != null && !isJsonMime(contentType)) {
+			// Let ApiClient produce its exception, which includes the body
+			return super.deserialize(response, returnType);
+		}
+
+		ResponseBody body = response.body();
+		try (Reader bodyReader = body.charStream()) {
+			return ((EnhancedJSON) json).deserialize(bodyReader, returnType);
+		} catch (IOException e) {
+			throw new ApiException(e);
+		}
+	}
+
+	@Override
+	public File downloadFileFromResponse(Response response)
+			throws ApiException {
+		DownloadReceiver receiver = downloadReceiver.get();
+		if (receiver == null) {
+			return super.downloadFileFromResponse(response);
+		}
+
+		// Only the first download made by the operation is redirected
+		downloadReceiver.remove();
+		try {
+			receiver.receive(response);
+		} catch (IOException e) {
+			throw new ApiException(e);
+		}
+		return null;
+	}
+
+	private <T> JsonArrayIterator<T> openElements(String property,
+			Class<T> elementType, ListOperation operation)
+			throws ApiException {
+		if (elementReceiver.get() != null) {
+			throw new IllegalStateException(
+					"List already in progress on this thread");
+		}
+		ElementReceiver<T> receiver = new ElementReceiver<>(property,
+				getJSON().getGson().getAdapter(elementType));
+		elementReceiver.set(receiver);
+		try {
+			operation.list();
+		} catch (ApiException | RuntimeException e) {
+			if (receiver.elements != null) {
+				receiver.elements.close();
+			}
+			throw e;
+		} finally {
+			elementReceiver.remove();
+		}
+		if (receiver.elements == null) {
+			throw new ApiException("Operation did not return JSON");
+		}
+		return receiver.elements;
+	}
+
+	/**
+	 * Passes each element of a JSON array response to a consumer as it is
+	 * decoded, rather than decoding the whole {@code List}.
+	 *
+	 * {@code operation} must call a blocking API method which returns a
+	 * {@code List} (not an {@code *Async} method) on the current thread.  The
+	 * value returned by the API method is {@code null}.
+	 *
+	 * @param <T> Type of the elements.
+	 * @param elementType Type of the elements.
+	 * @param operation Operation which returns a JSON array.
+	 * @param consumer Consumer of each element, in order.
+	 * @return Number of elements passed to {@code consumer}.
+	 * @throws ApiException If the request is unsuccessful, reading the
+	 * response fails, or {@code operation} does not return JSON.
+	 */
+	public <T> long forEachElement(Class<T> elementType,
+			ListOperation operation, Consumer<? super T> consumer)
+			throws ApiException {
+		return forEachElement(null, elementType, operation, consumer);
+	}
+
+	/**
+	 * Passes each element of an array property of a JSON object response to
+	 * a consumer as it is decoded, such as the {@code builds} of
+	 * {@link name.kevinlocke.appveyor.api.ProjectApi#getProjectHistory(String,
+	 * String, Integer, Integer, String)}.  Other properties of the object are
+	 * skipped.
+	 *
+	 * {@code operation} must call a blocking API method (not an
+	 * {@code *Async} method) on the current thread.  The value returned by
+	 * the API method is {@code null}.
+	 *
+	 * @param <T> Type of the elements.
+	 * @param property Name of the array property, or {@code null} if the
+	 * response is the array.
+	 * @param elementType Type of the elements.
+	 * @param operation Operation which returns a JSON object.
+	 * @param consumer Consumer of each element, in order.
+	 * @return Number of elements passed to {@code consumer}.
+	 * @throws ApiException If the request is unsuccessful, reading the
+	 * response fails, or {@code operation} does not return JSON.
+	 */
+	public <T> long forEachElement(String property, Class<T> elementType,
+			ListOperation operation, Consumer<? super T> consumer)
+			throws ApiException {
+		long count = 0;
+		try (JsonArrayIterator<T> elements =
+				openElements(property, elementType, operation)) {
+			while (elements.hasNext()) {
+				consumer.accept(elements.next());
+				++count;
+			}
+		} catch (UncheckedApiException e) {
+			throw e.getCause();
+		}
+		return count;
+	}
+
+	/**
+	 * Gets a lazy stream of the elements of a JSON array response, which are
+	 * decoded as the stream is consumed.
+	 *
+	 * {@code operation} must call a blocking API method which returns a
+	 * {@code List} (not an {@code *Async} method) on the current thread.  The
+	 * value returned by the API method is {@code null}.  The response body
+	 * remains open until the last element is consumed or the stream is
+	 * closed, so the caller should close the stream.  Errors reading the
+	 * remaining elements are thrown as {@link UncheckedApiException}.
+	 *
+	 * @param <T> Type of the elements.
+	 * @param elementType Type of the elements.
+	 * @param operation Operation which returns a JSON array.
+	 * @return Sequential stream of the elements, in order.
+	 * @throws ApiException If the request is unsuccessful or
+	 * {@code operation} does not return JSON.
+	 */
+	public <T> Stream<T> streamElements(Class<T> elementType,
+			ListOperation operation) throws ApiException {
+		return streamElements(null, elementType, operation);
+	}
+
+	/**
+	 * Gets a lazy stream of the elements of an array property of a JSON
+	 * object response, which are decoded as the stream is consumed.  Other
+	 * properties of the object are skipped.
+	 *
+	 * {@code operation} must call a blocking API method (not an
+	 * {@code *Async} method) on the current thread.  The value returned by
+	 * the API method is {@code null}.  The response body remains open until
+	 * the last element is consumed or the stream is closed, so the caller
+	 * should close the stream.  Errors reading the remaining elements are
+	 * thrown as {@link UncheckedApiException}.
+	 *
+	 * @param <T> Type of the elements.
+	 * @param property Name of the array property, or {@code null} if the
+	 * response is the array.
+	 * @param elementType Type of the elements.
+	 * @param operation Operation which returns a JSON object.
+	 * @return Sequential stream of the elements, in order.
+	 * @throws ApiException If the request is unsuccessful or
+	 * {@code operation} does not return JSON.
+	 */
+	public <T> Stream<T> streamElements(String property, Class<T> elementType,
+			ListOperation operation) throws ApiException {
+		JsonArrayIterator<T> elements =
+				openElements(property, elementType, operation);
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(elements,
+						Spliterator.ORDERED),
+				false)
+				.onClose(elements::close);
+	}
+
+	private void download(DownloadOperation operation,
+			DownloadReceiver receiver) throws ApiException {
+		if (downloadReceiver.get() != null) {
+			throw new IllegalStateException(
+					"Download already in progress on this thread");
+		}
+		downloadReceiver.set(receiver);
+		try {
+			operation.download();
+		} finally {
+			downloadReceiver.remove();
+		}
+	}
+
+	/**
+	 * Opens the body of a file download as a stream, rather than writing it
+	 * to a temporary file.
+	 *
+	 * {@code operation} must call a blocking API method which returns
+	 * {@link File} (not an {@code *Async} method) on the current thread.  The
+	 * caller must close the returned source, which can be used as an
+	 * {@code InputStream} by calling {@link BufferedSource#inputStream()}.
+	 *
+	 * @param operation Operation which downloads a file.
+	 * @return Source of the response body.
+	 * @throws ApiException If the request is unsuccessful or
+	 * {@code operation} does not download a file.
+	 */
+	public BufferedSource openDownload(DownloadOperation operation)
+			throws ApiException {
+		return openDownload(0, operation);
+	}
+
+	/**
+	 * Opens the body of a file download as a stream, starting at a given
+	 * offset.
+	 *
+	 * The request includes a {@code Range} header for the bytes after
+	 * {@code offset}.  If the server ignores it (i.e. responds 200 OK), the
+	 * first {@code offset} bytes of the response body are skipped, so the
+	 * returned source starts at {@code offset} either way.
+	 *
+	 * {@code operation} must call a blocking API method which returns
+	 * {@link File} (not an {@code *Async} method) on the current thread.  The
+	 * caller must close the returned source.
+	 *
+	 * @param offset Number of bytes at the start of the file to omit.
+	 * @param operation Operation which downloads a file.
+	 * @return Source of the response body after {@code offset}, which is
+	 * empty if the file is not longer than {@code offset}.
+	 * @throws ApiException If the request is unsuccessful, the file is
+	 * shorter than {@code offset}, the server responds with a different
+	 * range, or {@code operation} does not download a file.
+	 */
+	public BufferedSource openDownload(long offset,
+			DownloadOperation operation) throws ApiException {
+		BufferedSource[] source = new BufferedSource[1];
+		DownloadReceiver receiver = response -> {
+			source[0] = response.body().source();
+			if (offset > 0 && !isPartialFrom(response, offset)) {
+				// Server ignored the range.  Skip the bytes already seen.
+				source[0].skip(offset);
+			}
+		};
+		try {
+			if (offset <= 0) {
+				download(operation, receiver);
+			} else if (!downloadFrom(offset, operation, receiver)) {
+				return new Buffer();
+			}
+		} catch (ApiException | RuntimeException e) {
+			if (source[0] != null) {
+				try {
+					source[0].close();
+				} catch (IOException closeException) {
+					e.addSuppressed(closeException);
+				}
+			}
+			throw e;
+		}
+		if (source[0] == null) {
+			throw new ApiException("Operation did not download a file");
+		}
+		return source[0];
+	}
+
+	/**
+	 * Writes the body of a file download to a channel, rather than to a
+	 * temporary file.
+	 *
+	 * {@code operation} must call a blocking API method which returns
+	 * {@link File} (not an {@code *Async} method) on the current thread.
+	 *
+	 * @param channel Channel to which the body is written.  Not closed by
+	 * this method.
+	 * @param operation Operation which downloads a file.
+	 * @return Number of bytes written to {@code channel}.
+	 * @throws ApiException If the request is unsuccessful, writing fails, or
+	 * {@code operation} does not download a file.
+	 */
+	public long downloadTo(WritableByteChannel channel,
+			DownloadOperation operation) throws ApiException {
+		long[] byteCount = { -1 };
+		download(operation, response -> {
+			try (BufferedSource source = response.body().source()) {
+				byteCount[0] = transfer(source, channel);
+			}
+		});
+		if (byteCount[0] < 0) {
+			throw new ApiException("Operation did not download a file");
+		}
+		return byteCount[0];
+	}
+
+	/**
+	 * Writes the body of a file download to a given file, rather than to a
+	 * temporary file.
+	 *
+	 * {@code operation} must call a blocking API method which returns
+	 * {@link File} (not an {@code *Async} method) on the current thread.
+	 *
+	 * @param file File to which the body is written.  Replaced if it exists.
+	 * @param operation Operation which downloads a file.
+	 * @return {@code file}
+	 * @throws ApiException If the request is unsuccessful, writing fails, or
+	 * {@code operation} does not download a file.
+	 */
+	public File downloadTo(File file, DownloadOperation operation)
+			throws ApiException {
+		boolean[] downloaded = { false };
+		download(operation, response -> {
+			try (BufferedSource source = response.body().source();
+					BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+				sink.writeAll(source);
+			}
+			downloaded[0] = true;
+		});
+		if (!downloaded[0]) {
+			throw new ApiException("Operation did not download a file");
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the body of a file download to a given file, continuing from the
+	 * end of the file if it exists.
+	 *
+	 * The request includes a {@code Range} header for the bytes after the
+	 * current length of {@code file}.  If the server responds with the
+	 * requested range, it is appended to {@code file}.  Otherwise
+	 * {@code file} is replaced with the full response body.  The caller
+	 * should verify the resulting size, since the server may have a
+	 * different file than the one partially downloaded.
+	 *
+	 * {@code operation} must call a blocking API method which returns
+	 * {@link File} (not an {@code *Async} method) on the current thread.
+	 *
+	 * @param file File to which the body is written.
+	 * @param operation Operation which downloads a file.
+	 * @return Number of bytes written to {@code file}.
+	 * @throws ApiException If the request is unsuccessful, writing fails,
+	 * the server responds with a different range, or {@code operation} does
+	 * not download a file.
+	 */
+	public long resumeDownloadTo(File file, DownloadOperation operation)
+			throws ApiException {
+		long offset = file.length();
+		if (offset <= 0) {
+			return downloadTo(file, operation).length();
+		}
+
+		long[] byteCount = { -1 };
+		boolean satisfiable = downloadFrom(offset, operation, response -> {
+			try (BufferedSource source = response.body().source()) {
+				boolean append = isPartialFrom(response, offset);
+				try (BufferedSink sink = Okio.buffer(append
+						? Okio.appendingSink(file)
+						: Okio.sink(file))) {
+					byteCount[0] = sink.writeAll(source);
+				}
+			}
+		});
+		if (!satisfiable) {
+			// File is already complete (or larger)
+			return 0;
+		}
+		if (byteCount[0] < 0) {
+			throw new ApiException("Operation did not download a file");
+		}
+		return byteCount[0];
+	}
+
+	/**
+	 * Downloads the bytes of a file after a given offset.
+	 *
+	 * @return {@code false} if the server responded 416 Range Not
+	 * Satisfiable (i.e. there are no bytes after {@code offset}).
+	 */
+	private boolean downloadFrom(long offset, DownloadOperation operation,
+			DownloadReceiver receiver) throws ApiException {
+		downloadRange.set("bytes=" + offset + "-");
+		try {
+			download(operation, receiver);
+			return true;
+		} catch (ApiException e) {
+			if (e.getCode() != 416) {
+				throw e;
+			}
+			return false;
+		} finally {
+			downloadRange.remove();
+		}
+	}
+
+	/**
+	 * Determines whether a successful response to a {@code Range} request
+	 * for the bytes after {@code offset} is the part of the file starting at
+	 * {@code offset}, rather than the whole file.
+	 *
+	 * @throws IOException If the response is neither 200 OK nor a 206
+	 * Partial Content response starting at {@code offset}.
+	 */
+	private static boolean isPartialFrom(Response response, long offset)
+			throws IOException {
+		if (response.code() == 200) {
+			return false;
+		}
+		String contentRange = response.header("Content-Range");
+		if (response.code() != 206 || !isRangeFrom(contentRange, offset)) {
+			throw new IOException("Expected bytes from " + offset
+					+ ", got " + response.code() + " with Content-Range "
+					+ contentRange);
+		}
+		return true;
+	}
+
+	private static boolean isRangeFrom(String contentRange, long offset) {
+		if (contentRange == null) {
+			return false;
+		}
+		String prefix = "bytes " + offset + "-";
+		return contentRange.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+
+	@Override
+	public Call buildCall(String path, String method,
+			List<Pair> queryParams, Object body,
+			Map<String, String> headerParams, Map<String, Object> formParams,
+			String[] authNames,
+			ProgressRequestBody.ProgressRequestListener progressRequestListener)
+			throws ApiException {
+		String range = downloadRange.get();
+		if (range != null && "GET".equals(method)) {
+			// Only the first request made by the operation has the range
+			downloadRange.remove();
+			headerParams = new HashMap<>(headerParams);
+			headerParams.put("Range", range);
+		}
+		Call call = super.buildCall(path, method, queryParams, body,
+				headerParams, formParams, authNames, progressRequestListener);
+
+		if (coalescing && range == null && "GET".equals(method)
+				&& downloadReceiver.get() == null
+				&& elementReceiver.get() == null) {
+			// Note: super.buildCall added authentication to the parameters
+			StringBuilder key = new StringBuilder(buildUrl(path, queryParams));
+			for (Map.Entry<String, String> header
+					: new TreeMap<>(headerParams).entrySet()) {
+				key.append('\n').append(header.getKey()).append(": ")
+						.append(header.getValue());
+			}
+			coalescableCall.set(new CoalescableCall(call, key.toString()));
+		} else {
+			coalescableCall.remove();
+		}
+		return call;
+	}
+
+	private static long transfer(BufferedSource source,
+			WritableByteChannel channel) throws IOException {
+		byte[] bytes = new byte[DOWNLOAD_BUFFER_SIZE];
+		ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+		long total = 0;
+		int readCount;
+		while ((readCount = source.read(bytes)) != -1) {
+			// Note: Cast to Buffer so the Java 8 method is linked, since
+			// ByteBuffer overrides clear() with a covariant return on Java 9+
+			((java.nio.Buffer) byteBuffer).clear().limit(readCount);
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+			total += readCount;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads a prefix of an unsuccessful response body.
+	 *
+	 * @return The first {@code maxErrorBodySize} bytes of {@code body}, or
+	 * all of the bytes if there are fewer.
+	 */
+	protected byte[] readErrorBody(ResponseBody body) throws IOException {
+		Buffer buffer = bufferErrorBody(body);
+		return buffer.readByteArray(Math.min(buffer.size(), maxErrorBodySize));
+	}
+
+	/**
+	 * Buffers a prefix of an unsuccessful response body, one byte larger than
+	 * {@code maxErrorBodySize} if the body is larger, to determine whether it
+	 * is.
+	 *
+	 * @return The buffer of the body source.
+	 */
+	private Buffer bufferErrorBody(ResponseBody body) throws IOException {
+		BufferedSource source = body.source();
+		long maxSize = maxErrorBodySize;
+		source.request(maxSize < Long.MAX_VALUE ? maxSize + 1 : maxSize);
+		return source.buffer();
+	}
+
+	/**
+	 * Gets the {@link name.kevinlocke.appveyor.model.Error} of an
+	 * unsuccessful response, as {@link #handleResponse(Response, Type)}
+	 * would, without consuming the response body.
+	 *
+	 * @return The error model, or {@code null} if the body is larger than
+	 * {@code maxErrorBodySize} or is not a JSON error model.
+	 */
+	name.kevinlocke.appveyor.model.Error peekErrorModel(ResponseBody body)
+			throws IOException {
+		Buffer buffer = bufferErrorBody(body);
+		if (buffer.size() > maxErrorBodySize) {
+			return null;
+		}
+		// Note: Read a copy, so the body is unchanged
+		byte[] bodyBytes = buffer.clone().readByteArray();
+		if (!isJsonObjectStart(bodyBytes)) {
+			return null;
+		}
+		try {
+			return parseError(bodyBytes, charsetOf(body));
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	private static Charset charsetOf(ResponseBody body) {
+		MediaType contentType = body.contentType();
+		return contentType != null
+				? contentType.charset(StandardCharsets.UTF_8)
+				: StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Parses an {@link name.kevinlocke.appveyor.model.Error} from an error
+	 * response body, as {@link JSON#deserialize(String, Type)} would, without
+	 * decoding the body to a {@code String}.
+	 *
+	 * @throws JsonParseException If {@code body} is not valid JSON for an
+	 * {@link name.kevinlocke.appveyor.model.Error}.
+	 */
+	private name.kevinlocke.appveyor.model.Error parseError(byte[] body,
+			Charset charset) {
+		TypeAdapter<name.kevinlocke.appveyor.model.Error> errorAdapter =
+				getJSON().getGson().getAdapter(ERROR_CLASS);
+		// Note: JsonReader skips a leading byte order mark
+		JsonReader jsonReader = EnhancedJSON.newReader(new InputStreamReader(
+				new ByteArrayInputStream(body), charset));
+		try {
+			return EnhancedJSON.readFully(jsonReader, errorAdapter);
+		} catch (IOException e) {
+			// Note: Reading from bytes only throws for truncated JSON
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	/**
+	 * Determines whether a response body may be a JSON object, and therefore
+	 * an {@link name.kevinlocke.appveyor.model.Error}.  This avoids the cost
+	 * of attempting to parse (and creating exceptions for) non-JSON error
+	 * bodies, such as HTML error pages from proxies.
+	 */
+	protected static boolean isJsonObjectStart(byte[] body) {
+		int i = 0;
+		// Skip UTF-8 byte order mark
+		if (body.length >= 3 && body[0] == (byte) 0xEF
+				&& body[1] == (byte) 0xBB && body[2] == (byte) 0xBF) {
+			i = 3;
+		}
+		for (; i < body.length; ++i) {
+			switch (body[i]) {
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\r':
+				break;
+			default:
+				return body[i] == '{';
+			}
+		}
+		return false;
+	}
+
 	@Override
 	public <T> T handleResponse(Response response, Type returnType) throws ApiException {
 		if (!response.isSuccessful()) {
-			String bodyString;
+			ResponseBody body = response.body();
+			if (body == null) {
+				throw new ResponseApiException(response.message(), null,
+						response.code(), response.headers(), (String) null,
+						false);
+			}
+
+			byte[] bodyBytes;
+			boolean bodyTruncated;
 			try {
-				bodyString = response.body().string();
+				bodyBytes = readErrorBody(body);
+				bodyTruncated = !body.source().exhausted();
 			} catch (IOException ioException) {
-				throw new ApiException(response.message(), ioException,
-						response.code(), response.headers().toMultimap());
+				throw new ResponseApiException(response.message(),
+						ioException, response.code(), response.headers(),
+						(String) null, false);
+			} finally {
+				try {
+					body.close();
+				} catch (IOException ioException) {
+					// Ignore.  The body has been read as much as necessary.
+				}
+			}
+
+			Charset charset = charsetOf(body);
+
+			// Note: Error responses have type text/plain
+			//       (when the URL path doesn't have an extension)
+			//       so the Content-Type is not checked.
+			if (bodyTruncated || !isJsonObjectStart(bodyBytes)) {
+				throw new ResponseApiException(response.message(), null,
+						response.code(), response.headers(), bodyBytes,
+						charset, bodyTruncated);
 			}
 
 			name.kevinlocke.appveyor.model.Error responseModel;
 			try {
-				// Note: Error responses have type text/plain
-				//       (when the URL path doesn't have an extension)
-				//       which would cause this.deserialize() to fail.
-				//       It would also require extra code to buffer the body.
-				//       Instead, try to parse the string directly.
-				Type errorTokenType =
-						new TypeToken<name.kevinlocke.appveyor.model.Error>(){}.getType();
-				responseModel = this.getJSON()
-						.deserialize(bodyString, errorTokenType);
+				responseModel = parseError(bodyBytes, charset);
 			} catch (JsonParseException parseException) {
-				throw new ApiException(response.message(), parseException,
-						response.code(), response.headers().toMultimap(), bodyString);
+				throw new ResponseApiException(response.message(),
+						parseException, response.code(), response.headers(),
+						bodyBytes, charset, false);
 			}
 
 			throw new ApiExceptionWithModel(response.message(), response.code(),
-					response.headers().toMultimap(), bodyString, responseModel);
+					response.headers(), bodyBytes, charset, responseModel);
 		}
 
 		return super.handleResponse(response, returnType);
 	}
+
+	@Override
+	public void processHeaderParams(Map<String, String> headerParams,
+			Request.Builder reqBuilder) {
+		super.processHeaderParams(headerParams, reqBuilder);
+		Interceptor progressInterceptor = pendingProgressInterceptor.get();
+		if (progressInterceptor != null) {
+			pendingProgressInterceptor.remove();
+		}
+		reqBuilder.tag(new CallTag(progressInterceptor));
+	}
+
+	/**
+	 * Determines whether an interceptor was created by a generated
+	 * {@code *Async} method to report download progress.
+	 */
+	private static boolean isProgressInterceptor(Interceptor interceptor) {
+		Class<?> interceptorClass = interceptor.getClass();
+		return interceptorClass.isAnonymousClass()
+				&& interceptorClass.getName().startsWith(API_PACKAGE);
+	}
+
+	/**
+	 * Network interceptor which runs the progress interceptor of the call,
+	 * if any.
+	 */
+	private static Response interceptProgress(Interceptor.Chain chain)
+			throws IOException {
+		Object tag = chain.request().tag();
+		if (tag instanceof CallTag
+				&& ((CallTag) tag).progressInterceptor != null) {
+			return ((CallTag) tag).progressInterceptor.intercept(chain);
+		}
+		return chain.proceed(chain.request());
+	}
+
+	/**
+	 * Request tag of calls made by this client, which holds the progress
+	 * interceptor of the call and notifies interceptors which make calls of
+	 * their own for the request (e.g. {@link RetryInterceptor}) when the call
+	 * is cancelled.
+	 */
+	static final class CallTag {
+		/** Progress interceptor of the call, or {@code null} if none. */
+		final Interceptor progressInterceptor;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		/** Whether the call was cancelled.  Guarded by lock. */
+		private boolean cancelled;
+		/** Task run when the call is cancelled.  Guarded by lock. */
+		private Runnable cancelListener;
+
+		CallTag(Interceptor progressInterceptor) {
+			this.progressInterceptor = progressInterceptor;
+		}
+
+		/**
+		 * Sets the task run when the call is cancelled, replacing any
+		 * previous task.
+		 *
+		 * @param cancelListener Task to run, or {@code null} for none.  Run
+		 * immediately if the call was already cancelled.
+		 */
+		void setCancelListener(Runnable cancelListener) {
+			lock.lock();
+			try {
+				if (!cancelled) {
+					this.cancelListener = cancelListener;
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (cancelListener != null) {
+				cancelListener.run();
+			}
+		}
+
+		void cancel() {
+			Runnable listener;
+			lock.lock();
+			try {
+				cancelled = true;
+				listener = cancelListener;
+				cancelListener = null;
+			} finally {
+				lock.unlock();
+			}
+			if (listener != null) {
+				listener.run();
+			}
+		}
+	}
+
+	/**
+	 * HTTP client which diverts the network interceptors added by the
+	 * generated {@code *Async} methods.
+	 *
+	 * For each call with a callback, the generated code adds an interceptor
+	 * which reports download progress to the shared list of network
+	 * interceptors and never removes it, so every later call would run
+	 * through all of them, and concurrent calls would modify the list
+	 * concurrently.  Instead, the interceptor is held for the call being
+	 * built on the same thread, which carries it in its request tag (see
+	 * {@link #processHeaderParams(Map, Request.Builder)}), and is run by a
+	 * single network interceptor.  Other interceptors are added to the
+	 * client as usual.
+	 *
+	 * Calls for requests with a {@link CallTag} also notify the tag when
+	 * they are cancelled.
+	 */
+	private final class ProgressOkHttpClient extends OkHttpClient {
+		private final List<Interceptor> networkInterceptorsView =
+				new AbstractList<Interceptor>() {
+					@Override
+					public Interceptor get(int index) {
+						return ProgressOkHttpClient.super.networkInterceptors()
+								.get(index);
+					}
+
+					@Override
+					public int size() {
+						return ProgressOkHttpClient.super.networkInterceptors()
+								.size();
+					}
+
+					@Override
+					public Interceptor set(int index, Interceptor element) {
+						return ProgressOkHttpClient.super.networkInterceptors()
+								.set(index, element);
+					}
+
+					@Override
+					public void add(int index, Interceptor element) {
+						if (isProgressInterceptor(element)) {
+							pendingProgressInterceptor.set(element);
+						} else {
+							ProgressOkHttpClient.super.networkInterceptors()
+									.add(index, element);
+							++modCount;
+						}
+					}
+
+					@Override
+					public Interceptor remove(int index) {
+						Interceptor removed = ProgressOkHttpClient.super
+								.networkInterceptors().remove(index);
+						++modCount;
+						return removed;
+					}
+				};
+
+		ProgressOkHttpClient() {
+			super.networkInterceptors()
+					.add(EnhancedApiClient::interceptProgress);
+		}
+
+		@Override
+		public List<Interceptor> networkInterceptors() {
+			return networkInterceptorsView;
+		}
+
+		@Override
+		public Call newCall(Request request) {
+			Object tag = request.tag();
+			if (!(tag instanceof CallTag)) {
+				return super.newCall(request);
+			}
+			CallTag callTag = (CallTag) tag;
+			return new Call(this, request) {
+				@Override
+				public void cancel() {
+					super.cancel();
+					callTag.cancel();
+				}
+			};
+		}
+	}
 }
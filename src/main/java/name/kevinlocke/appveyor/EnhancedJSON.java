@@ -0,0 +1,105 @@
+package name.kevinlocke.appveyor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * JSON serializer/deserializer with enhancements not present in the generated
+ * {@link name.kevinlocke.appveyor.JSON}.
+ *
+ * Supports deserializing directly from a character stream, so that response
+ * bodies do not need to be read into a {@code String} before they are parsed.
+ */
+public class EnhancedJSON extends JSON {
+	public EnhancedJSON(ApiClient apiClient) {
+		super(apiClient);
+	}
+
+	/**
+	 * Deserialize JSON from a character stream to a Java object.
+	 *
+	 * Unlike {@link #deserialize(String, Type)}, there is no fallback for
+	 * non-JSON content, since the content is not retained.
+	 *
+	 * @param <T> Type
+	 * @param body Reader for the JSON content. Not closed by this method.
+	 * @param returnType The type to deserialize into
+	 * @return The deserialized Java object, or {@code null} if {@code body}
+	 * is empty.
+	 * @throws IOException If an error occurs reading from {@code body}.
+	 * @throws JsonSyntaxException If {@code body} is not valid JSON for
+	 * {@code returnType}.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T deserialize(Reader body, Type returnType) throws IOException {
+		JsonReader jsonReader = newReader(body);
+		if (isEmpty(jsonReader)) {
+			return null;
+		}
+
+		TypeAdapter<T> typeAdapter = (TypeAdapter<T>) getGson()
+				.getAdapter(TypeToken.get(returnType));
+		return readFully(jsonReader, typeAdapter);
+	}
+
+	/**
+	 * Creates a {@link JsonReader} which parses as
+	 * {@link com.google.gson.Gson#fromJson(Reader, Type)} does.
+	 *
+	 * @param reader Reader for the JSON content.
+	 * @return Lenient reader, since {@code Gson.fromJson} always parses
+	 * leniently, regardless of Gson settings.
+	 */
+	static JsonReader newReader(Reader reader) {
+		JsonReader jsonReader = new JsonReader(reader);
+		jsonReader.setLenient(true);
+		return jsonReader;
+	}
+
+	/**
+	 * Determines whether a JSON document is empty (or whitespace-only),
+	 * without consuming any of it.
+	 */
+	static boolean isEmpty(JsonReader jsonReader) throws IOException {
+		try {
+			jsonReader.peek();
+			return false;
+		} catch (EOFException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Reads a JSON document which must contain a single value.
+	 *
+	 * @param <T> Type
+	 * @param jsonReader Reader for the JSON document.
+	 * @param typeAdapter Adapter which reads the value.
+	 * @return The value read.
+	 * @throws IOException If an error occurs reading the content.
+	 * @throws JsonSyntaxException If the document is not valid JSON for
+	 * {@code typeAdapter} or has content after the value.
+	 */
+	static <T> T readFully(JsonReader jsonReader, TypeAdapter<T> typeAdapter)
+			throws IOException {
+		try {
+			T result = typeAdapter.read(jsonReader);
+			if (jsonReader.peek() != JsonToken.END_DOCUMENT) {
+				throw new JsonSyntaxException(
+						"JSON document was not fully consumed.");
+			}
+			return result;
+		} catch (MalformedJsonException | IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		}
+	}
+}
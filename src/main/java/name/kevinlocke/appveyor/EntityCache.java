@@ -0,0 +1,325 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import name.kevinlocke.appveyor.api.CollaboratorApi;
+import name.kevinlocke.appveyor.api.EnvironmentApi;
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.api.UserApi;
+import name.kevinlocke.appveyor.model.DeploymentEnvironmentLookupModel;
+import name.kevinlocke.appveyor.model.Project;
+import name.kevinlocke.appveyor.model.Role;
+import name.kevinlocke.appveyor.model.RoleWithGroups;
+import name.kevinlocke.appveyor.model.UserAccount;
+
+/**
+ * Cache of entities which are looked up by name, such as roles by name,
+ * users by email, and deployment environment and project IDs by name.
+ *
+ * The API has no operations to look up these entities by name, so each
+ * lookup would otherwise list all entities of its type.  Each list is cached
+ * in a {@link RefreshingCache} which is reloaded in the background when
+ * requested after 3/4 of its lifetime.  Roles by ID are cached individually,
+ * up to the configured maximum number.
+ *
+ * The cache is added as an application interceptor of the HTTP client of
+ * the {@link ApiClient} from which it loads entities, so that requests with
+ * a method other than GET or HEAD made through that client (e.g. by
+ * {@link RoleApi#addRole}, {@link RoleApi#updateRole}, or
+ * {@link EnvironmentApi#deleteEnvironment}) invalidate the cached entities
+ * of the type they modify.  Changes made through other clients are visible
+ * after the cached entities expire.
+ */
+public class EntityCache implements Interceptor {
+	/** Key of caches which hold a single list of entities. */
+	private static final Boolean ALL = Boolean.TRUE;
+
+	private final RefreshingCache<Boolean, Map<String, Role>> rolesByName;
+	private final RefreshingCache<Integer, RoleWithGroups> rolesById;
+	private final RefreshingCache<Boolean, Map<String, UserAccount>> usersByEmail;
+	private final RefreshingCache<Boolean, Map<String, UserAccount>> collaboratorsByEmail;
+	private final RefreshingCache<Boolean, Map<String, Integer>> environmentIdsByName;
+	private final RefreshingCache<Boolean, Map<String, Integer>> projectIdsBySlug;
+	private final List<RefreshingCache<?, ?>> caches;
+
+	/**
+	 * Constructs a cache of entities from an {@link ApiClient} and adds it
+	 * as an interceptor of the client.
+	 *
+	 * @param apiClient Client from which to load entities.
+	 * @param maxSize Maximum number of entities cached individually.
+	 * @param expireAfter Maximum age of cached entities.
+	 * @param unit Unit of {@code expireAfter}.
+	 */
+	public EntityCache(ApiClient apiClient, int maxSize, long expireAfter,
+			TimeUnit unit) {
+		RoleApi roleApi = new RoleApi(apiClient);
+		UserApi userApi = new UserApi(apiClient);
+		CollaboratorApi collaboratorApi = new CollaboratorApi(apiClient);
+		EnvironmentApi environmentApi = new EnvironmentApi(apiClient);
+		ProjectApi projectApi = new ProjectApi(apiClient);
+
+		rolesByName = new RefreshingCache<>(all -> {
+			Map<String, Role> byName = new TreeMap<>();
+			for (Role role : roleApi.getRoles()) {
+				if (role.getName() != null) {
+					byName.put(role.getName(), role);
+				}
+			}
+			return Collections.unmodifiableMap(byName);
+		}, 1, expireAfter, unit);
+		rolesById = new RefreshingCache<>(roleApi::getRole, maxSize,
+				expireAfter, unit);
+		usersByEmail = new RefreshingCache<>(
+				all -> byEmail(userApi.getUsers()), 1, expireAfter, unit);
+		collaboratorsByEmail = new RefreshingCache<>(
+				all -> byEmail(collaboratorApi.getCollaborators()), 1,
+				expireAfter, unit);
+		environmentIdsByName = new RefreshingCache<>(all -> {
+			Map<String, Integer> idsByName = new TreeMap<>();
+			for (DeploymentEnvironmentLookupModel environment
+					: environmentApi.getEnvironments()) {
+				if (environment.getName() != null) {
+					idsByName.put(environment.getName(),
+							environment.getDeploymentEnvironmentId());
+				}
+			}
+			return Collections.unmodifiableMap(idsByName);
+		}, 1, expireAfter, unit);
+		projectIdsBySlug = new RefreshingCache<>(all -> {
+			Map<String, Integer> idsBySlug = new TreeMap<>();
+			for (Project project : projectApi.getProjects()) {
+				idsBySlug.put(
+						projectKey(project.getAccountName(), project.getSlug()),
+						project.getProjectId());
+			}
+			return Collections.unmodifiableMap(idsBySlug);
+		}, 1, expireAfter, unit);
+		caches = Arrays.asList(rolesByName, rolesById, usersByEmail,
+				collaboratorsByEmail, environmentIdsByName, projectIdsBySlug);
+
+		for (RefreshingCache<?, ?> cache : caches) {
+			cache.setExecutor(apiClient.getHttpClient().getDispatcher()
+					.getExecutorService());
+		}
+		apiClient.getHttpClient().interceptors().add(this);
+	}
+
+	private static Map<String, UserAccount> byEmail(List<UserAccount> users) {
+		// Note: Match addresses case-insensitively, as most mail systems do
+		Map<String, UserAccount> byEmail =
+				new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (UserAccount user : users) {
+			if (user.getEmail() != null) {
+				byEmail.put(user.getEmail(), user);
+			}
+		}
+		return Collections.unmodifiableMap(byEmail);
+	}
+
+	private static String projectKey(String accountName, String projectSlug) {
+		return accountName + '/' + projectSlug;
+	}
+
+	/**
+	 * Gets a role by name.
+	 *
+	 * @param name Name of the role.
+	 * @return The role, or {@code null} if there is no role named
+	 * {@code name}.
+	 * @throws ApiException If loading the roles fails.
+	 */
+	public Role getRoleByName(String name) throws ApiException {
+		return rolesByName.get(ALL).get(name);
+	}
+
+	/**
+	 * Gets all roles.
+	 *
+	 * @return Unmodifiable collection of roles, ordered by name.
+	 * @throws ApiException If loading the roles fails.
+	 */
+	public Collection<Role> getRoles() throws ApiException {
+		return rolesByName.get(ALL).values();
+	}
+
+	/**
+	 * Gets a role with its permissions by ID.
+	 *
+	 * @param roleId ID of the role.
+	 * @return The role.
+	 * @throws ApiException If loading the role fails, including if it does
+	 * not exist.
+	 */
+	public RoleWithGroups getRole(Integer roleId) throws ApiException {
+		return rolesById.get(roleId);
+	}
+
+	/**
+	 * Gets a user by email address.
+	 *
+	 * @param email Email address of the user, compared case-insensitively.
+	 * @return The user, or {@code null} if there is no user with
+	 * {@code email}.
+	 * @throws ApiException If loading the users fails.
+	 */
+	public UserAccount getUserByEmail(String email) throws ApiException {
+		return usersByEmail.get(ALL).get(email);
+	}
+
+	/**
+	 * Gets a collaborator by email address.
+	 *
+	 * @param email Email address of the collaborator, compared
+	 * case-insensitively.
+	 * @return The collaborator, or {@code null} if there is no collaborator
+	 * with {@code email}.
+	 * @throws ApiException If loading the collaborators fails.
+	 */
+	public UserAccount getCollaboratorByEmail(String email)
+			throws ApiException {
+		return collaboratorsByEmail.get(ALL).get(email);
+	}
+
+	/**
+	 * Gets the ID of a deployment environment by name, such as for
+	 * {@link name.kevinlocke.appveyor.model.DeploymentStartRequest}.
+	 *
+	 * @param name Name of the deployment environment.
+	 * @return The {@code deploymentEnvironmentId}, or {@code null} if there
+	 * is no environment named {@code name}.
+	 * @throws ApiException If loading the environments fails.
+	 */
+	public Integer getEnvironmentId(String name) throws ApiException {
+		return environmentIdsByName.get(ALL).get(name);
+	}
+
+	/**
+	 * Gets the ID of a project by account name and slug.
+	 *
+	 * @param accountName Name of the account which owns the project.
+	 * @param projectSlug Slug of the project.
+	 * @return The {@code projectId}, or {@code null} if there is no project
+	 * with {@code projectSlug} in {@code accountName}.
+	 * @throws ApiException If loading the projects fails.
+	 */
+	public Integer getProjectId(String accountName, String projectSlug)
+			throws ApiException {
+		return projectIdsBySlug.get(ALL)
+				.get(projectKey(accountName, projectSlug));
+	}
+
+	/**
+	 * Removes all cached entities, so that they are loaded on the next
+	 * request.
+	 */
+	public void invalidateAll() {
+		for (RefreshingCache<?, ?> cache : caches) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Gets the number of lookups which did not load entities.
+	 */
+	public long getHitCount() {
+		long hitCount = 0;
+		for (RefreshingCache<?, ?> cache : caches) {
+			hitCount += cache.getHitCount();
+		}
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of lookups which loaded entities.
+	 */
+	public long getMissCount() {
+		long missCount = 0;
+		for (RefreshingCache<?, ?> cache : caches) {
+			missCount += cache.getMissCount();
+		}
+		return missCount;
+	}
+
+	/**
+	 * Gets the fraction of lookups which did not load entities.
+	 *
+	 * @return Hit rate, or {@code NaN} if there have been no lookups.
+	 */
+	public double getHitRate() {
+		long hits = getHitCount();
+		long requests = hits + getMissCount();
+		return requests == 0 ? Double.NaN : (double) hits / requests;
+	}
+
+	/**
+	 * Gets the number of entity lists reloaded in the background.
+	 */
+	public long getRefreshCount() {
+		long refreshCount = 0;
+		for (RefreshingCache<?, ?> cache : caches) {
+			refreshCount += cache.getRefreshCount();
+		}
+		return refreshCount;
+	}
+
+	/**
+	 * Determines whether a request path is for a collection or an entity in
+	 * a collection.
+	 */
+	private static boolean isInCollection(String path, String collection) {
+		int index = path.indexOf(collection);
+		while (index >= 0) {
+			int end = index + collection.length();
+			if (end == path.length() || path.charAt(end) == '/') {
+				return true;
+			}
+			index = path.indexOf(collection, end);
+		}
+		return false;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String method = request.method();
+		if ("GET".equals(method) || "HEAD".equals(method)) {
+			return chain.proceed(request);
+		}
+
+		try {
+			return chain.proceed(request);
+		} finally {
+			// Note: Invalidate even on failure, since the request may have
+			// modified entities before failing.
+			String path = request.httpUrl().encodedPath();
+			if (isInCollection(path, "/roles")) {
+				// Users and collaborators include the name of their role
+				rolesByName.invalidateAll();
+				rolesById.invalidateAll();
+				usersByEmail.invalidateAll();
+				collaboratorsByEmail.invalidateAll();
+			} else if (isInCollection(path, "/users")) {
+				usersByEmail.invalidateAll();
+			} else if (isInCollection(path, "/collaborators")) {
+				collaboratorsByEmail.invalidateAll();
+			} else if (isInCollection(path, "/environments")) {
+				environmentIdsByName.invalidateAll();
+			} else if (isInCollection(path, "/projects")) {
+				projectIdsBySlug.invalidateAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,637 @@
+package name.kevinlocke.appveyor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.BufferedSource;
+
+/**
+ * Cache of successful responses to GET requests for selected API operations.
+ *
+ * Operations are cached only after a freshness lifetime is configured for
+ * their path using {@link #setFreshness(String, long, TimeUnit)}.  Cached
+ * responses are returned without a request until they are older than the
+ * freshness lifetime.  After that, responses with an {@code ETag} or
+ * {@code Last-Modified} header are revalidated with a conditional request
+ * and responses without either are requested again.
+ *
+ * Responses are kept in a size-bounded in-memory tier, least recently used
+ * first out, and optionally in a size-bounded directory which persists
+ * across instances.  Entries are keyed by URL and by the
+ * {@code Authorization} and {@code Accept} request headers, so responses
+ * are not shared between API tokens.  Any request with a method other than
+ * GET or HEAD invalidates all entries, since the API may return data changed
+ * by the request from any operation.
+ *
+ * Install using {@link EnhancedApiClient#setResponseCache(HttpResponseCache)}
+ * or by adding it as an application interceptor of an
+ * {@link com.squareup.okhttp.OkHttpClient}.
+ */
+public class HttpResponseCache implements Interceptor {
+	private static final int DISK_MAGIC = 0x41565243;
+	private static final int DISK_VERSION = 1;
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final long maxMemorySize;
+	private final File directory;
+	private final long maxDiskSize;
+
+	private final CopyOnWriteArrayList<FreshnessRule> freshnessRules =
+			new CopyOnWriteArrayList<>();
+
+	private final ReentrantLock memoryLock = new ReentrantLock();
+	private final LinkedHashMap<String, Entry> memoryEntries =
+			new LinkedHashMap<>(16, 0.75f, true);
+	private long memorySize;
+
+	private final ReentrantLock diskLock = new ReentrantLock();
+	private long diskSize = -1;
+
+	/** Time (in ms since the epoch) before which disk entries are invalid. */
+	private volatile long invalidatedAt;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder revalidationCount = new LongAdder();
+	private final LongAdder notModifiedCount = new LongAdder();
+
+	/**
+	 * Constructs a cache which keeps responses in memory only.
+	 *
+	 * @param maxMemorySize Maximum total size (in bytes) of cached response
+	 * bodies.
+	 */
+	public HttpResponseCache(long maxMemorySize) {
+		this(maxMemorySize, null, 0);
+	}
+
+	/**
+	 * Constructs a cache which keeps responses in memory and in a directory.
+	 *
+	 * @param maxMemorySize Maximum total size (in bytes) of response bodies
+	 * cached in memory.
+	 * @param directory Directory in which to cache responses, or {@code null}
+	 * to cache in memory only.  Must not be shared with other data.
+	 * @param maxDiskSize Maximum total size (in bytes) of files in
+	 * {@code directory}.
+	 */
+	public HttpResponseCache(long maxMemorySize, File directory,
+			long maxDiskSize) {
+		if (maxMemorySize < 0) {
+			throw new IllegalArgumentException(
+					"maxMemorySize must be non-negative");
+		}
+		if (maxDiskSize < 0) {
+			throw new IllegalArgumentException(
+					"maxDiskSize must be non-negative");
+		}
+		this.maxMemorySize = maxMemorySize;
+		this.directory = directory;
+		this.maxDiskSize = maxDiskSize;
+	}
+
+	/**
+	 * Sets the freshness lifetime of responses for requests to a path.
+	 *
+	 * {@code pathTemplate} is a path from the API definition, such as
+	 * {@code /projects/{accountName}/{projectSlug}/settings}, and matches the
+	 * end of request paths, so it does not include the path of the base URL.
+	 * A lifetime of 0 causes responses to be revalidated on each request,
+	 * which is useful when the server returns validators.
+	 *
+	 * @param pathTemplate API path with {@code {name}} for path parameters.
+	 * @param duration Freshness lifetime for responses.
+	 * @param unit Unit of {@code duration}.
+	 * @return HttpResponseCache
+	 */
+	public HttpResponseCache setFreshness(String pathTemplate, long duration,
+			TimeUnit unit) {
+		if (duration < 0) {
+			throw new IllegalArgumentException("duration must be non-negative");
+		}
+		FreshnessRule rule = new FreshnessRule(pathTemplate,
+				unit.toMillis(duration));
+		for (FreshnessRule existing : freshnessRules) {
+			if (existing.pathTemplate.getTemplate().equals(pathTemplate)) {
+				freshnessRules.remove(existing);
+			}
+		}
+		freshnessRules.add(rule);
+		return this;
+	}
+
+	/**
+	 * Gets the number of requests answered from the cache without a network
+	 * request.
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Gets the number of requests for cacheable operations without a usable
+	 * cached response.
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * Gets the number of conditional requests made to revalidate a cached
+	 * response.
+	 */
+	public long getRevalidationCount() {
+		return revalidationCount.sum();
+	}
+
+	/**
+	 * Gets the number of revalidations for which the server responded
+	 * 304 Not Modified and the cached response was used.
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.sum();
+	}
+
+	/**
+	 * Gets the total size (in bytes) of response bodies cached in memory.
+	 */
+	public long getMemorySize() {
+		memoryLock.lock();
+		try {
+			return memorySize;
+		} finally {
+			memoryLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all cached responses from memory and disk.
+	 */
+	public void evictAll() {
+		invalidate();
+
+		if (directory != null) {
+			diskLock.lock();
+			try {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						file.delete();
+					}
+				}
+				diskSize = 0;
+			} finally {
+				diskLock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String method = request.method();
+		if ("HEAD".equals(method)) {
+			return chain.proceed(request);
+		}
+		if (!"GET".equals(method)) {
+			try {
+				return chain.proceed(request);
+			} finally {
+				// Invalidate after the request may have changed data, so that
+				// concurrent GET responses from before the change are dropped
+				invalidate();
+			}
+		}
+
+		long freshness = getFreshness(request);
+		if (freshness < 0
+				|| request.header("If-None-Match") != null
+				|| request.header("If-Modified-Since") != null
+				// Partial responses are not cached
+				|| request.header("Range") != null
+				|| hasDirective(request.headers(), "no-cache")) {
+			return chain.proceed(request);
+		}
+
+		String key = getKey(request);
+		Entry entry = get(key);
+		long now = System.currentTimeMillis();
+		if (entry != null) {
+			if (now - entry.storedAt < freshness) {
+				hitCount.increment();
+				return entry.toResponse(request);
+			}
+
+			String etag = entry.headers.get("ETag");
+			String lastModified = entry.headers.get("Last-Modified");
+			if (etag != null || lastModified != null) {
+				Request.Builder conditional = request.newBuilder();
+				if (etag != null) {
+					conditional.header("If-None-Match", etag);
+				}
+				if (lastModified != null) {
+					conditional.header("If-Modified-Since", lastModified);
+				}
+
+				revalidationCount.increment();
+				Response response = chain.proceed(conditional.build());
+				if (response.code() == 304) {
+					notModifiedCount.increment();
+					ResponseBody body = response.body();
+					if (body != null) {
+						body.close();
+					}
+					Entry refreshed = entry.refresh(now, response.headers());
+					put(refreshed);
+					return refreshed.toResponse(request);
+				}
+
+				return store(key, response, now);
+			}
+		}
+
+		missCount.increment();
+		return store(key, chain.proceed(request), now);
+	}
+
+	/**
+	 * Gets the freshness lifetime (in ms) for responses to a request.
+	 *
+	 * @return Freshness lifetime, or -1 if responses are not cached.
+	 */
+	protected long getFreshness(Request request) {
+		String path = request.httpUrl().encodedPath();
+		for (FreshnessRule rule : freshnessRules) {
+			if (rule.pathTemplate.matches(path)) {
+				return rule.freshnessMillis;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean hasDirective(Headers headers, String directive) {
+		for (String cacheControl : headers.values("Cache-Control")) {
+			for (String value : cacheControl.split(",")) {
+				if (value.trim().equalsIgnoreCase(directive)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String getKey(Request request) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java implementation is required to support SHA-256
+			throw new AssertionError(e);
+		}
+		updateDigest(digest, request.urlString());
+		updateDigest(digest, request.header("Authorization"));
+		updateDigest(digest, request.header("Accept"));
+		byte[] hash = digest.digest();
+
+		char[] hex = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; ++i) {
+			hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	private static void updateDigest(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(StandardCharsets.UTF_8));
+		}
+		// Separate values with a byte which does not occur in UTF-8
+		digest.update((byte) 0xFF);
+	}
+
+	private void invalidate() {
+		invalidatedAt = System.currentTimeMillis();
+
+		memoryLock.lock();
+		try {
+			memoryEntries.clear();
+			memorySize = 0;
+		} finally {
+			memoryLock.unlock();
+		}
+	}
+
+	private Response store(String key, Response response, long now)
+			throws IOException {
+		ResponseBody body = response.body();
+		if (response.code() != 200
+				|| body == null
+				|| hasDirective(response.headers(), "no-store")) {
+			return response;
+		}
+
+		long maxSize = Math.max(maxMemorySize,
+				directory != null ? maxDiskSize : 0);
+		long contentLength = body.contentLength();
+		if (contentLength > maxSize) {
+			return response;
+		}
+
+		// Note: Not body.bytes(), which reads all of a chunked body, which may
+		// be larger than maxSize (and streamed by the caller)
+		BufferedSource source = body.source();
+		if (source.request(maxSize < Long.MAX_VALUE ? maxSize + 1 : maxSize)) {
+			// Larger than the cache.  The body includes the buffered bytes.
+			return response;
+		}
+		byte[] bodyBytes;
+		try {
+			bodyBytes = source.readByteArray();
+		} finally {
+			body.close();
+		}
+		put(new Entry(key, now, response.code(), response.message(),
+				response.headers(), bodyBytes));
+
+		return response.newBuilder()
+				.body(ResponseBody.create(body.contentType(), bodyBytes))
+				.build();
+	}
+
+	private Entry get(String key) {
+		memoryLock.lock();
+		try {
+			Entry entry = memoryEntries.get(key);
+			if (entry != null) {
+				return entry;
+			}
+		} finally {
+			memoryLock.unlock();
+		}
+
+		if (directory == null) {
+			return null;
+		}
+
+		Entry entry = readDisk(key);
+		if (entry != null) {
+			if (entry.storedAt < invalidatedAt) {
+				removeDisk(key);
+				return null;
+			}
+			putMemory(entry);
+		}
+		return entry;
+	}
+
+	private void put(Entry entry) {
+		if (entry.storedAt < invalidatedAt) {
+			// Request started before an invalidating request completed
+			return;
+		}
+		putMemory(entry);
+		if (directory != null && entry.body.length <= maxDiskSize) {
+			writeDisk(entry);
+		}
+	}
+
+	private void putMemory(Entry entry) {
+		long entrySize = entry.body.length;
+		memoryLock.lock();
+		try {
+			Entry previous = memoryEntries.remove(entry.key);
+			if (previous != null) {
+				memorySize -= previous.body.length;
+			}
+			if (entrySize > maxMemorySize) {
+				return;
+			}
+
+			memoryEntries.put(entry.key, entry);
+			memorySize += entrySize;
+			Iterator<Entry> eldest = memoryEntries.values().iterator();
+			while (memorySize > maxMemorySize) {
+				memorySize -= eldest.next().body.length;
+				eldest.remove();
+			}
+		} finally {
+			memoryLock.unlock();
+		}
+	}
+
+	private Entry readDisk(String key) {
+		File file = new File(directory, key);
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != DISK_MAGIC
+					|| input.readInt() != DISK_VERSION) {
+				throw new IOException("Unrecognized cache file format");
+			}
+			long storedAt = input.readLong();
+			int code = input.readInt();
+			String message = input.readUTF();
+			Headers.Builder headers = new Headers.Builder();
+			for (int i = input.readInt(); i > 0; --i) {
+				headers.add(input.readUTF(), input.readUTF());
+			}
+			byte[] body = new byte[input.readInt()];
+			input.readFully(body);
+			return new Entry(key, storedAt, code, message, headers.build(),
+					body);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException | IllegalArgumentException e) {
+			// Truncated or corrupt.  Cache failures are not request failures.
+			removeDisk(key);
+			return null;
+		}
+	}
+
+	private void writeDisk(Entry entry) {
+		diskLock.lock();
+		try {
+			if (diskSize < 0) {
+				diskSize = 0;
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						diskSize += file.length();
+					}
+				}
+			}
+
+			File file = new File(directory, entry.key);
+			File tempFile = null;
+			try {
+				directory.mkdirs();
+				tempFile = File.createTempFile(entry.key, TEMP_SUFFIX,
+						directory);
+				try (DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(
+								new FileOutputStream(tempFile)))) {
+					output.writeInt(DISK_MAGIC);
+					output.writeInt(DISK_VERSION);
+					output.writeLong(entry.storedAt);
+					output.writeInt(entry.code);
+					output.writeUTF(entry.message != null ? entry.message : "");
+					int headerCount = entry.headers.size();
+					output.writeInt(headerCount);
+					for (int i = 0; i < headerCount; ++i) {
+						output.writeUTF(entry.headers.name(i));
+						output.writeUTF(entry.headers.value(i));
+					}
+					output.writeInt(entry.body.length);
+					output.write(entry.body);
+				}
+
+				long previousSize = file.length();
+				Files.move(tempFile.toPath(), file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				diskSize += file.length() - previousSize;
+			} catch (IOException e) {
+				// Cache failures are not request failures.  Skip caching.
+				if (tempFile != null) {
+					tempFile.delete();
+				}
+				return;
+			}
+
+			if (diskSize > maxDiskSize) {
+				trimDisk();
+			}
+		} finally {
+			diskLock.unlock();
+		}
+	}
+
+	/** Deletes least recently written files until within maxDiskSize. */
+	private void trimDisk() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (diskSize <= maxDiskSize) {
+				break;
+			}
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				continue;
+			}
+			long fileSize = file.length();
+			if (file.delete()) {
+				diskSize -= fileSize;
+			}
+		}
+	}
+
+	private void removeDisk(String key) {
+		diskLock.lock();
+		try {
+			File file = new File(directory, key);
+			long fileSize = file.length();
+			if (file.delete() && diskSize >= 0) {
+				diskSize -= fileSize;
+			}
+		} finally {
+			diskLock.unlock();
+		}
+	}
+
+	private static final class FreshnessRule {
+		final PathTemplate pathTemplate;
+		final long freshnessMillis;
+
+		FreshnessRule(String pathTemplate, long freshnessMillis) {
+			this.pathTemplate = new PathTemplate(pathTemplate);
+			this.freshnessMillis = freshnessMillis;
+		}
+	}
+
+	private static final class Entry {
+		final String key;
+		final long storedAt;
+		final int code;
+		final String message;
+		final Headers headers;
+		final byte[] body;
+
+		Entry(String key, long storedAt, int code, String message,
+				Headers headers, byte[] body) {
+			this.key = key;
+			this.storedAt = storedAt;
+			this.code = code;
+			this.message = message;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		/**
+		 * Creates an entry updated by the headers of a 304 response, as
+		 * described in RFC 7234 Section 4.3.4.
+		 */
+		Entry refresh(long now, Headers notModifiedHeaders) {
+			Headers.Builder merged = headers.newBuilder();
+			for (Map.Entry<String, List<String>> header
+					: notModifiedHeaders.toMultimap().entrySet()) {
+				String name = header.getKey();
+				if ("Content-Length".equalsIgnoreCase(name)) {
+					continue;
+				}
+				merged.removeAll(name);
+				for (String value : header.getValue()) {
+					merged.add(name, value);
+				}
+			}
+			return new Entry(key, now, code, message, merged.build(), body);
+		}
+
+		Response toResponse(Request request) {
+			String contentType = headers.get("Content-Type");
+			return new Response.Builder()
+					.request(request)
+					.protocol(Protocol.HTTP_1_1)
+					.code(code)
+					.message(message)
+					.headers(headers)
+					.body(ResponseBody.create(
+							contentType != null ? MediaType.parse(contentType)
+									: null,
+							body))
+					.build();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package name.kevinlocke.appveyor;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Map from {@code int} IDs, such as {@code buildId}, {@code deploymentId},
+ * {@code roleId}, or {@code deploymentEnvironmentId}, to models.
+ *
+ * Entries are kept in parallel arrays of keys and values using open
+ * addressing with linear probing, so that keys are not boxed and there is
+ * no object per entry.  This uses 12 to 24 bytes per entry (with
+ * compressed references), depending on load, compared to about 40 for a
+ * {@code HashMap<Integer, V>}, plus 16 for each key boxed separately from
+ * its model.  Lookups and {@link #forEach(EntryConsumer)}
+ * do not allocate.
+ *
+ * Values must not be {@code null}.  Instances are not thread-safe.
+ *
+ * @param <V> Type of values.
+ */
+public final class IntIndex<V> {
+	private static final int MIN_CAPACITY = 8;
+
+	private int[] keys;
+	/** Values, or {@code null} for empty slots. */
+	private Object[] values;
+	private int size;
+	private int resizeAt;
+
+	/**
+	 * Receives an entry of an index.
+	 *
+	 * @param <V> Type of values.
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(int key, V value);
+	}
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public IntIndex() {
+		this(0);
+	}
+
+	/**
+	 * Constructs an empty index with room for an expected number of entries.
+	 *
+	 * @param expectedSize Number of entries which can be added without
+	 * resizing.
+	 */
+	public IntIndex(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException(
+					"expectedSize must be non-negative");
+		}
+		allocate(capacityFor(expectedSize));
+	}
+
+	/**
+	 * Gets the table capacity (a power of 2) for a number of entries with a
+	 * maximum load factor of 2/3.
+	 */
+	static int capacityFor(int size) {
+		long minCapacity = Math.max((long) size * 3 / 2 + 1, MIN_CAPACITY);
+		if (minCapacity > 1 << 30) {
+			throw new IllegalArgumentException("Index too large");
+		}
+		return Integer.highestOneBit((int) minCapacity - 1) << 1;
+	}
+
+	/**
+	 * Spreads the bits of a key, since IDs are often sequential.
+	 */
+	static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		resizeAt = (int) ((long) capacity * 2 / 3);
+	}
+
+	/**
+	 * Gets the slot of a key, or of the empty slot where it would be added.
+	 */
+	private int slotOf(int key) {
+		int mask = values.length - 1;
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Gets the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return The value for {@code key}, or {@code null} if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		return (V) values[slotOf(key)];
+	}
+
+	/**
+	 * Determines whether the index has a value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return {@code true} if there is a value for {@code key}.
+	 */
+	public boolean containsKey(int key) {
+		return values[slotOf(key)] != null;
+	}
+
+	/**
+	 * Sets the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @param value Value for {@code key}.
+	 * @return The previous value for {@code key}, or {@code null} if there
+	 * was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("value must not be null");
+		}
+		int slot = slotOf(key);
+		Object previous = values[slot];
+		if (previous == null) {
+			if (size >= resizeAt) {
+				resize(values.length * 2);
+				slot = slotOf(key);
+			}
+			keys[slot] = key;
+			++size;
+		}
+		values[slot] = value;
+		return (V) previous;
+	}
+
+	/**
+	 * Adds values by their ID, skipping values without an ID.
+	 *
+	 * @param values Values to add.
+	 * @param idGetter Getter of the ID of a value, such as
+	 * {@code Build::getBuildId}.
+	 * @return IntIndex
+	 */
+	public IntIndex<V> putAll(Iterable<? extends V> values,
+			Function<? super V, Integer> idGetter) {
+		for (V value : values) {
+			Integer id = idGetter.apply(value);
+			if (id != null) {
+				put(id, value);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return The removed value, or {@code null} if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = slotOf(key);
+		Object removed = values[slot];
+		if (removed == null) {
+			return null;
+		}
+
+		// Shift later entries in the probe sequence back, so that lookups
+		// do not stop at the emptied slot (i.e. backward shift deletion).
+		int mask = values.length - 1;
+		int empty = slot;
+		for (int next = (empty + 1) & mask; values[next] != null;
+				next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - empty) & mask)) {
+				keys[empty] = keys[next];
+				values[empty] = values[next];
+				empty = next;
+			}
+		}
+		values[empty] = null;
+		--size;
+		return (V) removed;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; ++i) {
+			if (oldValues[i] != null) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Calls a consumer with each entry, in no particular order.  The index
+	 * must not be modified by the consumer.
+	 *
+	 * @param consumer Consumer of entries.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryConsumer<? super V> consumer) {
+		Object[] values = this.values;
+		for (int i = 0; i < values.length; ++i) {
+			Object value = values[i];
+			if (value != null) {
+				consumer.accept(keys[i], (V) value);
+			}
+		}
+	}
+
+	/**
+	 * Gets the keys of the index, in no particular order.
+	 *
+	 * @return New array of keys.
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int count = 0;
+		for (int i = 0; i < values.length; ++i) {
+			if (values[i] != null) {
+				result[count++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines whether the index has no entries.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
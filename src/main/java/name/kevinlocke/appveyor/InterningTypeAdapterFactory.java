@@ -0,0 +1,214 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import name.kevinlocke.appveyor.model.Build;
+
+/**
+ * Gson {@link TypeAdapterFactory} which replaces the values of selected
+ * {@code String} fields of decoded models with a canonical instance from a
+ * pool, so that models which share values (e.g. the {@code branch} and
+ * {@code authorName} of builds in a {@code ProjectHistory}) share
+ * {@code String}s, which reduces the memory used by models which are kept.
+ *
+ * Fields are selected by name, for all classes in the model package.  The
+ * pool is bounded: once it holds {@code maxPoolSize} strings, values which
+ * are not in the pool are left as decoded.  Fields should have few distinct
+ * values, so that the pool holds the most common values.
+ *
+ * To decode responses using the factory, register it with the {@link Gson}
+ * of the {@link JSON} of an {@link ApiClient}:
+ *
+ * <pre>
+ * JSON json = apiClient.getJSON();
+ * json.setGson(json.getGson().newBuilder()
+ *         .registerTypeAdapterFactory(new InterningTypeAdapterFactory(10000))
+ *         .create());
+ * </pre>
+ */
+public class InterningTypeAdapterFactory implements TypeAdapterFactory {
+	/**
+	 * Names of fields which are interned by default.
+	 */
+	public static final Set<String> DEFAULT_FIELD_NAMES =
+			Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+					"accountName",
+					"authorName",
+					"authorUsername",
+					"branch",
+					"committerName",
+					"committerUsername",
+					"repositoryBranch",
+					"repositoryName",
+					"repositoryScm",
+					"roleName")));
+
+	private static final String MODEL_PACKAGE_NAME =
+			Build.class.getPackage().getName();
+
+	private final Set<String> fieldNames;
+	private final int maxPoolSize;
+	private final ConcurrentHashMap<String, String> pool =
+			new ConcurrentHashMap<>();
+	private final LongAdder deduplicatedCount = new LongAdder();
+
+	/**
+	 * Constructs a factory which interns {@link #DEFAULT_FIELD_NAMES}.
+	 *
+	 * @param maxPoolSize Maximum number of strings in the pool.
+	 */
+	public InterningTypeAdapterFactory(int maxPoolSize) {
+		this(DEFAULT_FIELD_NAMES, maxPoolSize);
+	}
+
+	/**
+	 * Constructs a factory which interns selected fields.
+	 *
+	 * @param fieldNames Names of {@code String} fields to intern, as declared
+	 * in the model classes.
+	 * @param maxPoolSize Maximum number of strings in the pool.
+	 */
+	public InterningTypeAdapterFactory(Collection<String> fieldNames,
+			int maxPoolSize) {
+		if (maxPoolSize < 0) {
+			throw new IllegalArgumentException(
+					"maxPoolSize must be non-negative");
+		}
+		this.fieldNames = Collections.unmodifiableSet(new TreeSet<>(fieldNames));
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	/**
+	 * Gets the names of fields which are interned.
+	 */
+	public Set<String> getFieldNames() {
+		return fieldNames;
+	}
+
+	/**
+	 * Gets the canonical instance of a string.
+	 *
+	 * @param value String to intern.
+	 * @return A string equal to {@code value} from the pool, or
+	 * {@code value} if there is none and the pool is full.
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		String canonical = pool.get(value);
+		if (canonical == null) {
+			if (pool.size() >= maxPoolSize) {
+				return value;
+			}
+			canonical = pool.putIfAbsent(value, value);
+			if (canonical == null) {
+				return value;
+			}
+		}
+		if (canonical != value) {
+			deduplicatedCount.increment();
+		}
+		return canonical;
+	}
+
+	/**
+	 * Gets the number of strings in the pool.
+	 */
+	public int getPoolSize() {
+		return pool.size();
+	}
+
+	/**
+	 * Gets the number of decoded strings which were replaced by an equal
+	 * string from the pool.
+	 */
+	public long getDeduplicatedCount() {
+		return deduplicatedCount.sum();
+	}
+
+	/**
+	 * Removes all strings from the pool.
+	 */
+	public void clear() {
+		pool.clear();
+	}
+
+	@Override
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		Class<? super T> rawType = type.getRawType();
+		Package rawPackage = rawType.getPackage();
+		if (rawType.isEnum() || rawPackage == null
+				|| !MODEL_PACKAGE_NAME.equals(rawPackage.getName())) {
+			return null;
+		}
+
+		List<Field> fields = new ArrayList<>();
+		for (Class<?> c = rawType; c != Object.class && c != null;
+				c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.getType() == String.class
+						&& !Modifier.isStatic(field.getModifiers())
+						&& fieldNames.contains(field.getName())) {
+					field.setAccessible(true);
+					fields.add(field);
+				}
+			}
+		}
+		if (fields.isEmpty()) {
+			return null;
+		}
+
+		TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+		Field[] internedFields = fields.toArray(new Field[fields.size()]);
+		return new TypeAdapter<T>() {
+			@Override
+			public void write(JsonWriter out, T value) throws IOException {
+				delegate.write(out, value);
+			}
+
+			@Override
+			public T read(JsonReader in) throws IOException {
+				T value = delegate.read(in);
+				if (value != null) {
+					internFields(value, internedFields);
+				}
+				return value;
+			}
+		};
+	}
+
+	private void internFields(Object value, Field[] fields) {
+		try {
+			for (Field field : fields) {
+				String fieldValue = (String) field.get(value);
+				String canonical = intern(fieldValue);
+				if (canonical != fieldValue) {
+					field.set(value, canonical);
+				}
+			}
+		} catch (IllegalAccessException e) {
+			// Note: Not expected, since fields were made accessible
+			throw new JsonIOException(e);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package name.kevinlocke.appveyor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Iterator which decodes the elements of a JSON array one at a time, as they
+ * are read, so that only the current element is held in memory.
+ *
+ * The underlying reader is closed when the end of the array is reached or
+ * when the iterator is closed.  Anything after the array in the document is
+ * not read.  Errors reading or decoding an element are thrown from
+ * {@link #hasNext()} and {@link #next()} as {@link UncheckedApiException}.
+ */
+final class JsonArrayIterator<T> implements Iterator<T>, Closeable {
+	private final JsonReader reader;
+	private final TypeAdapter<T> elementAdapter;
+	private boolean done;
+
+	private JsonArrayIterator(JsonReader reader,
+			TypeAdapter<T> elementAdapter, boolean done) {
+		this.reader = reader;
+		this.elementAdapter = elementAdapter;
+		this.done = done;
+	}
+
+	/**
+	 * Opens an iterator over an array in a JSON document.
+	 *
+	 * @param document Reader of the document.  Closed by the iterator.
+	 * @param property Name of the property of the top-level object which
+	 * holds the array, or {@code null} if the document is the array.
+	 * Properties before it are skipped.
+	 * @param elementAdapter Adapter which decodes the array elements.
+	 * @return Iterator over the array elements, which is empty if the
+	 * document is empty or the array is {@code null} or absent.
+	 * @throws IOException If reading the document fails.
+	 * @throws JsonSyntaxException If the document is not valid JSON or does
+	 * not have an array in the expected place.
+	 */
+	static <T> JsonArrayIterator<T> open(Reader document, String property,
+			TypeAdapter<T> elementAdapter) throws IOException {
+		JsonReader reader = EnhancedJSON.newReader(document);
+		boolean opened = false;
+		try {
+			boolean found = seekArray(reader, property);
+			JsonArrayIterator<T> iterator =
+					new JsonArrayIterator<>(reader, elementAdapter, !found);
+			opened = true;
+			if (!found) {
+				reader.close();
+			}
+			return iterator;
+		} catch (MalformedJsonException | IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		} finally {
+			if (!opened) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Positions a reader inside the array to iterate.
+	 *
+	 * @return {@code false} if there is no array to iterate.
+	 */
+	private static boolean seekArray(JsonReader reader, String property)
+			throws IOException {
+		if (EnhancedJSON.isEmpty(reader)) {
+			return false;
+		}
+
+		if (property != null) {
+			if (reader.peek() == JsonToken.NULL) {
+				return false;
+			}
+			reader.beginObject();
+			while (true) {
+				if (!reader.hasNext()) {
+					return false;
+				}
+				if (property.equals(reader.nextName())) {
+					break;
+				}
+				reader.skipValue();
+			}
+		}
+
+		if (reader.peek() == JsonToken.NULL) {
+			return false;
+		}
+		reader.beginArray();
+		return true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (done) {
+			return false;
+		}
+
+		try {
+			if (reader.hasNext()) {
+				return true;
+			}
+			reader.endArray();
+		} catch (MalformedJsonException | IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new UncheckedApiException(new ApiException(e));
+		}
+		close();
+		return false;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		try {
+			return elementAdapter.read(reader);
+		} catch (MalformedJsonException | IllegalStateException e) {
+			throw new JsonSyntaxException(e);
+		} catch (IOException e) {
+			throw new UncheckedApiException(new ApiException(e));
+		}
+	}
+
+	/**
+	 * Stops iterating and closes the underlying reader.
+	 */
+	@Override
+	public void close() {
+		if (done) {
+			return;
+		}
+		done = true;
+		try {
+			reader.close();
+		} catch (IOException e) {
+			// Nothing more will be read, so the error is not significant
+		}
+	}
+}
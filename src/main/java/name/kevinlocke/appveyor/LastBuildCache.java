@@ -0,0 +1,177 @@
+package name.kevinlocke.appveyor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.ProjectBuildResults;
+
+/**
+ * Read-through cache of the last build of projects and project branches,
+ * which returns slightly stale builds immediately while it reloads them
+ * (i.e. stale-while-revalidate).
+ *
+ * Builds are returned from the cache without a request until they are
+ * older than the maximum staleness.  Builds requested after the refresh age
+ * are returned and reloaded in the background, so frequently requested
+ * builds are rarely older than the refresh age and requests for them rarely
+ * wait for the API.  Builds which are not complete (see
+ * {@link CompletionWatcher#isTerminal(name.kevinlocke.appveyor.model.Status)})
+ * are reloaded after a shorter age, since their status will change.
+ *
+ * Builds started or completed after a build was loaded are not visible
+ * until it is reloaded.  Use {@link ProjectApi#getProjectLastBuild} or
+ * {@link ProjectApi#getProjectLastBuildBranch} directly when this is
+ * unacceptable.
+ */
+public class LastBuildCache {
+	private final ProjectApi projectApi;
+	private final RefreshingCache<List<String>, ProjectBuildResults> lastBuilds;
+
+	/**
+	 * Constructs a cache which reloads builds requested after 3/4 of
+	 * {@code maxStaleness}, and builds which are not complete after 1/4.
+	 *
+	 * @param apiClient Client from which to load builds.
+	 * @param maxSize Maximum number of projects and branches to cache.
+	 * @param maxStaleness Maximum age of returned builds.
+	 * @param unit Unit of {@code maxStaleness}.
+	 */
+	public LastBuildCache(ApiClient apiClient, int maxSize, long maxStaleness,
+			TimeUnit unit) {
+		projectApi = new ProjectApi(apiClient);
+		lastBuilds = new RefreshingCache<>(this::load, maxSize, maxStaleness,
+				unit);
+		lastBuilds.setRefreshAfter(LastBuildCache::isInProgress,
+				unit.toNanos(maxStaleness) / 4, TimeUnit.NANOSECONDS);
+		lastBuilds.setExecutor(
+				apiClient.getHttpClient().getDispatcher().getExecutorService());
+	}
+
+	private ProjectBuildResults load(List<String> key) throws ApiException {
+		String branch = key.get(2);
+		return branch == null
+				? projectApi.getProjectLastBuild(key.get(0), key.get(1))
+				: projectApi.getProjectLastBuildBranch(key.get(0), key.get(1),
+						branch);
+	}
+
+	private static boolean isInProgress(ProjectBuildResults results) {
+		Build build = results == null ? null : results.getBuild();
+		return build != null && !CompletionWatcher.isTerminal(build.getStatus());
+	}
+
+	/**
+	 * Sets the age after which requested builds are reloaded in the
+	 * background.
+	 *
+	 * @param refreshAfter Age after which builds are reloaded.
+	 * @param unit Unit of {@code refreshAfter}.
+	 * @return LastBuildCache
+	 */
+	public LastBuildCache setRefreshAfter(long refreshAfter, TimeUnit unit) {
+		lastBuilds.setRefreshAfter(refreshAfter, unit);
+		return this;
+	}
+
+	/**
+	 * Sets the age after which requested builds which are queued or running
+	 * are reloaded in the background.
+	 *
+	 * @param refreshAfter Age after which builds which are not complete are
+	 * reloaded.
+	 * @param unit Unit of {@code refreshAfter}.
+	 * @return LastBuildCache
+	 */
+	public LastBuildCache setInProgressRefreshAfter(long refreshAfter,
+			TimeUnit unit) {
+		lastBuilds.setRefreshAfter(LastBuildCache::isInProgress, refreshAfter,
+				unit);
+		return this;
+	}
+
+	/**
+	 * Gets the last build of a project, as returned by
+	 * {@link ProjectApi#getProjectLastBuild(String, String)}.
+	 *
+	 * @param accountName Name of the account which owns the project.
+	 * @param projectSlug Slug of the project.
+	 * @return The cached or loaded project and last build.
+	 * @throws ApiException If loading the build fails.
+	 */
+	public ProjectBuildResults getLastBuild(String accountName,
+			String projectSlug) throws ApiException {
+		return lastBuilds.get(Arrays.asList(accountName, projectSlug, null));
+	}
+
+	/**
+	 * Gets the last build of a project branch, as returned by
+	 * {@link ProjectApi#getProjectLastBuildBranch(String, String, String)}.
+	 *
+	 * @param accountName Name of the account which owns the project.
+	 * @param projectSlug Slug of the project.
+	 * @param buildBranch Name of the branch.
+	 * @return The cached or loaded project and last build of the branch.
+	 * @throws ApiException If loading the build fails.
+	 */
+	public ProjectBuildResults getLastBuild(String accountName,
+			String projectSlug, String buildBranch) throws ApiException {
+		if (buildBranch == null) {
+			throw new IllegalArgumentException("buildBranch must not be null");
+		}
+		return lastBuilds.get(
+				Arrays.asList(accountName, projectSlug, buildBranch));
+	}
+
+	/**
+	 * Removes the cached builds of a project, such as after starting a
+	 * build.
+	 *
+	 * @param accountName Name of the account which owns the project.
+	 * @param projectSlug Slug of the project.
+	 */
+	public void invalidate(String accountName, String projectSlug) {
+		lastBuilds.invalidateIf(key -> accountName.equals(key.get(0))
+				&& projectSlug.equals(key.get(1)));
+	}
+
+	/**
+	 * Removes all cached builds.
+	 */
+	public void invalidateAll() {
+		lastBuilds.invalidateAll();
+	}
+
+	/**
+	 * Gets the number of requests for a build which was cached or being
+	 * loaded.
+	 */
+	public long getHitCount() {
+		return lastBuilds.getHitCount();
+	}
+
+	/**
+	 * Gets the number of requests which loaded the build.
+	 */
+	public long getMissCount() {
+		return lastBuilds.getMissCount();
+	}
+
+	/**
+	 * Gets the fraction of requests which did not load the build.
+	 *
+	 * @return Hit rate, or {@code NaN} if there have been no requests.
+	 */
+	public double getHitRate() {
+		return lastBuilds.getHitRate();
+	}
+
+	/**
+	 * Gets the number of builds reloaded in the background.
+	 */
+	public long getRefreshCount() {
+		return lastBuilds.getRefreshCount();
+	}
+}
@@ -0,0 +1,416 @@
+package name.kevinlocke.appveyor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import name.kevinlocke.appveyor.model.BuildJob;
+import name.kevinlocke.appveyor.model.BuildMessage;
+
+/**
+ * Gson {@link TypeAdapterFactory} which decodes {@code List}s of selected
+ * element types lazily, so that callers which do not use them (e.g. callers
+ * of {@code getProjectHistory} which only need the {@code status} and
+ * {@code version} of each build) do not pay to decode them.
+ *
+ * When a list is decoded, the tokens of its JSON array are copied from the
+ * {@link JsonReader} as compact UTF-8 bytes into the returned list, without
+ * building a tree of {@link com.google.gson.JsonElement}s or a
+ * {@code String}.  The list decodes its elements from the bytes on first
+ * access, other than {@link List#size()}.  Until then, the list is
+ * serialized by copying the tokens from the bytes, so that it serializes
+ * back to the same JSON.  Elements which fail to
+ * decode throw on first access, with the exceptions thrown when decoding
+ * eagerly (e.g. {@link JsonParseException}).  Lists are safe
+ * for concurrent reads (but may be decoded more than once, in which case
+ * every thread uses the first list decoded), and decoded lists are
+ * mutable, as when decoded eagerly.
+ *
+ * By default, {@code List<BuildJob>} ({@code Build.jobs}) and
+ * {@code List<BuildMessage>} ({@code Build.messages}) are decoded lazily.
+ * To decode responses using the factory, register it with the {@link Gson}
+ * of the {@link JSON} of an {@link ApiClient}:
+ *
+ * <pre>
+ * JSON json = apiClient.getJSON();
+ * json.setGson(json.getGson().newBuilder()
+ *         .registerTypeAdapterFactory(new LazyListTypeAdapterFactory())
+ *         .create());
+ * </pre>
+ */
+public class LazyListTypeAdapterFactory implements TypeAdapterFactory {
+	/**
+	 * Element types of lists which are decoded lazily by default.
+	 */
+	public static final Set<Class<?>> DEFAULT_ELEMENT_TYPES =
+			Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+					BuildJob.class,
+					BuildMessage.class)));
+
+	private final Set<Class<?>> elementTypes;
+
+	/**
+	 * Constructs a factory which decodes lists of
+	 * {@link #DEFAULT_ELEMENT_TYPES} lazily.
+	 */
+	public LazyListTypeAdapterFactory() {
+		this(DEFAULT_ELEMENT_TYPES);
+	}
+
+	/**
+	 * Constructs a factory which decodes lists of selected element types
+	 * lazily.
+	 *
+	 * @param elementTypes Element types of lists to decode lazily.  Lists
+	 * of these types returned from API methods (e.g.
+	 * {@code List<ArtifactModel>}) are also decoded lazily.
+	 */
+	public LazyListTypeAdapterFactory(Collection<Class<?>> elementTypes) {
+		this.elementTypes =
+				Collections.unmodifiableSet(new HashSet<>(elementTypes));
+	}
+
+	/**
+	 * Gets the element types of lists which are decoded lazily.
+	 */
+	public Set<Class<?>> getElementTypes() {
+		return elementTypes;
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		if (type.getRawType() == LazyList.class) {
+			// Note: Gson serializes fields using the adapter for the runtime
+			// type of the value, so LazyList needs its own adapter.
+			return (TypeAdapter) new LazyListTypeAdapter<>(null);
+		}
+		if (type.getRawType() != List.class
+				|| !(type.getType() instanceof ParameterizedType)) {
+			return null;
+		}
+		Type elementType = ((ParameterizedType) type.getType())
+				.getActualTypeArguments()[0];
+		if (!elementTypes.contains(elementType)) {
+			return null;
+		}
+
+		TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+		return (TypeAdapter) new LazyListTypeAdapter<>((TypeAdapter) delegate);
+	}
+
+	/**
+	 * Copies a JSON array from a reader to a writer, token by token.
+	 *
+	 * Numbers are copied as written, so that their precision is preserved.
+	 *
+	 * @return Number of elements in the array.
+	 */
+	private static int copyArray(JsonReader in, JsonWriter out)
+			throws IOException {
+		int size = 0;
+		int depth = 0;
+		do {
+			JsonToken token = in.peek();
+			if (depth == 1 && token != JsonToken.END_ARRAY) {
+				++size;
+			}
+			switch (token) {
+			case BEGIN_ARRAY:
+				in.beginArray();
+				out.beginArray();
+				++depth;
+				break;
+			case END_ARRAY:
+				in.endArray();
+				out.endArray();
+				--depth;
+				break;
+			case BEGIN_OBJECT:
+				in.beginObject();
+				out.beginObject();
+				++depth;
+				break;
+			case END_OBJECT:
+				in.endObject();
+				out.endObject();
+				--depth;
+				break;
+			case NAME:
+				out.name(in.nextName());
+				break;
+			case STRING:
+				out.value(in.nextString());
+				break;
+			case NUMBER:
+				// Note: Not jsonValue(), which JsonTreeWriter does not support
+				out.value(new LazilyParsedNumber(in.nextString()));
+				break;
+			case BOOLEAN:
+				out.value(in.nextBoolean());
+				break;
+			case NULL:
+				in.nextNull();
+				out.nullValue();
+				break;
+			default:
+				throw new IllegalStateException("Unexpected " + token);
+			}
+		} while (depth > 0);
+		return size;
+	}
+
+	private static JsonReader openReader(byte[] json) {
+		return EnhancedJSON.newReader(new InputStreamReader(
+				new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writer which encodes characters as UTF-8 into a growable byte array.
+	 *
+	 * Note: {@link java.io.OutputStreamWriter} allocates a buffer for each
+	 * write, which is more than the copied JSON for the small writes of
+	 * {@link JsonWriter}.  As with {@code OutputStreamWriter}, unpaired
+	 * surrogates are encoded as {@code '?'}.
+	 */
+	private static final class Utf8Buffer extends Writer {
+		private byte[] bytes = new byte[256];
+		private int count;
+		/** High surrogate of a pair which is not yet complete, or 0. */
+		private char highSurrogate;
+
+		private void ensureCapacity(int additional) {
+			if (count + additional > bytes.length) {
+				bytes = Arrays.copyOf(bytes,
+						Math.max(bytes.length * 2, count + additional));
+			}
+		}
+
+		private void writeChar(char c) {
+			if (highSurrogate != 0) {
+				char high = highSurrogate;
+				highSurrogate = 0;
+				if (Character.isLowSurrogate(c)) {
+					int codePoint = Character.toCodePoint(high, c);
+					ensureCapacity(4);
+					bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+					bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+					return;
+				}
+				writeChar('?');
+			}
+
+			if (c < 0x80) {
+				ensureCapacity(1);
+				bytes[count++] = (byte) c;
+			} else if (c < 0x800) {
+				ensureCapacity(2);
+				bytes[count++] = (byte) (0xC0 | (c >> 6));
+				bytes[count++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c)) {
+				highSurrogate = c;
+			} else if (Character.isLowSurrogate(c)) {
+				writeChar('?');
+			} else {
+				ensureCapacity(3);
+				bytes[count++] = (byte) (0xE0 | (c >> 12));
+				bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+
+		@Override
+		public void write(int c) {
+			writeChar((char) c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			for (int i = off; i < off + len; ++i) {
+				writeChar(cbuf[i]);
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			for (int i = off; i < off + len; ++i) {
+				writeChar(str.charAt(i));
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		/**
+		 * Gets the bytes written, including {@code '?'} for a trailing
+		 * unpaired surrogate.
+		 */
+		byte[] toByteArray() {
+			if (highSurrogate != 0) {
+				highSurrogate = 0;
+				writeChar('?');
+			}
+			return Arrays.copyOf(bytes, count);
+		}
+	}
+
+	private static final class LazyListTypeAdapter<E>
+			extends TypeAdapter<List<E>> {
+		/** Adapter for decoded lists, or {@code null} for LazyList. */
+		private final TypeAdapter<List<E>> delegate;
+
+		LazyListTypeAdapter(TypeAdapter<List<E>> delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void write(JsonWriter out, List<E> value) throws IOException {
+			if (value instanceof LazyList) {
+				((LazyList<E>) value).write(out);
+			} else {
+				delegate.write(out, value);
+			}
+		}
+
+		@Override
+		public List<E> read(JsonReader in) throws IOException {
+			if (delegate == null) {
+				throw new UnsupportedOperationException(
+						"LazyList can only be read as List");
+			}
+			if (in.peek() != JsonToken.BEGIN_ARRAY) {
+				// Note: null, or invalid JSON which delegate will report
+				return delegate.read(in);
+			}
+			Utf8Buffer json = new Utf8Buffer();
+			int size = copyArray(in, new JsonWriter(json));
+			return new LazyList<>(delegate, size, json.toByteArray());
+		}
+	}
+
+	/**
+	 * List which decodes its elements from JSON on first access.
+	 */
+	static final class LazyList<E> extends AbstractList<E>
+			implements RandomAccess {
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<LazyList, List>
+				DECODED = AtomicReferenceFieldUpdater.newUpdater(
+						LazyList.class, List.class, "decoded");
+
+		private final TypeAdapter<List<E>> delegate;
+		private final int jsonSize;
+		/** Compact UTF-8 JSON of the list, or {@code null} once decoded. */
+		private volatile byte[] json;
+		/** Decoded elements.  Set once, by {@link #DECODED}. */
+		private volatile List<E> decoded;
+
+		LazyList(TypeAdapter<List<E>> delegate, int jsonSize, byte[] json) {
+			this.delegate = delegate;
+			this.jsonSize = jsonSize;
+			this.json = json;
+		}
+
+		/**
+		 * Determines whether the elements have been decoded.
+		 */
+		boolean isDecoded() {
+			return decoded != null;
+		}
+
+		private List<E> decoded() {
+			List<E> list = decoded;
+			if (list == null) {
+				byte[] json = this.json;
+				if (json == null) {
+					// Note: Decoded concurrently after decoded was read
+					return decoded;
+				}
+				try (JsonReader reader = openReader(json)) {
+					list = EnhancedJSON.readFully(reader, delegate);
+				} catch (IOException e) {
+					// Note: Not expected, since bytes are read from memory
+					throw new JsonIOException(e);
+				}
+				if (!DECODED.compareAndSet(this, null, list)) {
+					// Note: Decoded concurrently.  Use the list published
+					// first, which may have been modified.
+					return decoded;
+				}
+				this.json = null;
+			}
+			return list;
+		}
+
+		void write(JsonWriter out) throws IOException {
+			byte[] json = this.json;
+			if (json != null) {
+				try (JsonReader reader = openReader(json)) {
+					copyArray(reader, out);
+				}
+			} else {
+				delegate.write(out, decoded);
+			}
+		}
+
+		@Override
+		public E get(int index) {
+			return decoded().get(index);
+		}
+
+		@Override
+		public int size() {
+			List<E> list = decoded;
+			return list == null ? jsonSize : list.size();
+		}
+
+		@Override
+		public E set(int index, E element) {
+			return decoded().set(index, element);
+		}
+
+		@Override
+		public void add(int index, E element) {
+			decoded().add(index, element);
+			++modCount;
+		}
+
+		@Override
+		public E remove(int index) {
+			E removed = decoded().remove(index);
+			++modCount;
+			return removed;
+		}
+	}
+}
@@ -0,0 +1,1134 @@
+package name.kevinlocke.appveyor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive of build job logs in block-compressed segment files.
+ *
+ * Logs (e.g. from
+ * {@link name.kevinlocke.appveyor.api.BuildApi#getBuildLog(String)}) are
+ * appended to the current segment file in a directory, which is replaced by
+ * a new segment when it reaches {@link #getMaxSegmentSize()}.  Each log is
+ * split into blocks of up to {@link #getBlockSize()} bytes, ending at a line
+ * terminator where possible, which are compressed independently using
+ * {@link Deflater}.  The position and line number of each block are kept in
+ * an in-memory index by job ID, which is rebuilt from the segment files
+ * when an archive is opened.  This allows a range of lines to be read by
+ * decompressing only the blocks which contain it.
+ *
+ * Logs older than the retention period are ignored and are removed by
+ * {@link #expire()}.  Space used by expired and replaced logs is reclaimed
+ * by {@link #compact(double)}, which copies the remaining logs from sparse
+ * segments to the current segment without recompressing them.
+ *
+ * Storing a log with the ID of an archived log replaces it.  A log which is
+ * partially written when the process exits is discarded when the archive
+ * is next opened.  Other damaged records are not discarded: they prevent
+ * the archive from being opened.  Only one instance may use a directory at a time.
+ * Instances are thread-safe.  Logs are readable while other logs are stored
+ * and while the archive is compacted.
+ */
+public class LogArchive implements Closeable {
+	/** Default value of {@link #getBlockSize()}. */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	/** Default value of {@link #getMaxSegmentSize()}. */
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+	private static final int RECORD_MAGIC = 0x41564C47;
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final Pattern SEGMENT_NAME =
+			Pattern.compile("(\\d{8})" + Pattern.quote(SEGMENT_SUFFIX));
+
+	/** Location of an archived log. */
+	private static final class LogEntry {
+		final String jobId;
+		final long storedAt;
+		final Segment segment;
+		final long recordOffset;
+		final long recordLength;
+		final long size;
+		final long lineCount;
+		/** Offset of the compressed data of each block in the segment. */
+		final long[] blockOffsets;
+		final int[] compressedSizes;
+		final int[] rawSizes;
+		final int[] crcs;
+		/** Number of line terminators before each block. */
+		final long[] firstLines;
+
+		LogEntry(String jobId, long storedAt, Segment segment,
+				long recordOffset, long recordLength, long size,
+				long lineCount, long[] blockOffsets, int[] compressedSizes,
+				int[] rawSizes, int[] crcs, long[] firstLines) {
+			this.jobId = jobId;
+			this.storedAt = storedAt;
+			this.segment = segment;
+			this.recordOffset = recordOffset;
+			this.recordLength = recordLength;
+			this.size = size;
+			this.lineCount = lineCount;
+			this.blockOffsets = blockOffsets;
+			this.compressedSizes = compressedSizes;
+			this.rawSizes = rawSizes;
+			this.crcs = crcs;
+			this.firstLines = firstLines;
+		}
+
+		/** Creates a copy of this entry at a different location. */
+		LogEntry moveTo(Segment newSegment, long newRecordOffset) {
+			long delta = newRecordOffset - recordOffset;
+			long[] newBlockOffsets = new long[blockOffsets.length];
+			for (int i = 0; i < blockOffsets.length; ++i) {
+				newBlockOffsets[i] = blockOffsets[i] + delta;
+			}
+			return new LogEntry(jobId, storedAt, newSegment, newRecordOffset,
+					recordLength, size, lineCount, newBlockOffsets,
+					compressedSizes, rawSizes, crcs, firstLines);
+		}
+
+		/** Whether a block starts in the middle of a line. */
+		boolean isContinuation(int block) {
+			// Blocks end after a line terminator, unless they contain none
+			return block > 0
+					&& firstLines[block] == firstLines[block - 1];
+		}
+	}
+
+	/** A segment file. */
+	private static final class Segment {
+		final int id;
+		final File file;
+		final FileChannel channel;
+		/** Size of the segment file.  Guarded by writeLock. */
+		long size;
+		/** Bytes of records which are in the index.  Guarded by writeLock. */
+		long liveBytes;
+
+		Segment(int id, File file, FileChannel channel) {
+			this.id = id;
+			this.file = file;
+			this.channel = channel;
+		}
+	}
+
+	private final File directory;
+	private final long retentionMillis;
+	private volatile int blockSize = DEFAULT_BLOCK_SIZE;
+	private volatile long maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+
+	private final ConcurrentMap<String, LogEntry> index =
+			new ConcurrentHashMap<>();
+	private final ConcurrentMap<Integer, Segment> segments =
+			new ConcurrentHashMap<>();
+
+	/** Lock for writing segments and updating segment sizes. */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	/** Lock which prevents segments from being closed while being read. */
+	private final ReentrantReadWriteLock segmentLock =
+			new ReentrantReadWriteLock();
+	/** Segment to which logs are appended.  Guarded by writeLock. */
+	private Segment activeSegment;
+
+	/**
+	 * Opens the archive in a directory, creating it if necessary.
+	 *
+	 * @param directory Directory of segment files.
+	 * @param retention Time after which stored logs expire.
+	 * @param unit Unit of {@code retention}.
+	 * @throws IOException If the directory can not be created or the
+	 * segment files can not be read, or a segment other than the last has a
+	 * damaged record.
+	 */
+	public LogArchive(File directory, long retention, TimeUnit unit)
+			throws IOException {
+		if (retention <= 0) {
+			throw new IllegalArgumentException("retention must be positive");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory " + directory);
+		}
+
+		this.directory = directory;
+		this.retentionMillis = unit.toMillis(retention);
+
+		TreeMap<Integer, File> segmentFiles = new TreeMap<>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+				if (matcher.matches()) {
+					segmentFiles.put(Integer.valueOf(matcher.group(1)), file);
+				}
+			}
+		}
+
+		try {
+			long cutoff = System.currentTimeMillis() - retentionMillis;
+			for (Map.Entry<Integer, File> segmentFile
+					: segmentFiles.entrySet()) {
+				Segment segment = openSegment(segmentFile.getKey(),
+						segmentFile.getValue());
+				scanSegment(segment, cutoff,
+						segmentFile.getKey().equals(segmentFiles.lastKey()));
+				activeSegment = segment;
+			}
+			if (activeSegment == null) {
+				activeSegment = openSegment(0, segmentFile(0));
+			}
+		} catch (IOException | RuntimeException e) {
+			closeSegments(e);
+			throw e;
+		}
+	}
+
+	private File segmentFile(int id) {
+		return new File(directory, String.format("%08d", id) + SEGMENT_SUFFIX);
+	}
+
+	private Segment openSegment(int id, File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		Segment segment = new Segment(id, file, channel);
+		segment.size = channel.size();
+		segments.put(id, segment);
+		return segment;
+	}
+
+	/**
+	 * Reads the records of a segment into the index.
+	 *
+	 * @param isLast Whether the segment is the last, to which logs were
+	 * being appended, where an incomplete record at the end is truncated.
+	 * @throws IOException If another segment has a damaged record, which is
+	 * not discarded since the records after it would be lost.
+	 */
+	private void scanSegment(Segment segment, long cutoff, boolean isLast)
+			throws IOException {
+		SegmentReader reader = new SegmentReader(segment.channel, segment.size);
+		long recordOffset = 0;
+		while (true) {
+			LogEntry entry;
+			try {
+				entry = readRecord(reader, segment, recordOffset);
+			} catch (EOFException | IllegalStateException e) {
+				if (!isLast) {
+					throw new IOException("Damaged record at offset "
+							+ recordOffset + " of segment " + segment.file, e);
+				}
+				// Incomplete or corrupt record.  Discard it and later records.
+				segment.channel.truncate(recordOffset);
+				segment.size = recordOffset;
+				break;
+			}
+			if (entry == null) {
+				break;
+			}
+
+			if (entry.storedAt >= cutoff) {
+				LogEntry replaced = index.put(entry.jobId, entry);
+				if (replaced != null) {
+					replaced.segment.liveBytes -= replaced.recordLength;
+				}
+				segment.liveBytes += entry.recordLength;
+			}
+			recordOffset = reader.position();
+		}
+	}
+
+	/**
+	 * Reads a record, seeking over the compressed data of its blocks.
+	 *
+	 * @return The record, or {@code null} at the end of the segment.
+	 * @throws IllegalStateException If the record is corrupt.
+	 */
+	private static LogEntry readRecord(SegmentReader input, Segment segment,
+			long recordOffset) throws IOException {
+		if (input.isAtEnd()) {
+			return null;
+		}
+		if (input.readInt() != RECORD_MAGIC) {
+			throw new IllegalStateException("Bad record magic");
+		}
+		byte[] jobIdBytes = new byte[input.readUnsignedShort()];
+		input.readFully(jobIdBytes);
+		String jobId = new String(jobIdBytes, StandardCharsets.UTF_8);
+		long storedAt = input.readLong();
+
+		List<long[]> blocks = new ArrayList<>();
+		long size = 0;
+		long newlines = 0;
+		int rawSize;
+		while ((rawSize = input.readInt()) != 0) {
+			int compressedSize = input.readInt();
+			int blockNewlines = input.readInt();
+			int crc = input.readInt();
+			if (rawSize < 0 || compressedSize < 0 || blockNewlines < 0) {
+				throw new IllegalStateException("Bad block header");
+			}
+			blocks.add(new long[] { input.position(), compressedSize, rawSize,
+					crc, newlines });
+			input.skip(compressedSize);
+			size += rawSize;
+			newlines += blockNewlines;
+		}
+		long lineCount = input.readLong();
+
+		int blockCount = blocks.size();
+		long[] blockOffsets = new long[blockCount];
+		int[] compressedSizes = new int[blockCount];
+		int[] rawSizes = new int[blockCount];
+		int[] crcs = new int[blockCount];
+		long[] firstLines = new long[blockCount];
+		for (int i = 0; i < blockCount; ++i) {
+			long[] block = blocks.get(i);
+			blockOffsets[i] = block[0];
+			compressedSizes[i] = (int) block[1];
+			rawSizes[i] = (int) block[2];
+			crcs[i] = (int) block[3];
+			firstLines[i] = block[4];
+		}
+		return new LogEntry(jobId, storedAt, segment, recordOffset,
+				input.position() - recordOffset, size, lineCount, blockOffsets,
+				compressedSizes, rawSizes, crcs, firstLines);
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Sets the maximum number of uncompressed bytes in a block of a log
+	 * stored after this call.
+	 *
+	 * Smaller blocks reduce the amount decompressed to read a range of lines
+	 * but compress less effectively.
+	 *
+	 * @param blockSize Maximum uncompressed size of a block, in bytes.
+	 * @return LogArchive
+	 */
+	public LogArchive setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive");
+		}
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	public long getMaxSegmentSize() {
+		return maxSegmentSize;
+	}
+
+	/**
+	 * Sets the size at which a new segment file is started.
+	 *
+	 * A log is never split across segments, so segments may exceed this
+	 * size by the size of one compressed log.
+	 *
+	 * @param maxSegmentSize Size at which a new segment is started, in
+	 * bytes.
+	 * @return LogArchive
+	 */
+	public LogArchive setMaxSegmentSize(long maxSegmentSize) {
+		if (maxSegmentSize < 1) {
+			throw new IllegalArgumentException(
+					"maxSegmentSize must be positive");
+		}
+		this.maxSegmentSize = maxSegmentSize;
+		return this;
+	}
+
+	/**
+	 * Stores a log, replacing any archived log with the same job ID.
+	 *
+	 * The log is compressed in memory before it is appended to the archive,
+	 * so that reading a slow stream does not delay other stores.
+	 *
+	 * @param jobId ID of the job which produced the log.
+	 * @param log Content of the log.  Read to the end, but not closed.
+	 * @throws IOException If reading {@code log} or writing the archive
+	 * fails.  The archive is unchanged.
+	 */
+	public void store(String jobId, InputStream log) throws IOException {
+		byte[] jobIdBytes = jobId.getBytes(StandardCharsets.UTF_8);
+		if (jobIdBytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("jobId is too long");
+		}
+
+		RecordBuffer record = new RecordBuffer();
+		LogEntry recordEntry;
+		Deflater deflater = new Deflater();
+		try {
+			recordEntry = writeRecord(record, deflater, jobId, jobIdBytes, log);
+		} finally {
+			deflater.end();
+		}
+
+		writeLock.lock();
+		try {
+			if (activeSegment.size >= maxSegmentSize) {
+				activeSegment = openSegment(activeSegment.id + 1,
+						segmentFile(activeSegment.id + 1));
+			}
+			Segment segment = activeSegment;
+			long recordOffset = segment.size;
+			try {
+				ByteBuffer recordBytes = record.toByteBuffer();
+				while (recordBytes.hasRemaining()) {
+					segment.channel.write(recordBytes,
+							recordOffset + recordBytes.position());
+				}
+				segment.size = recordOffset + recordEntry.recordLength;
+				addEntry(recordEntry.moveTo(segment, recordOffset));
+			} catch (IOException | RuntimeException e) {
+				try {
+					segment.channel.truncate(recordOffset);
+				} catch (IOException truncateException) {
+					e.addSuppressed(truncateException);
+				}
+				throw e;
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a record for a log.
+	 *
+	 * @return Entry for the record, at offset 0 in no segment.
+	 */
+	private LogEntry writeRecord(OutputStream recordOutput, Deflater deflater,
+			String jobId, byte[] jobIdBytes, InputStream log)
+			throws IOException {
+		long storedAt = System.currentTimeMillis();
+		int maxBlockSize = blockSize;
+		DataOutputStream output = new DataOutputStream(recordOutput);
+		output.writeInt(RECORD_MAGIC);
+		output.writeShort(jobIdBytes.length);
+		output.write(jobIdBytes);
+		output.writeLong(storedAt);
+
+		long[] blockOffsets = new long[8];
+		int[] compressedSizes = new int[8];
+		int[] rawSizes = new int[8];
+		int[] crcs = new int[8];
+		long[] firstLines = new long[8];
+		int blockCount = 0;
+
+		byte[] raw = new byte[maxBlockSize];
+		byte[] compressed = new byte[maxBlockSize + maxBlockSize / 8 + 64];
+		CRC32 crc = new CRC32();
+		long size = 0;
+		long newlines = 0;
+		boolean endsWithNewline = false;
+		int rawLength = 0;
+		boolean eof = false;
+		while (true) {
+			while (!eof && rawLength < raw.length) {
+				int readCount = log.read(raw, rawLength,
+						raw.length - rawLength);
+				if (readCount == -1) {
+					eof = true;
+				} else {
+					rawLength += readCount;
+				}
+			}
+			if (rawLength == 0) {
+				break;
+			}
+
+			// End the block after the last line terminator, if any
+			int blockLength = rawLength;
+			if (!eof) {
+				for (int i = rawLength - 1; i >= 0; --i) {
+					if (raw[i] == '\n') {
+						blockLength = i + 1;
+						break;
+					}
+				}
+			}
+
+			int blockNewlines = 0;
+			for (int i = 0; i < blockLength; ++i) {
+				if (raw[i] == '\n') {
+					++blockNewlines;
+				}
+			}
+			crc.reset();
+			crc.update(raw, 0, blockLength);
+
+			deflater.reset();
+			deflater.setInput(raw, 0, blockLength);
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished()) {
+				if (compressedLength == compressed.length) {
+					compressed = Arrays.copyOf(compressed,
+							compressed.length * 2);
+				}
+				compressedLength += deflater.deflate(compressed,
+						compressedLength, compressed.length - compressedLength);
+			}
+
+			output.writeInt(blockLength);
+			output.writeInt(compressedLength);
+			output.writeInt(blockNewlines);
+			output.writeInt((int) crc.getValue());
+			if (blockCount == blockOffsets.length) {
+				int newLength = blockCount * 2;
+				blockOffsets = Arrays.copyOf(blockOffsets, newLength);
+				compressedSizes = Arrays.copyOf(compressedSizes, newLength);
+				rawSizes = Arrays.copyOf(rawSizes, newLength);
+				crcs = Arrays.copyOf(crcs, newLength);
+				firstLines = Arrays.copyOf(firstLines, newLength);
+			}
+			blockOffsets[blockCount] = output.size();
+			compressedSizes[blockCount] = compressedLength;
+			rawSizes[blockCount] = blockLength;
+			crcs[blockCount] = (int) crc.getValue();
+			firstLines[blockCount] = newlines;
+			++blockCount;
+			output.write(compressed, 0, compressedLength);
+
+			size += blockLength;
+			newlines += blockNewlines;
+			endsWithNewline = raw[blockLength - 1] == '\n';
+			rawLength -= blockLength;
+			System.arraycopy(raw, blockLength, raw, 0, rawLength);
+		}
+		long lineCount = newlines + (size > 0 && !endsWithNewline ? 1 : 0);
+		output.writeInt(0);
+		output.writeLong(lineCount);
+		output.flush();
+
+		return new LogEntry(jobId, storedAt, null, 0,
+				output.size(), size, lineCount,
+				Arrays.copyOf(blockOffsets, blockCount),
+				Arrays.copyOf(compressedSizes, blockCount),
+				Arrays.copyOf(rawSizes, blockCount),
+				Arrays.copyOf(crcs, blockCount),
+				Arrays.copyOf(firstLines, blockCount));
+	}
+
+	/** Adds an entry to the index.  Must hold writeLock. */
+	private void addEntry(LogEntry entry) {
+		LogEntry replaced = index.put(entry.jobId, entry);
+		if (replaced != null) {
+			replaced.segment.liveBytes -= replaced.recordLength;
+		}
+		entry.segment.liveBytes += entry.recordLength;
+	}
+
+	/**
+	 * Determines whether a log is archived (and not expired).
+	 *
+	 * @param jobId ID of the job.
+	 * @return {@code true} if a log for {@code jobId} is archived.
+	 */
+	public boolean contains(String jobId) {
+		LogEntry entry = getEntry(jobId);
+		return entry != null;
+	}
+
+	/**
+	 * Gets the number of archived logs.
+	 *
+	 * @return Number of archived logs, including any which have expired
+	 * since the last call to {@link #expire()}.
+	 */
+	public int getLogCount() {
+		return index.size();
+	}
+
+	/**
+	 * Gets the uncompressed size of an archived log.
+	 *
+	 * @param jobId ID of the job.
+	 * @return Size of the log in bytes, or -1 if it is not archived.
+	 */
+	public long getSize(String jobId) {
+		LogEntry entry = getEntry(jobId);
+		return entry != null ? entry.size : -1;
+	}
+
+	/**
+	 * Gets the number of lines in an archived log.
+	 *
+	 * @param jobId ID of the job.
+	 * @return Number of lines in the log, or -1 if it is not archived.
+	 */
+	public long getLineCount(String jobId) {
+		LogEntry entry = getEntry(jobId);
+		return entry != null ? entry.lineCount : -1;
+	}
+
+	private LogEntry getEntry(String jobId) {
+		LogEntry entry = index.get(jobId);
+		if (entry != null && isExpired(entry)) {
+			return null;
+		}
+		return entry;
+	}
+
+	private boolean isExpired(LogEntry entry) {
+		return System.currentTimeMillis() - entry.storedAt >= retentionMillis;
+	}
+
+	/**
+	 * Opens an archived log for reading.
+	 *
+	 * @param jobId ID of the job.
+	 * @return Stream of the log content, which should be closed by the
+	 * caller, or {@code null} if the log is not archived.
+	 */
+	public InputStream openLog(String jobId) {
+		LogEntry entry = getEntry(jobId);
+		return entry != null ? new LogInputStream(entry) : null;
+	}
+
+	/**
+	 * Reads a range of lines from an archived log, decompressing only the
+	 * blocks which contain them.
+	 *
+	 * @param jobId ID of the job.
+	 * @param fromLine Number of the first line to read, from 0.
+	 * @param maxLines Maximum number of lines to read.
+	 * @return Lines of the log, without terminators, which are fewer than
+	 * {@code maxLines} if the log ends first, or {@code null} if the log is
+	 * not archived.
+	 * @throws IOException If reading the archive fails.
+	 */
+	public List<String> readLines(String jobId, long fromLine, int maxLines)
+			throws IOException {
+		if (fromLine < 0 || maxLines < 0) {
+			throw new IllegalArgumentException(
+					"fromLine and maxLines must be non-negative");
+		}
+		LogEntry entry = getEntry(jobId);
+		if (entry == null) {
+			return null;
+		}
+
+		List<String> lines = new ArrayList<>();
+		int blockCount = entry.firstLines.length;
+		if (maxLines == 0 || fromLine >= entry.lineCount) {
+			return lines;
+		}
+
+		// Last block which starts at or before the line, then back up to the
+		// block where the line starts
+		int block = Arrays.binarySearch(entry.firstLines, fromLine);
+		if (block < 0) {
+			block = -block - 2;
+		} else {
+			while (block + 1 < blockCount
+					&& entry.firstLines[block + 1] == fromLine) {
+				++block;
+			}
+		}
+		while (entry.isContinuation(block)) {
+			--block;
+		}
+
+		long lineNumber = entry.firstLines[block];
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		LogEntry current = entry;
+		for (; block < blockCount; ++block) {
+			current = resolve(current);
+			byte[] raw = readBlock(current, block);
+			int lineStart = 0;
+			for (int i = 0; i < raw.length; ++i) {
+				if (raw[i] != '\n') {
+					continue;
+				}
+				if (lineNumber >= fromLine) {
+					line.write(raw, lineStart, i - lineStart);
+					lines.add(decodeLine(line));
+					if (lines.size() == maxLines) {
+						return lines;
+					}
+				}
+				line.reset();
+				lineStart = i + 1;
+				++lineNumber;
+			}
+			if (lineNumber >= fromLine) {
+				line.write(raw, lineStart, raw.length - lineStart);
+			}
+		}
+		if (line.size() > 0) {
+			lines.add(decodeLine(line));
+		}
+		return lines;
+	}
+
+	private static String decodeLine(ByteArrayOutputStream line) {
+		String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+		line.reset();
+		int length = text.length();
+		return length > 0 && text.charAt(length - 1) == '\r'
+				? text.substring(0, length - 1)
+				: text;
+	}
+
+	/**
+	 * Gets the current location of a log, which changes if its segment is
+	 * compacted.
+	 */
+	private LogEntry resolve(LogEntry entry) throws IOException {
+		if (segments.get(entry.segment.id) == entry.segment) {
+			return entry;
+		}
+		LogEntry current = index.get(entry.jobId);
+		if (current == null || current.storedAt != entry.storedAt
+				|| current.size != entry.size) {
+			throw new IOException("Log for job " + entry.jobId
+					+ " was expired or replaced while reading");
+		}
+		return current;
+	}
+
+	private byte[] readBlock(LogEntry entry, int block) throws IOException {
+		ByteBuffer compressed =
+				ByteBuffer.allocate(entry.compressedSizes[block]);
+		segmentLock.readLock().lock();
+		try {
+			entry = resolve(entry);
+			long position = entry.blockOffsets[block];
+			while (compressed.hasRemaining()) {
+				int readCount = entry.segment.channel.read(compressed,
+						position + compressed.position());
+				if (readCount == -1) {
+					throw new EOFException("Segment " + entry.segment.file
+							+ " is truncated");
+				}
+			}
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+
+		byte[] raw = new byte[entry.rawSizes[block]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array());
+			int rawLength = 0;
+			while (rawLength < raw.length && !inflater.finished()) {
+				int inflated = inflater.inflate(raw, rawLength,
+						raw.length - rawLength);
+				if (inflated == 0 && inflater.needsInput()) {
+					break;
+				}
+				rawLength += inflated;
+			}
+			if (rawLength != raw.length) {
+				throw new IOException("Block " + block + " of log for job "
+						+ entry.jobId + " is truncated");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Block " + block + " of log for job "
+					+ entry.jobId + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(raw, 0, raw.length);
+		if ((int) crc.getValue() != entry.crcs[block]) {
+			throw new IOException("Block " + block + " of log for job "
+					+ entry.jobId + " failed CRC check");
+		}
+		return raw;
+	}
+
+	/**
+	 * Removes expired logs from the index and deletes segments which
+	 * contain only expired or replaced logs.
+	 *
+	 * @return Number of logs removed.
+	 * @throws IOException If deleting a segment fails.
+	 */
+	public int expire() throws IOException {
+		writeLock.lock();
+		try {
+			int removed = removeExpired();
+			deleteDeadSegments();
+			return removed;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** Removes expired logs from the index.  Must hold writeLock. */
+	private int removeExpired() {
+		int removed = 0;
+		for (LogEntry entry : index.values()) {
+			if (isExpired(entry) && index.remove(entry.jobId, entry)) {
+				entry.segment.liveBytes -= entry.recordLength;
+				++removed;
+			}
+		}
+		return removed;
+	}
+
+	/** Deletes segments without live logs.  Must hold writeLock. */
+	private int deleteDeadSegments() throws IOException {
+		int deleted = 0;
+		for (Segment segment : segments.values()) {
+			if (segment != activeSegment && segment.liveBytes == 0) {
+				deleteSegment(segment);
+				++deleted;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Copies the logs from segments in which less than a given fraction of
+	 * the content is live (i.e. not expired or replaced) to the current
+	 * segment, then deletes those segments.
+	 *
+	 * Expired logs are removed and segments without live logs are deleted
+	 * first, as by {@link #expire()}.  Logs are copied without being
+	 * decompressed.  Stores wait for compaction to
+	 * finish, reads do not.
+	 *
+	 * @param minLiveRatio Fraction of live content, from 0 to 1, below which
+	 * a segment is compacted.
+	 * @return Number of segments deleted.
+	 * @throws IOException If copying a log or deleting a segment fails.
+	 */
+	public int compact(double minLiveRatio) throws IOException {
+		writeLock.lock();
+		try {
+			removeExpired();
+			int deleted = deleteDeadSegments();
+
+			List<Segment> sparse = new ArrayList<>();
+			for (Segment segment : segments.values()) {
+				if (segment != activeSegment && segment.size > 0
+						&& (double) segment.liveBytes / segment.size
+							< minLiveRatio) {
+					sparse.add(segment);
+				}
+			}
+			sparse.sort((a, b) -> Integer.compare(a.id, b.id));
+
+			for (Segment segment : sparse) {
+				List<LogEntry> live = new ArrayList<>();
+				for (LogEntry entry : index.values()) {
+					if (entry.segment == segment) {
+						live.add(entry);
+					}
+				}
+				// Keep logs in the order they were stored
+				live.sort((a, b) -> Long.compare(a.recordOffset,
+						b.recordOffset));
+				for (LogEntry entry : live) {
+					copyRecord(entry);
+				}
+				deleteSegment(segment);
+			}
+			return deleted + sparse.size();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/** Copies a record to the active segment.  Must hold writeLock. */
+	private void copyRecord(LogEntry entry) throws IOException {
+		if (activeSegment.size >= maxSegmentSize) {
+			activeSegment = openSegment(activeSegment.id + 1,
+					segmentFile(activeSegment.id + 1));
+		}
+		Segment target = activeSegment;
+		long targetOffset = target.size;
+		try {
+			long copied = 0;
+			while (copied < entry.recordLength) {
+				long transferred = entry.segment.channel.transferTo(
+						entry.recordOffset + copied,
+						entry.recordLength - copied,
+						target.channel.position(targetOffset + copied));
+				if (transferred <= 0) {
+					throw new EOFException("Segment " + entry.segment.file
+							+ " is truncated");
+				}
+				copied += transferred;
+			}
+		} catch (IOException | RuntimeException e) {
+			try {
+				target.channel.truncate(targetOffset);
+			} catch (IOException truncateException) {
+				e.addSuppressed(truncateException);
+			}
+			throw e;
+		}
+		target.size = targetOffset + entry.recordLength;
+
+		LogEntry moved = entry.moveTo(target, targetOffset);
+		if (index.replace(entry.jobId, entry, moved)) {
+			entry.segment.liveBytes -= entry.recordLength;
+			target.liveBytes += moved.recordLength;
+		}
+	}
+
+	/** Closes and deletes a segment.  Must hold writeLock. */
+	private void deleteSegment(Segment segment) throws IOException {
+		segmentLock.writeLock().lock();
+		try {
+			segments.remove(segment.id, segment);
+			segment.channel.close();
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+		if (!segment.file.delete() && segment.file.exists()) {
+			throw new IOException("Unable to delete " + segment.file);
+		}
+	}
+
+	/**
+	 * Gets the total size of the segment files.
+	 *
+	 * @return Size of the archive on disk, in bytes.
+	 */
+	public long getDiskSize() {
+		writeLock.lock();
+		try {
+			long size = 0;
+			for (Segment segment : segments.values()) {
+				size += segment.size;
+			}
+			return size;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of segment files.
+	 *
+	 * @return Number of segment files.
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeLock.lock();
+		try {
+			closeSegments(null);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void closeSegments(Exception cause) throws IOException {
+		IOException closeException = null;
+		segmentLock.writeLock().lock();
+		try {
+			for (Segment segment : segments.values()) {
+				try {
+					segment.channel.close();
+				} catch (IOException e) {
+					if (cause != null) {
+						cause.addSuppressed(e);
+					} else if (closeException == null) {
+						closeException = e;
+					} else {
+						closeException.addSuppressed(e);
+					}
+				}
+			}
+			segments.clear();
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+		if (closeException != null) {
+			throw closeException;
+		}
+	}
+
+	/** Stream which decompresses the blocks of a log as they are read. */
+	private final class LogInputStream extends InputStream {
+		private LogEntry entry;
+		private int nextBlock;
+		private byte[] block = new byte[0];
+		private int blockPosition;
+
+		LogInputStream(LogEntry entry) {
+			this.entry = entry;
+		}
+
+		private boolean fill() throws IOException {
+			while (blockPosition == block.length) {
+				if (nextBlock == entry.rawSizes.length) {
+					return false;
+				}
+				entry = resolve(entry);
+				block = readBlock(entry, nextBlock++);
+				blockPosition = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return fill() ? block[blockPosition++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			int readCount = Math.min(len, block.length - blockPosition);
+			System.arraycopy(block, blockPosition, b, off, readCount);
+			blockPosition += readCount;
+			return readCount;
+		}
+
+		@Override
+		public int available() {
+			return block.length - blockPosition;
+		}
+	}
+
+	/** Buffer for a record which exposes its content without copying. */
+	private static final class RecordBuffer extends ByteArrayOutputStream {
+		RecordBuffer() {
+			super(8 * 1024);
+		}
+
+		ByteBuffer toByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	/**
+	 * Sequential reader of a segment which seeks over skipped bytes, rather
+	 * than reading them.
+	 */
+	private static final class SegmentReader {
+		private final FileChannel channel;
+		private final long size;
+		private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		/** Position in the segment of the start of buffer. */
+		private long bufferOffset;
+
+		SegmentReader(FileChannel channel, long size) {
+			this.channel = channel;
+			this.size = size;
+			((Buffer) buffer).limit(0);
+		}
+
+		long position() {
+			return bufferOffset + buffer.position();
+		}
+
+		boolean isAtEnd() throws IOException {
+			return !fill(1);
+		}
+
+		/**
+		 * Reads until at least {@code count} bytes (up to the buffer
+		 * capacity) are buffered, or the end of the segment.
+		 *
+		 * @return {@code true} if {@code count} bytes are buffered.
+		 */
+		private boolean fill(int count) throws IOException {
+			if (buffer.remaining() >= count) {
+				return true;
+			}
+			bufferOffset += buffer.position();
+			buffer.compact();
+			while (buffer.position() < count) {
+				int readCount = channel.read(buffer,
+						bufferOffset + buffer.position());
+				if (readCount == -1) {
+					break;
+				}
+			}
+			((Buffer) buffer).flip();
+			return buffer.remaining() >= count;
+		}
+
+		private void require(int count) throws IOException {
+			if (!fill(count)) {
+				throw new EOFException();
+			}
+		}
+
+		int readUnsignedShort() throws IOException {
+			require(2);
+			return buffer.getShort() & 0xFFFF;
+		}
+
+		int readInt() throws IOException {
+			require(4);
+			return buffer.getInt();
+		}
+
+		long readLong() throws IOException {
+			require(8);
+			return buffer.getLong();
+		}
+
+		void readFully(byte[] bytes) throws IOException {
+			int offset = 0;
+			while (offset < bytes.length) {
+				require(1);
+				int readCount =
+						Math.min(bytes.length - offset, buffer.remaining());
+				buffer.get(bytes, offset, readCount);
+				offset += readCount;
+			}
+		}
+
+		void skip(long count) throws IOException {
+			if (count <= buffer.remaining()) {
+				((Buffer) buffer).position(buffer.position() + (int) count);
+				return;
+			}
+			long newPosition = position() + count;
+			if (newPosition > size) {
+				throw new EOFException();
+			}
+			bufferOffset = newPosition;
+			((Buffer) buffer).clear().limit(0);
+		}
+	}
+}
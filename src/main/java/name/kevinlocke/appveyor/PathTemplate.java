@@ -0,0 +1,48 @@
+package name.kevinlocke.appveyor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A path from the API definition, such as
+ * {@code /projects/{accountName}/{projectSlug}/settings}, which matches
+ * request paths for the operation.
+ *
+ * Templates match the end of request paths, so they do not include the path
+ * of the base URL.
+ */
+final class PathTemplate {
+	private static final Pattern TEMPLATE_VARIABLE = Pattern.compile("\\{[^}]*\\}");
+
+	private final String template;
+	private final Pattern pattern;
+
+	PathTemplate(String template) {
+		StringBuilder regex = new StringBuilder(".*");
+		Matcher variables = TEMPLATE_VARIABLE.matcher(template);
+		int literalStart = 0;
+		while (variables.find()) {
+			regex.append(Pattern.quote(
+					template.substring(literalStart, variables.start())));
+			regex.append("[^/]+");
+			literalStart = variables.end();
+		}
+		regex.append(Pattern.quote(template.substring(literalStart)));
+
+		this.template = template;
+		this.pattern = Pattern.compile(regex.toString());
+	}
+
+	String getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Determines whether a request path is a path of the operation.
+	 *
+	 * @param path Encoded path of a request URL.
+	 */
+	boolean matches(String path) {
+		return pattern.matcher(path).matches();
+	}
+}
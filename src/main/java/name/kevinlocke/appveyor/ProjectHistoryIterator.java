@@ -0,0 +1,415 @@
+package name.kevinlocke.appveyor;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.squareup.okhttp.Call;
+
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.ProjectHistory;
+
+/**
+ * Iterator over the builds of a project, newest first, which requests pages
+ * of {@link ProjectApi#getProjectHistory(String, String, Integer, Integer,
+ * String)} ahead of the caller.
+ *
+ * Each page is requested with the ID of the last build of the previous
+ * page, so pages are requested one at a time.  Rather than waiting for the
+ * caller to reach the end of a page, the next page is requested as soon as
+ * the previous one is received, until {@link #getPrefetchPages()} pages are
+ * waiting to be iterated.  No page is requested before the first call to
+ * {@link #hasNext()}, and no more are requested after the last build (or
+ * {@link #setMaxBuilds(int)} builds) has been received or the iterator is
+ * closed.  For example:
+ * <pre>{@code
+ * try (ProjectHistoryIterator history =
+ *         new ProjectHistoryIterator(projectApi, accountName, slug)) {
+ *     history.stream()
+ *         .filter(build -> build.getStatus() == Status.FAILED)
+ *         .limit(10)
+ *         .forEach(failures::add);
+ * }
+ * }</pre>
+ *
+ * Errors are thrown from {@link #hasNext()} and {@link #next()} as
+ * {@link UncheckedApiException}.  Instances may not be used by multiple
+ * threads concurrently.
+ */
+public class ProjectHistoryIterator implements Iterator<Build>, Closeable {
+	/** Default value of {@link #getPageSize()}. */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	/** Default value of {@link #getPrefetchPages()}. */
+	public static final int DEFAULT_PREFETCH_PAGES = 2;
+
+	private final ProjectApi projectApi;
+	private final String accountName;
+	private final String projectSlug;
+	private String branch;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private int prefetchPages = DEFAULT_PREFETCH_PAGES;
+	private int maxBuilds = Integer.MAX_VALUE;
+	private Integer startBuildId;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition pageReceived = lock.newCondition();
+	/** Received pages which have not been iterated.  Guarded by lock. */
+	private final Deque<List<Build>> pages = new ArrayDeque<>();
+	/** Number of builds requested so far.  Guarded by lock. */
+	private int requestedBuilds;
+	/** Whether the last page has been requested.  Guarded by lock. */
+	private boolean lastPageRequested;
+	/**
+	 * Whether a page has been requested and not received.  Guarded by lock.
+	 */
+	private boolean pageRequested;
+	/** Number of pages requested so far.  Guarded by lock. */
+	private int pageRequestCount;
+	/**
+	 * Call for the page being requested, for cancellation.  Guarded by lock.
+	 */
+	private Call pageCall;
+	/** Failure of the last page request.  Guarded by lock. */
+	private ApiException failure;
+	private boolean started;
+	private boolean closed;
+	private Iterator<Build> page = Collections.emptyIterator();
+
+	/**
+	 * Creates an iterator over the builds of a project on all branches.
+	 *
+	 * @param projectApi API used to request the history.
+	 * @param accountName Account name of the project.
+	 * @param projectSlug Slug of the project.
+	 */
+	public ProjectHistoryIterator(ProjectApi projectApi, String accountName,
+			String projectSlug) {
+		this.projectApi = projectApi;
+		this.accountName = accountName;
+		this.projectSlug = projectSlug;
+	}
+
+	private void checkNotStarted() {
+		if (started) {
+			throw new IllegalStateException("Iteration has started");
+		}
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	/**
+	 * Sets the branch of the builds to iterate.  Must be called before
+	 * iteration starts.
+	 *
+	 * @param branch Name of the branch, or {@code null} for all branches.
+	 * @return ProjectHistoryIterator
+	 */
+	public ProjectHistoryIterator setBranch(String branch) {
+		checkNotStarted();
+		this.branch = branch;
+		return this;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Sets the number of builds requested per page.  Must be called before
+	 * iteration starts.
+	 *
+	 * A page with fewer builds is taken to be the last page, so this must
+	 * not be larger than the number of builds the server returns per page.
+	 *
+	 * @param pageSize Number of builds per page.
+	 * @return ProjectHistoryIterator
+	 */
+	public ProjectHistoryIterator setPageSize(int pageSize) {
+		checkNotStarted();
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be positive");
+		}
+		this.pageSize = pageSize;
+		return this;
+	}
+
+	public int getPrefetchPages() {
+		return prefetchPages;
+	}
+
+	/**
+	 * Sets the maximum number of received pages waiting to be iterated,
+	 * after which no more pages are requested until the caller reaches the
+	 * next page.  Must be called before iteration starts.
+	 *
+	 * @param prefetchPages Maximum number of pages received ahead of the
+	 * page being iterated.
+	 * @return ProjectHistoryIterator
+	 */
+	public ProjectHistoryIterator setPrefetchPages(int prefetchPages) {
+		checkNotStarted();
+		if (prefetchPages < 1) {
+			throw new IllegalArgumentException(
+					"prefetchPages must be positive");
+		}
+		this.prefetchPages = prefetchPages;
+		return this;
+	}
+
+	public int getMaxBuilds() {
+		return maxBuilds;
+	}
+
+	/**
+	 * Sets the maximum number of builds to iterate, so that pages (and
+	 * builds in the last page) which would not be iterated are not
+	 * requested.  Must be called before iteration starts.
+	 *
+	 * @param maxBuilds Maximum number of builds.
+	 * @return ProjectHistoryIterator
+	 */
+	public ProjectHistoryIterator setMaxBuilds(int maxBuilds) {
+		checkNotStarted();
+		if (maxBuilds < 0) {
+			throw new IllegalArgumentException(
+					"maxBuilds must be non-negative");
+		}
+		this.maxBuilds = maxBuilds;
+		return this;
+	}
+
+	public Integer getStartBuildId() {
+		return startBuildId;
+	}
+
+	/**
+	 * Sets the build before which to start iterating.  Must be called before
+	 * iteration starts.
+	 *
+	 * @param startBuildId ID of the build after the first build to iterate
+	 * (as for the {@code startBuildId} parameter of
+	 * {@link ProjectApi#getProjectHistory(String, String, Integer, Integer,
+	 * String)}), or {@code null} to start from the latest build.
+	 * @return ProjectHistoryIterator
+	 */
+	public ProjectHistoryIterator setStartBuildId(Integer startBuildId) {
+		checkNotStarted();
+		this.startBuildId = startBuildId;
+		return this;
+	}
+
+	/**
+	 * Requests the next page, if it is needed and not already requested.
+	 * Must hold lock.
+	 */
+	private void requestPageIfNeeded() {
+		if (closed || pageRequested || lastPageRequested
+				|| failure != null || pages.size() >= prefetchPages) {
+			return;
+		}
+
+		int recordsNumber = Math.min(pageSize, maxBuilds - requestedBuilds);
+		if (recordsNumber <= 0) {
+			lastPageRequested = true;
+			return;
+		}
+		requestedBuilds += recordsNumber;
+
+		pageRequested = true;
+		int requestNumber = ++pageRequestCount;
+		try {
+			Call call = projectApi.getProjectHistoryAsync(accountName,
+					projectSlug, recordsNumber, startBuildId, branch,
+					new PageCallback(recordsNumber));
+			// Note: The callback may have run on this thread (e.g. if the
+			// request joined a completed coalesced request), and may have
+			// requested the next page.
+			if (pageRequested && pageRequestCount == requestNumber) {
+				pageCall = call;
+			}
+		} catch (ApiException e) {
+			pageRequested = false;
+			failure = e;
+		}
+	}
+
+	private final class PageCallback implements ApiCallback<ProjectHistory> {
+		private final int recordsNumber;
+
+		PageCallback(int recordsNumber) {
+			this.recordsNumber = recordsNumber;
+		}
+
+		@Override
+		public void onFailure(ApiException e, int statusCode,
+				Map<String, List<String>> responseHeaders) {
+			lock.lock();
+			try {
+				pageRequested = false;
+				pageCall = null;
+				if (!closed) {
+					failure = e;
+				}
+				pageReceived.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void onSuccess(ProjectHistory result, int statusCode,
+				Map<String, List<String>> responseHeaders) {
+			List<Build> builds = result != null ? result.getBuilds() : null;
+			lock.lock();
+			try {
+				pageRequested = false;
+				pageCall = null;
+				if (closed) {
+					return;
+				}
+
+				if (builds == null || builds.isEmpty()) {
+					lastPageRequested = true;
+				} else {
+					pages.add(builds);
+					// A short page is the last one
+					if (builds.size() < recordsNumber) {
+						lastPageRequested = true;
+					} else {
+						startBuildId =
+								builds.get(builds.size() - 1).getBuildId();
+					}
+					requestPageIfNeeded();
+				}
+			} finally {
+				pageReceived.signalAll();
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void onUploadProgress(long bytesWritten, long contentLength,
+				boolean done) {
+		}
+
+		@Override
+		public void onDownloadProgress(long bytesRead, long contentLength,
+				boolean done) {
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UncheckedApiException If requesting a page failed.
+	 */
+	@Override
+	public boolean hasNext() {
+		if (page.hasNext()) {
+			return true;
+		}
+
+		lock.lock();
+		try {
+			started = true;
+			while (true) {
+				if (closed) {
+					return false;
+				}
+
+				List<Build> nextPage = pages.poll();
+				if (nextPage != null) {
+					page = nextPage.iterator();
+					requestPageIfNeeded();
+					return true;
+				}
+
+				if (failure != null) {
+					throw new UncheckedApiException(failure);
+				}
+				requestPageIfNeeded();
+				// Note: The page may have been received on this thread
+				if (!pages.isEmpty() || failure != null) {
+					continue;
+				}
+				if (lastPageRequested && !pageRequested) {
+					return false;
+				}
+
+				try {
+					pageReceived.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedApiException(
+							"Interrupted while waiting for a page",
+							new ApiException(e));
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws UncheckedApiException If requesting a page failed.
+	 */
+	@Override
+	public Build next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next();
+	}
+
+	/**
+	 * Gets a sequential stream of the remaining builds.  Closing the stream
+	 * closes this iterator.
+	 *
+	 * @return Stream of the builds of the project, newest first.
+	 */
+	public Stream<Build> stream() {
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(this,
+						Spliterator.ORDERED | Spliterator.NONNULL),
+				false)
+				.onClose(this::close);
+	}
+
+	/**
+	 * Stops iterating, cancels any page request in progress, and discards
+	 * received pages.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			page = Collections.emptyIterator();
+			pages.clear();
+			if (pageCall != null) {
+				pageCall.cancel();
+				pageCall = null;
+			}
+			pageReceived.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
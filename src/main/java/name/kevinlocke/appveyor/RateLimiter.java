@@ -0,0 +1,416 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+/**
+ * Limits the rate of API requests using token buckets, delaying requests
+ * which would exceed the limit rather than failing them.
+ *
+ * Each API token (i.e. {@code Authorization} header) has a separate bucket
+ * which allows {@code burst} requests at once, refilled at
+ * {@code requestsPerSecond}.  The limit for all tokens is set by the
+ * constructor and can be changed for individual tokens using
+ * {@link #setTokenLimit(String, double, int)}.  Operations can have
+ * additional limits, with a separate bucket for each token, using
+ * {@link #setOperationLimit(String, String, double, int)}.  A request waits
+ * until there is a permit in each bucket which applies to it.
+ *
+ * When the server responds 429 Too Many Requests, the buckets for the
+ * request are paused for the duration of the {@code Retry-After} header (or
+ * {@link #getDefaultRetryAfter(TimeUnit)} without one) and the request is
+ * made again, up to {@link #getMaxRetries()} times, after which the 429
+ * response is returned.
+ *
+ * Install using {@link EnhancedApiClient#setRateLimiter(RateLimiter)} or by
+ * adding it as an application interceptor of an
+ * {@link com.squareup.okhttp.OkHttpClient}, after any
+ * {@link HttpResponseCache} so that cached responses are not limited.
+ * Requests from {@code *Async} methods wait on threads of the
+ * {@link com.squareup.okhttp.Dispatcher}, so its maximum number of requests
+ * should be at least the burst size.
+ */
+public class RateLimiter implements Interceptor {
+	/** Default value of {@link #getMaxRetries()}. */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	private static final long DEFAULT_RETRY_AFTER_NANOS =
+			TimeUnit.SECONDS.toNanos(1);
+
+	private volatile Limit defaultLimit;
+	private final ConcurrentHashMap<String, Limit> tokenLimits =
+			new ConcurrentHashMap<>();
+	private final CopyOnWriteArrayList<OperationRule> operationRules =
+			new CopyOnWriteArrayList<>();
+	private final ConcurrentHashMap<String, TokenBucket> buckets =
+			new ConcurrentHashMap<>();
+
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long defaultRetryAfterNanos = DEFAULT_RETRY_AFTER_NANOS;
+
+	private final LongAdder requestCount = new LongAdder();
+	private final LongAdder delayedCount = new LongAdder();
+	private final LongAdder throttledCount = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAccumulator maxWaitNanos =
+			new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Constructs a rate limiter with a limit for each API token.
+	 *
+	 * @param requestsPerSecond Average rate of requests allowed per token.
+	 * @param burst Number of requests per token allowed at once.
+	 */
+	public RateLimiter(double requestsPerSecond, int burst) {
+		defaultLimit = new Limit(requestsPerSecond, burst);
+	}
+
+	/**
+	 * Sets the limit for requests with a given API token, in place of the
+	 * limit set by the constructor.
+	 *
+	 * @param apiToken API token, without the {@code Bearer} prefix.
+	 * @param requestsPerSecond Average rate of requests allowed.
+	 * @param burst Number of requests allowed at once.
+	 * @return RateLimiter
+	 */
+	public RateLimiter setTokenLimit(String apiToken, double requestsPerSecond,
+			int burst) {
+		tokenLimits.put("Bearer " + apiToken,
+				new Limit(requestsPerSecond, burst));
+		buckets.clear();
+		return this;
+	}
+
+	/**
+	 * Sets an additional limit for requests to an operation, for each API
+	 * token.
+	 *
+	 * {@code pathTemplate} is a path from the API definition, as for
+	 * {@link HttpResponseCache#setFreshness(String, long, TimeUnit)}.
+	 *
+	 * @param method HTTP method of the operation, or {@code null} for any.
+	 * @param pathTemplate API path with {@code {name}} for path parameters.
+	 * @param requestsPerSecond Average rate of requests allowed per token.
+	 * @param burst Number of requests per token allowed at once.
+	 * @return RateLimiter
+	 */
+	public RateLimiter setOperationLimit(String method, String pathTemplate,
+			double requestsPerSecond, int burst) {
+		OperationRule rule = new OperationRule(method, pathTemplate,
+				new Limit(requestsPerSecond, burst));
+		for (OperationRule existing : operationRules) {
+			if (existing.key.equals(rule.key)) {
+				operationRules.remove(existing);
+			}
+		}
+		operationRules.add(rule);
+		buckets.clear();
+		return this;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Sets the number of times a request is made again after a 429
+	 * response.
+	 *
+	 * @param maxRetries Maximum number of retries of each request.
+	 * @return RateLimiter
+	 */
+	public RateLimiter setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException(
+					"maxRetries must be non-negative");
+		}
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public long getDefaultRetryAfter(TimeUnit unit) {
+		return unit.convert(defaultRetryAfterNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets the time for which requests are paused after a 429 response
+	 * without a valid {@code Retry-After} header.
+	 *
+	 * @param duration Time to pause requests.
+	 * @param unit Unit of {@code duration}.
+	 * @return RateLimiter
+	 */
+	public RateLimiter setDefaultRetryAfter(long duration, TimeUnit unit) {
+		if (duration < 0) {
+			throw new IllegalArgumentException("duration must be non-negative");
+		}
+		defaultRetryAfterNanos = unit.toNanos(duration);
+		return this;
+	}
+
+	/**
+	 * Gets the number of requests made, including retries.
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * Gets the number of requests which waited for a permit.
+	 */
+	public long getDelayedCount() {
+		return delayedCount.sum();
+	}
+
+	/**
+	 * Gets the number of 429 responses received.
+	 */
+	public long getThrottledCount() {
+		return throttledCount.sum();
+	}
+
+	/**
+	 * Gets the total time requests waited for permits.
+	 */
+	public long getTotalWait(TimeUnit unit) {
+		return unit.convert(totalWaitNanos.sum(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Gets the longest time a request waited for permits.
+	 */
+	public long getMaxWait(TimeUnit unit) {
+		return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		List<TokenBucket> requestBuckets = getBuckets(request);
+		for (int retries = 0;; ++retries) {
+			acquire(requestBuckets);
+			requestCount.increment();
+			Response response = chain.proceed(request);
+			if (response.code() != 429) {
+				return response;
+			}
+
+			throttledCount.increment();
+			long pausedUntil = System.nanoTime()
+					+ getRetryAfterNanos(response.header("Retry-After"));
+			for (TokenBucket bucket : requestBuckets) {
+				bucket.pause(pausedUntil);
+			}
+			if (retries >= maxRetries) {
+				return response;
+			}
+			ResponseBody body = response.body();
+			if (body != null) {
+				body.close();
+			}
+		}
+	}
+
+	private List<TokenBucket> getBuckets(Request request) {
+		String authorization = request.header("Authorization");
+		String tokenKey = authorization != null ? authorization : "";
+		List<TokenBucket> requestBuckets = new ArrayList<>(2);
+		requestBuckets.add(buckets.computeIfAbsent("\n" + tokenKey,
+				key -> new TokenBucket(
+						tokenLimits.getOrDefault(tokenKey, defaultLimit))));
+
+		String method = request.method();
+		String path = request.httpUrl().encodedPath();
+		for (OperationRule rule : operationRules) {
+			if ((rule.method == null || rule.method.equals(method))
+					&& rule.pathTemplate.matches(path)) {
+				requestBuckets.add(buckets.computeIfAbsent(
+						rule.key + '\n' + tokenKey,
+						key -> new TokenBucket(rule.limit)));
+			}
+		}
+		return requestBuckets;
+	}
+
+	/**
+	 * Waits for a permit from each bucket and records the time waited.
+	 */
+	private void acquire(List<TokenBucket> requestBuckets)
+			throws InterruptedIOException {
+		long start = System.nanoTime();
+		for (TokenBucket bucket : requestBuckets) {
+			bucket.acquire();
+		}
+		long waitNanos = System.nanoTime() - start;
+		// Ignore time spent taking permits which were available
+		if (waitNanos >= TimeUnit.MILLISECONDS.toNanos(1)) {
+			delayedCount.increment();
+			totalWaitNanos.add(waitNanos);
+			maxWaitNanos.accumulate(waitNanos);
+		}
+	}
+
+	/**
+	 * Gets the time to pause requests after a 429 response.
+	 *
+	 * @param retryAfter Value of the {@code Retry-After} header, which is a
+	 * number of seconds or an HTTP date.
+	 */
+	private long getRetryAfterNanos(String retryAfter) {
+		if (retryAfter == null) {
+			return defaultRetryAfterNanos;
+		}
+		retryAfter = retryAfter.trim();
+
+		try {
+			long seconds = Long.parseLong(retryAfter);
+			if (seconds >= 0) {
+				return TimeUnit.SECONDS.toNanos(seconds);
+			}
+		} catch (NumberFormatException e) {
+			try {
+				long retryAt = ZonedDateTime.parse(retryAfter,
+						DateTimeFormatter.RFC_1123_DATE_TIME)
+						.toInstant().toEpochMilli();
+				return TimeUnit.MILLISECONDS.toNanos(Math.max(0,
+						retryAt - System.currentTimeMillis()));
+			} catch (DateTimeParseException dateException) {
+				// Fall through to default
+			}
+		}
+		return defaultRetryAfterNanos;
+	}
+
+	private static final class Limit {
+		final double permitsPerNano;
+		final int burst;
+
+		Limit(double requestsPerSecond, int burst) {
+			if (!(requestsPerSecond > 0) || Double.isInfinite(requestsPerSecond)) {
+				throw new IllegalArgumentException(
+						"requestsPerSecond must be positive and finite");
+			}
+			if (burst < 1) {
+				throw new IllegalArgumentException("burst must be positive");
+			}
+			this.permitsPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+			this.burst = burst;
+		}
+	}
+
+	private static final class OperationRule {
+		final String key;
+		final String method;
+		final PathTemplate pathTemplate;
+		final Limit limit;
+
+		OperationRule(String method, String pathTemplate, Limit limit) {
+			this.key = (method != null ? method : "*") + ' ' + pathTemplate;
+			this.method = method;
+			this.pathTemplate = new PathTemplate(pathTemplate);
+			this.limit = limit;
+		}
+	}
+
+	/**
+	 * Token bucket which hands out permits in the order they are requested.
+	 *
+	 * Permits are reserved ahead of time, so the number of tokens is negative
+	 * while requests are waiting, and each request waits until the bucket
+	 * will have refilled its permit.
+	 */
+	private static final class TokenBucket {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Limit limit;
+		/** Available permits, or minus those reserved.  Guarded by lock. */
+		private double tokens;
+		/** Time (from System.nanoTime) tokens were last refilled. */
+		private long refilledAt;
+		/** Number of times the bucket has been paused.  Guarded by lock. */
+		private int pauseCount;
+
+		TokenBucket(Limit limit) {
+			this.limit = limit;
+			this.tokens = limit.burst;
+			this.refilledAt = System.nanoTime();
+		}
+
+		void acquire() throws InterruptedIOException {
+			while (true) {
+				long readyAt;
+				int reservedPauseCount;
+				lock.lock();
+				try {
+					long now = System.nanoTime();
+					if (now - refilledAt > 0) {
+						tokens = Math.min(limit.burst,
+								tokens + (now - refilledAt) * limit.permitsPerNano);
+						refilledAt = now;
+					}
+					tokens -= 1;
+					readyAt = tokens >= 0 ? refilledAt
+							: refilledAt + (long) Math.ceil(
+									-tokens / limit.permitsPerNano);
+					reservedPauseCount = pauseCount;
+				} finally {
+					lock.unlock();
+				}
+
+				long waitNanos = readyAt - System.nanoTime();
+				if (waitNanos > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(waitNanos);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException(
+								"Interrupted while waiting for rate limit");
+					}
+				}
+
+				lock.lock();
+				try {
+					if (pauseCount == reservedPauseCount) {
+						return;
+					}
+					// Paused while waiting.  The reservation was discarded.
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		/**
+		 * Stops handing out permits until a given time, after which the
+		 * bucket refills from empty.  Waiting requests reserve again.
+		 */
+		void pause(long until) {
+			lock.lock();
+			try {
+				if (until - refilledAt > 0) {
+					refilledAt = until;
+				}
+				tokens = 0;
+				++pauseCount;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
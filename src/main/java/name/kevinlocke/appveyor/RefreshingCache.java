@@ -0,0 +1,376 @@
+package name.kevinlocke.appveyor;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent cache of values loaded from the API, bounded by size and age,
+ * which reloads values in the background before they expire.
+ *
+ * A value is loaded on the first {@link #get(Object)} of its key, by one
+ * caller while others for the same key wait for it.  Values are returned
+ * until {@code expireAfter} after they were loaded.  A value requested after
+ * {@code refreshAfter} is returned and reloaded in the background, so that
+ * frequently requested values are replaced before they expire.  Values which
+ * are likely to change soon can be reloaded after a shorter age, using
+ * {@link #setRefreshAfter(Predicate, long, TimeUnit)}.  Failed loads
+ * are not cached.  When there are more than {@code maxSize} values, the
+ * least recently requested is removed, by a scan of all values, so the cache
+ * is intended for small sets of entities such as roles or environments.
+ *
+ * @param <K> Type of keys.
+ * @param <V> Type of values.
+ */
+public class RefreshingCache<K, V> {
+	private final Loader<K, V> loader;
+	private final int maxSize;
+	private final long expireAfterNanos;
+	private volatile long refreshAfterNanos;
+	private volatile Predicate<? super V> changingCondition;
+	private volatile long changingRefreshAfterNanos;
+	private volatile Executor executor = ForkJoinPool.commonPool();
+
+	private final ConcurrentHashMap<K, Node<V>> nodes =
+			new ConcurrentHashMap<>();
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder loadFailureCount = new LongAdder();
+	private final LongAdder refreshCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Loads the value for a key from the API.
+	 *
+	 * @param <K> Type of keys.
+	 * @param <V> Type of values.
+	 */
+	@FunctionalInterface
+	public interface Loader<K, V> {
+		V load(K key) throws ApiException;
+	}
+
+	private static final class Node<V> {
+		final CompletableFuture<V> value = new CompletableFuture<>();
+		final AtomicBoolean refreshing = new AtomicBoolean();
+		/** Time (from System.nanoTime) value was loaded. */
+		volatile long loadedAt;
+		/** Time (from System.nanoTime) value was last requested. */
+		volatile long accessedAt;
+
+		Node(long now) {
+			accessedAt = now;
+		}
+
+		boolean isLoaded() {
+			return value.isDone() && !value.isCompletedExceptionally();
+		}
+	}
+
+	/**
+	 * Constructs a cache which reloads values requested after 3/4 of
+	 * {@code expireAfter}.
+	 *
+	 * @param loader Loader of values which are not cached.
+	 * @param maxSize Maximum number of values to cache.
+	 * @param expireAfter Maximum age of values returned.
+	 * @param unit Unit of {@code expireAfter}.
+	 */
+	public RefreshingCache(Loader<K, V> loader, int maxSize, long expireAfter,
+			TimeUnit unit) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		if (expireAfter <= 0) {
+			throw new IllegalArgumentException("expireAfter must be positive");
+		}
+		this.loader = loader;
+		this.maxSize = maxSize;
+		this.expireAfterNanos = unit.toNanos(expireAfter);
+		this.refreshAfterNanos = expireAfterNanos / 4 * 3;
+	}
+
+	/**
+	 * Sets the age after which requested values are reloaded in the
+	 * background.
+	 *
+	 * @param refreshAfter Age after which values are reloaded.  Values are
+	 * not reloaded if this is not less than {@code expireAfter}.
+	 * @param unit Unit of {@code refreshAfter}.
+	 * @return RefreshingCache
+	 */
+	public RefreshingCache<K, V> setRefreshAfter(long refreshAfter,
+			TimeUnit unit) {
+		if (refreshAfter < 0) {
+			throw new IllegalArgumentException(
+					"refreshAfter must be non-negative");
+		}
+		refreshAfterNanos = unit.toNanos(refreshAfter);
+		return this;
+	}
+
+	/**
+	 * Sets a shorter age after which requested values which match a
+	 * condition are reloaded in the background, such as values which
+	 * describe an operation in progress.
+	 *
+	 * @param condition Condition of values which are likely to change soon,
+	 * or {@code null} to reload all values after the same age.
+	 * @param refreshAfter Age after which values which match
+	 * {@code condition} are reloaded.
+	 * @param unit Unit of {@code refreshAfter}.
+	 * @return RefreshingCache
+	 */
+	public RefreshingCache<K, V> setRefreshAfter(
+			Predicate<? super V> condition, long refreshAfter, TimeUnit unit) {
+		if (refreshAfter < 0) {
+			throw new IllegalArgumentException(
+					"refreshAfter must be non-negative");
+		}
+		changingRefreshAfterNanos = unit.toNanos(refreshAfter);
+		changingCondition = condition;
+		return this;
+	}
+
+	/**
+	 * Sets the executor on which values are reloaded in the background.
+	 *
+	 * @param executor Executor for reloads.  The default is
+	 * {@link ForkJoinPool#commonPool()}.
+	 * @return RefreshingCache
+	 */
+	public RefreshingCache<K, V> setExecutor(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor must not be null");
+		}
+		this.executor = executor;
+		return this;
+	}
+
+	/**
+	 * Gets the value for a key, loading it if it is not cached or expired.
+	 *
+	 * @param key Key of the value.
+	 * @return Cached or loaded value.
+	 * @throws ApiException If loading the value fails.
+	 */
+	public V get(K key) throws ApiException {
+		while (true) {
+			long now = System.nanoTime();
+			Node<V> node = nodes.get(key);
+			if (node != null) {
+				if (!node.value.isDone()) {
+					// Wait for the value being loaded by another caller
+					hitCount.increment();
+					node.accessedAt = now;
+					return await(node);
+				}
+
+				if (node.isLoaded()) {
+					long age = now - node.loadedAt;
+					if (age < expireAfterNanos) {
+						hitCount.increment();
+						node.accessedAt = now;
+						V value = node.value.getNow(null);
+						if (age >= getRefreshAfterNanos(value)
+								&& node.refreshing.compareAndSet(false, true)) {
+							refresh(key, node);
+						}
+						return value;
+					}
+				}
+
+				nodes.remove(key, node);
+			}
+
+			Node<V> loading = new Node<>(now);
+			if (nodes.putIfAbsent(key, loading) != null) {
+				// Another caller started loading.  Wait for it.
+				continue;
+			}
+
+			missCount.increment();
+			V value;
+			try {
+				value = loader.load(key);
+			} catch (ApiException | RuntimeException e) {
+				loadFailureCount.increment();
+				nodes.remove(key, loading);
+				loading.value.completeExceptionally(e);
+				throw e;
+			}
+			loading.loadedAt = System.nanoTime();
+			loading.value.complete(value);
+			evictIfFull();
+			return value;
+		}
+	}
+
+	private long getRefreshAfterNanos(V value) {
+		Predicate<? super V> condition = changingCondition;
+		return condition != null && condition.test(value)
+				? Math.min(changingRefreshAfterNanos, refreshAfterNanos)
+				: refreshAfterNanos;
+	}
+
+	private V await(Node<V> node) throws ApiException {
+		try {
+			return node.value.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ApiException) {
+				throw (ApiException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new ApiException(cause);
+		}
+	}
+
+	private void refresh(K key, Node<V> node) {
+		Runnable reload = () -> {
+			V value;
+			try {
+				value = loader.load(key);
+			} catch (ApiException | RuntimeException e) {
+				// Retried by the next request, until the value expires
+				loadFailureCount.increment();
+				node.refreshing.set(false);
+				return;
+			}
+			refreshCount.increment();
+			Node<V> refreshed = new Node<>(node.accessedAt);
+			refreshed.loadedAt = System.nanoTime();
+			refreshed.value.complete(value);
+			// Not replaced if invalidated during reload
+			nodes.replace(key, node, refreshed);
+		};
+		try {
+			executor.execute(reload);
+		} catch (RejectedExecutionException e) {
+			node.refreshing.set(false);
+		}
+	}
+
+	/**
+	 * Removes the least recently requested values while there are more than
+	 * {@code maxSize}.
+	 */
+	private void evictIfFull() {
+		while (nodes.size() > maxSize) {
+			K oldestKey = null;
+			Node<V> oldest = null;
+			for (Map.Entry<K, Node<V>> entry : nodes.entrySet()) {
+				Node<V> node = entry.getValue();
+				if (node.isLoaded()
+						&& (oldest == null
+								|| node.accessedAt - oldest.accessedAt < 0)) {
+					oldestKey = entry.getKey();
+					oldest = node;
+				}
+			}
+			if (oldest == null) {
+				return;
+			}
+			if (nodes.remove(oldestKey, oldest)) {
+				evictionCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * Removes the value for a key, so that it is loaded on the next request.
+	 *
+	 * @param key Key of the value to remove.
+	 */
+	public void invalidate(K key) {
+		nodes.remove(key);
+	}
+
+	/**
+	 * Removes the values for keys which match a condition, so that they are
+	 * loaded on the next request.
+	 *
+	 * @param condition Condition of keys of the values to remove.
+	 */
+	public void invalidateIf(Predicate<? super K> condition) {
+		nodes.keySet().removeIf(condition);
+	}
+
+	/**
+	 * Removes all values, so that they are loaded on the next request.
+	 * Values being loaded when this is called are returned to the callers
+	 * waiting for them, but not cached.
+	 */
+	public void invalidateAll() {
+		nodes.clear();
+	}
+
+	/**
+	 * Gets the number of values cached or being loaded.
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * Gets the number of requests for a value which was cached or being
+	 * loaded.
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * Gets the number of requests which loaded the value.
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * Gets the fraction of requests which did not load the value.
+	 *
+	 * @return Hit rate, or {@code NaN} if there have been no requests.
+	 */
+	public double getHitRate() {
+		long hits = hitCount.sum();
+		long requests = hits + missCount.sum();
+		return requests == 0 ? Double.NaN : (double) hits / requests;
+	}
+
+	/**
+	 * Gets the number of loads (including background reloads) which failed.
+	 */
+	public long getLoadFailureCount() {
+		return loadFailureCount.sum();
+	}
+
+	/**
+	 * Gets the number of values reloaded in the background.
+	 */
+	public long getRefreshCount() {
+		return refreshCount.sum();
+	}
+
+	/**
+	 * Gets the number of values removed to keep the cache within
+	 * {@code maxSize}.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+}
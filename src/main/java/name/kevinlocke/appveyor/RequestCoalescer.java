@@ -0,0 +1,158 @@
+package name.kevinlocke.appveyor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shares the result of an in-flight API call with identical calls made
+ * before it completes (i.e. single-flight).
+ *
+ * The first call for a key (the leader) makes the request.  Calls for the
+ * same key made before it completes (followers) wait for, and return, the
+ * same {@link ApiResponse} or throw the same exception.  Joining or starting
+ * a flight is a single {@link ConcurrentHashMap#putIfAbsent(Object, Object)}
+ * and calls are not held after they complete, so later calls make a new
+ * request.
+ */
+final class RequestCoalescer {
+	private final ConcurrentHashMap<String, CompletableFuture<ApiResponse<?>>> flights =
+			new ConcurrentHashMap<>();
+	private final LongAdder coalescedCount = new LongAdder();
+
+	/** A blocking API call made by the leader. */
+	@FunctionalInterface
+	interface Execution<T> {
+		ApiResponse<T> execute() throws ApiException;
+	}
+
+	/**
+	 * Gets the number of calls which shared the result of another call.
+	 */
+	long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+
+	/**
+	 * Executes a call, or waits for the result of an identical call in
+	 * flight.
+	 *
+	 * @param key Key which is equal for identical calls.
+	 * @param execution Call to execute if none is in flight.
+	 * @return Response of this or the identical call.
+	 * @throws ApiException If this or the identical call failed.
+	 */
+	@SuppressWarnings("unchecked")
+	<T> ApiResponse<T> execute(String key, Execution<T> execution)
+			throws ApiException {
+		CompletableFuture<ApiResponse<?>> flight = new CompletableFuture<>();
+		CompletableFuture<ApiResponse<?>> leader =
+				flights.putIfAbsent(key, flight);
+		if (leader != null) {
+			coalescedCount.increment();
+			return (ApiResponse<T>) await(leader);
+		}
+
+		try {
+			ApiResponse<T> response = execution.execute();
+			flights.remove(key, flight);
+			flight.complete(response);
+			return response;
+		} catch (Throwable t) {
+			flights.remove(key, flight);
+			flight.completeExceptionally(t);
+			throw t;
+		}
+	}
+
+	/**
+	 * Starts an asynchronous call, or joins an identical call in flight.
+	 *
+	 * @param key Key which is equal for identical calls.
+	 * @param callback Callback of the call.
+	 * @return Callback with which to execute the call, or {@code null} if an
+	 * identical call is in flight and {@code callback} will be called with
+	 * its result.
+	 */
+	<T> ApiCallback<T> executeAsync(String key, ApiCallback<T> callback) {
+		CompletableFuture<ApiResponse<?>> flight = new CompletableFuture<>();
+		CompletableFuture<ApiResponse<?>> leader =
+				flights.putIfAbsent(key, flight);
+		if (leader != null) {
+			coalescedCount.increment();
+			leader.whenComplete((response, failure) ->
+					complete(callback, response, failure));
+			return null;
+		}
+
+		return new ApiCallback<T>() {
+			@Override
+			public void onFailure(ApiException e, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+				flights.remove(key, flight);
+				flight.completeExceptionally(e);
+				callback.onFailure(e, statusCode, responseHeaders);
+			}
+
+			@Override
+			public void onSuccess(T result, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+				flights.remove(key, flight);
+				flight.complete(
+						new ApiResponse<>(statusCode, responseHeaders, result));
+				callback.onSuccess(result, statusCode, responseHeaders);
+			}
+
+			@Override
+			public void onUploadProgress(long bytesWritten, long contentLength,
+					boolean done) {
+				callback.onUploadProgress(bytesWritten, contentLength, done);
+			}
+
+			@Override
+			public void onDownloadProgress(long bytesRead, long contentLength,
+					boolean done) {
+				callback.onDownloadProgress(bytesRead, contentLength, done);
+			}
+		};
+	}
+
+	private static ApiResponse<?> await(
+			CompletableFuture<ApiResponse<?>> leader) throws ApiException {
+		try {
+			return leader.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ApiException) {
+				throw (ApiException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ApiException(cause);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void complete(ApiCallback<T> callback,
+			ApiResponse<?> response, Throwable failure) {
+		if (failure == null) {
+			callback.onSuccess((T) response.getData(),
+					response.getStatusCode(), response.getHeaders());
+		} else if (failure instanceof ApiException) {
+			ApiException e = (ApiException) failure;
+			callback.onFailure(e, e.getCode(), e.getResponseHeaders());
+		} else {
+			callback.onFailure(new ApiException(failure), 0, null);
+		}
+	}
+}
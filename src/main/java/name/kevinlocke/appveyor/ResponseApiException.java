@@ -0,0 +1,132 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.squareup.okhttp.Headers;
+
+/**
+ * An {@link name.kevinlocke.appveyor.ApiException} for an unsuccessful HTTP
+ * response which defers converting the response headers and body until they
+ * are requested.
+ *
+ * Most exceptions for unsuccessful responses are handled based on
+ * {@link #getCode()} or discarded, so building the header map and decoding the
+ * body for every exception is wasted effort when many requests fail.
+ */
+public class ResponseApiException extends ApiException {
+	private static final long serialVersionUID = 1L;
+
+	private transient Headers headers;
+	private transient byte[] responseBodyBytes;
+	private transient Charset responseBodyCharset;
+	private final boolean responseBodyTruncated;
+
+	private volatile Map<String, List<String>> responseHeaders;
+	private volatile String responseBody;
+
+	/**
+	 * Constructs an exception with an already-converted header map and body.
+	 */
+	public ResponseApiException(String message, Throwable throwable, int code,
+			Map<String, List<String>> responseHeaders, String responseBody) {
+		super(message, throwable, code, null, null);
+		this.responseHeaders = responseHeaders;
+		this.responseBody = responseBody;
+		this.responseBodyTruncated = false;
+	}
+
+	/**
+	 * Constructs an exception with a response body which has already been
+	 * decoded.
+	 *
+	 * @param headers Response headers, converted to a {@code Map} on demand.
+	 * @param responseBody Response body, or {@code null} if it was not read.
+	 * @param responseBodyTruncated Whether {@code responseBody} is only a
+	 * prefix of the response body.
+	 */
+	public ResponseApiException(String message, Throwable throwable, int code,
+			Headers headers, String responseBody,
+			boolean responseBodyTruncated) {
+		super(message, throwable, code, null, null);
+		this.headers = headers;
+		this.responseBody = responseBody;
+		this.responseBodyTruncated = responseBodyTruncated;
+	}
+
+	/**
+	 * Constructs an exception with a response body which has not been
+	 * decoded.
+	 *
+	 * @param headers Response headers, converted to a {@code Map} on demand.
+	 * @param responseBodyBytes Response body content, decoded on demand.
+	 * @param responseBodyCharset Charset of {@code responseBodyBytes}.
+	 * @param responseBodyTruncated Whether {@code responseBodyBytes} is only
+	 * a prefix of the response body.
+	 */
+	public ResponseApiException(String message, Throwable throwable, int code,
+			Headers headers, byte[] responseBodyBytes,
+			Charset responseBodyCharset, boolean responseBodyTruncated) {
+		super(message, throwable, code, null, null);
+		this.headers = headers;
+		this.responseBodyBytes = responseBodyBytes;
+		this.responseBodyCharset = responseBodyCharset;
+		this.responseBodyTruncated = responseBodyTruncated;
+	}
+
+	/**
+	 * Get the HTTP response headers.
+	 *
+	 * The headers are converted to a {@code Map} on the first call.
+	 *
+	 * @return A map of list of string
+	 */
+	@Override
+	public Map<String, List<String>> getResponseHeaders() {
+		Map<String, List<String>> result = responseHeaders;
+		if (result == null && headers != null) {
+			result = headers.toMultimap();
+			responseHeaders = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Get the HTTP response body.
+	 *
+	 * The body is decoded on the first call.  It may be a prefix of the
+	 * actual response body, as indicated by
+	 * {@link #isResponseBodyTruncated()}.
+	 *
+	 * @return Response body in the form of string
+	 */
+	@Override
+	public String getResponseBody() {
+		String result = responseBody;
+		if (result == null && responseBodyBytes != null) {
+			result = new String(responseBodyBytes, responseBodyCharset);
+			responseBody = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Whether the response body was larger than the amount read.
+	 *
+	 * @return {@code true} if {@link #getResponseBody()} is a prefix of the
+	 * response body, {@code false} if it is the whole body (or was not read).
+	 */
+	public boolean isResponseBodyTruncated() {
+		return responseBodyTruncated;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// Convert non-Serializable transient values before serialization
+		getResponseHeaders();
+		getResponseBody();
+		out.defaultWriteObject();
+	}
+}
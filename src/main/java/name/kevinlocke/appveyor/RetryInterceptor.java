@@ -0,0 +1,430 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+/**
+ * Interceptor which applies {@link RetryPolicy} to GET and HEAD requests
+ * made by an {@link EnhancedApiClient}.
+ *
+ * Hedged requests are made by a copy of the HTTP client with only the
+ * interceptors after this one, other than caches, so that caches and this
+ * interceptor run once for each call, and each request is limited by the
+ * {@link RateLimiter}.  When the call is cancelled, hedged requests are
+ * cancelled through its {@link EnhancedApiClient.CallTag}.
+ */
+final class RetryInterceptor implements Interceptor {
+	private final EnhancedApiClient apiClient;
+	private final CopyOnWriteArrayList<PolicyRule> rules =
+			new CopyOnWriteArrayList<>();
+	private volatile RetryPolicy defaultPolicy;
+
+	RetryInterceptor(EnhancedApiClient apiClient) {
+		this.apiClient = apiClient;
+	}
+
+	RetryPolicy getDefaultPolicy() {
+		return defaultPolicy;
+	}
+
+	void setDefaultPolicy(RetryPolicy policy) {
+		defaultPolicy = policy;
+	}
+
+	void setPolicy(String pathTemplate, RetryPolicy policy) {
+		for (PolicyRule existing : rules) {
+			if (existing.pathTemplate.getTemplate().equals(pathTemplate)) {
+				rules.remove(existing);
+			}
+		}
+		if (policy != null) {
+			rules.add(new PolicyRule(pathTemplate, policy));
+		}
+	}
+
+	boolean isEmpty() {
+		return defaultPolicy == null && rules.isEmpty();
+	}
+
+	private RetryPolicy getPolicy(Request request) {
+		String path = request.httpUrl().encodedPath();
+		for (PolicyRule rule : rules) {
+			if (rule.pathTemplate.matches(path)) {
+				return rule.policy;
+			}
+		}
+		return defaultPolicy;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String method = request.method();
+		if (!("GET".equals(method) || "HEAD".equals(method))) {
+			return chain.proceed(request);
+		}
+		RetryPolicy policy = getPolicy(request);
+		if (policy == null) {
+			return chain.proceed(request);
+		}
+
+		for (int retry = 0;; ++retry) {
+			boolean canRetry = retry < policy.getMaxRetries();
+			Response response;
+			try {
+				long hedgeDelayNanos = policy.getHedgeDelayNanos();
+				if (hedgeDelayNanos >= 0) {
+					response = proceedHedged(request, policy, hedgeDelayNanos);
+				} else {
+					long start = System.nanoTime();
+					response = chain.proceed(request);
+					if (!isRetryable(response)) {
+						policy.recordLatency(System.nanoTime() - start);
+					}
+				}
+			} catch (IOException e) {
+				if (!canRetry || !RetryPolicy.isRetryable(e)) {
+					throw e;
+				}
+				response = null;
+			}
+
+			if (response != null && (!canRetry || !isRetryable(response))) {
+				return response;
+			}
+			closeQuietly(response);
+
+			policy.recordRetry();
+			long backoffNanos = policy.getBackoffNanos(retry);
+			if (backoffNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(backoffNanos);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(
+							"Interrupted while waiting to retry");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determines whether a response is a retryable error, without consuming
+	 * its body.
+	 */
+	private boolean isRetryable(Response response) throws IOException {
+		int code = response.code();
+		if (code != 500) {
+			return RetryPolicy.isRetryableStatus(code);
+		}
+
+		ResponseBody body = response.body();
+		if (body == null) {
+			return false;
+		}
+		name.kevinlocke.appveyor.model.Error responseModel =
+				apiClient.peekErrorModel(body);
+		return responseModel != null
+				&& RetryPolicy.isTimeoutMessage(responseModel.getMessage());
+	}
+
+	/**
+	 * Makes a request, and hedged requests if it is slow, and returns the
+	 * first non-retryable response, or the last retryable response or error
+	 * if all fail.
+	 */
+	private Response proceedHedged(Request request, RetryPolicy policy,
+			long hedgeDelayNanos) throws IOException {
+		Race race = new Race(newAttemptClient(), request);
+		EnhancedApiClient.CallTag callTag =
+				request.tag() instanceof EnhancedApiClient.CallTag
+						? (EnhancedApiClient.CallTag) request.tag() : null;
+		if (callTag != null) {
+			callTag.setCancelListener(race::cancel);
+		}
+		Attempt winner = null;
+		try {
+			race.start();
+			int hedges = 0;
+			Attempt lastFailure = null;
+			while (lastFailure == null || race.getPendingCount() > 0) {
+				boolean canHedge = hedges < policy.getMaxHedges();
+				Attempt attempt = race.next(canHedge ? hedgeDelayNanos : -1);
+				if (attempt == null) {
+					// No response within the hedge delay
+					++hedges;
+					policy.recordHedge();
+					race.start();
+					continue;
+				}
+
+				if (attempt.response != null
+						&& !isRetryable(attempt.response)) {
+					winner = attempt;
+					if (lastFailure != null) {
+						closeQuietly(lastFailure.response);
+					}
+					policy.recordLatency(attempt.latencyNanos);
+					if (attempt.index > 0) {
+						policy.recordHedgeWin();
+					}
+					return attempt.response;
+				}
+
+				if (lastFailure != null) {
+					closeQuietly(lastFailure.response);
+				}
+				lastFailure = attempt;
+			}
+
+			// All requests failed.  Return the last failure to be retried.
+			winner = lastFailure;
+			if (lastFailure.failure != null) {
+				throw lastFailure.failure;
+			}
+			return lastFailure.response;
+		} finally {
+			if (callTag != null) {
+				// Cancelling the call cancels reading the returned response
+				Call winnerCall = winner != null && winner.response != null
+						? winner.call : null;
+				callTag.setCancelListener(
+						winnerCall != null ? winnerCall::cancel : null);
+			}
+			race.finish(winner);
+		}
+	}
+
+	/**
+	 * Creates a copy of the HTTP client which makes hedged requests with the
+	 * interceptors after this one, other than caches.
+	 */
+	private OkHttpClient newAttemptClient() {
+		OkHttpClient httpClient = apiClient.getHttpClient();
+		OkHttpClient attemptClient = httpClient.clone();
+		List<Interceptor> interceptors = attemptClient.interceptors();
+		interceptors.clear();
+		boolean isAfter = false;
+		for (Interceptor interceptor : httpClient.interceptors()) {
+			if (interceptor == this) {
+				isAfter = true;
+			} else if (isAfter && !(interceptor instanceof HttpResponseCache)
+					&& !(interceptor instanceof EntityCache)) {
+				interceptors.add(interceptor);
+			}
+		}
+		return attemptClient;
+	}
+
+	private static void closeQuietly(Response response) {
+		if (response != null && response.body() != null) {
+			try {
+				response.body().close();
+			} catch (IOException e) {
+				// Response is not used
+			}
+		}
+	}
+
+	private static final class Attempt {
+		final int index;
+		final Call call;
+		final long latencyNanos;
+		final Response response;
+		final IOException failure;
+
+		Attempt(int index, Call call, long latencyNanos, Response response,
+				IOException failure) {
+			this.index = index;
+			this.call = call;
+			this.latencyNanos = latencyNanos;
+			this.response = response;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Concurrent calls for the same request, of which the first useful
+	 * response is used and the others are cancelled.
+	 */
+	private final class Race {
+		private final OkHttpClient httpClient;
+		private final Request request;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition completed = lock.newCondition();
+		/** Calls started.  Guarded by lock. */
+		private final List<Call> calls = new ArrayList<>();
+		/** Completed attempts not yet taken.  Guarded by lock. */
+		private final ArrayDeque<Attempt> attempts = new ArrayDeque<>();
+		/** Number of calls which have not completed.  Guarded by lock. */
+		private int pendingCount;
+		/** Whether the race is over.  Guarded by lock. */
+		private boolean finished;
+		/** Whether the call was cancelled.  Guarded by lock. */
+		private boolean cancelled;
+
+		Race(OkHttpClient httpClient, Request request) {
+			this.httpClient = httpClient;
+			this.request = request;
+		}
+
+		void start() {
+			Call call = httpClient.newCall(request);
+			int index;
+			lock.lock();
+			try {
+				index = calls.size();
+				calls.add(call);
+				++pendingCount;
+			} finally {
+				lock.unlock();
+			}
+
+			httpClient.getDispatcher().getExecutorService()
+					.execute(() -> {
+						long start = System.nanoTime();
+						Response response = null;
+						IOException failure = null;
+						try {
+							response = call.execute();
+						} catch (IOException e) {
+							failure = e;
+						}
+						Attempt attempt = new Attempt(index, call,
+								System.nanoTime() - start, response, failure);
+
+						lock.lock();
+						try {
+							--pendingCount;
+							if (!finished) {
+								attempts.add(attempt);
+								completed.signalAll();
+								return;
+							}
+						} finally {
+							lock.unlock();
+						}
+						closeQuietly(response);
+					});
+		}
+
+		int getPendingCount() {
+			lock.lock();
+			try {
+				return pendingCount;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits for the next completed attempt.
+		 *
+		 * @param timeoutNanos Maximum time to wait, or -1 to wait until all
+		 * calls complete.
+		 * @return The next completed attempt, or {@code null} if none
+		 * completed within {@code timeoutNanos}.
+		 * @throws IOException If the call was cancelled.
+		 */
+		Attempt next(long timeoutNanos) throws IOException {
+			lock.lock();
+			try {
+				long remainingNanos = timeoutNanos;
+				while (!cancelled && attempts.isEmpty()) {
+					if (pendingCount == 0
+							|| (timeoutNanos >= 0 && remainingNanos <= 0)) {
+						return null;
+					}
+					if (timeoutNanos < 0) {
+						completed.await();
+					} else {
+						remainingNanos = completed.awaitNanos(remainingNanos);
+					}
+				}
+				if (cancelled) {
+					// As thrown by OkHttp for cancelled calls
+					throw new IOException("Canceled");
+				}
+				return attempts.poll();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"Interrupted while waiting for response");
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Cancels all calls, for when the call which started the race is
+		 * cancelled, and wakes the thread waiting in {@link #next(long)}.
+		 */
+		void cancel() {
+			List<Call> started;
+			lock.lock();
+			try {
+				cancelled = true;
+				started = new ArrayList<>(calls);
+				completed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			for (Call call : started) {
+				call.cancel();
+			}
+		}
+
+		/**
+		 * Cancels calls other than the winner and closes their responses.
+		 */
+		void finish(Attempt winner) {
+			List<Attempt> unused;
+			List<Call> losers = new ArrayList<>();
+			lock.lock();
+			try {
+				finished = true;
+				unused = new ArrayList<>(attempts);
+				attempts.clear();
+				for (Call call : calls) {
+					if (winner == null || call != winner.call) {
+						losers.add(call);
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			for (Call call : losers) {
+				call.cancel();
+			}
+			for (Attempt attempt : unused) {
+				closeQuietly(attempt.response);
+			}
+		}
+	}
+
+	private static final class PolicyRule {
+		final PathTemplate pathTemplate;
+		final RetryPolicy policy;
+
+		PolicyRule(String pathTemplate, RetryPolicy policy) {
+			this.pathTemplate = new PathTemplate(pathTemplate);
+			this.policy = policy;
+		}
+	}
+}
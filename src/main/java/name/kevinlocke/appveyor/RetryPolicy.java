@@ -0,0 +1,307 @@
+package name.kevinlocke.appveyor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Policy for retrying and hedging idempotent (GET and HEAD) API requests.
+ *
+ * Requests which fail with a retryable error (see
+ * {@link #isRetryable(ApiException)}) are made again, up to
+ * {@link #getMaxRetries()} times, after an exponentially increasing delay
+ * with full jitter (i.e. a random delay up to
+ * {@code initialBackoff * 2^retry}, limited to {@code maxBackoff}).
+ *
+ * Optionally, if a response has not been received after a delay, a
+ * duplicate (hedged) request is made and the first response received is
+ * used, with the other request cancelled.  The delay is either fixed, set
+ * using {@link #setHedgeDelay(long, TimeUnit)}, or a percentile of recent
+ * response latencies, set using {@link #setHedgePercentile(double)}, so that
+ * only the slowest requests are hedged.  Latencies are tracked for each
+ * instance, so operations with different latencies should have separate
+ * instances.
+ *
+ * Install using {@link EnhancedApiClient#setRetryPolicy(String, RetryPolicy)}.
+ * Hedged requests run on the executor of the
+ * {@link com.squareup.okhttp.Dispatcher} of the HTTP client, outside its
+ * limits on the number of requests.
+ */
+public class RetryPolicy {
+	/** Default value of {@link #getMaxRetries()}. */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	/** Number of latencies kept to compute the hedge percentile. */
+	private static final int LATENCY_SAMPLES = 256;
+
+	/** Minimum number of latencies to compute the hedge percentile. */
+	private static final int MIN_LATENCY_SAMPLES = 20;
+
+	private static final Pattern TIMEOUT_MESSAGE =
+			Pattern.compile("(?i)\\btime\\s*out\\b|\\btimed\\s*out\\b");
+
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+	private volatile long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private volatile long maxBackoffNanos = TimeUnit.SECONDS.toNanos(5);
+	private volatile long hedgeDelayNanos = -1;
+	private volatile double hedgePercentile = Double.NaN;
+	private volatile int maxHedges = 1;
+
+	private final ReentrantLock latencyLock = new ReentrantLock();
+	/** Recent latencies (in ns), as a ring buffer.  Guarded by latencyLock. */
+	private final long[] latencies = new long[LATENCY_SAMPLES];
+	/** Number of latencies recorded.  Guarded by latencyLock. */
+	private long latencyCount;
+	/** Cached percentile of latencies, or -1.  Guarded by latencyLock. */
+	private long percentileNanos = -1;
+
+	private final LongAdder retryCount = new LongAdder();
+	private final LongAdder hedgeCount = new LongAdder();
+	private final LongAdder hedgeWinCount = new LongAdder();
+
+	/**
+	 * Determines whether an API request which failed with a given exception
+	 * may succeed if it is made again.
+	 *
+	 * Errors are retryable if the connection failed or timed out, if the
+	 * server responded 502 Bad Gateway, 503 Service Unavailable, or 504
+	 * Gateway Timeout, or if the server responded 500 with an
+	 * {@link name.kevinlocke.appveyor.model.Error} message about a timeout,
+	 * as {@code getProjectDeployments} often does.
+	 *
+	 * @param e Exception thrown by an API method.
+	 * @return {@code true} if the request may succeed if made again.
+	 */
+	public static boolean isRetryable(ApiException e) {
+		int code = e.getCode();
+		if (code == 0) {
+			Throwable cause = e.getCause();
+			return cause instanceof IOException
+					&& isRetryable((IOException) cause);
+		}
+		if (code == 500 && e instanceof ApiExceptionWithModel) {
+			name.kevinlocke.appveyor.model.Error responseModel =
+					((ApiExceptionWithModel) e).getResponseModel();
+			return responseModel != null
+					&& isTimeoutMessage(responseModel.getMessage());
+		}
+		return isRetryableStatus(code);
+	}
+
+	static boolean isRetryable(IOException e) {
+		if (e instanceof InterruptedIOException
+				&& !(e instanceof SocketTimeoutException)) {
+			return false;
+		}
+		// OkHttp throws IOException("Canceled") for cancelled calls
+		return !"Canceled".equals(e.getMessage());
+	}
+
+	static boolean isRetryableStatus(int code) {
+		return code == 502 || code == 503 || code == 504;
+	}
+
+	static boolean isTimeoutMessage(String message) {
+		return message != null && TIMEOUT_MESSAGE.matcher(message).find();
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Sets the number of times a request is made again after a retryable
+	 * error.
+	 *
+	 * @param maxRetries Maximum number of retries of each request.
+	 * @return RetryPolicy
+	 */
+	public RetryPolicy setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException(
+					"maxRetries must be non-negative");
+		}
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	/**
+	 * Sets the range of delays before retrying a request.
+	 *
+	 * @param initialBackoff Maximum delay before the first retry.
+	 * @param maxBackoff Maximum delay before any retry.
+	 * @param unit Unit of {@code initialBackoff} and {@code maxBackoff}.
+	 * @return RetryPolicy
+	 */
+	public RetryPolicy setBackoff(long initialBackoff, long maxBackoff,
+			TimeUnit unit) {
+		if (initialBackoff < 0 || maxBackoff < initialBackoff) {
+			throw new IllegalArgumentException(
+					"Backoff must be non-negative and initialBackoff must not"
+					+ " exceed maxBackoff");
+		}
+		initialBackoffNanos = unit.toNanos(initialBackoff);
+		maxBackoffNanos = unit.toNanos(maxBackoff);
+		return this;
+	}
+
+	/**
+	 * Sets a fixed delay after which a hedged request is made, which is also
+	 * used until enough latencies are recorded when
+	 * {@link #setHedgePercentile(double)} is set.
+	 *
+	 * @param delay Delay before a hedged request, or a negative value to not
+	 * hedge with a fixed delay.
+	 * @param unit Unit of {@code delay}.
+	 * @return RetryPolicy
+	 */
+	public RetryPolicy setHedgeDelay(long delay, TimeUnit unit) {
+		hedgeDelayNanos = delay < 0 ? -1 : unit.toNanos(delay);
+		return this;
+	}
+
+	/**
+	 * Sets the percentile of recent response latencies after which a hedged
+	 * request is made.
+	 *
+	 * @param percentile Percentile of latencies (e.g. 95), or {@code NaN} to
+	 * not hedge based on latencies.
+	 * @return RetryPolicy
+	 */
+	public RetryPolicy setHedgePercentile(double percentile) {
+		if (percentile <= 0 || percentile >= 100) {
+			throw new IllegalArgumentException(
+					"percentile must be between 0 and 100");
+		}
+		hedgePercentile = percentile;
+		latencyLock.lock();
+		try {
+			percentileNanos = -1;
+		} finally {
+			latencyLock.unlock();
+		}
+		return this;
+	}
+
+	public int getMaxHedges() {
+		return maxHedges;
+	}
+
+	/**
+	 * Sets the number of hedged requests made for each attempt.  Each is
+	 * made after the hedge delay elapses without a response to the previous
+	 * request.
+	 *
+	 * @param maxHedges Maximum number of hedged requests.
+	 * @return RetryPolicy
+	 */
+	public RetryPolicy setMaxHedges(int maxHedges) {
+		if (maxHedges < 1) {
+			throw new IllegalArgumentException("maxHedges must be positive");
+		}
+		this.maxHedges = maxHedges;
+		return this;
+	}
+
+	/**
+	 * Gets the number of requests made again after a retryable error.
+	 */
+	public long getRetryCount() {
+		return retryCount.sum();
+	}
+
+	/**
+	 * Gets the number of hedged requests made.
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.sum();
+	}
+
+	/**
+	 * Gets the number of responses to hedged requests which were used.
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWinCount.sum();
+	}
+
+	/**
+	 * Gets the delay after which a hedged request is made.
+	 *
+	 * @return Delay (in ns), or -1 if requests are not hedged.
+	 */
+	long getHedgeDelayNanos() {
+		if (!Double.isNaN(hedgePercentile)) {
+			latencyLock.lock();
+			try {
+				if (percentileNanos < 0
+						&& latencyCount >= MIN_LATENCY_SAMPLES) {
+					int sampleCount =
+							(int) Math.min(latencyCount, LATENCY_SAMPLES);
+					long[] sorted = Arrays.copyOf(latencies, sampleCount);
+					Arrays.sort(sorted);
+					int index = (int) Math.ceil(
+							hedgePercentile / 100 * sampleCount) - 1;
+					percentileNanos = sorted[Math.max(0, index)];
+				}
+				if (percentileNanos >= 0) {
+					return percentileNanos;
+				}
+			} finally {
+				latencyLock.unlock();
+			}
+		}
+		return hedgeDelayNanos;
+	}
+
+	/**
+	 * Records the latency of a successful response.
+	 */
+	void recordLatency(long latencyNanos) {
+		if (Double.isNaN(hedgePercentile)) {
+			return;
+		}
+		latencyLock.lock();
+		try {
+			latencies[(int) (latencyCount % LATENCY_SAMPLES)] = latencyNanos;
+			++latencyCount;
+			// Recompute the percentile periodically, rather than per request
+			if (latencyCount % 16 == 0) {
+				percentileNanos = -1;
+			}
+		} finally {
+			latencyLock.unlock();
+		}
+	}
+
+	/**
+	 * Gets a random delay before a retry.
+	 *
+	 * @param retry Number of retries made before this one.
+	 */
+	long getBackoffNanos(int retry) {
+		long ceiling = initialBackoffNanos << Math.min(retry, 30);
+		if (ceiling < 0 || ceiling > maxBackoffNanos) {
+			ceiling = maxBackoffNanos;
+		}
+		return ceiling <= 0 ? 0
+				: ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	void recordRetry() {
+		retryCount.increment();
+	}
+
+	void recordHedge() {
+		hedgeCount.increment();
+	}
+
+	void recordHedgeWin() {
+		hedgeWinCount.increment();
+	}
+}
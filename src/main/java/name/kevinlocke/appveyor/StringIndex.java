@@ -0,0 +1,239 @@
+package name.kevinlocke.appveyor;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Map from {@code String} IDs, such as {@code jobId}, to models.
+ *
+ * Entries are kept in parallel arrays of hashes, keys, and values using
+ * open addressing with linear probing, so that there is no object per
+ * entry.  Probes compare the stored hash before the key, so lookups rarely
+ * read keys other than the one found.  This uses 18 to 36 bytes per entry
+ * (with compressed references), depending on load, compared to about 40
+ * for a {@code HashMap<String, V>}.  Since keys are usually shared with the
+ * models, they add no further space.  Lookups and
+ * {@link #forEach(BiConsumer)} do not allocate.
+ *
+ * Keys and values must not be {@code null}.  Instances are not thread-safe.
+ *
+ * @param <V> Type of values.
+ */
+public final class StringIndex<V> {
+	private int[] hashes;
+	private String[] keys;
+	/** Values, or {@code null} for empty slots. */
+	private Object[] values;
+	private int size;
+	private int resizeAt;
+
+	/**
+	 * Constructs an empty index.
+	 */
+	public StringIndex() {
+		this(0);
+	}
+
+	/**
+	 * Constructs an empty index with room for an expected number of entries.
+	 *
+	 * @param expectedSize Number of entries which can be added without
+	 * resizing.
+	 */
+	public StringIndex(int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException(
+					"expectedSize must be non-negative");
+		}
+		allocate(IntIndex.capacityFor(expectedSize));
+	}
+
+	private static int hash(String key) {
+		return IntIndex.hash(key.hashCode());
+	}
+
+	private void allocate(int capacity) {
+		hashes = new int[capacity];
+		keys = new String[capacity];
+		values = new Object[capacity];
+		resizeAt = (int) ((long) capacity * 2 / 3);
+	}
+
+	/**
+	 * Gets the slot of a key, or of the empty slot where it would be added.
+	 */
+	private int slotOf(String key, int hash) {
+		int mask = values.length - 1;
+		int slot = hash & mask;
+		while (values[slot] != null
+				&& (hashes[slot] != hash || !key.equals(keys[slot]))) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Gets the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return The value for {@code key}, or {@code null} if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(String key) {
+		return (V) values[slotOf(key, hash(key))];
+	}
+
+	/**
+	 * Determines whether the index has a value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return {@code true} if there is a value for {@code key}.
+	 */
+	public boolean containsKey(String key) {
+		return values[slotOf(key, hash(key))] != null;
+	}
+
+	/**
+	 * Sets the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @param value Value for {@code key}.
+	 * @return The previous value for {@code key}, or {@code null} if there
+	 * was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(String key, V value) {
+		if (key == null) {
+			throw new IllegalArgumentException("key must not be null");
+		}
+		if (value == null) {
+			throw new IllegalArgumentException("value must not be null");
+		}
+		int hash = hash(key);
+		int slot = slotOf(key, hash);
+		Object previous = values[slot];
+		if (previous == null) {
+			if (size >= resizeAt) {
+				resize(values.length * 2);
+				slot = slotOf(key, hash);
+			}
+			hashes[slot] = hash;
+			keys[slot] = key;
+			++size;
+		}
+		values[slot] = value;
+		return (V) previous;
+	}
+
+	/**
+	 * Adds values by their ID, skipping values without an ID.
+	 *
+	 * @param values Values to add.
+	 * @param idGetter Getter of the ID of a value, such as
+	 * {@code BuildJob::getJobId}.
+	 * @return StringIndex
+	 */
+	public StringIndex<V> putAll(Iterable<? extends V> values,
+			Function<? super V, String> idGetter) {
+		for (V value : values) {
+			String id = idGetter.apply(value);
+			if (id != null) {
+				put(id, value);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the value for a key.
+	 *
+	 * @param key Key of the value.
+	 * @return The removed value, or {@code null} if there was none.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(String key) {
+		int slot = slotOf(key, hash(key));
+		Object removed = values[slot];
+		if (removed == null) {
+			return null;
+		}
+
+		// Shift later entries in the probe sequence back, as in IntIndex
+		int mask = values.length - 1;
+		int empty = slot;
+		for (int next = (empty + 1) & mask; values[next] != null;
+				next = (next + 1) & mask) {
+			int home = hashes[next] & mask;
+			if (((next - home) & mask) >= ((next - empty) & mask)) {
+				hashes[empty] = hashes[next];
+				keys[empty] = keys[next];
+				values[empty] = values[next];
+				empty = next;
+			}
+		}
+		keys[empty] = null;
+		values[empty] = null;
+		--size;
+		return (V) removed;
+	}
+
+	private void resize(int capacity) {
+		int[] oldHashes = hashes;
+		String[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; ++i) {
+			if (oldValues[i] != null) {
+				int slot = oldHashes[i] & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				hashes[slot] = oldHashes[i];
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Calls a consumer with each entry, in no particular order.  The index
+	 * must not be modified by the consumer.
+	 *
+	 * @param consumer Consumer of entries.
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(BiConsumer<String, ? super V> consumer) {
+		Object[] values = this.values;
+		for (int i = 0; i < values.length; ++i) {
+			Object value = values[i];
+			if (value != null) {
+				consumer.accept(keys[i], (V) value);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of entries.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Determines whether the index has no entries.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+}
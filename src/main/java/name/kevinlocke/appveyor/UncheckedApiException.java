@@ -0,0 +1,23 @@
+package name.kevinlocke.appveyor;
+
+/**
+ * Wraps an {@link ApiException} thrown where checked exceptions are not
+ * allowed, such as from an {@link java.util.Iterator} or a
+ * {@link java.util.stream.Stream}.
+ */
+public class UncheckedApiException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public UncheckedApiException(ApiException cause) {
+		super(cause);
+	}
+
+	public UncheckedApiException(String message, ApiException cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public ApiException getCause() {
+		return (ApiException) super.getCause();
+	}
+}
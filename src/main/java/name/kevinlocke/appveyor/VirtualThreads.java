@@ -0,0 +1,139 @@
+package name.kevinlocke.appveyor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * Support for running API calls on virtual threads, when the JVM supports
+ * them (JDK 21 and later).
+ *
+ * This library targets Java 8, so
+ * {@code Executors.newVirtualThreadPerTaskExecutor()} is looked up at runtime
+ * rather than linked at compile time.  For example, to run asynchronous calls
+ * on virtual threads and to run blocking calls from virtual threads:
+ * <pre>{@code
+ * if (VirtualThreads.isSupported()) {
+ *     VirtualThreads.useVirtualThreads(apiClient.getHttpClient());
+ *     ApiFutures futures = new ApiFutures(VirtualThreads.newExecutor());
+ *     CompletableFuture<Build> build = futures.supply(
+ *         () -> projectApi.getProjectLastBuild(account, slug).getBuild());
+ * }
+ * }</pre>
+ *
+ * Note that code in this library which may block while holding a lock uses
+ * {@link java.util.concurrent.locks.ReentrantLock} rather than
+ * {@code synchronized} so that virtual threads are not pinned to their
+ * carrier thread.  Custom interceptors should do the same.
+ */
+public final class VirtualThreads {
+	private static final MethodHandle NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR =
+			findNewVirtualThreadPerTaskExecutor();
+
+	private static MethodHandle findNewVirtualThreadPerTaskExecutor() {
+		MethodHandle newExecutor;
+		try {
+			newExecutor = MethodHandles.publicLookup().findStatic(
+					Executors.class,
+					"newVirtualThreadPerTaskExecutor",
+					MethodType.methodType(ExecutorService.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+
+		// JDK 19 and 20 have the method, but throw without --enable-preview
+		try {
+			((ExecutorService) newExecutor.invoke()).shutdown();
+		} catch (Throwable t) {
+			return null;
+		}
+		return newExecutor;
+	}
+
+	/**
+	 * Determines whether the JVM supports virtual threads.
+	 *
+	 * @return {@code true} if virtual threads are supported.
+	 */
+	public static boolean isSupported() {
+		return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+	}
+
+	/**
+	 * Creates an executor which starts a new virtual thread for each task.
+	 *
+	 * @return Executor which runs each task on a new virtual thread.
+	 * @throws UnsupportedOperationException If virtual threads are not
+	 * supported.
+	 */
+	public static ExecutorService newExecutor() {
+		if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+			throw new UnsupportedOperationException(
+					"Virtual threads are not supported by this JVM");
+		}
+
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR
+					.invoke();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			// newVirtualThreadPerTaskExecutor does not throw checked exceptions
+			throw new AssertionError(t);
+		}
+	}
+
+	/**
+	 * Creates a dispatcher which runs asynchronous calls on virtual threads
+	 * with no limit on the number of concurrent calls.
+	 *
+	 * @return Dispatcher for asynchronous calls.
+	 * @throws UnsupportedOperationException If virtual threads are not
+	 * supported.
+	 */
+	public static Dispatcher newDispatcher() {
+		return newDispatcher(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a dispatcher which runs asynchronous calls on virtual threads.
+	 *
+	 * Since virtual threads do not need to be pooled, the number of
+	 * concurrent calls is only limited by {@code maxRequests}, which applies
+	 * both in total and per host (since API calls are usually to a single
+	 * host).
+	 *
+	 * @param maxRequests Maximum number of concurrent asynchronous calls.
+	 * @return Dispatcher for asynchronous calls.
+	 * @throws UnsupportedOperationException If virtual threads are not
+	 * supported.
+	 */
+	public static Dispatcher newDispatcher(int maxRequests) {
+		Dispatcher dispatcher = new Dispatcher(newExecutor());
+		dispatcher.setMaxRequests(maxRequests);
+		dispatcher.setMaxRequestsPerHost(maxRequests);
+		return dispatcher;
+	}
+
+	/**
+	 * Sets the dispatcher of an HTTP client to run asynchronous calls on
+	 * virtual threads with no limit on the number of concurrent calls.
+	 *
+	 * @param httpClient HTTP client (e.g. from
+	 * {@link ApiClient#getHttpClient()}).
+	 * @throws UnsupportedOperationException If virtual threads are not
+	 * supported.
+	 */
+	public static void useVirtualThreads(OkHttpClient httpClient) {
+		httpClient.setDispatcher(newDispatcher());
+	}
+
+	// Prevent instantiation
+	private VirtualThreads() {
+	}
+}
@@ -0,0 +1,210 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.model.Role;
+import name.kevinlocke.appveyor.model.RoleWithGroups;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for adapting asynchronous API calls with {@link ApiFutures}.
+ */
+public class ApiFuturesTest {
+	private static final String EXECUTOR_THREAD_NAME = "api-futures-test";
+
+	private StandInServer server;
+	private ExecutorService executor;
+	private ApiFutures futures;
+	private EnhancedApiClient apiClient;
+	private RoleApi roleApi;
+	private final AtomicInteger executorTasks = new AtomicInteger();
+	private CountDownLatch releaseResponses;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		executorTasks.set(0);
+		releaseResponses = new CountDownLatch(0);
+		server = new StandInServer();
+		server.createContext("/api/roles", this::handleRoles);
+
+		executor = Executors.newSingleThreadExecutor(
+				runnable -> new Thread(runnable, EXECUTOR_THREAD_NAME));
+		futures = new ApiFutures(runnable -> {
+			executorTasks.incrementAndGet();
+			executor.execute(runnable);
+		});
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		roleApi = new RoleApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		releaseResponses.countDown();
+		server.close();
+		executor.shutdown();
+	}
+
+	private void handleRoles(HttpExchange exchange) throws IOException {
+		try {
+			releaseResponses.await(10, TimeUnit.SECONDS);
+			if (exchange.getRequestURI().getPath().endsWith("/404")) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			byte[] body = "[{\"roleId\":1,\"name\":\"Administrator\"}]"
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	public void completesOnExecutor() throws Exception {
+		String threadName = futures
+				.<List<Role>>call(callback -> roleApi.getRolesAsync(callback))
+				.thenApply(roles -> Thread.currentThread().getName())
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(threadName, EXECUTOR_THREAD_NAME);
+	}
+
+	@Test
+	public void callWithHttpInfo() throws Exception {
+		CompletableFuture<ApiResponse<List<Role>>> future = futures
+				.callWithHttpInfo(roleApi::getRolesAsync);
+		ApiResponse<List<Role>> response = future.get(10, TimeUnit.SECONDS);
+		assertEquals(response.getStatusCode(), 200);
+		assertEquals(response.getData().get(0).getName(), "Administrator");
+	}
+
+	@Test
+	public void failsWithApiException() throws Exception {
+		try {
+			CompletableFuture<RoleWithGroups> future =
+					futures.call(callback -> roleApi.getRoleAsync(404, callback));
+			future.get(10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ApiException);
+			assertEquals(((ApiException) e.getCause()).getCode(), 404);
+		}
+	}
+
+	@Test
+	public void failsWhenNotStarted() {
+		CompletableFuture<Role> future = futures.call(callback -> {
+			throw new ApiException("Missing the required parameter");
+		});
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test
+	public void supplyRunsOnExecutor() throws Exception {
+		CompletableFuture<String> future = futures.supply(() -> {
+			roleApi.getRoles();
+			return Thread.currentThread().getName();
+		});
+		assertEquals(future.get(10, TimeUnit.SECONDS), EXECUTOR_THREAD_NAME);
+	}
+
+	@Test
+	public void cancelCancelsCall() throws Exception {
+		releaseResponses = new CountDownLatch(1);
+		CompletableFuture<List<Role>> future =
+				futures.call(callback -> roleApi.getRolesAsync(callback));
+		assertTrue(future.cancel(true));
+		releaseResponses.countDown();
+
+		// Allow time for a response, if the call were not cancelled
+		Thread.sleep(200);
+		assertEquals(executorTasks.get(), 0);
+		try {
+			future.get();
+			fail("Expected CancellationException");
+		} catch (CancellationException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void asyncCallsDoNotAccumulateInterceptors() throws Exception {
+		int interceptorCount =
+				apiClient.getHttpClient().networkInterceptors().size();
+		List<CompletableFuture<List<Role>>> calls = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			calls.add(futures.call(callback -> roleApi.getRolesAsync(callback)));
+		}
+		for (CompletableFuture<List<Role>> call : calls) {
+			call.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(apiClient.getHttpClient().networkInterceptors().size(),
+				interceptorCount);
+	}
+
+	@Test
+	public void reportsDownloadProgress() throws Exception {
+		CountDownLatch downloadDone = new CountDownLatch(1);
+		roleApi.getRolesAsync(new ApiCallback<List<Role>>() {
+			@Override
+			public void onFailure(ApiException e, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+			}
+
+			@Override
+			public void onSuccess(List<Role> result, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+			}
+
+			@Override
+			public void onUploadProgress(long bytesWritten, long contentLength,
+					boolean done) {
+			}
+
+			@Override
+			public void onDownloadProgress(long bytesRead, long contentLength,
+					boolean done) {
+				if (done) {
+					downloadDone.countDown();
+				}
+			}
+		});
+		assertTrue(downloadDone.await(10, TimeUnit.SECONDS));
+
+		// Progress is only reported for the call which requested it
+		assertEquals(roleApi.getRoles().size(), 1);
+	}
+}
@@ -0,0 +1,242 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.ArtifactDownloader.ArtifactResult;
+import name.kevinlocke.appveyor.ArtifactDownloader.Summary;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for downloading job artifacts with {@link ArtifactDownloader}.
+ */
+public class ArtifactDownloaderTest {
+	private static final String JOB_PREFIX = "/api/buildjobs/";
+	private static final String ARTIFACTS = "/artifacts";
+
+	/** Artifact contents by "jobId/fileName". */
+	private final Map<String, byte[]> artifacts = new HashMap<>();
+	private final AtomicInteger rangeRequests = new AtomicInteger();
+	/** Size reported for artifacts by the listing, if not -1. */
+	private volatile long listedSizeOverride;
+
+	private StandInServer server;
+	private ArtifactDownloader downloader;
+	private Path directory;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		Random random = new Random(0);
+		artifacts.clear();
+		for (String name : new String[] { "job1/app.zip", "job1/sub/log.txt",
+				"job2/app.zip" }) {
+			byte[] content = new byte[256 * 1024 + random.nextInt(1024)];
+			random.nextBytes(content);
+			artifacts.put(name, content);
+		}
+		rangeRequests.set(0);
+		listedSizeOverride = -1;
+
+		server = new StandInServer();
+		server.createContext(JOB_PREFIX, this::handle);
+
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		downloader = new ArtifactDownloader(apiClient).setMaxConcurrency(2);
+		directory = Files.createTempDirectory("appveyor-artifacts");
+	}
+
+	@AfterMethod
+	public void stop() throws IOException {
+		server.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder())
+					.map(Path::toFile)
+					.forEach(File::delete);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			// Note: getPath() decodes %2F in artifact file names
+			String path = exchange.getRequestURI().getPath()
+					.substring(JOB_PREFIX.length());
+			int slash = path.indexOf('/');
+			String jobId = path.substring(0, slash);
+			String rest = path.substring(slash);
+			if (rest.equals(ARTIFACTS)) {
+				sendArtifactList(exchange, jobId);
+				return;
+			}
+
+			byte[] content = rest.startsWith(ARTIFACTS + '/')
+					? artifacts.get(jobId + rest.substring(ARTIFACTS.length()))
+					: null;
+			if (content == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			int start = 0;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range != null) {
+				rangeRequests.incrementAndGet();
+				start = Integer.parseInt(range.substring("bytes=".length(),
+						range.length() - 1));
+				exchange.getResponseHeaders().set("Content-Range", "bytes "
+						+ start + '-' + (content.length - 1) + '/'
+						+ content.length);
+			}
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/octet-stream");
+			exchange.sendResponseHeaders(range != null ? 206 : 200,
+					content.length - start);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(content, start, content.length - start);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void sendArtifactList(HttpExchange exchange, String jobId)
+			throws IOException {
+		if (!jobId.startsWith("job") || jobId.equals("job404")) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+
+		StringBuilder json = new StringBuilder("[");
+		for (Map.Entry<String, byte[]> artifact : artifacts.entrySet()) {
+			String name = artifact.getKey();
+			if (!name.startsWith(jobId + '/')) {
+				continue;
+			}
+			if (json.length() > 1) {
+				json.append(',');
+			}
+			long size = listedSizeOverride >= 0 ? listedSizeOverride
+					: artifact.getValue().length;
+			json.append("{\"fileName\":\"")
+					.append(name.substring(jobId.length() + 1))
+					.append("\",\"size\":").append(size).append('}');
+		}
+		json.append(']');
+
+		byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type",
+				"application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream responseBody = exchange.getResponseBody()) {
+			responseBody.write(body);
+		}
+	}
+
+	private static Build build(String... jobIds) {
+		Build build = new Build();
+		for (String jobId : jobIds) {
+			build.addJobsItem(new BuildJob().jobId(jobId));
+		}
+		return build;
+	}
+
+	private void assertDownloaded(String name) throws IOException {
+		assertEquals(Files.readAllBytes(directory.resolve(name)),
+				artifacts.get(name));
+	}
+
+	@Test
+	public void downloadsAllJobs() throws Exception {
+		Summary summary = downloader.download(build("job1", "job2"),
+				directory.toFile());
+
+		assertTrue(summary.isSuccessful(), summary.getFailures().toString());
+		assertEquals(summary.getResults().size(), 3);
+		for (String name : artifacts.keySet()) {
+			assertDownloaded(name);
+		}
+		long totalSize = 0;
+		for (byte[] content : artifacts.values()) {
+			totalSize += content.length;
+		}
+		assertEquals(summary.getBytesTransferred(), totalSize);
+		assertTrue(summary.getThroughput() > 0);
+		assertEquals(rangeRequests.get(), 0);
+	}
+
+	@Test
+	public void resumesPartialFile() throws Exception {
+		byte[] content = artifacts.get("job2/app.zip");
+		Path partial = directory.resolve("job2/app.zip");
+		Files.createDirectories(partial.getParent());
+		Files.write(partial, Arrays.copyOf(content, 1000));
+
+		Summary summary = downloader.download(build("job2"),
+				directory.toFile());
+
+		assertTrue(summary.isSuccessful(), summary.getFailures().toString());
+		ArtifactResult result = summary.getResults().get(0);
+		assertTrue(result.isResumed());
+		assertEquals(result.getBytesTransferred(), content.length - 1000);
+		assertEquals(rangeRequests.get(), 1);
+		assertDownloaded("job2/app.zip");
+	}
+
+	@Test
+	public void skipsCompleteFile() throws Exception {
+		Path complete = directory.resolve("job2/app.zip");
+		Files.createDirectories(complete.getParent());
+		Files.write(complete, artifacts.get("job2/app.zip"));
+
+		Summary summary = downloader.download(build("job2"),
+				directory.toFile());
+
+		assertTrue(summary.isSuccessful());
+		assertEquals(summary.getBytesTransferred(), 0);
+	}
+
+	@Test
+	public void reportsSizeMismatch() throws Exception {
+		listedSizeOverride = 12;
+
+		Summary summary = downloader.download(build("job2"),
+				directory.toFile());
+
+		assertFalse(summary.isSuccessful());
+		ArtifactResult failure = summary.getFailures().get(0);
+		assertTrue(failure.getException() instanceof IOException);
+	}
+
+	@Test
+	public void reportsListingFailure() throws Exception {
+		Summary summary = downloader.download(build("job1", "job404"),
+				directory.toFile());
+
+		assertEquals(summary.getResults().size(), 3);
+		assertEquals(summary.getFailures().size(), 1);
+		assertEquals(summary.getFailures().get(0).getJobId(), "job404");
+	}
+}
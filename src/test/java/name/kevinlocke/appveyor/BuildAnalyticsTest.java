@@ -0,0 +1,214 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Tests for {@link BuildAnalytics} and {@link BuildStatistics}.
+ */
+public class BuildAnalyticsTest {
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	private static Build build(int projectId, String branch, Status status,
+			long created, long queueTime, long duration) {
+		return new Build()
+				.projectId(projectId)
+				.branch(branch)
+				.authorName("Author")
+				.status(status)
+				.created(new DateTime(created))
+				.started(new DateTime(created + queueTime))
+				.finished(new DateTime(created + queueTime + duration));
+	}
+
+	@Test
+	public void aggregatesGroups() {
+		BuildStore store = new BuildStore();
+		// Added out of order, since flakiness is ordered by created
+		store.add(build(1, "master", Status.FAILED, 2 * HOUR, 10, 100));
+		store.add(build(1, "master", Status.SUCCESS, HOUR, 20, 200));
+		store.add(build(1, "master", Status.SUCCESS, 3 * HOUR, 30, 300));
+		store.add(build(1, "master", Status.CANCELLED, 4 * HOUR, 40, 400));
+		store.add(build(1, "develop", Status.SUCCESS, HOUR, 50, 500));
+		store.add(build(2, "master", Status.FAILED, HOUR, 60, 600));
+		store.add(new Build().projectId(1).status(Status.QUEUED));
+
+		BuildAnalytics analytics = new BuildAnalytics(store);
+		Map<String, BuildStatistics> byBranch = analytics.query()
+				.filter(BuildAnalytics.projectId(1))
+				.groupBy(BuildAnalytics.Grouping.BRANCH);
+		assertEquals(byBranch.keySet(),
+				new HashSet<>(Arrays.asList("master", "develop", null)));
+
+		BuildStatistics master = byBranch.get("master");
+		assertEquals(master.getCount(), 4);
+		assertEquals(master.getCount(Status.SUCCESS), 2);
+		assertEquals(master.getCount(Status.CANCELLED), 1);
+		assertEquals(master.getSuccessRate(), 2.0 / 3);
+		assertEquals(master.getQueueTimePercentile(0), 10);
+		assertEquals(master.getQueueTimePercentile(50), 20);
+		assertEquals(master.getQueueTimePercentile(100), 40);
+		assertEquals(master.getDurationPercentile(75), 300);
+		assertEquals(master.getMeanDuration(), 250.0);
+		// SUCCESS, FAILED, SUCCESS by created
+		assertEquals(master.getFlipCount(), 2);
+		assertEquals(master.getFlakiness(), 1.0);
+
+		BuildStatistics queued = byBranch.get(null);
+		assertEquals(queued.getCount(Status.QUEUED), 1);
+		assertEquals(queued.getDurationPercentile(50), -1);
+		assertTrue(Double.isNaN(queued.getSuccessRate()));
+		assertTrue(Double.isNaN(queued.getFlakiness()));
+
+		Map<Integer, BuildStatistics> byProject =
+				analytics.query().groupBy(BuildAnalytics.Grouping.PROJECT);
+		assertEquals(byProject.get(1).getCount(), 6);
+		assertEquals(byProject.get(2).getCount(Status.FAILED), 1);
+
+		assertEquals(analytics.query()
+				.filter(BuildAnalytics.status(Status.SUCCESS))
+				.filter(BuildAnalytics.branch("master"))
+				.count(), 2);
+		assertEquals(analytics.query().aggregate().getCount(), 7);
+	}
+
+	@Test
+	public void computesMovingWindows() {
+		BuildStore store = new BuildStore();
+		store.add(build(1, "master", Status.SUCCESS, 10 * HOUR, 1, 10));
+		store.add(build(1, "master", Status.FAILED, 11 * HOUR, 1, 20));
+		store.add(build(1, "master", Status.FAILED, 13 * HOUR + 1, 1, 30));
+		store.add(build(1, "master", Status.SUCCESS, 14 * HOUR, 1, 40));
+
+		NavigableMap<DateTime, BuildStatistics> windows =
+				new BuildAnalytics(store).query()
+						.movingWindows(1, TimeUnit.HOURS, 2);
+		// No window for 12h, which has no builds
+		assertEquals(windows.keySet(), new HashSet<>(Arrays.asList(
+				new DateTime(10 * HOUR), new DateTime(11 * HOUR),
+				new DateTime(13 * HOUR), new DateTime(14 * HOUR))));
+		long[] counts = windows.values().stream()
+				.mapToLong(BuildStatistics::getCount)
+				.toArray();
+		assertEquals(counts, new long[] { 1, 2, 1, 2 });
+
+		BuildStatistics window11 = windows.get(new DateTime(11 * HOUR));
+		assertEquals(window11.getSuccessRate(), 0.5);
+		assertEquals(window11.getDurationPercentile(0), 10);
+		// Builds from 10h and 11h are removed from the window for 13h
+		BuildStatistics window13 = windows.get(new DateTime(13 * HOUR));
+		assertEquals(window13.getDurationPercentile(0), 30);
+		assertEquals(window13.getFlipCount(), 0);
+		BuildStatistics window14 = windows.get(new DateTime(14 * HOUR));
+		assertEquals(window14.getDurationPercentile(0), 30);
+		assertEquals(window14.getDurationPercentile(100), 40);
+		assertEquals(window14.getFlipCount(), 1);
+	}
+
+	@Test
+	public void movingWindowsMatchAggregates() {
+		Random random = new Random(2);
+		BuildStore store = new BuildStore();
+		for (int i = 0; i < 1000; ++i) {
+			store.add(build(1, "master",
+					random.nextBoolean() ? Status.SUCCESS : Status.FAILED,
+					random.nextInt(200) * HOUR / 4, random.nextInt(100),
+					random.nextInt(1000)));
+		}
+
+		BuildAnalytics analytics = new BuildAnalytics(store);
+		NavigableMap<DateTime, BuildStatistics> windows = analytics.query()
+				.movingWindows(1, TimeUnit.HOURS, 3);
+		for (Map.Entry<DateTime, BuildStatistics> window
+				: windows.entrySet()) {
+			long end = window.getKey().getMillis() + HOUR;
+			BuildStatistics expected = analytics.query()
+					.filter(BuildAnalytics.createdSince(
+							new DateTime(end - 3 * HOUR)))
+					.filter(BuildAnalytics.createdBefore(new DateTime(end)))
+					.aggregate();
+			BuildStatistics actual = window.getValue();
+			assertEquals(actual.getCount(), expected.getCount());
+			assertEquals(actual.getCount(Status.FAILED),
+					expected.getCount(Status.FAILED));
+			assertEquals(actual.getQueueTimePercentile(50),
+					expected.getQueueTimePercentile(50));
+			assertEquals(actual.getDurationPercentile(90),
+					expected.getDurationPercentile(90));
+			assertEquals(actual.getFlipCount(), expected.getFlipCount());
+		}
+	}
+
+	@Test
+	public void parallelMatchesSequential() {
+		Random random = new Random(1);
+		String[] branches = { "master", "develop", "feature" };
+		Status[] statuses = Status.values();
+		BuildStore store = new BuildStore();
+		List<Build> builds = new ArrayList<>();
+		for (int i = 0; i < 100_000; ++i) {
+			Build build = build(random.nextInt(10),
+					branches[random.nextInt(branches.length)],
+					statuses[random.nextInt(statuses.length)],
+					random.nextInt(1000) * HOUR, random.nextInt(60_000),
+					random.nextInt(600_000));
+			builds.add(build);
+			store.add(build);
+		}
+
+		Map<String, Long> expectedCounts = new HashMap<>();
+		Map<String, Long> expectedSuccesses = new HashMap<>();
+		long expectedDurationSum = 0;
+		for (Build build : builds) {
+			if (build.getProjectId() == 3) {
+				expectedCounts.merge(build.getBranch(), 1L, Long::sum);
+				if (build.getStatus() == Status.SUCCESS) {
+					expectedSuccesses.merge(build.getBranch(), 1L, Long::sum);
+				}
+				expectedDurationSum += build.getFinished().getMillis()
+						- build.getStarted().getMillis();
+			}
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BuildAnalytics.Query query = new BuildAnalytics(store)
+					.setPool(pool)
+					.query()
+					.filter(BuildAnalytics.projectId(3));
+			Map<String, BuildStatistics> byBranch =
+					query.groupBy(BuildAnalytics.Grouping.BRANCH);
+			assertEquals(byBranch.keySet(), expectedCounts.keySet());
+			for (String branch : branches) {
+				BuildStatistics statistics = byBranch.get(branch);
+				assertEquals(statistics.getCount(),
+						(long) expectedCounts.get(branch));
+				assertEquals(statistics.getCount(Status.SUCCESS),
+						(long) expectedSuccesses.get(branch));
+			}
+
+			BuildStatistics all = query.aggregate();
+			assertEquals(all.getMeanDuration() * all.getCount(),
+					expectedDurationSum, 1e-3 * all.getCount());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
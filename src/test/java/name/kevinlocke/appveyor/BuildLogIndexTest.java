@@ -0,0 +1,125 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link BuildLogIndex}.
+ */
+public class BuildLogIndexTest {
+	private static BuildLogIndex index(String log) {
+		return new BuildLogIndex(
+				ByteBuffer.wrap(log.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void splitsLines() {
+		BuildLogIndex index = index("one\r\ntwo\n\nfour\n");
+		assertEquals(index.getLineCount(), 4);
+		assertEquals(index.getLine(0), "one");
+		assertEquals(index.getLine(1), "two");
+		assertEquals(index.getLine(2), "");
+		assertEquals(index.getLine(3), "four");
+		assertEquals(index.getLineOffset(3), 10);
+		assertEquals(index.getLineAt(12), 3);
+	}
+
+	@Test
+	public void lastLineWithoutTerminator() {
+		BuildLogIndex index = index("one\nlast");
+		assertEquals(index.getLineCount(), 2);
+		assertEquals(index.getLine(1), "last");
+	}
+
+	@Test
+	public void emptyLog() {
+		BuildLogIndex index = index("");
+		assertEquals(index.getLineCount(), 0);
+		assertEquals(index.find("x"), new int[0]);
+		assertEquals(index.find(Pattern.compile("")), new int[0]);
+	}
+
+	@Test
+	public void findString() {
+		BuildLogIndex index = index("Build started\r\n"
+				+ "error CS1002: ; expected\n"
+				+ "Résumé error error\n"
+				+ "no problems\r\n"
+				+ "last error");
+		assertEquals(index.find("error"), new int[] { 1, 2, 4 });
+		assertEquals(index.find("Résumé"), new int[] { 2 });
+		assertEquals(index.find("problems"), new int[] { 3 });
+		// Terminators are not part of lines
+		assertEquals(index.find("problems\r"), new int[0]);
+		assertEquals(index.find("started\r\nerror"), new int[0]);
+		assertEquals(index.find("missing"), new int[0]);
+	}
+
+	@Test
+	public void findPattern() {
+		BuildLogIndex index = index("Build started\n"
+				+ "Build FAILED.\n"
+				+ "Échec: 3 errors\n"
+				+ "0 Warning(s)\n");
+		assertEquals(index.find(Pattern.compile("\\d+ (errors|Warning)")),
+				new int[] { 2, 3 });
+		assertEquals(index.find(Pattern.compile("^Build \\w+\\.?$")),
+				new int[] { 0, 1 });
+		assertEquals(index.find(Pattern.compile("^Éc")), new int[] { 2 });
+	}
+
+	@Test
+	public void indexesLargeFileInParallel() throws IOException {
+		File file = File.createTempFile("build", ".log");
+		try {
+			StringBuilder log = new StringBuilder();
+			int lineCount = 400_000;
+			for (int i = 0; i < lineCount; ++i) {
+				log.append("line ").append(i)
+						.append(i % 1000 == 999 ? " error" : " ok")
+						.append('\n');
+			}
+			Files.write(file.toPath(),
+					log.toString().getBytes(StandardCharsets.UTF_8));
+
+			BuildLogIndex index = BuildLogIndex.open(file);
+			assertEquals(index.getSize(), log.length());
+			assertEquals(index.getLineCount(), lineCount);
+			assertEquals(index.getLine(123_456), "line 123456 ok");
+			assertEquals(index.find("error").length, lineCount / 1000);
+			assertEquals(index.find(Pattern.compile("9 error$")).length,
+					lineCount / 1000);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void searchesLogsConcurrently() {
+		List<BuildLogIndex> indexes = new ArrayList<>();
+		for (int i = 0; i < 16; ++i) {
+			StringBuilder log = new StringBuilder();
+			for (int j = 0; j < 1000; ++j) {
+				log.append(j == i ? "fatal: failed" : "ok").append('\n');
+			}
+			indexes.add(index(log.toString()));
+		}
+
+		int[] matches = indexes.parallelStream()
+				.mapToInt(index -> index.find("fatal")[0])
+				.toArray();
+		for (int i = 0; i < matches.length; ++i) {
+			assertEquals(matches[i], i);
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import name.kevinlocke.appveyor.BuildLogEvent.Type;
+
+/**
+ * Tests for {@link BuildLogParser}.
+ */
+public class BuildLogParserTest {
+	private static final String LOG = "Build started\r\n"
+			+ "git clone -q https://github.com/example/repo.git C:\\projects\\repo\n"
+			+ "msbuild \"C:\\projects\\repo\\Repo.sln\"\n"
+			+ "Program.cs(12,5): warning CS0168: The variable 'e' is declared but never used\n"
+			+ "Program.cs(14,1): error CS1002: ; expected\n"
+			+ "main.c:3:1: error: expected ';' before '}' token\n"
+			+ "Discovering tests...OK\n"
+			+ "Total tests: 10. Passed: 9. Failed: 1. Skipped: 0.\n"
+			+ "Command exited with code 1";
+
+	@DataProvider
+	public Object[][] chunkSizes() {
+		return new Object[][] { { 1 }, { 7 }, { 64 }, { LOG.length() } };
+	}
+
+	@Test(dataProvider = "chunkSizes")
+	public void findsDefaultEvents(int chunkSize) {
+		List<BuildLogEvent> events = new ArrayList<>();
+		BuildLogParser parser = new BuildLogParser(events::add);
+		byte[] log = LOG.getBytes(StandardCharsets.UTF_8);
+		for (int off = 0; off < log.length; off += chunkSize) {
+			parser.write(log, off, Math.min(chunkSize, log.length - off));
+		}
+		parser.finish();
+
+		List<String> summary = new ArrayList<>();
+		for (BuildLogEvent event : events) {
+			summary.add(event.getType() + "@" + event.getLineNumber());
+		}
+		assertEquals(summary, Arrays.asList("PHASE@0", "WARNING@3", "ERROR@4",
+				"ERROR@5", "PHASE@6", "TEST_SUMMARY@7", "ERROR@8"));
+		assertEquals(parser.getLineCount(), 9);
+
+		BuildLogEvent started = events.get(0);
+		assertEquals(started.getName(), "Build started");
+		assertEquals(started.getText(), "Build started");
+		BuildLogEvent error = events.get(2);
+		assertEquals(error.getText(),
+				"Program.cs(14,1): error CS1002: ; expected");
+		assertEquals(error.getOffset(), LOG.indexOf("Program.cs(14"));
+		assertEquals(events.get(6).getOffset(), LOG.indexOf("Command"));
+	}
+
+	@Test
+	public void customMatchers() throws IOException {
+		List<BuildLogEvent> events = new ArrayList<>();
+		BuildLogParser parser = new BuildLogParser(events::add, Arrays.asList(
+				BuildLogParser.find(Type.OTHER, "duration",
+						Pattern.compile("Time Elapsed \\d+:\\d+")),
+				BuildLogParser.contains(Type.OTHER, "unicode", "naïve")));
+		parser.parse(new ByteArrayInputStream(("a naïve line\n"
+				+ "Time Elapsed 00:01:02.34\n"
+				+ "Build started\n").getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals(events.size(), 2);
+		assertEquals(events.get(0).getName(), "unicode");
+		assertEquals(events.get(0).getText(), "a naïve line");
+		assertEquals(events.get(1).getName(), "duration");
+		assertEquals(events.get(1).getOffset(), 14);
+	}
+
+	@Test
+	public void firstMatcherWins() {
+		List<BuildLogEvent> events = new ArrayList<>();
+		BuildLogParser parser = new BuildLogParser(events::add);
+		byte[] line = "x.c:1:1: error: warning: y\n"
+				.getBytes(StandardCharsets.UTF_8);
+		parser.write(line, 0, line.length);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getType(), Type.ERROR);
+	}
+
+	@Test
+	public void truncatesLongLines() {
+		List<BuildLogEvent> events = new ArrayList<>();
+		BuildLogParser parser = new BuildLogParser(events::add,
+				Collections.singletonList(
+						BuildLogParser.startsWith(Type.OTHER, "any", "")));
+		byte[] progress = new byte[BuildLogParser.MAX_LINE_LENGTH * 3];
+		Arrays.fill(progress, (byte) '.');
+		progress[progress.length - 1] = '\n';
+		// Line split across writes
+		parser.write(progress, 0, 1000);
+		parser.write(progress, 1000, progress.length - 1000);
+		// Line in a single write
+		parser.write(progress, 0, progress.length);
+
+		assertEquals(events.size(), 2);
+		assertEquals(events.get(0).getText().length(),
+				BuildLogParser.MAX_LINE_LENGTH);
+		assertEquals(events.get(1).getOffset(), progress.length);
+		assertEquals(events.get(1).getText().length(),
+				BuildLogParser.MAX_LINE_LENGTH);
+	}
+}
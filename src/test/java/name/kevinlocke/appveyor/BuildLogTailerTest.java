@@ -0,0 +1,195 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for {@link BuildLogTailer}, including against servers which ignore
+ * {@code Range}.
+ */
+public class BuildLogTailerTest {
+	private static final String JOB_ID = "abc123";
+
+	/** Log content of the job, which tests append to. */
+	private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+	/** Number of response body bytes sent by the server. */
+	private final AtomicLong bytesSent = new AtomicLong();
+	private volatile boolean supportsRange;
+
+	private StandInServer server;
+	private BuildLogTailer tailer;
+	private final List<String> lines =
+			Collections.synchronizedList(new ArrayList<>());
+
+	@BeforeMethod
+	public void start() throws IOException {
+		log.reset();
+		bytesSent.set(0);
+		supportsRange = true;
+		lines.clear();
+
+		server = new StandInServer();
+		server.createContext("/api/buildjobs/", this::handleLog);
+
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		tailer = new BuildLogTailer(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleLog(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if (!path.equals("/api/buildjobs/" + JOB_ID + "/log")) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			byte[] content;
+			synchronized (log) {
+				content = log.toByteArray();
+			}
+			int start = 0;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (supportsRange && range != null) {
+				start = Integer.parseInt(range.substring("bytes=".length(),
+						range.length() - 1));
+				if (start >= content.length) {
+					exchange.getResponseHeaders().set("Content-Range",
+							"bytes */" + content.length);
+					exchange.sendResponseHeaders(416, -1);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes "
+						+ start + '-' + (content.length - 1) + '/'
+						+ content.length);
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/plain");
+			int length = content.length - start;
+			// Count before sending, since the client may finish the test
+			// (and the next test reset the count) once the body is sent
+			bytesSent.addAndGet(length);
+			exchange.sendResponseHeaders(start > 0 ? 206 : 200,
+					length > 0 ? length : -1);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(content, start, length);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void append(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		synchronized (log) {
+			log.write(bytes, 0, bytes.length);
+		}
+	}
+
+	private long poll() throws ApiException {
+		return tailer.poll(JOB_ID, (jobId, line) -> lines.add(line));
+	}
+
+	@Test
+	public void deliversOnlyNewLines() throws ApiException {
+		append("Build started\r\ngit clone\n");
+		assertEquals(poll(), 25);
+		assertEquals(lines, Arrays.asList("Build started", "git clone"));
+
+		append("msbuild\nBuild success");
+		assertEquals(poll(), 21);
+		assertEquals(lines,
+				Arrays.asList("Build started", "git clone", "msbuild"));
+
+		// Incomplete line is completed by the next poll
+		append("\n");
+		assertEquals(poll(), 1);
+		assertEquals(lines.get(3), "Build success");
+		assertEquals(tailer.getOffset(JOB_ID), 47);
+		assertEquals(bytesSent.get(), 47);
+	}
+
+	@Test
+	public void nothingNewIsNotAnError() throws ApiException {
+		append("line\n");
+		poll();
+		assertEquals(poll(), 0);
+		assertEquals(lines, Collections.singletonList("line"));
+	}
+
+	@Test
+	public void skipsSeenBytesWithoutRange() throws ApiException {
+		supportsRange = false;
+		append("one\n");
+		poll();
+		append("two\nthree\n");
+		assertEquals(poll(), 10);
+		assertEquals(lines, Arrays.asList("one", "two", "three"));
+		assertEquals(bytesSent.get(), 4 + 14);
+	}
+
+	@Test
+	public void finishDeliversIncompleteLine() throws ApiException {
+		append("first\nlast");
+		poll();
+		tailer.finish(JOB_ID, (jobId, line) -> lines.add(line));
+		assertEquals(lines, Arrays.asList("first", "last"));
+		assertEquals(tailer.getOffset(JOB_ID), 0);
+	}
+
+	@Test
+	public void splitsMultiByteCharactersAcrossPolls() throws ApiException {
+		byte[] bytes = "été\n".getBytes(StandardCharsets.UTF_8);
+		synchronized (log) {
+			log.write(bytes, 0, 1);
+		}
+		poll();
+		synchronized (log) {
+			log.write(bytes, 1, bytes.length - 1);
+		}
+		poll();
+		assertEquals(lines, Collections.singletonList("été"));
+	}
+
+	@Test
+	public void listenerExceptionDefersRemainingLines() throws ApiException {
+		append("a\nb\nc\n");
+		try {
+			tailer.poll(JOB_ID, (jobId, line) -> {
+				if (line.equals("b")) {
+					throw new IllegalStateException("test");
+				}
+				lines.add(line);
+			});
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		poll();
+		assertEquals(lines, Arrays.asList("a", "c"));
+		assertEquals(bytesSent.get(), 6);
+	}
+}
@@ -0,0 +1,200 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+import name.kevinlocke.appveyor.model.OSType;
+import name.kevinlocke.appveyor.model.Status;
+
+/**
+ * Tests for {@link BuildStore}.
+ */
+public class BuildStoreTest {
+	private File directory;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("appveyor-builds").toFile();
+	}
+
+	@AfterMethod
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			paths.sorted(Comparator.reverseOrder())
+					.map(Path::toFile)
+					.forEach(File::delete);
+		}
+	}
+
+	private static Build build(int buildId) {
+		DateTime created = new DateTime(1500000000000L + buildId * 60000L);
+		BuildJob job = new BuildJob()
+				.jobId("job" + buildId)
+				.name("Environment: JDK=" + buildId % 2)
+				.osType(OSType.WINDOWS)
+				.allowFailure(false)
+				.messagesCount(0)
+				.compilationMessagesCount(0)
+				.compilationErrorsCount(0)
+				.compilationWarningsCount(0)
+				.testsCount(10)
+				.passedTestsCount(9)
+				.failedTestsCount(1)
+				.artifactsCount(2)
+				.status(Status.FAILED)
+				.started(created.plusSeconds(5))
+				.finished(created.plusSeconds(65))
+				.created(created)
+				.updated(created.plusSeconds(65));
+		return new Build()
+				.buildId(buildId)
+				.projectId(7)
+				.buildNumber(buildId - 100)
+				.version("1.0." + buildId)
+				.message("Fix é bug")
+				.messageExtended(buildId % 2 == 0 ? null : "Details")
+				.branch("master")
+				.isTag(false)
+				.commitId("abcdef" + buildId)
+				.authorName("Author")
+				.authorUsername("author")
+				.committerName("Committer")
+				.committerUsername("committer")
+				.committed(created.minusMinutes(1))
+				.status(Status.FAILED)
+				.started(created.plusSeconds(5))
+				.finished(created.plusSeconds(65))
+				.created(created)
+				.updated(created.plusSeconds(65))
+				.jobs(new ArrayList<>(Arrays.asList(job)));
+	}
+
+	@Test
+	public void reconstructsBuilds() {
+		BuildStore store = new BuildStore();
+		List<Build> builds = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			Build build = build(1000 + i);
+			builds.add(build);
+			assertEquals(store.add(build), i);
+		}
+		Build empty = new Build();
+		assertEquals(store.add(empty), 200);
+
+		assertEquals(store.size(), 201);
+		assertEquals(store.getTotalJobCount(), 200);
+		for (int i = 0; i < builds.size(); ++i) {
+			assertEquals(store.getBuild(i), builds.get(i));
+			assertEquals(store.indexOf(1000 + i), i);
+		}
+		assertEquals(store.getBuild(200), empty);
+		assertEquals(store.getJobCount(200), 0);
+
+		assertEquals(store.getBuildId(3), 1003);
+		assertEquals(store.getStatus(3), Status.FAILED);
+		assertNull(store.getStatus(200));
+		assertEquals(store.getCreated(3),
+				builds.get(3).getCreated().getMillis());
+		assertEquals(store.getFinished(200), BuildStore.NO_TIME);
+		assertSame(store.getBranch(3), store.getBranch(4));
+		assertEquals(store.getJobName(store.getFirstJob(3)),
+				"Environment: JDK=1");
+		assertEquals(store.getJobStatus(store.getFirstJob(3)), Status.FAILED);
+	}
+
+	@Test
+	public void indexesBuildIds() {
+		BuildStore store = new BuildStore(true);
+		store.add(build(1));
+		store.add(build(2));
+		assertEquals(store.indexOf(2), 1);
+		assertEquals(store.indexOf(3), -1);
+
+		// Later builds with the same ID supersede earlier builds
+		store.add(build(2).status(Status.SUCCESS));
+		assertEquals(store.indexOf(2), 2);
+		assertEquals(store.getBuild(store.indexOf(2)).getStatus(),
+				Status.SUCCESS);
+	}
+
+	@Test
+	public void opensSavedStore() throws IOException {
+		BuildStore store = new BuildStore();
+		List<Build> builds = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			Build build = build(i);
+			builds.add(build);
+			store.add(build);
+		}
+		File file = new File(directory, "builds");
+		store.save(file);
+
+		BuildStore opened = BuildStore.open(file);
+		assertEquals(opened.size(), 100);
+		assertEquals(opened.indexOf(50), 50);
+		for (int i = 0; i < builds.size(); ++i) {
+			assertEquals(opened.getBuild(i), builds.get(i));
+		}
+
+		// Adding to an opened store does not modify the file
+		Build added = build(100);
+		builds.add(added);
+		assertEquals(opened.add(added), 100);
+		assertEquals(opened.getBuild(100), added);
+		assertEquals(opened.getBuild(99), builds.get(99));
+		assertEquals(BuildStore.open(file).size(), 100);
+
+		opened.save(file);
+		BuildStore reopened = BuildStore.open(file);
+		for (int i = 0; i < builds.size(); ++i) {
+			assertEquals(reopened.getBuild(i), builds.get(i));
+		}
+	}
+
+	@Test
+	public void addsToOpenedStoreWithoutCopyingFile() throws IOException {
+		BuildStore store = new BuildStore();
+		for (int i = 0; i < 1000; ++i) {
+			store.add(build(i));
+		}
+		File file = new File(directory, "builds");
+		store.save(file);
+
+		BuildStore opened = BuildStore.open(file);
+		opened.add(build(1000));
+		// Each column grows from its own size, not the rest of the file
+		assertTrue(opened.getColumnCapacity() < 3 * file.length(),
+				opened.getColumnCapacity() + " bytes for a file of "
+						+ file.length());
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void rejectsTruncatedFile() throws IOException {
+		BuildStore store = new BuildStore();
+		store.add(build(1));
+		File file = new File(directory, "builds");
+		store.save(file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+		BuildStore.open(file);
+	}
+}
@@ -0,0 +1,230 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.api.UserApi;
+import name.kevinlocke.appveyor.model.Role;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for coalescing concurrent requests with
+ * {@link EnhancedApiClient#setCoalescing(boolean)}.
+ */
+public class CoalescingTest {
+	private static final int CALLER_COUNT = 8;
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private volatile int status;
+	/** Released to allow the server to respond. */
+	private volatile CountDownLatch respond;
+
+	private StandInServer server;
+	private ExecutorService executor;
+	private EnhancedApiClient apiClient;
+	private RoleApi roleApi;
+	private UserApi userApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requestCount.set(0);
+		status = 200;
+		respond = new CountDownLatch(1);
+		server = new StandInServer();
+		server.createContext("/api/roles", this::handle);
+		server.createContext("/api/users", this::handle);
+		executor = Executors.newCachedThreadPool();
+
+		apiClient = new EnhancedApiClient().setCoalescing(true);
+		apiClient.setBasePath(server.getBasePath());
+		roleApi = new RoleApi(apiClient);
+		userApi = new UserApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		respond.countDown();
+		executor.shutdownNow();
+		server.close();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requestCount.incrementAndGet();
+			try {
+				respond.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			String json = status != 200 ? "{\"message\":\"Not found.\"}"
+					: "[{\"roleId\":1,\"name\":\"Role\"}]";
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Starts concurrent calls, waits for the first request to be received,
+	 * then lets the server respond.
+	 */
+	private <T> List<Future<T>> callConcurrently(Callable<T> call)
+			throws InterruptedException {
+		List<Future<T>> results = new ArrayList<>();
+		for (int i = 0; i < CALLER_COUNT; ++i) {
+			results.add(executor.submit(call));
+		}
+		awaitRequest();
+		// Allow time for the other calls to be made
+		Thread.sleep(200);
+		respond.countDown();
+		return results;
+	}
+
+	private void awaitRequest() throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (requestCount.get() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void coalescesConcurrentCalls() throws Exception {
+		List<Future<List<Role>>> results =
+				callConcurrently(roleApi::getRoles);
+
+		List<Role> first = results.get(0).get();
+		assertEquals(first.get(0).getName(), "Role");
+		for (Future<List<Role>> result : results) {
+			assertSame(result.get(), first);
+		}
+		assertEquals(requestCount.get(), 1);
+		assertEquals(apiClient.getCoalescedCount(), CALLER_COUNT - 1);
+	}
+
+	@Test
+	public void sharesException() throws Exception {
+		status = 404;
+		List<Future<List<Role>>> results =
+				callConcurrently(roleApi::getRoles);
+
+		Throwable first = null;
+		for (Future<List<Role>> result : results) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				ApiException cause = (ApiException) e.getCause();
+				assertEquals(cause.getCode(), 404);
+				if (first == null) {
+					first = cause;
+				}
+				assertSame(cause, first);
+			}
+		}
+		assertEquals(requestCount.get(), 1);
+	}
+
+	@Test
+	public void coalescesAsyncCalls() throws Exception {
+		List<CompletableFuture<List<Role>>> asyncResults = new ArrayList<>();
+		for (int i = 0; i < CALLER_COUNT; ++i) {
+			CompletableFuture<List<Role>> future = new CompletableFuture<>();
+			roleApi.getRolesAsync(new ApiCallback<List<Role>>() {
+				@Override
+				public void onFailure(ApiException e, int statusCode,
+						Map<String, List<String>> responseHeaders) {
+					future.completeExceptionally(e);
+				}
+
+				@Override
+				public void onSuccess(List<Role> result, int statusCode,
+						Map<String, List<String>> responseHeaders) {
+					future.complete(result);
+				}
+
+				@Override
+				public void onUploadProgress(long bytesWritten,
+						long contentLength, boolean done) {
+				}
+
+				@Override
+				public void onDownloadProgress(long bytesRead,
+						long contentLength, boolean done) {
+				}
+			});
+			asyncResults.add(future);
+		}
+		List<Future<List<Role>>> results =
+				callConcurrently(roleApi::getRoles);
+
+		List<Role> first = asyncResults.get(0).get(10, TimeUnit.SECONDS);
+		for (CompletableFuture<List<Role>> result : asyncResults) {
+			assertSame(result.get(10, TimeUnit.SECONDS), first);
+		}
+		for (Future<List<Role>> result : results) {
+			assertSame(result.get(), first);
+		}
+		assertEquals(requestCount.get(), 1);
+	}
+
+	@Test
+	public void doesNotCoalesceDifferentRequests() throws Exception {
+		List<Future<List<Role>>> roles = callConcurrently(roleApi::getRoles);
+		Future<?> users = executor.submit(userApi::getUsers);
+		users.get(10, TimeUnit.SECONDS);
+		for (Future<List<Role>> result : roles) {
+			result.get();
+		}
+		assertEquals(requestCount.get(), 2);
+	}
+
+	@Test
+	public void doesNotCoalesceSequentialCalls() throws ApiException {
+		respond.countDown();
+		roleApi.getRoles();
+		roleApi.getRoles();
+		assertEquals(requestCount.get(), 2);
+		assertEquals(apiClient.getCoalescedCount(), 0);
+	}
+
+	@Test
+	public void doesNotCoalesceWhenDisabled() throws Exception {
+		apiClient.setCoalescing(false);
+		List<Future<List<Role>>> results =
+				callConcurrently(roleApi::getRoles);
+		for (Future<List<Role>> result : results) {
+			result.get();
+		}
+		assertEquals(requestCount.get(), CALLER_COUNT);
+	}
+}
@@ -0,0 +1,152 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.model.ProjectBuildResults;
+import name.kevinlocke.appveyor.model.ProjectDeployment;
+import name.kevinlocke.appveyor.model.Status;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for {@link CompletionWatcher}.
+ *
+ * Each build or deployment reports {@code running} for
+ * {@link #RUNNING_POLLS} requests, then {@code success}.
+ */
+public class CompletionWatcherTest {
+	private static final int RUNNING_POLLS = 2;
+
+	private StandInServer server;
+	private CompletionWatcher watcher;
+	private final ConcurrentHashMap<String, AtomicInteger> requestCounts =
+			new ConcurrentHashMap<>();
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requestCounts.clear();
+		server = new StandInServer();
+		server.createContext("/api/projects/", exchange -> respond(exchange,
+				"{\"project\":{\"projectId\":1},\"build\":{\"buildId\":1,"
+						+ "\"status\":\"%s\"}}"));
+		server.createContext("/api/deployments/", exchange -> respond(
+				exchange,
+				"{\"project\":{\"projectId\":1},\"deployment\":"
+						+ "{\"deploymentId\":1,\"status\":\"%s\"}}"));
+
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		watcher = new CompletionWatcher(apiClient)
+				.setInitialInterval(10, TimeUnit.MILLISECONDS)
+				.setMaxInterval(200, TimeUnit.MILLISECONDS)
+				.setMaxRequestsPerSecond(1000);
+	}
+
+	@AfterMethod
+	public void stop() {
+		watcher.close();
+		server.close();
+	}
+
+	private void respond(HttpExchange exchange, String format)
+			throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if (path.contains("missing")) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			int count = requestCounts
+					.computeIfAbsent(path, p -> new AtomicInteger())
+					.incrementAndGet();
+			String status = count > RUNNING_POLLS ? "success" : "running";
+			byte[] body = String.format(format, status)
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	public void buildCompletes() throws Exception {
+		ProjectBuildResults results = watcher
+				.watchBuild("account", "project", "1.0.1")
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(results.getBuild().getStatus(), Status.SUCCESS);
+		assertEquals(
+				requestCounts.get("/api/projects/account/project/build/1.0.1")
+						.get(),
+				RUNNING_POLLS + 1);
+		assertEquals(watcher.getWatchCount(), 0);
+	}
+
+	@Test
+	public void deploymentCompletes() throws Exception {
+		ProjectDeployment results = watcher.watchDeployment(5)
+				.get(10, TimeUnit.SECONDS);
+		assertEquals(results.getDeployment().getStatus(), Status.SUCCESS);
+		assertEquals(requestCounts.get("/api/deployments/5").get(),
+				RUNNING_POLLS + 1);
+	}
+
+	@Test
+	public void manyWatchesComplete() throws Exception {
+		List<CompletableFuture<ProjectBuildResults>> futures =
+				new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			futures.add(watcher.watchBuild("account", "project", "1.0." + i));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+				.get(30, TimeUnit.SECONDS);
+		for (CompletableFuture<ProjectBuildResults> future : futures) {
+			assertEquals(future.get().getBuild().getStatus(), Status.SUCCESS);
+		}
+	}
+
+	@Test
+	public void missingBuildFails()
+			throws InterruptedException, TimeoutException {
+		try {
+			watcher.watchBuild("account", "missing", "1.0.1")
+					.get(10, TimeUnit.SECONDS);
+			fail("Expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ApiException);
+			assertEquals(((ApiException) e.getCause()).getCode(), 404);
+		}
+	}
+
+	@Test
+	public void closeCancelsWatches() {
+		CompletableFuture<ProjectBuildResults> future =
+				watcher.watchBuild("account", "project", "1.0.1");
+		watcher.close();
+		assertTrue(future.isCancelled());
+	}
+}
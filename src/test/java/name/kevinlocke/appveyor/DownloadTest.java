@@ -0,0 +1,212 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import okio.BufferedSource;
+
+import name.kevinlocke.appveyor.api.BuildApi;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for the streaming download methods of {@link EnhancedApiClient}.
+ */
+public class DownloadTest {
+	private static final String JOB_ID = "abc123";
+	private static final String ARTIFACT_NAME = "artifact.bin";
+
+	private final byte[] artifact = new byte[3 * 1024 * 1024 + 17];
+	/** Content-Range of 206 responses, or {@code null} to respond 200. */
+	private volatile String contentRange;
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+	private BuildApi buildApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		new Random(0).nextBytes(artifact);
+		contentRange = null;
+
+		server = new StandInServer();
+		server.createContext("/api/buildjobs/", this::handleArtifact);
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		buildApi = new BuildApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleArtifact(HttpExchange exchange) throws IOException {
+		try {
+			String path = exchange.getRequestURI().getPath();
+			if (!path.equals("/api/buildjobs/" + JOB_ID + "/artifacts/"
+					+ ARTIFACT_NAME)) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/octet-stream");
+			if (contentRange != null) {
+				exchange.getResponseHeaders().set("Content-Range",
+						contentRange);
+			}
+			exchange.sendResponseHeaders(contentRange != null ? 206 : 200,
+					artifact.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(artifact);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@Test
+	public void openDownload() throws ApiException, IOException {
+		try (BufferedSource source = apiClient.openDownload(
+				() -> buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME));
+				InputStream input = source.inputStream()) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int readCount;
+			while ((readCount = input.read(buffer)) != -1) {
+				output.write(buffer, 0, readCount);
+			}
+			assertEquals(output.toByteArray(), artifact);
+		}
+	}
+
+	@Test
+	public void openDownloadFromOffsetSkipsIgnoredRange()
+			throws ApiException, IOException {
+		int offset = 1024 * 1024 + 3;
+		try (BufferedSource source = apiClient.openDownload(offset,
+				() -> buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME))) {
+			assertEquals(source.readByteArray(),
+					Arrays.copyOfRange(artifact, offset, artifact.length));
+		}
+	}
+
+	@Test
+	public void openDownloadFromOffsetRejectsOtherRange() {
+		int offset = 1024 * 1024 + 3;
+		contentRange = "bytes 0-" + (artifact.length - 1) + '/'
+				+ artifact.length;
+		try {
+			apiClient.openDownload(offset,
+					() -> buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME));
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void resumeDownloadRejectsOtherRange()
+			throws ApiException, IOException {
+		File file = File.createTempFile("appveyor-download", ".bin");
+		try {
+			byte[] start = Arrays.copyOf(artifact, 1024);
+			Files.write(file.toPath(), start);
+			contentRange = "bytes 0-" + (artifact.length - 1) + '/'
+					+ artifact.length;
+			try {
+				apiClient.resumeDownloadTo(file,
+						() -> buildApi.getBuildArtifact(JOB_ID,
+								ARTIFACT_NAME));
+				fail("Expected ApiException");
+			} catch (ApiException e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+			assertEquals(Files.readAllBytes(file.toPath()), start);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void downloadToChannel() throws ApiException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		long byteCount = apiClient.downloadTo(Channels.newChannel(output),
+				() -> buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME));
+		assertEquals(byteCount, artifact.length);
+		assertEquals(output.toByteArray(), artifact);
+	}
+
+	@Test
+	public void downloadToFile() throws ApiException, IOException {
+		File directory = Files.createTempDirectory("appveyor-download")
+				.toFile();
+		File file = new File(directory, ARTIFACT_NAME);
+		try {
+			apiClient.setTempFolderPath(directory.getPath());
+			assertEquals(apiClient.downloadTo(file,
+					() -> buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME)),
+					file);
+			assertEquals(Files.readAllBytes(file.toPath()), artifact);
+			// No temporary file was created
+			assertEquals(directory.list(), new String[] { ARTIFACT_NAME });
+		} finally {
+			file.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void unredirectedDownloadUsesTempFile()
+			throws ApiException, IOException {
+		File artifactFile = buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME);
+		try {
+			assertEquals(Files.readAllBytes(artifactFile.toPath()), artifact);
+		} finally {
+			artifactFile.delete();
+		}
+	}
+
+	@Test
+	public void unsuccessfulDownloadThrows() {
+		try {
+			apiClient.openDownload(
+					() -> buildApi.getBuildArtifact(JOB_ID, "missing.bin"));
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 404);
+		}
+	}
+
+	@Test
+	public void operationWithoutDownloadThrows() throws ApiException {
+		try {
+			apiClient.openDownload(() -> null);
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertTrue(e.getMessage().contains("did not download"));
+		}
+
+		// Later downloads are not redirected
+		File artifactFile = buildApi.getBuildArtifact(JOB_ID, ARTIFACT_NAME);
+		assertTrue(artifactFile.delete());
+	}
+}
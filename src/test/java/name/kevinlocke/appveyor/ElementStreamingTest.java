@@ -0,0 +1,196 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.api.UserApi;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.UserAccount;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for decoding array elements with
+ * {@link EnhancedApiClient#forEachElement} and
+ * {@link EnhancedApiClient#streamElements}.
+ */
+public class ElementStreamingTest {
+	private static final int USER_COUNT = 10000;
+
+	private volatile String historyBody;
+	private volatile int usersStatus;
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+	private ProjectApi projectApi;
+	private UserApi userApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		historyBody = null;
+		usersStatus = 200;
+		server = new StandInServer();
+		server.createContext("/api/users", this::handleUsers);
+		server.createContext("/api/projects/account/project/history",
+				this::handleHistory);
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		projectApi = new ProjectApi(apiClient);
+		userApi = new UserApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleUsers(HttpExchange exchange) throws IOException {
+		try {
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			if (usersStatus != 200) {
+				byte[] body = "{\"message\":\"test\"}"
+						.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(usersStatus, body.length);
+				try (OutputStream responseBody = exchange.getResponseBody()) {
+					responseBody.write(body);
+				}
+				return;
+			}
+
+			// Chunked, so the body is written as the client reads it
+			exchange.sendResponseHeaders(200, 0);
+			try (Writer writer = new OutputStreamWriter(
+					exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+				writer.write('[');
+				for (int i = 0; i < USER_COUNT; ++i) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writer.write("{\"userId\":" + i + ",\"fullName\":\"User "
+							+ i + "\"}");
+				}
+				writer.write(']');
+			} catch (IOException e) {
+				// Client closed the stream early
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleHistory(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = historyBody.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private List<Integer> historyBuildIds() throws ApiException {
+		List<Integer> buildIds = new ArrayList<>();
+		apiClient.forEachElement("builds", Build.class,
+				() -> projectApi.getProjectHistory("account", "project", 10,
+						null, null),
+				build -> buildIds.add(build.getBuildId()));
+		return buildIds;
+	}
+
+	@Test
+	public void forEachElementDecodesArray() throws ApiException {
+		int[] next = { 0 };
+		long count = apiClient.forEachElement(UserAccount.class,
+				userApi::getUsers, user -> {
+					assertEquals(user.getUserId().intValue(), next[0]);
+					assertEquals(user.getFullName(), "User " + next[0]);
+					++next[0];
+				});
+		assertEquals(count, USER_COUNT);
+		assertEquals(next[0], USER_COUNT);
+	}
+
+	@Test
+	public void streamElementsIsLazy() throws ApiException {
+		List<String> names;
+		try (Stream<UserAccount> users =
+				apiClient.streamElements(UserAccount.class, userApi::getUsers)) {
+			names = users.limit(3)
+					.map(UserAccount::getFullName)
+					.collect(Collectors.toList());
+		}
+		assertEquals(names, Arrays.asList("User 0", "User 1", "User 2"));
+
+		// Client is usable after the stream is closed early
+		assertEquals(userApi.getUsers().size(), USER_COUNT);
+	}
+
+	@Test
+	public void forEachElementDecodesProperty() throws ApiException {
+		historyBody = "{\"project\":{\"projectId\":1,\"builds\":[{}]},"
+				+ "\"builds\":[{\"buildId\":3},{\"buildId\":2}],"
+				+ "\"after\":true}";
+		assertEquals(historyBuildIds(), Arrays.asList(3, 2));
+	}
+
+	@Test
+	public void missingOrNullPropertyIsEmpty() throws ApiException {
+		historyBody = "{\"project\":{\"projectId\":1}}";
+		assertEquals(historyBuildIds().size(), 0);
+
+		historyBody = "{\"builds\":null}";
+		assertEquals(historyBuildIds().size(), 0);
+	}
+
+	@Test
+	public void unsuccessfulResponseIsThrown() throws ApiException {
+		usersStatus = 500;
+		try {
+			apiClient.forEachElement(UserAccount.class, userApi::getUsers,
+					user -> fail("Unexpected element"));
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 500);
+		}
+
+		// Later responses are deserialized normally
+		usersStatus = 200;
+		assertEquals(userApi.getUsers().size(), USER_COUNT);
+	}
+
+	@Test
+	public void operationResultIsNull() throws ApiException {
+		historyBody = "{\"builds\":[{\"buildId\":1}]}";
+		Object[] result = { "unset" };
+		apiClient.forEachElement("builds", Build.class, () -> {
+			result[0] = projectApi.getProjectHistory("account", "project", 10,
+					null, null);
+			return result[0];
+		}, build -> { });
+		assertNull(result[0]);
+	}
+}
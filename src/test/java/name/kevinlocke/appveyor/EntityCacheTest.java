@@ -0,0 +1,210 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.EnvironmentApi;
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.model.RoleAddition;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for {@link EntityCache} and {@link RefreshingCache}.
+ */
+public class EntityCacheTest {
+	private final Map<String, AtomicInteger> getCounts =
+			new ConcurrentHashMap<>();
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+	private EntityCache entityCache;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		getCounts.clear();
+		server = new StandInServer();
+		server.createContext("/api/roles", exchange -> handle(exchange,
+				"[{\"roleId\":1,\"name\":\"Administrator\",\"isSystem\":true},"
+						+ "{\"roleId\":2,\"name\":\"User\",\"isSystem\":true}]"));
+		server.createContext("/api/environments", exchange -> handle(exchange,
+				"[{\"deploymentEnvironmentId\":5,\"name\":\"Production\"}]"));
+		server.createContext("/api/projects", exchange -> handle(exchange,
+				"[{\"projectId\":7,\"accountName\":\"acct\","
+						+ "\"slug\":\"proj\",\"name\":\"Proj\"}]"));
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		entityCache = new EntityCache(apiClient, 10, 1, TimeUnit.MINUTES);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handle(HttpExchange exchange, String listJson)
+			throws IOException {
+		try {
+			String json = "{}";
+			if ("GET".equals(exchange.getRequestMethod())) {
+				getCounts.computeIfAbsent(
+						exchange.getRequestURI().getPath(),
+						path -> new AtomicInteger())
+						.incrementAndGet();
+				json = listJson;
+			}
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private int getCount(String path) {
+		AtomicInteger count = getCounts.get(path);
+		return count == null ? 0 : count.get();
+	}
+
+	@Test
+	public void cachesLookups() throws ApiException {
+		assertEquals(entityCache.getRoleByName("User").getRoleId(),
+				Integer.valueOf(2));
+		assertEquals(entityCache.getRoleByName("Administrator").getRoleId(),
+				Integer.valueOf(1));
+		assertNull(entityCache.getRoleByName("Missing"));
+		assertEquals(entityCache.getEnvironmentId("Production"),
+				Integer.valueOf(5));
+		assertEquals(entityCache.getProjectId("acct", "proj"),
+				Integer.valueOf(7));
+		assertNull(entityCache.getProjectId("acct", "other"));
+
+		assertEquals(getCount("/api/roles"), 1);
+		assertEquals(getCount("/api/environments"), 1);
+		assertEquals(getCount("/api/projects"), 1);
+		assertEquals(entityCache.getHitCount(), 3);
+		assertEquals(entityCache.getMissCount(), 3);
+		assertEquals(entityCache.getHitRate(), 0.5);
+	}
+
+	@Test
+	public void invalidatesOnMutation() throws ApiException {
+		entityCache.getRoleByName("User");
+		entityCache.getEnvironmentId("Production");
+
+		new RoleApi(apiClient).addRole(new RoleAddition().name("New"));
+		entityCache.getRoleByName("User");
+		entityCache.getEnvironmentId("Production");
+		assertEquals(getCount("/api/roles"), 2);
+		assertEquals(getCount("/api/environments"), 1);
+
+		new EnvironmentApi(apiClient).deleteEnvironment(5);
+		entityCache.getRoleByName("User");
+		entityCache.getEnvironmentId("Production");
+		assertEquals(getCount("/api/roles"), 2);
+		assertEquals(getCount("/api/environments"), 2);
+	}
+
+	@Test
+	public void expiresValues() throws Exception {
+		AtomicInteger loadCount = new AtomicInteger();
+		RefreshingCache<String, Integer> cache =
+				new RefreshingCache<String, Integer>(
+						key -> loadCount.incrementAndGet(), 10, 100,
+						TimeUnit.MILLISECONDS)
+								.setRefreshAfter(1, TimeUnit.HOURS);
+
+		assertEquals(cache.get("a"), Integer.valueOf(1));
+		assertEquals(cache.get("a"), Integer.valueOf(1));
+		Thread.sleep(150);
+		assertEquals(cache.get("a"), Integer.valueOf(2));
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getMissCount(), 2);
+	}
+
+	@Test
+	public void refreshesAhead() throws Exception {
+		AtomicInteger loadCount = new AtomicInteger();
+		RefreshingCache<String, Integer> cache =
+				new RefreshingCache<String, Integer>(
+						key -> loadCount.incrementAndGet(), 10, 1,
+						TimeUnit.MINUTES)
+								.setRefreshAfter(50, TimeUnit.MILLISECONDS);
+
+		assertEquals(cache.get("a"), Integer.valueOf(1));
+		Thread.sleep(100);
+		// Returns the current value while reloading
+		assertEquals(cache.get("a"), Integer.valueOf(1));
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (cache.getRefreshCount() == 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(cache.getRefreshCount(), 1);
+		assertEquals(cache.get("a"), Integer.valueOf(2));
+		assertEquals(cache.getMissCount(), 1);
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws ApiException {
+		AtomicInteger loadCount = new AtomicInteger();
+		RefreshingCache<Integer, Integer> cache = new RefreshingCache<>(
+				key -> {
+					loadCount.incrementAndGet();
+					return key;
+				}, 2, 1, TimeUnit.MINUTES);
+
+		cache.get(1);
+		cache.get(2);
+		cache.get(1);
+		cache.get(3);
+		assertEquals(cache.size(), 2);
+		assertEquals(cache.getEvictionCount(), 1);
+
+		cache.get(1);
+		assertEquals(loadCount.get(), 3);
+		cache.get(2);
+		assertEquals(loadCount.get(), 4);
+	}
+
+	@Test
+	public void doesNotCacheFailures() throws ApiException {
+		AtomicInteger loadCount = new AtomicInteger();
+		RefreshingCache<String, Integer> cache = new RefreshingCache<>(
+				key -> {
+					if (loadCount.incrementAndGet() == 1) {
+						throw new ApiException(503, "Unavailable");
+					}
+					return loadCount.get();
+				}, 10, 1, TimeUnit.MINUTES);
+
+		try {
+			cache.get("a");
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 503);
+		}
+		assertEquals(cache.get("a"), Integer.valueOf(2));
+		assertEquals(cache.getLoadFailureCount(), 1);
+		assertEquals(cache.getHitRate(), 0.0);
+	}
+}
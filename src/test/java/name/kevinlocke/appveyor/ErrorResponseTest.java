@@ -0,0 +1,161 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for the exceptions thrown by {@link EnhancedApiClient} for
+ * unsuccessful responses.
+ */
+public class ErrorResponseTest {
+	private static final String WARNING = "199 - \"stand-in\"";
+
+	private volatile byte[] errorBody;
+	private volatile String contentType;
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+	private RoleApi roleApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		contentType = "text/plain; charset=utf-8";
+		server = new StandInServer();
+		server.createContext("/api/roles", this::handleRoles);
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		roleApi = new RoleApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleRoles(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = errorBody;
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.getResponseHeaders().set("Warning", WARNING);
+			exchange.sendResponseHeaders(404, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private ResponseApiException getRolesError(String body, Charset charset) {
+		errorBody = body.getBytes(charset);
+		try {
+			roleApi.getRoles();
+		} catch (ResponseApiException e) {
+			assertEquals(e.getCode(), 404);
+			return e;
+		} catch (ApiException e) {
+			fail("Expected ResponseApiException", e);
+		}
+		fail("Expected ResponseApiException");
+		return null;
+	}
+
+	@Test
+	public void parsesErrorModel() {
+		String body = "{\"message\":\"Role not found.\"}";
+		ResponseApiException e = getRolesError(body, StandardCharsets.UTF_8);
+		assertTrue(e instanceof ApiExceptionWithModel);
+		assertEquals(((ApiExceptionWithModel) e).getResponseModel()
+				.getMessage(), "Role not found.");
+		assertEquals(e.getResponseBody(), body);
+		assertFalse(e.isResponseBodyTruncated());
+		assertNull(e.getCause());
+
+		assertEquals(e.getResponseHeaders().get("Warning"),
+				Collections.singletonList(WARNING));
+		// Converted once, on first call
+		assertSame(e.getResponseHeaders(), e.getResponseHeaders());
+	}
+
+	@Test
+	public void parsesErrorModelWithByteOrderMark() {
+		ResponseApiException e = getRolesError(
+				"\ufeff {\"message\":\"Role not found.\"}",
+				StandardCharsets.UTF_8);
+		assertEquals(((ApiExceptionWithModel) e).getResponseModel()
+				.getMessage(), "Role not found.");
+	}
+
+	@Test
+	public void parsesErrorModelInResponseCharset() {
+		contentType = "application/json; charset=iso-8859-1";
+		String body = "{\"message\":\"R\u00f4le not found.\"}";
+		ResponseApiException e =
+				getRolesError(body, StandardCharsets.ISO_8859_1);
+		assertEquals(((ApiExceptionWithModel) e).getResponseModel()
+				.getMessage(), "R\u00f4le not found.");
+		assertEquals(e.getResponseBody(), body);
+	}
+
+	@Test
+	public void keepsNonJsonBody() {
+		String body = "<html><body>Not Found</body></html>";
+		ResponseApiException e = getRolesError(body, StandardCharsets.UTF_8);
+		assertFalse(e instanceof ApiExceptionWithModel);
+		assertNull(e.getCause());
+		assertEquals(e.getResponseBody(), body);
+		assertFalse(e.isResponseBodyTruncated());
+	}
+
+	@Test
+	public void keepsInvalidJsonBody() {
+		String body = "{\"message\":\"Role not found.\"} trailing";
+		ResponseApiException e = getRolesError(body, StandardCharsets.UTF_8);
+		assertFalse(e instanceof ApiExceptionWithModel);
+		assertTrue(e.getCause() instanceof JsonParseException);
+		assertEquals(e.getResponseBody(), body);
+	}
+
+	@Test
+	public void truncatesLargeBody() {
+		apiClient.setMaxErrorBodySize(16);
+		String body = "{\"message\":\"Role not found.\"}";
+		ResponseApiException e = getRolesError(body, StandardCharsets.UTF_8);
+		// Not parsed, since the truncated JSON would not be valid
+		assertFalse(e instanceof ApiExceptionWithModel);
+		assertNull(e.getCause());
+		assertTrue(e.isResponseBodyTruncated());
+		assertEquals(e.getResponseBody(), body.substring(0, 16));
+	}
+
+	@Test
+	public void keepsBodyOfMaxErrorBodySize() {
+		String body = "{\"message\":\"Role not found.\"}";
+		apiClient.setMaxErrorBodySize(body.length());
+		ResponseApiException e = getRolesError(body, StandardCharsets.UTF_8);
+		assertTrue(e instanceof ApiExceptionWithModel);
+		assertFalse(e.isResponseBodyTruncated());
+		assertEquals(e.getResponseBody(), body);
+	}
+}
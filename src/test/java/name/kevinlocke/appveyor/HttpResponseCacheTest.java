@@ -0,0 +1,261 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.model.Role;
+import name.kevinlocke.appveyor.model.RoleAddition;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for conditional requests and caching by {@link HttpResponseCache}.
+ */
+public class HttpResponseCacheTest {
+	private static final String ROLES_JSON =
+			"[{\"roleId\":1,\"name\":\"Administrator\",\"isSystem\":true}]";
+	private static final String ROLES_ETAG = "\"roles-1\"";
+
+	private StandInServer server;
+	private final AtomicInteger roleRequests = new AtomicInteger();
+	private final AtomicInteger conditionalRoleRequests = new AtomicInteger();
+	private volatile boolean sendEtag;
+	/** Whether to send responses without a Content-Length. */
+	private volatile boolean chunked;
+
+	@BeforeMethod
+	public void startServer() throws IOException {
+		roleRequests.set(0);
+		conditionalRoleRequests.set(0);
+		sendEtag = true;
+		chunked = false;
+
+		server = new StandInServer();
+		server.createContext("/api/roles", this::handleRoles);
+	}
+
+	@AfterMethod
+	public void stopServer() {
+		server.close();
+	}
+
+	private void handleRoles(HttpExchange exchange) throws IOException {
+		try {
+			if ("POST".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(204, -1);
+				return;
+			}
+
+			roleRequests.incrementAndGet();
+			String ifNoneMatch =
+					exchange.getRequestHeaders().getFirst("If-None-Match");
+			if (ifNoneMatch != null) {
+				conditionalRoleRequests.incrementAndGet();
+				if (ifNoneMatch.equals(ROLES_ETAG)) {
+					exchange.sendResponseHeaders(304, -1);
+					return;
+				}
+			}
+
+			byte[] body = ROLES_JSON.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			if (sendEtag) {
+				exchange.getResponseHeaders().set("ETag", ROLES_ETAG);
+			}
+			exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private RoleApi createRoleApi(HttpResponseCache cache) {
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		apiClient.setApiKeyPrefix("Bearer");
+		apiClient.setApiKey("test-token");
+		apiClient.setResponseCache(cache);
+		return new RoleApi(apiClient);
+	}
+
+	private static void assertRoles(List<Role> roles) {
+		assertEquals(roles.size(), 1);
+		assertEquals(roles.get(0).getName(), "Administrator");
+	}
+
+	@Test
+	public void freshResponseIsReused() throws ApiException {
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 1);
+		assertEquals(cache.getMissCount(), 1);
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getRevalidationCount(), 0);
+	}
+
+	@Test
+	public void staleResponseIsRevalidated() throws ApiException {
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 0, TimeUnit.SECONDS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 3);
+		assertEquals(conditionalRoleRequests.get(), 2);
+		assertEquals(cache.getMissCount(), 1);
+		assertEquals(cache.getHitCount(), 0);
+		assertEquals(cache.getRevalidationCount(), 2);
+		assertEquals(cache.getNotModifiedCount(), 2);
+	}
+
+	@Test
+	public void staleResponseWithoutValidatorIsRequested()
+			throws ApiException {
+		sendEtag = false;
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 0, TimeUnit.SECONDS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 2);
+		assertEquals(conditionalRoleRequests.get(), 0);
+		assertEquals(cache.getMissCount(), 2);
+		assertEquals(cache.getRevalidationCount(), 0);
+	}
+
+	@Test
+	public void unconfiguredOperationIsNotCached() throws ApiException {
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles/{roleId}", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 2);
+		assertEquals(cache.getMissCount(), 0);
+		assertEquals(cache.getMemorySize(), 0);
+	}
+
+	@Test
+	public void chunkedResponseIsCached() throws ApiException {
+		chunked = true;
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 1);
+		assertEquals(cache.getHitCount(), 1);
+	}
+
+	@Test
+	public void largeChunkedResponseIsNotCached() throws ApiException {
+		chunked = true;
+		HttpResponseCache cache = new HttpResponseCache(16)
+				.setFreshness("/roles", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		// Passed through, including the bytes read to determine the size
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 2);
+		assertEquals(cache.getHitCount(), 0);
+		assertEquals(cache.getMemorySize(), 0);
+	}
+
+	@Test
+	public void modifyingRequestInvalidates() throws ApiException {
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+
+		assertRoles(roleApi.getRoles());
+		try {
+			roleApi.addRole(new RoleAddition().name("Test"));
+		} catch (ApiException e) {
+			// 204 response body can't be deserialized.  Ignore.
+		}
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 2);
+		assertEquals(cache.getMissCount(), 2);
+	}
+
+	@Test
+	public void diskTierPersists() throws ApiException, IOException {
+		File directory = Files.createTempDirectory("appveyor-cache").toFile();
+		try {
+			HttpResponseCache cache = new HttpResponseCache(1024 * 1024,
+					directory, 1024 * 1024)
+					.setFreshness("/roles", 1, TimeUnit.HOURS);
+			assertRoles(createRoleApi(cache).getRoles());
+
+			HttpResponseCache cache2 = new HttpResponseCache(1024 * 1024,
+					directory, 1024 * 1024)
+					.setFreshness("/roles", 1, TimeUnit.HOURS);
+			assertRoles(createRoleApi(cache2).getRoles());
+
+			assertEquals(roleRequests.get(), 1);
+			assertEquals(cache2.getHitCount(), 1);
+
+			cache2.evictAll();
+			assertEquals(directory.list().length, 0);
+		} finally {
+			File[] files = directory.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void removedCacheIsNotUsed() throws ApiException {
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024)
+				.setFreshness("/roles", 1, TimeUnit.HOURS);
+		RoleApi roleApi = createRoleApi(cache);
+		EnhancedApiClient apiClient = (EnhancedApiClient) roleApi.getApiClient();
+		apiClient.setResponseCache(null);
+		assertNull(apiClient.getResponseCache());
+
+		assertRoles(roleApi.getRoles());
+		assertRoles(roleApi.getRoles());
+
+		assertEquals(roleRequests.get(), 2);
+		assertEquals(cache.getMissCount(), 0);
+	}
+}
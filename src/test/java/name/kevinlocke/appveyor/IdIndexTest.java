@@ -0,0 +1,105 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+
+/**
+ * Tests for {@link IntIndex} and {@link StringIndex}.
+ */
+public class IdIndexTest {
+	private static final int OPERATION_COUNT = 100_000;
+
+	@Test
+	public void intIndexMatchesHashMap() {
+		Random random = new Random(1);
+		IntIndex<String> index = new IntIndex<>();
+		Map<Integer, String> expected = new HashMap<>();
+		for (int i = 0; i < OPERATION_COUNT; ++i) {
+			// Note: Small key range so that removes and collisions are common
+			int key = random.nextInt(2000) - 1000;
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(index.remove(key), expected.remove(key));
+				break;
+			default:
+				String value = Integer.toString(i);
+				assertEquals(index.put(key, value), expected.put(key, value));
+				break;
+			}
+			assertEquals(index.size(), expected.size());
+		}
+
+		for (int key = -1000; key < 1000; ++key) {
+			assertEquals(index.get(key), expected.get(key));
+			assertEquals(index.containsKey(key), expected.containsKey(key));
+		}
+		Map<Integer, String> iterated = new HashMap<>();
+		index.forEach((key, value) -> assertNull(iterated.put(key, value)));
+		assertEquals(iterated, expected);
+		int[] keys = index.keys();
+		Arrays.sort(keys);
+		assertEquals(keys, expected.keySet().stream().mapToInt(k -> k)
+				.sorted().toArray());
+	}
+
+	@Test
+	public void stringIndexMatchesHashMap() {
+		Random random = new Random(2);
+		StringIndex<Integer> index = new StringIndex<>(16);
+		Map<String, Integer> expected = new HashMap<>();
+		for (int i = 0; i < OPERATION_COUNT; ++i) {
+			String key = Integer.toString(random.nextInt(2000), 36);
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(index.remove(key), expected.remove(key));
+				break;
+			default:
+				assertEquals(index.put(key, i), expected.put(key, i));
+				break;
+			}
+			assertEquals(index.size(), expected.size());
+		}
+
+		for (int i = 0; i < 2000; ++i) {
+			String key = Integer.toString(i, 36);
+			assertEquals(index.get(key), expected.get(key));
+		}
+		Map<String, Integer> iterated = new HashMap<>();
+		index.forEach((key, value) -> assertNull(iterated.put(key, value)));
+		assertEquals(iterated, expected);
+	}
+
+	@Test
+	public void indexesModelsById() {
+		Build build1 = new Build().buildId(1);
+		Build build2 = new Build().buildId(2);
+		IntIndex<Build> builds = new IntIndex<Build>(2).putAll(
+				Arrays.asList(build1, build2, new Build()), Build::getBuildId);
+		assertEquals(builds.size(), 2);
+		assertEquals(builds.get(2), build2);
+		assertNull(builds.get(3));
+
+		BuildJob job = new BuildJob().jobId("abc123");
+		StringIndex<BuildJob> jobs = new StringIndex<BuildJob>()
+				.putAll(Arrays.asList(job), BuildJob::getJobId);
+		assertEquals(jobs.get("abc123"), job);
+		assertTrue(jobs.containsKey("abc123"));
+		assertFalse(jobs.containsKey("abc124"));
+
+		builds.clear();
+		assertTrue(builds.isEmpty());
+		assertNull(builds.get(1));
+	}
+}
@@ -0,0 +1,93 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.ProjectHistory;
+
+/**
+ * Tests for decoding models with {@link InterningTypeAdapterFactory}.
+ */
+public class InterningTest {
+	private static final String PROJECT_HISTORY = "{"
+			+ "\"project\":{\"projectId\":1,\"accountName\":\"acct\","
+			+ "\"slug\":\"proj\",\"repositoryName\":\"acct/proj\"},"
+			+ "\"builds\":["
+			+ "{\"buildId\":2,\"branch\":\"master\",\"authorName\":\"Author\","
+			+ "\"message\":\"Message\",\"status\":\"success\"},"
+			+ "{\"buildId\":1,\"branch\":\"master\",\"authorName\":\"Author\","
+			+ "\"message\":\"Message\",\"status\":\"failed\"}]}";
+
+	private JSON json;
+
+	@BeforeMethod
+	public void setUp() {
+		json = new EnhancedApiClient().getJSON();
+	}
+
+	private InterningTypeAdapterFactory register(
+			InterningTypeAdapterFactory factory) {
+		json.setGson(json.getGson().newBuilder()
+				.registerTypeAdapterFactory(factory).create());
+		return factory;
+	}
+
+	@Test
+	public void internsSelectedFields() {
+		InterningTypeAdapterFactory factory =
+				register(new InterningTypeAdapterFactory(100));
+
+		ProjectHistory history =
+				json.deserialize(PROJECT_HISTORY, ProjectHistory.class);
+		List<Build> builds = history.getBuilds();
+		assertEquals(builds.get(0).getBranch(), "master");
+		assertSame(builds.get(0).getBranch(), builds.get(1).getBranch());
+		assertSame(builds.get(0).getAuthorName(),
+				builds.get(1).getAuthorName());
+		assertNotSame(builds.get(0).getMessage(), builds.get(1).getMessage());
+		assertEquals(history.getProject().getAccountName(), "acct");
+		assertEquals(factory.getDeduplicatedCount(), 2);
+
+		// Shared across responses
+		ProjectHistory history2 =
+				json.deserialize(PROJECT_HISTORY, ProjectHistory.class);
+		assertSame(history2.getBuilds().get(0).getBranch(),
+				builds.get(0).getBranch());
+		assertSame(history2.getProject().getAccountName(),
+				history.getProject().getAccountName());
+	}
+
+	@Test
+	public void internsConfiguredFields() {
+		register(new InterningTypeAdapterFactory(Arrays.asList("message"),
+				100));
+
+		ProjectHistory history =
+				json.deserialize(PROJECT_HISTORY, ProjectHistory.class);
+		List<Build> builds = history.getBuilds();
+		assertSame(builds.get(0).getMessage(), builds.get(1).getMessage());
+		assertNotSame(builds.get(0).getBranch(), builds.get(1).getBranch());
+	}
+
+	@Test
+	public void boundsPool() {
+		InterningTypeAdapterFactory factory =
+				register(new InterningTypeAdapterFactory(1));
+
+		ProjectHistory history =
+				json.deserialize(PROJECT_HISTORY, ProjectHistory.class);
+		List<Build> builds = history.getBuilds();
+		assertEquals(factory.getPoolSize(), 1);
+		// Note: Project is decoded first, so its accountName fills the pool
+		assertNotSame(builds.get(0).getBranch(), builds.get(1).getBranch());
+		assertEquals(builds.get(1).getBranch(), "master");
+	}
+}
@@ -0,0 +1,144 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.model.Status;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for {@link LastBuildCache} using canned last build responses.
+ */
+public class LastBuildCacheTest {
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private volatile String status;
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requestCount.set(0);
+		status = "success";
+		server = new StandInServer();
+		server.createContext("/api/projects", this::handleLastBuild);
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleLastBuild(HttpExchange exchange) throws IOException {
+		try {
+			int buildNumber = requestCount.incrementAndGet();
+			String path = exchange.getRequestURI().getPath();
+			String branch = path.contains("/branch/")
+					? path.substring(path.lastIndexOf('/') + 1)
+					: "master";
+			String json = "{\"project\":{\"projectId\":1,\"slug\":\"proj\"},"
+					+ "\"build\":{\"buildId\":" + buildNumber
+					+ ",\"buildNumber\":" + buildNumber
+					+ ",\"branch\":\"" + branch + "\""
+					+ ",\"status\":\"" + status + "\"}}";
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void awaitRefreshes(LastBuildCache cache, long count)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (cache.getRefreshCount() < count
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(cache.getRefreshCount(), count);
+	}
+
+	private static int getBuildNumber(LastBuildCache cache, String branch)
+			throws ApiException {
+		return (branch == null ? cache.getLastBuild("acct", "proj")
+				: cache.getLastBuild("acct", "proj", branch))
+						.getBuild().getBuildNumber();
+	}
+
+	@Test
+	public void servesStaleWhileRefreshing() throws Exception {
+		LastBuildCache cache =
+				new LastBuildCache(apiClient, 10, 1, TimeUnit.MINUTES)
+						.setRefreshAfter(100, TimeUnit.MILLISECONDS);
+
+		assertEquals(getBuildNumber(cache, null), 1);
+		assertEquals(getBuildNumber(cache, null), 1);
+		assertEquals(requestCount.get(), 1);
+
+		Thread.sleep(150);
+		assertEquals(getBuildNumber(cache, null), 1);
+		awaitRefreshes(cache, 1);
+		assertEquals(getBuildNumber(cache, null), 2);
+		assertEquals(cache.getMissCount(), 1);
+	}
+
+	@Test
+	public void refreshesBuildsInProgressEarly() throws Exception {
+		status = Status.RUNNING.toString();
+		LastBuildCache cache =
+				new LastBuildCache(apiClient, 10, 1, TimeUnit.MINUTES)
+						.setInProgressRefreshAfter(50,
+								TimeUnit.MILLISECONDS);
+
+		assertEquals(getBuildNumber(cache, null), 1);
+		Thread.sleep(100);
+		status = Status.SUCCESS.toString();
+		getBuildNumber(cache, null);
+		awaitRefreshes(cache, 1);
+
+		// Completed build is not refreshed early
+		Thread.sleep(100);
+		assertEquals(getBuildNumber(cache, null), 2);
+		Thread.sleep(100);
+		assertEquals(cache.getRefreshCount(), 1);
+		assertEquals(requestCount.get(), 2);
+	}
+
+	@Test
+	public void cachesBranchesSeparately() throws ApiException {
+		LastBuildCache cache =
+				new LastBuildCache(apiClient, 10, 1, TimeUnit.MINUTES);
+
+		assertEquals(cache.getLastBuild("acct", "proj", "dev").getBuild()
+				.getBranch(), "dev");
+		assertEquals(cache.getLastBuild("acct", "proj").getBuild()
+				.getBranch(), "master");
+		cache.getLastBuild("acct", "proj", "dev");
+		assertEquals(requestCount.get(), 2);
+
+		cache.invalidate("acct", "proj");
+		cache.getLastBuild("acct", "proj", "dev");
+		cache.getLastBuild("acct", "proj");
+		assertEquals(requestCount.get(), 4);
+		assertEquals(cache.getHitCount(), 1);
+	}
+}
@@ -0,0 +1,143 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.BuildJob;
+import name.kevinlocke.appveyor.model.ProjectHistory;
+import name.kevinlocke.appveyor.model.Status;
+import name.kevinlocke.appveyor.testutils.AssertLosslessJson;
+
+/**
+ * Tests for decoding models with {@link LazyListTypeAdapterFactory}.
+ */
+public class LazyDecodingTest {
+	private static final String JOBS = "[{\"jobId\":\"abc\","
+			+ "\"name\":\"Environment: JDK=8 \u00e9\ud83d\ude00\","
+			+ "\"osType\":\"Windows\","
+			+ "\"allowFailure\":false,\"testsCount\":10,"
+			+ "\"status\":\"success\","
+			+ "\"started\":\"2017-06-07T08:09:10.1234567+00:00\"},"
+			+ "{\"jobId\":\"def\",\"status\":\"failed\"}]";
+	private static final String BUILD = "{\"buildId\":1,"
+			+ "\"version\":\"1.0.1\",\"status\":\"failed\","
+			+ "\"jobs\":" + JOBS + ","
+			+ "\"messages\":[]}";
+
+	private JSON json;
+
+	@BeforeMethod
+	public void setUp() {
+		// Asserts that decoded models serialize back to the same JSON
+		json = new AssertLosslessJson(new EnhancedApiClient());
+		json.setGson(json.getGson().newBuilder()
+				.registerTypeAdapterFactory(new LazyListTypeAdapterFactory())
+				.create());
+	}
+
+	@Test
+	public void decodesOnFirstAccess() {
+		Build build = json.deserialize(BUILD, Build.class);
+		assertEquals(build.getVersion(), "1.0.1");
+		assertEquals(build.getStatus(), Status.FAILED);
+
+		List<BuildJob> jobs = build.getJobs();
+		LazyListTypeAdapterFactory.LazyList<?> lazyJobs =
+				(LazyListTypeAdapterFactory.LazyList<?>) jobs;
+		assertEquals(jobs.size(), 2);
+		assertFalse(lazyJobs.isDecoded());
+		// Serialized from the retained JSON, with timestamp precision
+		assertEquals(new JsonParser().parse(json.serialize(jobs)),
+				new JsonParser().parse(JOBS));
+
+		assertEquals(jobs.get(0).getTestsCount(), Integer.valueOf(10));
+		assertEquals(jobs.get(0).getName(),
+				"Environment: JDK=8 \u00e9\ud83d\ude00");
+		assertEquals(jobs.get(1).getStatus(), Status.FAILED);
+		assertTrue(lazyJobs.isDecoded());
+		assertTrue(build.getMessages().isEmpty());
+	}
+
+	@Test
+	public void decodedListsAreMutable() {
+		Build build = json.deserialize(BUILD, Build.class);
+		List<BuildJob> jobs = build.getJobs();
+		jobs.remove(1);
+		jobs.add(new BuildJob().jobId("ghi"));
+		assertEquals(jobs.size(), 2);
+		assertEquals(jobs.get(1).getJobId(), "ghi");
+
+		Build reserialized = json.deserialize(json.serialize(build),
+				Build.class);
+		assertEquals(reserialized.getJobs(), jobs);
+	}
+
+	@Test
+	public void concurrentAccessUsesOneDecodedList() throws Exception {
+		int threadCount = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			for (int i = 0; i < 100; ++i) {
+				Build build = json.deserialize(BUILD, Build.class);
+				List<BuildJob> jobs = build.getJobs();
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<BuildJob>> firstJobs = new ArrayList<>();
+				for (int j = 0; j < threadCount; ++j) {
+					firstJobs.add(executor.submit(() -> {
+						start.await();
+						return jobs.get(0);
+					}));
+				}
+				start.countDown();
+				for (Future<BuildJob> firstJob : firstJobs) {
+					assertSame(firstJob.get(10, TimeUnit.SECONDS),
+							jobs.get(0));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void decodesNestedLists() throws IOException {
+		String historyJson = "{\"builds\":[" + BUILD + ","
+				+ "{\"buildId\":2,\"jobs\":[]}]}";
+		// Checked by AssertLosslessJson for both deserialize methods
+		ProjectHistory history =
+				json.deserialize(historyJson, ProjectHistory.class);
+		assertEquals(history.getBuilds().get(0).getJobs().size(), 2);
+		assertTrue(history.getBuilds().get(1).getJobs().isEmpty());
+
+		ProjectHistory streamed = ((EnhancedJSON) json).deserialize(
+				new StringReader(historyJson), ProjectHistory.class);
+		assertEquals(streamed, history);
+	}
+
+	@Test(expectedExceptions = JsonParseException.class)
+	public void throwsOnAccessForInvalidElements() {
+		Build build = json.deserialize(
+				"{\"jobs\":[{\"testsCount\":\"many\"}]}", Build.class);
+		assertEquals(build.getJobs().size(), 1);
+		build.getJobs().get(0);
+	}
+}
@@ -0,0 +1,336 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link LogArchive}.
+ */
+public class LogArchiveTest {
+	private File directory;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("appveyor-logs").toFile();
+	}
+
+	@AfterMethod
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory.toPath())) {
+			paths.sorted(Comparator.reverseOrder())
+					.map(Path::toFile)
+					.forEach(File::delete);
+		}
+	}
+
+	private LogArchive open() throws IOException {
+		return new LogArchive(directory, 90, TimeUnit.DAYS).setBlockSize(1024);
+	}
+
+	private static String log(String jobId, int lineCount) {
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < lineCount; ++i) {
+			log.append(jobId).append(" line ").append(i).append("\r\n");
+		}
+		return log.toString();
+	}
+
+	private static InputStream stream(String log) {
+		return new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readAll(InputStream input) throws IOException {
+		try (InputStream in = input) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[100];
+			int readCount;
+			while ((readCount = in.read(buffer)) != -1) {
+				output.write(buffer, 0, readCount);
+			}
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void storesAndReadsLogs() throws IOException {
+		String log1 = log("job1", 1000);
+		String log2 = "single line without terminator";
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream(log1));
+			archive.store("job2", stream(log2));
+			archive.store("empty", stream(""));
+
+			assertEquals(readAll(archive.openLog("job1")), log1);
+			assertEquals(readAll(archive.openLog("job2")), log2);
+			assertEquals(readAll(archive.openLog("empty")), "");
+			assertNull(archive.openLog("missing"));
+			assertEquals(archive.getSize("job1"), log1.length());
+			assertEquals(archive.getLineCount("job1"), 1000);
+			assertEquals(archive.getLineCount("job2"), 1);
+			assertEquals(archive.getLineCount("empty"), 0);
+			assertTrue(archive.getDiskSize() < log1.length() / 4);
+		}
+	}
+
+	@Test
+	public void readsLineRanges() throws IOException {
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream(log("job1", 1000)));
+
+			assertEquals(archive.readLines("job1", 0, 2),
+					Arrays.asList("job1 line 0", "job1 line 1"));
+			for (int from : new int[] { 57, 63, 64, 500, 998 }) {
+				List<String> lines = archive.readLines("job1", from, 3);
+				assertEquals(lines.get(0), "job1 line " + from);
+				assertEquals(lines.size(), Math.min(3, 1000 - from));
+			}
+			assertEquals(archive.readLines("job1", 1000, 3).size(), 0);
+			assertNull(archive.readLines("missing", 0, 1));
+		}
+	}
+
+	@Test
+	public void readsLinesLongerThanBlocks() throws IOException {
+		char[] longLine = new char[5000];
+		Arrays.fill(longLine, 'x');
+		String log = "first\n" + new String(longLine) + "\nlast";
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream(log));
+
+			assertEquals(archive.getLineCount("job1"), 3);
+			assertEquals(archive.readLines("job1", 1, 1),
+					Arrays.asList(new String(longLine)));
+			assertEquals(archive.readLines("job1", 2, 5),
+					Arrays.asList("last"));
+			assertEquals(readAll(archive.openLog("job1")), log);
+		}
+	}
+
+	@Test
+	public void reopensArchive() throws IOException {
+		try (LogArchive archive = open().setMaxSegmentSize(4096)) {
+			for (int i = 0; i < 20; ++i) {
+				archive.store("job" + i, stream(log("job" + i, 200)));
+			}
+			archive.store("job3", stream("replaced"));
+			assertTrue(archive.getSegmentCount() > 1);
+		}
+
+		try (LogArchive archive = open()) {
+			assertEquals(archive.getLogCount(), 20);
+			assertEquals(readAll(archive.openLog("job3")), "replaced");
+			assertEquals(readAll(archive.openLog("job19")), log("job19", 200));
+		}
+	}
+
+	@Test
+	public void discardsIncompleteRecord() throws IOException {
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream(log("job1", 10)));
+			archive.store("job2", stream(log("job2", 10)));
+		}
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		try (LogArchive archive = open()) {
+			assertEquals(readAll(archive.openLog("job1")), log("job1", 10));
+			assertFalse(archive.contains("job2"));
+			archive.store("job3", stream("after"));
+			assertEquals(readAll(archive.openLog("job3")), "after");
+		}
+	}
+
+	@Test
+	public void rejectsDamagedRecordInEarlierSegment() throws IOException {
+		try (LogArchive archive = open().setMaxSegmentSize(4096)) {
+			for (int i = 0; i < 20; ++i) {
+				archive.store("job" + i, stream(log("job" + i, 200)));
+			}
+			assertTrue(archive.getSegmentCount() > 1);
+		}
+		File segment = new File(directory, "00000000.seg");
+		long length = segment.length();
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			// Damage the magic number of the first record
+			file.write(0);
+		}
+
+		try {
+			open().close();
+			fail("Expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains(segment.getName()),
+					e.getMessage());
+		}
+		// Records after the damaged record are not discarded
+		assertEquals(segment.length(), length);
+	}
+
+	@Test
+	public void failedStoreLeavesArchiveUnchanged() throws IOException {
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream("old"));
+			long diskSize = archive.getDiskSize();
+			InputStream failing = new InputStream() {
+				private int count;
+
+				@Override
+				public int read() throws IOException {
+					if (++count > 5000) {
+						throw new IOException("test");
+					}
+					return 'a';
+				}
+			};
+			try {
+				archive.store("job1", failing);
+				fail("Expected IOException");
+			} catch (IOException e) {
+				assertEquals(e.getMessage(), "test");
+			}
+
+			assertEquals(archive.getDiskSize(), diskSize);
+			assertEquals(readAll(archive.openLog("job1")), "old");
+		}
+	}
+
+	@Test
+	public void storesWhileReadingSlowLog() throws Exception {
+		try (LogArchive archive = open()) {
+			CountDownLatch reading = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			InputStream slow = new InputStream() {
+				private int count;
+
+				@Override
+				public int read() throws IOException {
+					if (count == 100) {
+						reading.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new InterruptedIOException();
+						}
+					}
+					return ++count <= 3000 ? 'a' : -1;
+				}
+			};
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			try {
+				Future<?> slowStore = executor.submit(() -> {
+					archive.store("slow", slow);
+					return null;
+				});
+				assertTrue(reading.await(10, TimeUnit.SECONDS));
+				archive.store("fast", stream(log("fast", 10)));
+				assertEquals(readAll(archive.openLog("fast")), log("fast", 10));
+
+				release.countDown();
+				slowStore.get(10, TimeUnit.SECONDS);
+				assertEquals(archive.getSize("slow"), 3000);
+			} finally {
+				release.countDown();
+				executor.shutdownNow();
+			}
+		}
+
+		try (LogArchive archive = open()) {
+			assertEquals(readAll(archive.openLog("fast")), log("fast", 10));
+			assertEquals(archive.getSize("slow"), 3000);
+		}
+	}
+
+	@Test
+	public void discardsRecordTruncatedInBlock() throws IOException {
+		try (LogArchive archive = open()) {
+			archive.store("job1", stream(log("job1", 10)));
+			archive.store("job2", stream(log("job2", 1000)));
+		}
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.setLength(file.length() / 2);
+		}
+
+		try (LogArchive archive = open()) {
+			assertEquals(readAll(archive.openLog("job1")), log("job1", 10));
+			assertFalse(archive.contains("job2"));
+		}
+	}
+
+	@Test
+	public void expiresLogs() throws Exception {
+		try (LogArchive archive = new LogArchive(directory, 200,
+				TimeUnit.MILLISECONDS).setMaxSegmentSize(1)) {
+			archive.store("old", stream("old log"));
+			Thread.sleep(300);
+			archive.store("new", stream("new log"));
+
+			assertFalse(archive.contains("old"));
+			assertTrue(archive.contains("new"));
+			assertEquals(archive.expire(), 1);
+			assertEquals(archive.getLogCount(), 1);
+			assertEquals(archive.getSegmentCount(), 1);
+		}
+	}
+
+	@Test
+	public void compactsSparseSegments() throws IOException {
+		try (LogArchive archive = open().setMaxSegmentSize(2048)) {
+			// job9 is first, in a segment with logs which are replaced
+			archive.store("job9", stream(log("job9", 100)));
+			for (int i = 0; i < 9; ++i) {
+				archive.store("job" + i, stream(log("job" + i, 100)));
+			}
+			// Replace most logs, leaving old segments sparse
+			for (int i = 0; i < 8; ++i) {
+				archive.store("job" + i, stream("short " + i));
+			}
+			long diskSize = archive.getDiskSize();
+			InputStream reading = archive.openLog("job9");
+			assertEquals(reading.read(), 'j');
+
+			assertTrue(archive.compact(0.5) > 0);
+			assertTrue(archive.getDiskSize() < diskSize);
+			for (int i = 0; i < 8; ++i) {
+				assertEquals(readAll(archive.openLog("job" + i)), "short " + i);
+			}
+			assertEquals(readAll(archive.openLog("job8")), log("job8", 100));
+			// Stream opened before compaction continues from the copy
+			assertEquals("j" + readAll(reading), log("job9", 100));
+		}
+
+		try (LogArchive archive = open()) {
+			assertEquals(archive.getLogCount(), 10);
+			assertEquals(readAll(archive.openLog("job9")), log("job9", 100));
+		}
+	}
+}
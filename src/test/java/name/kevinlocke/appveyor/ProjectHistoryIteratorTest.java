@@ -0,0 +1,233 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Request;
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.ProjectApi;
+import name.kevinlocke.appveyor.model.Build;
+import name.kevinlocke.appveyor.model.ProjectHistory;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for paging through build history with
+ * {@link ProjectHistoryIterator}.
+ */
+public class ProjectHistoryIteratorTest {
+	private static final String HISTORY_PATH =
+			"/api/projects/account/project/history";
+	/** ID of the newest build.  Builds have IDs from 1 to this. */
+	private static final int BUILD_COUNT = 25;
+
+	/** Query strings of requests received, in order. */
+	private final List<String> requests =
+			Collections.synchronizedList(new ArrayList<>());
+	private volatile int failAfterRequests;
+
+	private StandInServer server;
+	private ProjectApi projectApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requests.clear();
+		failAfterRequests = Integer.MAX_VALUE;
+		server = new StandInServer();
+		server.createContext(HISTORY_PATH, this::handleHistory);
+
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		projectApi = new ProjectApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleHistory(HttpExchange exchange) throws IOException {
+		try {
+			String query = exchange.getRequestURI().getQuery();
+			requests.add(query);
+			if (requests.size() > failAfterRequests) {
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+
+			Map<String, String> params = new HashMap<>();
+			for (String param : query.split("&")) {
+				String[] nameValue = param.split("=", 2);
+				params.put(nameValue[0], nameValue[1]);
+			}
+			int recordsNumber = Integer.parseInt(params.get("recordsNumber"));
+			int startBuildId = params.containsKey("startBuildId")
+					? Integer.parseInt(params.get("startBuildId"))
+					: BUILD_COUNT + 1;
+
+			StringBuilder json = new StringBuilder(
+					"{\"project\":{\"projectId\":1},\"builds\":[");
+			for (int buildId = startBuildId - 1, count = 0;
+					buildId > 0 && count < recordsNumber;
+					--buildId, ++count) {
+				if (count > 0) {
+					json.append(',');
+				}
+				json.append("{\"buildId\":").append(buildId).append('}');
+			}
+			json.append("]}");
+
+			byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private ProjectHistoryIterator history() {
+		return new ProjectHistoryIterator(projectApi, "account", "project")
+				.setPageSize(10);
+	}
+
+	private void awaitRequests(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (requests.size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		// Allow time for unexpected requests
+		Thread.sleep(200);
+	}
+
+	@Test
+	public void iteratesAllBuilds() {
+		List<Integer> buildIds;
+		try (Stream<Build> builds = history().stream()) {
+			buildIds = builds.map(Build::getBuildId)
+					.collect(Collectors.toList());
+		}
+
+		assertEquals(buildIds.size(), BUILD_COUNT);
+		for (int i = 0; i < BUILD_COUNT; ++i) {
+			assertEquals(buildIds.get(i).intValue(), BUILD_COUNT - i);
+		}
+		assertEquals(requests.size(), 3);
+		assertEquals(requests.get(1), "recordsNumber=10&startBuildId=16");
+	}
+
+	@Test(timeOut = 10000)
+	public void callbackOnRequestingThread() {
+		// Completes each request before returning, as when a request joins a
+		// completed coalesced request
+		ProjectApi syncProjectApi = new ProjectApi(projectApi.getApiClient()) {
+			@Override
+			public Call getProjectHistoryAsync(String accountName,
+					String projectSlug, Integer recordsNumber,
+					Integer startBuildId, String branch,
+					ApiCallback<ProjectHistory> callback) throws ApiException {
+				ProjectHistory projectHistory = getProjectHistory(accountName,
+						projectSlug, recordsNumber, startBuildId, branch);
+				callback.onSuccess(projectHistory, 200,
+						Collections.emptyMap());
+				return getApiClient().getHttpClient().newCall(
+						new Request.Builder()
+							.url(server.getBasePath() + HISTORY_PATH)
+							.build());
+			}
+		};
+
+		List<Build> builds = new ArrayList<>();
+		try (ProjectHistoryIterator history = new ProjectHistoryIterator(
+				syncProjectApi, "account", "project").setPageSize(10)) {
+			history.forEachRemaining(builds::add);
+		}
+		assertEquals(builds.size(), BUILD_COUNT);
+		assertEquals(requests.size(), 3);
+	}
+
+	@Test
+	public void prefetchesUpToLimit() throws InterruptedException {
+		try (ProjectHistoryIterator history = history().setPrefetchPages(1)) {
+			assertEquals(requests.size(), 0);
+			assertEquals(history.next().getBuildId().intValue(), 25);
+
+			// Second page is requested while the first is iterated, but not
+			// the third until the second is reached
+			awaitRequests(2);
+			assertEquals(requests.size(), 2);
+
+			for (int i = 0; i < 9; ++i) {
+				history.next();
+			}
+			assertEquals(history.next().getBuildId().intValue(), 15);
+			awaitRequests(3);
+			assertEquals(requests.size(), 3);
+		}
+	}
+
+	@Test
+	public void maxBuildsLimitsRequests() throws InterruptedException {
+		List<Build> builds = new ArrayList<>();
+		try (ProjectHistoryIterator history = history().setMaxBuilds(12)) {
+			history.forEachRemaining(builds::add);
+		}
+		assertEquals(builds.size(), 12);
+		assertEquals(requests, Arrays.asList("recordsNumber=10",
+				"recordsNumber=2&startBuildId=16"));
+	}
+
+	@Test
+	public void closeStopsRequests() throws InterruptedException {
+		try (Stream<Build> builds = history().setPrefetchPages(1).stream()) {
+			assertEquals(builds.limit(3).count(), 3);
+		}
+		awaitRequests(2);
+		assertTrue(requests.size() <= 2);
+	}
+
+	@Test
+	public void failureIsThrown() {
+		failAfterRequests = 1;
+		ProjectHistoryIterator history = history();
+		for (int i = 0; i < 10; ++i) {
+			history.next();
+		}
+		try {
+			history.hasNext();
+			fail("Expected UncheckedApiException");
+		} catch (UncheckedApiException e) {
+			assertEquals(e.getCause().getCode(), 500);
+		}
+	}
+
+	@Test
+	public void emptyHistory() {
+		ProjectHistoryIterator history = history().setStartBuildId(1);
+		assertFalse(history.hasNext());
+		assertEquals(requests.size(), 1);
+	}
+}
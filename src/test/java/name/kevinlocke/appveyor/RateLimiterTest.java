@@ -0,0 +1,190 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.UserApi;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for throttling requests with {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+	private final AtomicInteger requestCount = new AtomicInteger();
+	/** Number of requests to respond to with 429. */
+	private volatile int throttleRequests;
+	private volatile String retryAfter;
+
+	private StandInServer server;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requestCount.set(0);
+		throttleRequests = 0;
+		retryAfter = null;
+		server = new StandInServer();
+		server.createContext("/api/users", this::handleUsers);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleUsers(HttpExchange exchange) throws IOException {
+		try {
+			if (requestCount.incrementAndGet() <= throttleRequests) {
+				if (retryAfter != null) {
+					exchange.getResponseHeaders().set("Retry-After",
+							retryAfter);
+				}
+				exchange.sendResponseHeaders(429, -1);
+				return;
+			}
+
+			String path = exchange.getRequestURI().getPath();
+			String json = path.equals("/api/users") ? "[]"
+					: "{\"user\":{\"userId\":1}}";
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private UserApi userApi(RateLimiter rateLimiter, String apiToken) {
+		EnhancedApiClient apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		apiClient.setApiKey(apiToken);
+		apiClient.setApiKeyPrefix("Bearer");
+		apiClient.setRateLimiter(rateLimiter);
+		return new UserApi(apiClient);
+	}
+
+	private static long elapsedMillis(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	@Test
+	public void limitsRate() throws ApiException {
+		RateLimiter rateLimiter = new RateLimiter(5, 2);
+		UserApi userApi = userApi(rateLimiter, "token");
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 6; ++i) {
+			userApi.getUsers();
+		}
+
+		// 2 requests at once, then 4 at 5 per second
+		assertTrue(elapsedMillis(start) >= 750);
+		assertEquals(rateLimiter.getRequestCount(), 6);
+		assertTrue(rateLimiter.getDelayedCount() >= 3);
+		assertTrue(rateLimiter.getTotalWait(TimeUnit.MILLISECONDS) >= 400);
+		assertTrue(rateLimiter.getMaxWait(TimeUnit.MILLISECONDS) >= 100);
+	}
+
+	@Test
+	public void limitsTokensSeparately() throws ApiException {
+		RateLimiter rateLimiter = new RateLimiter(0.5, 1)
+				.setTokenLimit("fast", 1000, 10);
+		UserApi userApi1 = userApi(rateLimiter, "token1");
+		UserApi userApi2 = userApi(rateLimiter, "token2");
+		UserApi fastApi = userApi(rateLimiter, "fast");
+
+		long start = System.nanoTime();
+		userApi1.getUsers();
+		userApi2.getUsers();
+		for (int i = 0; i < 5; ++i) {
+			fastApi.getUsers();
+		}
+		assertEquals(rateLimiter.getDelayedCount(), 0);
+		assertTrue(elapsedMillis(start) < 1500);
+	}
+
+	@Test
+	public void limitsOperations() throws ApiException {
+		RateLimiter rateLimiter = new RateLimiter(1000, 10)
+				.setOperationLimit("GET", "/users/{userId}", 10, 1);
+		UserApi userApi = userApi(rateLimiter, "token");
+
+		for (int i = 0; i < 5; ++i) {
+			userApi.getUsers();
+		}
+		assertEquals(rateLimiter.getDelayedCount(), 0);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; ++i) {
+			userApi.getUser(i);
+		}
+		assertTrue(elapsedMillis(start) >= 350);
+		assertTrue(rateLimiter.getDelayedCount() >= 3);
+	}
+
+	@Test
+	public void retriesAfterTooManyRequests() throws ApiException {
+		throttleRequests = 1;
+		retryAfter = "1";
+		RateLimiter rateLimiter = new RateLimiter(1000, 10);
+		UserApi userApi = userApi(rateLimiter, "token");
+
+		long start = System.nanoTime();
+		assertEquals(userApi.getUsers().size(), 0);
+		assertTrue(elapsedMillis(start) >= 900);
+		assertEquals(requestCount.get(), 2);
+		assertEquals(rateLimiter.getThrottledCount(), 1);
+		assertEquals(rateLimiter.getRequestCount(), 2);
+
+		// Later requests are not paused
+		start = System.nanoTime();
+		userApi.getUsers();
+		assertTrue(elapsedMillis(start) < 500);
+	}
+
+	@Test
+	public void returnsTooManyRequestsAfterMaxRetries() {
+		throttleRequests = Integer.MAX_VALUE;
+		retryAfter = "0";
+		RateLimiter rateLimiter = new RateLimiter(1000, 10).setMaxRetries(1);
+		UserApi userApi = userApi(rateLimiter, "token");
+
+		try {
+			userApi.getUsers();
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 429);
+		}
+		assertEquals(requestCount.get(), 2);
+		assertEquals(rateLimiter.getThrottledCount(), 2);
+	}
+
+	@Test
+	public void pausesWithDefaultRetryAfter() throws ApiException {
+		throttleRequests = 1;
+		RateLimiter rateLimiter = new RateLimiter(1000, 10)
+				.setDefaultRetryAfter(300, TimeUnit.MILLISECONDS);
+		UserApi userApi = userApi(rateLimiter, "token");
+
+		long start = System.nanoTime();
+		userApi.getUsers();
+		assertTrue(elapsedMillis(start) >= 250);
+		assertEquals(requestCount.get(), 2);
+	}
+}
@@ -0,0 +1,307 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.squareup.okhttp.Dispatcher;
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.UserApi;
+import name.kevinlocke.appveyor.model.UserAccount;
+import name.kevinlocke.appveyor.model.UserAddition;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for retrying failed requests with {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+	private static final String TIMEOUT_BODY =
+			"{\"message\":\"The operation has timed out.\"}";
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	/** Number of requests to respond to with errorStatus. */
+	private volatile int errorRequests;
+	private volatile int errorStatus;
+	private volatile String errorBody;
+	/** Number of the request to delay, counting from 1. */
+	private volatile int slowRequest;
+	/** Whether to delay every request. */
+	private volatile boolean allSlow;
+
+	private StandInServer server;
+	private EnhancedApiClient apiClient;
+	private UserApi userApi;
+
+	@BeforeMethod
+	public void start() throws IOException {
+		requestCount.set(0);
+		errorRequests = 0;
+		errorStatus = 500;
+		errorBody = TIMEOUT_BODY;
+		slowRequest = 0;
+		allSlow = false;
+		server = new StandInServer();
+		server.createContext("/api/users", this::handleUsers);
+
+		apiClient = new EnhancedApiClient();
+		apiClient.setBasePath(server.getBasePath());
+		userApi = new UserApi(apiClient);
+	}
+
+	@AfterMethod
+	public void stop() {
+		server.close();
+	}
+
+	private void handleUsers(HttpExchange exchange) throws IOException {
+		try {
+			int requestNumber = requestCount.incrementAndGet();
+			if (allSlow || requestNumber == slowRequest) {
+				try {
+					Thread.sleep(3000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			int status = 200;
+			String json = "[]";
+			if (requestNumber <= errorRequests) {
+				status = errorStatus;
+				json = errorBody;
+			}
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} catch (IOException e) {
+			// Client cancelled the request
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static RetryPolicy retryPolicy() {
+		return new RetryPolicy().setBackoff(1, 10, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void retriesTimeoutErrors() throws ApiException {
+		errorRequests = 2;
+		RetryPolicy retryPolicy = retryPolicy();
+		apiClient.setRetryPolicy("/users", retryPolicy);
+
+		assertEquals(userApi.getUsers().size(), 0);
+		assertEquals(requestCount.get(), 3);
+		assertEquals(retryPolicy.getRetryCount(), 2);
+	}
+
+	@Test
+	public void retriesWithUnlimitedErrorBodySize() throws ApiException {
+		errorRequests = 1;
+		apiClient.setMaxErrorBodySize(Long.MAX_VALUE);
+		apiClient.setRetryPolicy("/users", retryPolicy());
+
+		assertEquals(userApi.getUsers().size(), 0);
+		assertEquals(requestCount.get(), 2);
+	}
+
+	@Test
+	public void doesNotRetryOtherErrors() {
+		errorRequests = 1;
+		errorBody = "{\"message\":\"Something else.\"}";
+		apiClient.setRetryPolicy(retryPolicy());
+
+		try {
+			userApi.getUsers();
+			fail("Expected ApiExceptionWithModel");
+		} catch (ApiExceptionWithModel e) {
+			assertEquals(e.getResponseModel().getMessage(), "Something else.");
+		} catch (ApiException e) {
+			fail("Expected ApiExceptionWithModel", e);
+		}
+		assertEquals(requestCount.get(), 1);
+	}
+
+	@Test
+	public void doesNotRetryPost() {
+		errorRequests = 1;
+		errorStatus = 503;
+		apiClient.setRetryPolicy(retryPolicy());
+
+		try {
+			userApi.addUser(new UserAddition());
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 503);
+		}
+		assertEquals(requestCount.get(), 1);
+	}
+
+	@Test
+	public void returnsErrorAfterMaxRetries() {
+		errorRequests = Integer.MAX_VALUE;
+		errorStatus = 503;
+		apiClient.setRetryPolicy(retryPolicy().setMaxRetries(2));
+
+		try {
+			userApi.getUsers();
+			fail("Expected ApiException");
+		} catch (ApiException e) {
+			assertEquals(e.getCode(), 503);
+		}
+		assertEquals(requestCount.get(), 3);
+	}
+
+	@Test
+	public void hedgesSlowRequests() throws ApiException {
+		slowRequest = 1;
+		RetryPolicy retryPolicy = retryPolicy()
+				.setHedgeDelay(100, TimeUnit.MILLISECONDS);
+		apiClient.setRetryPolicy("/users", retryPolicy);
+
+		long start = System.nanoTime();
+		assertEquals(userApi.getUsers().size(), 0);
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(retryPolicy.getHedgeCount(), 1);
+		assertEquals(retryPolicy.getHedgeWinCount(), 1);
+	}
+
+	@Test
+	public void hedgesAfterLatencyPercentile() throws ApiException {
+		RetryPolicy retryPolicy = retryPolicy().setHedgePercentile(90);
+		apiClient.setRetryPolicy("/users", retryPolicy);
+
+		for (int i = 0; i < 20; ++i) {
+			userApi.getUsers();
+		}
+		assertEquals(retryPolicy.getHedgeCount(), 0);
+
+		slowRequest = 21;
+		long start = System.nanoTime();
+		userApi.getUsers();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(retryPolicy.getHedgeCount(), 1);
+		assertEquals(retryPolicy.getHedgeWinCount(), 1);
+	}
+
+	@Test
+	public void hedgesAfterResponseCache() throws ApiException {
+		slowRequest = 1;
+		HttpResponseCache responseCache = new HttpResponseCache(1 << 20)
+				.setFreshness("/users", 1, TimeUnit.MINUTES);
+		apiClient.setResponseCache(responseCache);
+		RetryPolicy retryPolicy = retryPolicy()
+				.setHedgeDelay(100, TimeUnit.MILLISECONDS);
+		apiClient.setRetryPolicy("/users", retryPolicy);
+
+		assertEquals(userApi.getUsers().size(), 0);
+		assertEquals(retryPolicy.getHedgeCount(), 1);
+		// Hedged requests do not pass through the cache again
+		assertEquals(responseCache.getMissCount(), 1);
+	}
+
+	@Test
+	public void reportsProgressOfHedgedCalls() throws Exception {
+		slowRequest = 1;
+		apiClient.setRetryPolicy("/users", retryPolicy()
+				.setHedgeDelay(100, TimeUnit.MILLISECONDS));
+
+		CountDownLatch downloadDone = new CountDownLatch(1);
+		userApi.getUsersAsync(new ApiCallback<List<UserAccount>>() {
+			@Override
+			public void onFailure(ApiException e, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+			}
+
+			@Override
+			public void onSuccess(List<UserAccount> result, int statusCode,
+					Map<String, List<String>> responseHeaders) {
+			}
+
+			@Override
+			public void onUploadProgress(long bytesWritten, long contentLength,
+					boolean done) {
+			}
+
+			@Override
+			public void onDownloadProgress(long bytesRead, long contentLength,
+					boolean done) {
+				if (done) {
+					downloadDone.countDown();
+				}
+			}
+		});
+		assertTrue(downloadDone.await(2, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void cancelsHedgedCalls() throws Exception {
+		allSlow = true;
+		RetryPolicy retryPolicy = retryPolicy()
+				.setHedgeDelay(100, TimeUnit.MILLISECONDS);
+		apiClient.setRetryPolicy("/users", retryPolicy);
+		Dispatcher dispatcher = apiClient.getHttpClient().getDispatcher();
+
+		CompletableFuture<List<UserAccount>> future =
+				new ApiFutures().call(userApi::getUsersAsync);
+		long start = System.nanoTime();
+		while (requestCount.get() < 2) {
+			assertTrue(System.nanoTime() - start
+					< TimeUnit.SECONDS.toNanos(2));
+			Thread.sleep(10);
+		}
+		assertTrue(future.cancel(true));
+
+		// The call stops waiting for the slow requests
+		while (dispatcher.getRunningCallCount() > 0) {
+			assertTrue(System.nanoTime() - start
+					< TimeUnit.SECONDS.toNanos(2));
+			Thread.sleep(10);
+		}
+		assertEquals(retryPolicy.getRetryCount(), 0);
+	}
+
+	@Test
+	public void classifiesRetryableExceptions() {
+		name.kevinlocke.appveyor.model.Error timeout =
+				new name.kevinlocke.appveyor.model.Error()
+						.message("Timeout expired.");
+		name.kevinlocke.appveyor.model.Error other =
+				new name.kevinlocke.appveyor.model.Error()
+						.message("Project not found.");
+		assertTrue(RetryPolicy.isRetryable(new ApiExceptionWithModel(
+				"Internal Server Error", 500,
+				Collections.<String, List<String>>emptyMap(),
+				TIMEOUT_BODY, timeout)));
+		assertFalse(RetryPolicy.isRetryable(new ApiExceptionWithModel(
+				"Internal Server Error", 500,
+				Collections.<String, List<String>>emptyMap(),
+				"", other)));
+		assertTrue(RetryPolicy.isRetryable(new ApiException(503, "")));
+		assertFalse(RetryPolicy.isRetryable(new ApiException(404, "")));
+		assertTrue(RetryPolicy.isRetryable(
+				new ApiException(new SocketTimeoutException())));
+	}
+}
@@ -0,0 +1,101 @@
+package name.kevinlocke.appveyor;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import name.kevinlocke.appveyor.api.RoleApi;
+import name.kevinlocke.appveyor.model.Role;
+import name.kevinlocke.appveyor.testutils.StandInServer;
+
+/**
+ * Tests for {@link VirtualThreads}, which are skipped where virtual threads
+ * are not supported.
+ */
+public class VirtualThreadsTest {
+	private static final int CONCURRENT_CALLS = 200;
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void newExecutorThrowsIfUnsupported() {
+		if (VirtualThreads.isSupported()) {
+			throw new SkipException("Virtual threads are supported");
+		}
+		VirtualThreads.newExecutor();
+	}
+
+	/**
+	 * Checks that asynchronous calls are not limited by the dispatcher, by
+	 * holding all responses until every request has been received.
+	 */
+	@Test
+	public void asyncCallsRunConcurrently() throws Exception {
+		if (!VirtualThreads.isSupported()) {
+			throw new SkipException("Virtual threads are not supported");
+		}
+
+		CountDownLatch allReceived = new CountDownLatch(CONCURRENT_CALLS);
+		try (StandInServer server = new StandInServer(
+				VirtualThreads.newExecutor(), CONCURRENT_CALLS)) {
+			server.createContext("/api/roles", exchange -> {
+				allReceived.countDown();
+				try {
+					allReceived.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				respond(exchange);
+			});
+
+			EnhancedApiClient apiClient = new EnhancedApiClient();
+			apiClient.setBasePath(server.getBasePath());
+			VirtualThreads.useVirtualThreads(apiClient.getHttpClient());
+			RoleApi roleApi = new RoleApi(apiClient);
+
+			ExecutorService executor = Executors.newCachedThreadPool();
+			try {
+				ApiFutures futures = new ApiFutures(executor);
+				List<CompletableFuture<List<Role>>> results = new ArrayList<>();
+				for (int i = 0; i < CONCURRENT_CALLS; ++i) {
+					CompletableFuture<List<Role>> result =
+							futures.call(roleApi::getRolesAsync);
+					results.add(result);
+				}
+				for (CompletableFuture<List<Role>> result : results) {
+					assertEquals(result.get(60, TimeUnit.SECONDS).size(), 1);
+				}
+				assertEquals(allReceived.getCount(), 0);
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private static void respond(HttpExchange exchange) throws IOException {
+		try {
+			byte[] body = "[{\"roleId\":1,\"name\":\"Administrator\"}]"
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream responseBody = exchange.getResponseBody()) {
+				responseBody.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+}
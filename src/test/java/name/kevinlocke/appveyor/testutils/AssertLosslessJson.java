@@ -1,5 +1,8 @@
 package name.kevinlocke.appveyor.testutils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.ArrayDeque;
 import java.util.Deque;
@@ -15,13 +18,13 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
 
 import name.kevinlocke.appveyor.ApiClient;
-import name.kevinlocke.appveyor.JSON;
+import name.kevinlocke.appveyor.EnhancedJSON;
 
 /**
  * JSON serializer/deserializer which asserts that deserialization is lossless
  * (i.e. that the result can be serialized back to the same JSON).
  */
-public class AssertLosslessJson extends JSON {
+public class AssertLosslessJson extends EnhancedJSON {
 	// Java 8-compatible String.join
 	private static String join(CharSequence delimiter,
 			Iterable<? extends CharSequence> elements) {
@@ -168,4 +171,23 @@ public class AssertLosslessJson extends JSON {
 		assertSameJson(body, result);
 		return result;
 	}
+
+	@Override
+	public <T> T deserialize(Reader body, Type returnType) throws IOException {
+		// Read the body so it can be compared with the result
+		StringBuilder bodyBuilder = new StringBuilder();
+		char[] buffer = new char[4096];
+		int nread = body.read(buffer);
+		while (nread >= 0) {
+			bodyBuilder.append(buffer, 0, nread);
+			nread = body.read(buffer);
+		}
+		String bodyString = bodyBuilder.toString();
+
+		T result = super.deserialize(new StringReader(bodyString), returnType);
+		if (result != null) {
+			assertSameJson(bodyString, result);
+		}
+		return result;
+	}
 }
@@ -0,0 +1,90 @@
+package name.kevinlocke.appveyor.testutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import name.kevinlocke.appveyor.ApiClient;
+
+/**
+ * HTTP server on the loopback interface which stands in for the API in
+ * tests which should not depend on the AppVeyor service.
+ *
+ * The server is started when constructed and handles requests on its own
+ * executor, which is shut down by {@link #close()}.
+ */
+public final class StandInServer implements Closeable {
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Starts a server which handles requests on a cached thread pool.
+	 *
+	 * @throws IOException If the server can not be bound.
+	 */
+	public StandInServer() throws IOException {
+		this(Executors.newCachedThreadPool(), 0);
+	}
+
+	/**
+	 * Starts a server which handles requests on a given executor.
+	 *
+	 * @param executor Executor which handles requests.  Shut down by
+	 * {@link #close()}.
+	 * @param backlog Maximum number of queued incoming connections, or 0 for
+	 * the system default.
+	 * @throws IOException If the server can not be bound.
+	 */
+	public StandInServer(ExecutorService executor, int backlog)
+			throws IOException {
+		this.executor = executor;
+		try {
+			server = HttpServer.create(
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+					backlog);
+		} catch (IOException | RuntimeException e) {
+			executor.shutdownNow();
+			throw e;
+		}
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * Handles requests for paths starting with a given prefix.
+	 *
+	 * @param path Path prefix, including the {@code /api} of the base path.
+	 * @param handler Handler for requests.
+	 * @return This server.
+	 */
+	public StandInServer createContext(String path, HttpHandler handler) {
+		server.createContext(path, handler);
+		return this;
+	}
+
+	/**
+	 * Gets the base path of the API on this server, for use with
+	 * {@link ApiClient#setBasePath(String)}.
+	 */
+	public String getBasePath() {
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getAddress().getHostAddress() + ':'
+				+ address.getPort() + "/api";
+	}
+
+	/**
+	 * Stops the server without waiting for exchanges to complete and shuts
+	 * down its executor.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}